@@ -837,6 +837,196 @@ CREATE FUNCTION prepare_superadmin() RETURNS void
  $$;
 
 
+--
+-- Name: refresh_warehouse_minimum_state(bigint, bigint); Type: FUNCTION; Schema: public; Owner: -
+--
+
+CREATE FUNCTION refresh_warehouse_minimum_state(_location_id bigint, _product_id bigint) RETURNS void
+    LANGUAGE plpgsql
+    AS $$
+DECLARE
+	_minimumstate numeric;
+	_quantity numeric;
+	_orderedquantity numeric;
+	_belowminimum boolean;
+	_wasbelowminimum boolean;
+BEGIN
+	IF _location_id IS NULL OR _product_id IS NULL THEN
+		RETURN;
+	END IF;
+
+	-- most products have no minimum state in warehouse, their resource and delivery changes don't need sums nor key row lock
+	IF NOT EXISTS (SELECT 1 FROM warehouseminimalstate_warehouseminimumstate
+			WHERE location_id = _location_id AND product_id = _product_id)
+		AND NOT EXISTS (SELECT 1 FROM warehouseminimalstate_minimumstateshortfall
+			WHERE location_id = _location_id AND product_id = _product_id) THEN
+		RETURN;
+	END IF;
+
+	-- row of key is locked before sums are read, so concurrent changes of the same key are applied one after another
+	INSERT INTO warehouseminimalstate_minimumstateshortfall (location_id, product_id)
+		VALUES (_location_id, _product_id) ON CONFLICT (location_id, product_id) DO NOTHING;
+
+	SELECT belowminimum INTO _wasbelowminimum FROM warehouseminimalstate_minimumstateshortfall
+		WHERE location_id = _location_id AND product_id = _product_id FOR UPDATE;
+
+	SELECT sum(minimumstate) INTO _minimumstate FROM warehouseminimalstate_warehouseminimumstate
+		WHERE location_id = _location_id AND product_id = _product_id;
+
+	SELECT COALESCE(sum(quantity), 0) INTO _quantity FROM materialflowresources_resource
+		WHERE location_id = _location_id AND product_id = _product_id;
+
+	SELECT COALESCE(sum(dop.orderedquantity), 0) INTO _orderedquantity
+		FROM deliveries_orderedproduct dop JOIN deliveries_delivery dd ON dop.delivery_id = dd.id
+		WHERE dd.location_id = _location_id AND dop.product_id = _product_id AND dd.active = true
+		AND dd.state IN ('01draft', '02prepared', '03duringCorrection', '05approved');
+
+	_belowminimum := COALESCE(_minimumstate, 0) > 0 AND _quantity + _orderedquantity < _minimumstate;
+
+	IF _minimumstate IS NULL THEN
+		DELETE FROM warehouseminimalstate_minimumstateshortfall WHERE location_id = _location_id AND product_id = _product_id;
+	ELSE
+		UPDATE warehouseminimalstate_minimumstateshortfall
+			SET minimumstate = _minimumstate, quantity = _quantity, orderedquantity = _orderedquantity,
+				belowminimum = _belowminimum, updatedate = now()
+			WHERE location_id = _location_id AND product_id = _product_id;
+	END IF;
+
+	IF _belowminimum <> _wasbelowminimum THEN
+		INSERT INTO warehouseminimalstate_minimumstateevent
+			(location_id, product_id, belowminimum, minimumstate, quantity, orderedquantity, createdate)
+			VALUES (_location_id, _product_id, _belowminimum, _minimumstate, _quantity, _orderedquantity, now());
+	END IF;
+END;
+$$;
+
+
+--
+-- Name: refresh_warehouse_minimum_state_delivery_trigger(); Type: FUNCTION; Schema: public; Owner: -
+--
+
+CREATE FUNCTION refresh_warehouse_minimum_state_delivery_trigger() RETURNS trigger
+    LANGUAGE plpgsql
+    AS $$
+DECLARE
+	_product_id bigint;
+BEGIN
+	IF OLD.state IS NOT DISTINCT FROM NEW.state AND OLD.active IS NOT DISTINCT FROM NEW.active
+		AND OLD.location_id IS NOT DISTINCT FROM NEW.location_id THEN
+		RETURN NULL;
+	END IF;
+
+	FOR _product_id IN SELECT DISTINCT product_id FROM deliveries_orderedproduct WHERE delivery_id = NEW.id
+	LOOP
+		PERFORM refresh_warehouse_minimum_state(OLD.location_id, _product_id);
+
+		IF OLD.location_id IS DISTINCT FROM NEW.location_id THEN
+			PERFORM refresh_warehouse_minimum_state(NEW.location_id, _product_id);
+		END IF;
+	END LOOP;
+
+	RETURN NULL;
+END;
+$$;
+
+
+--
+-- Name: refresh_warehouse_minimum_state_orderedproduct_trigger(); Type: FUNCTION; Schema: public; Owner: -
+--
+
+CREATE FUNCTION refresh_warehouse_minimum_state_orderedproduct_trigger() RETURNS trigger
+    LANGUAGE plpgsql
+    AS $$
+BEGIN
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		PERFORM refresh_warehouse_minimum_state((SELECT location_id FROM deliveries_delivery WHERE id = OLD.delivery_id),
+			OLD.product_id);
+	END IF;
+
+	IF TG_OP = 'INSERT' OR (TG_OP = 'UPDATE' AND (OLD.delivery_id IS DISTINCT FROM NEW.delivery_id
+		OR OLD.product_id IS DISTINCT FROM NEW.product_id)) THEN
+		PERFORM refresh_warehouse_minimum_state((SELECT location_id FROM deliveries_delivery WHERE id = NEW.delivery_id),
+			NEW.product_id);
+	END IF;
+
+	RETURN NULL;
+END;
+$$;
+
+
+--
+-- Name: refresh_warehouse_minimum_state_resource_trigger(); Type: FUNCTION; Schema: public; Owner: -
+--
+
+CREATE FUNCTION refresh_warehouse_minimum_state_resource_trigger() RETURNS trigger
+    LANGUAGE plpgsql
+    AS $$
+BEGIN
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		PERFORM refresh_warehouse_minimum_state(OLD.location_id, OLD.product_id);
+	END IF;
+
+	IF TG_OP = 'INSERT' OR (TG_OP = 'UPDATE' AND (OLD.location_id IS DISTINCT FROM NEW.location_id
+		OR OLD.product_id IS DISTINCT FROM NEW.product_id)) THEN
+		PERFORM refresh_warehouse_minimum_state(NEW.location_id, NEW.product_id);
+	END IF;
+
+	RETURN NULL;
+END;
+$$;
+
+
+--
+-- Name: refresh_warehouse_minimum_state_warehouseminimumstate_trigger(); Type: FUNCTION; Schema: public; Owner: -
+--
+
+CREATE FUNCTION refresh_warehouse_minimum_state_warehouseminimumstate_trigger() RETURNS trigger
+    LANGUAGE plpgsql
+    AS $$
+BEGIN
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		PERFORM refresh_warehouse_minimum_state(OLD.location_id, OLD.product_id);
+	END IF;
+
+	IF TG_OP = 'INSERT' OR (TG_OP = 'UPDATE' AND (OLD.location_id IS DISTINCT FROM NEW.location_id
+		OR OLD.product_id IS DISTINCT FROM NEW.product_id)) THEN
+		PERFORM refresh_warehouse_minimum_state(NEW.location_id, NEW.product_id);
+	END IF;
+
+	RETURN NULL;
+END;
+$$;
+
+
+--
+-- Name: update_pallet_resources_count_trigger(); Type: FUNCTION; Schema: public; Owner: -
+--
+
+CREATE FUNCTION update_pallet_resources_count_trigger() RETURNS trigger
+    LANGUAGE plpgsql
+    AS $$
+BEGIN
+	IF TG_OP = 'UPDATE' AND OLD.palletnumber_id IS NOT DISTINCT FROM NEW.palletnumber_id THEN
+		RETURN NULL;
+	END IF;
+
+	IF TG_OP IN ('UPDATE', 'DELETE') AND OLD.palletnumber_id IS NOT NULL THEN
+		UPDATE materialflowresources_palletresourcescount SET resourcescount = resourcescount - 1
+			WHERE palletnumber_id = OLD.palletnumber_id;
+	END IF;
+
+	IF TG_OP IN ('INSERT', 'UPDATE') AND NEW.palletnumber_id IS NOT NULL THEN
+		INSERT INTO materialflowresources_palletresourcescount (palletnumber_id, resourcescount)
+			VALUES (NEW.palletnumber_id, 1)
+			ON CONFLICT (palletnumber_id) DO UPDATE
+			SET resourcescount = materialflowresources_palletresourcescount.resourcescount + 1;
+	END IF;
+
+	RETURN NULL;
+END;
+$$;
+
+
 --
 -- Name: update_productionpershift_progressforday(); Type: FUNCTION; Schema: public; Owner: -
 --
@@ -8921,6 +9111,72 @@ CREATE SEQUENCE materialflow_transfer_id_seq
 ALTER SEQUENCE materialflow_transfer_id_seq OWNED BY materialflow_transfer.id;
 
 
+--
+-- Name: materialflow_stockledgerentry; Type: TABLE; Schema: public; Owner: -
+--
+
+CREATE TABLE materialflow_stockledgerentry (
+    id bigint NOT NULL,
+    location_id bigint,
+    product_id bigint,
+    "time" timestamp without time zone,
+    quantity numeric(12,5),
+    entityversion bigint DEFAULT 0
+);
+
+
+--
+-- Name: materialflow_stockledgerentry_id_seq; Type: SEQUENCE; Schema: public; Owner: -
+--
+
+CREATE SEQUENCE materialflow_stockledgerentry_id_seq
+    START WITH 1
+    INCREMENT BY 1
+    NO MINVALUE
+    NO MAXVALUE
+    CACHE 1;
+
+
+--
+-- Name: materialflow_stockledgerentry_id_seq; Type: SEQUENCE OWNED BY; Schema: public; Owner: -
+--
+
+ALTER SEQUENCE materialflow_stockledgerentry_id_seq OWNED BY materialflow_stockledgerentry.id;
+
+
+--
+-- Name: materialflow_stockcheckpoint; Type: TABLE; Schema: public; Owner: -
+--
+
+CREATE TABLE materialflow_stockcheckpoint (
+    id bigint NOT NULL,
+    location_id bigint,
+    product_id bigint,
+    day date,
+    quantity numeric(12,5),
+    entityversion bigint DEFAULT 0
+);
+
+
+--
+-- Name: materialflow_stockcheckpoint_id_seq; Type: SEQUENCE; Schema: public; Owner: -
+--
+
+CREATE SEQUENCE materialflow_stockcheckpoint_id_seq
+    START WITH 1
+    INCREMENT BY 1
+    NO MINVALUE
+    NO MAXVALUE
+    CACHE 1;
+
+
+--
+-- Name: materialflow_stockcheckpoint_id_seq; Type: SEQUENCE OWNED BY; Schema: public; Owner: -
+--
+
+ALTER SEQUENCE materialflow_stockcheckpoint_id_seq OWNED BY materialflow_stockcheckpoint.id;
+
+
 --
 -- Name: materialflow_transformations; Type: TABLE; Schema: public; Owner: -
 --
@@ -9485,6 +9741,16 @@ CREATE SEQUENCE materialflowresources_palletmovehelper_id_seq
 ALTER SEQUENCE materialflowresources_palletmovehelper_id_seq OWNED BY materialflowresources_palletmovehelper.id;
 
 
+--
+-- Name: materialflowresources_palletresourcescount; Type: TABLE; Schema: public; Owner: -
+--
+
+CREATE TABLE materialflowresources_palletresourcescount (
+    palletnumber_id bigint NOT NULL,
+    resourcescount integer DEFAULT 0 NOT NULL
+);
+
+
 --
 -- Name: materialflowresources_resource; Type: TABLE; Schema: public; Owner: -
 --
@@ -14568,6 +14834,48 @@ CREATE SEQUENCE productioncounting_staffworktime_id_seq
 ALTER SEQUENCE productioncounting_staffworktime_id_seq OWNED BY productioncounting_staffworktime.id;
 
 
+--
+-- Name: productioncounting_productionbalancefact; Type: TABLE; Schema: public; Owner: -
+--
+
+CREATE TABLE productioncounting_productionbalancefact (
+    id bigint NOT NULL,
+    order_id bigint,
+    technologyoperationcomponent_id bigint,
+    product_id bigint,
+    wasteunit character varying(255),
+    worker_id bigint,
+    usedquantity numeric(12,5) DEFAULT 0::numeric,
+    wasteusedquantity numeric(12,5) DEFAULT 0::numeric,
+    producedquantity numeric(12,5) DEFAULT 0::numeric,
+    wastesquantity numeric(12,5) DEFAULT 0::numeric,
+    labortime integer DEFAULT 0,
+    machinetime integer DEFAULT 0,
+    executedoperationcycles numeric(12,5) DEFAULT 0::numeric,
+    recordscount integer DEFAULT 0,
+    entityversion bigint DEFAULT 0
+);
+
+
+--
+-- Name: productioncounting_productionbalancefact_id_seq; Type: SEQUENCE; Schema: public; Owner: -
+--
+
+CREATE SEQUENCE productioncounting_productionbalancefact_id_seq
+    START WITH 1
+    INCREMENT BY 1
+    NO MINVALUE
+    NO MAXVALUE
+    CACHE 1;
+
+
+--
+-- Name: productioncounting_productionbalancefact_id_seq; Type: SEQUENCE OWNED BY; Schema: public; Owner: -
+--
+
+ALTER SEQUENCE productioncounting_productionbalancefact_id_seq OWNED BY productioncounting_productionbalancefact.id;
+
+
 --
 -- Name: productioncounting_trackingoperationproductcomponentdto_id_seq; Type: SEQUENCE; Schema: public; Owner: -
 --
@@ -17835,6 +18143,76 @@ CREATE SEQUENCE warehouseminimalstate_warehouseminimumstate_id_seq
 ALTER SEQUENCE warehouseminimalstate_warehouseminimumstate_id_seq OWNED BY warehouseminimalstate_warehouseminimumstate.id;
 
 
+--
+-- Name: warehouseminimalstate_minimumstateevent; Type: TABLE; Schema: public; Owner: -
+--
+
+CREATE TABLE warehouseminimalstate_minimumstateevent (
+    id bigint NOT NULL,
+    location_id bigint,
+    product_id bigint,
+    belowminimum boolean,
+    minimumstate numeric(12,5),
+    quantity numeric,
+    orderedquantity numeric,
+    createdate timestamp without time zone
+);
+
+
+--
+-- Name: warehouseminimalstate_minimumstateevent_id_seq; Type: SEQUENCE; Schema: public; Owner: -
+--
+
+CREATE SEQUENCE warehouseminimalstate_minimumstateevent_id_seq
+    START WITH 1
+    INCREMENT BY 1
+    NO MINVALUE
+    NO MAXVALUE
+    CACHE 1;
+
+
+--
+-- Name: warehouseminimalstate_minimumstateevent_id_seq; Type: SEQUENCE OWNED BY; Schema: public; Owner: -
+--
+
+ALTER SEQUENCE warehouseminimalstate_minimumstateevent_id_seq OWNED BY warehouseminimalstate_minimumstateevent.id;
+
+
+--
+-- Name: warehouseminimalstate_minimumstateshortfall; Type: TABLE; Schema: public; Owner: -
+--
+
+CREATE TABLE warehouseminimalstate_minimumstateshortfall (
+    id bigint NOT NULL,
+    location_id bigint NOT NULL,
+    product_id bigint NOT NULL,
+    minimumstate numeric(12,5) DEFAULT 0,
+    quantity numeric DEFAULT 0,
+    orderedquantity numeric DEFAULT 0,
+    belowminimum boolean DEFAULT false NOT NULL,
+    updatedate timestamp without time zone
+);
+
+
+--
+-- Name: warehouseminimalstate_minimumstateshortfall_id_seq; Type: SEQUENCE; Schema: public; Owner: -
+--
+
+CREATE SEQUENCE warehouseminimalstate_minimumstateshortfall_id_seq
+    START WITH 1
+    INCREMENT BY 1
+    NO MINVALUE
+    NO MAXVALUE
+    CACHE 1;
+
+
+--
+-- Name: warehouseminimalstate_minimumstateshortfall_id_seq; Type: SEQUENCE OWNED BY; Schema: public; Owner: -
+--
+
+ALTER SEQUENCE warehouseminimalstate_minimumstateshortfall_id_seq OWNED BY warehouseminimalstate_minimumstateshortfall.id;
+
+
 --
 -- Name: warehouseminimalstate_warehouseminimumstatemulti; Type: TABLE; Schema: public; Owner: -
 --
@@ -19362,6 +19740,20 @@ ALTER TABLE ONLY materialflow_stockcorrection ALTER COLUMN id SET DEFAULT nextva
 ALTER TABLE ONLY materialflow_transfer ALTER COLUMN id SET DEFAULT nextval('materialflow_transfer_id_seq'::regclass);
 
 
+--
+-- Name: id; Type: DEFAULT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY materialflow_stockledgerentry ALTER COLUMN id SET DEFAULT nextval('materialflow_stockledgerentry_id_seq'::regclass);
+
+
+--
+-- Name: id; Type: DEFAULT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY materialflow_stockcheckpoint ALTER COLUMN id SET DEFAULT nextval('materialflow_stockcheckpoint_id_seq'::regclass);
+
+
 --
 -- Name: id; Type: DEFAULT; Schema: public; Owner: -
 --
@@ -20097,6 +20489,13 @@ ALTER TABLE ONLY productioncounting_settrackingoperationproductincomponents ALTE
 ALTER TABLE ONLY productioncounting_staffworktime ALTER COLUMN id SET DEFAULT nextval('productioncounting_staffworktime_id_seq'::regclass);
 
 
+--
+-- Name: id; Type: DEFAULT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY productioncounting_productionbalancefact ALTER COLUMN id SET DEFAULT nextval('productioncounting_productionbalancefact_id_seq'::regclass);
+
+
 --
 -- Name: id; Type: DEFAULT; Schema: public; Owner: -
 --
@@ -20727,6 +21126,20 @@ ALTER TABLE ONLY walusiak_exportdocumenthistory ALTER COLUMN id SET DEFAULT next
 ALTER TABLE ONLY warehouseminimalstate_warehouseminimumstate ALTER COLUMN id SET DEFAULT nextval('warehouseminimalstate_warehouseminimumstate_id_seq'::regclass);
 
 
+--
+-- Name: id; Type: DEFAULT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY warehouseminimalstate_minimumstateevent ALTER COLUMN id SET DEFAULT nextval('warehouseminimalstate_minimumstateevent_id_seq'::regclass);
+
+
+--
+-- Name: id; Type: DEFAULT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY warehouseminimalstate_minimumstateshortfall ALTER COLUMN id SET DEFAULT nextval('warehouseminimalstate_minimumstateshortfall_id_seq'::regclass);
+
+
 --
 -- Name: id; Type: DEFAULT; Schema: public; Owner: -
 --
@@ -24135,6 +24548,36 @@ COPY materialflow_transfer (id, number, type, "time", locationfrom_id, locationt
 SELECT pg_catalog.setval('materialflow_transfer_id_seq', 1, false);
 
 
+--
+-- Data for Name: materialflow_stockledgerentry; Type: TABLE DATA; Schema: public; Owner: -
+--
+
+COPY materialflow_stockledgerentry (id, location_id, product_id, "time", quantity, entityversion) FROM stdin;
+\.
+
+
+--
+-- Name: materialflow_stockledgerentry_id_seq; Type: SEQUENCE SET; Schema: public; Owner: -
+--
+
+SELECT pg_catalog.setval('materialflow_stockledgerentry_id_seq', 1, false);
+
+
+--
+-- Data for Name: materialflow_stockcheckpoint; Type: TABLE DATA; Schema: public; Owner: -
+--
+
+COPY materialflow_stockcheckpoint (id, location_id, product_id, day, quantity, entityversion) FROM stdin;
+\.
+
+
+--
+-- Name: materialflow_stockcheckpoint_id_seq; Type: SEQUENCE SET; Schema: public; Owner: -
+--
+
+SELECT pg_catalog.setval('materialflow_stockcheckpoint_id_seq', 1, false);
+
+
 --
 -- Data for Name: materialflow_transformations; Type: TABLE DATA; Schema: public; Owner: -
 --
@@ -24392,6 +24835,14 @@ SELECT pg_catalog.setval('materialflowresources_palletstoragestatedetailsdto_id_
 SELECT pg_catalog.setval('materialflowresources_palletstoragestatedto_id_seq', 1, false);
 
 
+--
+-- Data for Name: materialflowresources_palletresourcescount; Type: TABLE DATA; Schema: public; Owner: -
+--
+
+COPY materialflowresources_palletresourcescount (palletnumber_id, resourcescount) FROM stdin;
+\.
+
+
 --
 -- Data for Name: materialflowresources_position; Type: TABLE DATA; Schema: public; Owner: -
 --
@@ -26091,6 +26542,21 @@ COPY productioncounting_staffworktime (id, productionrecord_id, worker_id, labor
 SELECT pg_catalog.setval('productioncounting_staffworktime_id_seq', 1, false);
 
 
+--
+-- Data for Name: productioncounting_productionbalancefact; Type: TABLE DATA; Schema: public; Owner: -
+--
+
+COPY productioncounting_productionbalancefact (id, order_id, technologyoperationcomponent_id, product_id, wasteunit, worker_id, usedquantity, wasteusedquantity, producedquantity, wastesquantity, labortime, machinetime, executedoperationcycles, recordscount, entityversion) FROM stdin;
+\.
+
+
+--
+-- Name: productioncounting_productionbalancefact_id_seq; Type: SEQUENCE SET; Schema: public; Owner: -
+--
+
+SELECT pg_catalog.setval('productioncounting_productionbalancefact_id_seq', 1, false);
+
+
 --
 -- Name: productioncounting_trackingoperationproductcomponentdto_id_seq; Type: SEQUENCE SET; Schema: public; Owner: -
 --
@@ -28160,6 +28626,36 @@ COPY warehouseminimalstate_warehouseminimumstate (id, product_id, location_id, m
 SELECT pg_catalog.setval('warehouseminimalstate_warehouseminimumstate_id_seq', 1, false);
 
 
+--
+-- Data for Name: warehouseminimalstate_minimumstateevent; Type: TABLE DATA; Schema: public; Owner: -
+--
+
+COPY warehouseminimalstate_minimumstateevent (id, location_id, product_id, belowminimum, minimumstate, quantity, orderedquantity, createdate) FROM stdin;
+\.
+
+
+--
+-- Name: warehouseminimalstate_minimumstateevent_id_seq; Type: SEQUENCE SET; Schema: public; Owner: -
+--
+
+SELECT pg_catalog.setval('warehouseminimalstate_minimumstateevent_id_seq', 1, false);
+
+
+--
+-- Data for Name: warehouseminimalstate_minimumstateshortfall; Type: TABLE DATA; Schema: public; Owner: -
+--
+
+COPY warehouseminimalstate_minimumstateshortfall (id, location_id, product_id, minimumstate, quantity, orderedquantity, belowminimum, updatedate) FROM stdin;
+\.
+
+
+--
+-- Name: warehouseminimalstate_minimumstateshortfall_id_seq; Type: SEQUENCE SET; Schema: public; Owner: -
+--
+
+SELECT pg_catalog.setval('warehouseminimalstate_minimumstateshortfall_id_seq', 1, false);
+
+
 --
 -- Data for Name: warehouseminimalstate_warehouseminimumstatemulti; Type: TABLE DATA; Schema: public; Owner: -
 --
@@ -29991,6 +30487,43 @@ ALTER TABLE ONLY materialflow_transfer
     ADD CONSTRAINT materialflow_transfer_pkey PRIMARY KEY (id);
 
 
+--
+-- Name: materialflow_stockledgerentry_pkey; Type: CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY materialflow_stockledgerentry
+    ADD CONSTRAINT materialflow_stockledgerentry_pkey PRIMARY KEY (id);
+
+
+--
+-- Name: materialflow_stockledgerentry_location_product_time_idx; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE INDEX materialflow_stockledgerentry_location_product_time_idx ON materialflow_stockledgerentry USING btree (location_id, product_id, "time");
+
+
+--
+-- Name: materialflow_stockcheckpoint_pkey; Type: CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY materialflow_stockcheckpoint
+    ADD CONSTRAINT materialflow_stockcheckpoint_pkey PRIMARY KEY (id);
+
+
+--
+-- Name: materialflow_stockcheckpoint_location_product_day_idx; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE UNIQUE INDEX materialflow_stockcheckpoint_location_product_day_idx ON materialflow_stockcheckpoint USING btree (location_id, product_id, day);
+
+
+--
+-- Name: materialflow_stockcorrection_location_product_date_idx; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE INDEX materialflow_stockcorrection_location_product_date_idx ON materialflow_stockcorrection USING btree (location_id, product_id, stockcorrectiondate);
+
+
 --
 -- Name: materialflow_transformations_pkey; Type: CONSTRAINT; Schema: public; Owner: -
 --
@@ -30087,6 +30620,14 @@ ALTER TABLE ONLY materialflowresources_palletmovehelper
     ADD CONSTRAINT materialflowresources_palletmovehelper_pkey PRIMARY KEY (id);
 
 
+--
+-- Name: materialflowresources_palletresourcescount_pkey; Type: CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY materialflowresources_palletresourcescount
+    ADD CONSTRAINT materialflowresources_palletresourcescount_pkey PRIMARY KEY (palletnumber_id);
+
+
 --
 -- Name: materialflowresources_positionaddmultihelper_pkey; Type: CONSTRAINT; Schema: public; Owner: -
 --
@@ -30879,6 +31420,21 @@ ALTER TABLE ONLY productioncounting_staffworktime
     ADD CONSTRAINT productioncounting_staffworktime_pkey PRIMARY KEY (id);
 
 
+--
+-- Name: productioncounting_productionbalancefact_pkey; Type: CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY productioncounting_productionbalancefact
+    ADD CONSTRAINT productioncounting_productionbalancefact_pkey PRIMARY KEY (id);
+
+
+--
+-- Name: productioncounting_productionbalancefact_order_id_idx; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE INDEX productioncounting_productionbalancefact_order_id_idx ON productioncounting_productionbalancefact USING btree (order_id);
+
+
 --
 -- Name: productioncountingquantity_unique; Type: CONSTRAINT; Schema: public; Owner: -
 --
@@ -30959,6 +31515,20 @@ ALTER TABLE ONLY productionscheduling_opercomptimecalculation
     ADD CONSTRAINT productionscheduling_opercomptimecalculation_pkey PRIMARY KEY (id);
 
 
+--
+-- Name: opercomptimecalculation_ordertimecalculation_id_idx; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE INDEX opercomptimecalculation_ordertimecalculation_id_idx ON productionscheduling_opercomptimecalculation USING btree (ordertimecalculation_id);
+
+
+--
+-- Name: opercomptimecalculation_effectivedateto_idx; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE INDEX opercomptimecalculation_effectivedateto_idx ON productionscheduling_opercomptimecalculation USING btree (effectivedateto);
+
+
 --
 -- Name: productionscheduling_ordertimecalculation_pkey; Type: CONSTRAINT; Schema: public; Owner: -
 --
@@ -30967,6 +31537,13 @@ ALTER TABLE ONLY productionscheduling_ordertimecalculation
     ADD CONSTRAINT productionscheduling_ordertimecalculation_pkey PRIMARY KEY (id);
 
 
+--
+-- Name: productionscheduling_ordertimecalculation_order_id_idx; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE INDEX productionscheduling_ordertimecalculation_order_id_idx ON productionscheduling_ordertimecalculation USING btree (order_id);
+
+
 --
 -- Name: qcadoocustomtranslation_customtranslation_pkey; Type: CONSTRAINT; Schema: public; Owner: -
 --
@@ -31599,6 +32176,44 @@ ALTER TABLE ONLY warehouseminimalstate_warehouseminimumstate
     ADD CONSTRAINT warehouseminimalstate_warehouseminimumstate_pkey PRIMARY KEY (id);
 
 
+--
+-- Name: warehouseminimalstate_minimumstateevent_pkey; Type: CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY warehouseminimalstate_minimumstateevent
+    ADD CONSTRAINT warehouseminimalstate_minimumstateevent_pkey PRIMARY KEY (id);
+
+
+--
+-- Name: warehouseminimalstate_minimumstateshortfall_pkey; Type: CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY warehouseminimalstate_minimumstateshortfall
+    ADD CONSTRAINT warehouseminimalstate_minimumstateshortfall_pkey PRIMARY KEY (id);
+
+
+--
+-- Name: minimumstateshortfall_location_product_unique; Type: CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY warehouseminimalstate_minimumstateshortfall
+    ADD CONSTRAINT minimumstateshortfall_location_product_unique UNIQUE (location_id, product_id);
+
+
+--
+-- Name: minimumstateshortfall_belowminimum_idx; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE INDEX minimumstateshortfall_belowminimum_idx ON warehouseminimalstate_minimumstateshortfall USING btree (location_id, product_id) WHERE belowminimum;
+
+
+--
+-- Name: warehouseminimumstate_location_product_idx; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE INDEX warehouseminimumstate_location_product_idx ON warehouseminimalstate_warehouseminimumstate USING btree (location_id, product_id);
+
+
 --
 -- Name: warehouseminimalstate_warehouseminimumstatemulti_pkey; Type: CONSTRAINT; Schema: public; Owner: -
 --
@@ -31969,6 +32584,20 @@ CREATE RULE "_RETURN" AS
   GROUP BY scale.id;
 
 
+--
+-- Name: materialflowresources_resource_location_product_idx; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE INDEX materialflowresources_resource_location_product_idx ON materialflowresources_resource USING btree (location_id, product_id);
+
+
+--
+-- Name: deliveries_orderedproduct_product_idx; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE INDEX deliveries_orderedproduct_product_idx ON deliveries_orderedproduct USING btree (product_id, delivery_id);
+
+
 --
 -- Name: assignmenttoshift_assignmenttoshift_trigger_externalnumber; Type: TRIGGER; Schema: public; Owner: -
 --
@@ -31983,6 +32612,20 @@ CREATE TRIGGER assignmenttoshift_assignmenttoshift_trigger_externalnumber BEFORE
 CREATE TRIGGER cmmsmachineparts_maintenanceevent_trigger_number BEFORE INSERT ON cmmsmachineparts_maintenanceevent FOR EACH ROW EXECUTE PROCEDURE generate_and_set_maintenanceevent_number_trigger();
 
 
+--
+-- Name: deliveries_delivery_trigger_warehouseminimumstate; Type: TRIGGER; Schema: public; Owner: -
+--
+
+CREATE TRIGGER deliveries_delivery_trigger_warehouseminimumstate AFTER UPDATE OF state, active, location_id ON deliveries_delivery FOR EACH ROW EXECUTE PROCEDURE refresh_warehouse_minimum_state_delivery_trigger();
+
+
+--
+-- Name: deliveries_orderedproduct_trigger_warehouseminimumstate; Type: TRIGGER; Schema: public; Owner: -
+--
+
+CREATE TRIGGER deliveries_orderedproduct_trigger_warehouseminimumstate AFTER INSERT OR DELETE OR UPDATE OF orderedquantity, delivery_id, product_id ON deliveries_orderedproduct FOR EACH ROW EXECUTE PROCEDURE refresh_warehouse_minimum_state_orderedproduct_trigger();
+
+
 --
 -- Name: goodfood_confectionprotocol_trigger_externalnumber; Type: TRIGGER; Schema: public; Owner: -
 --
@@ -32011,6 +32654,20 @@ CREATE TRIGGER goodfood_pallet_trigger_externalnumber BEFORE INSERT ON goodfood_
 CREATE TRIGGER materialflowresources_document_trigger_number BEFORE INSERT ON materialflowresources_document FOR EACH ROW EXECUTE PROCEDURE generate_and_set_document_number_trigger();
 
 
+--
+-- Name: materialflowresources_resource_trigger_palletresourcescount; Type: TRIGGER; Schema: public; Owner: -
+--
+
+CREATE TRIGGER materialflowresources_resource_trigger_palletresourcescount AFTER INSERT OR DELETE OR UPDATE OF palletnumber_id ON materialflowresources_resource FOR EACH ROW EXECUTE PROCEDURE update_pallet_resources_count_trigger();
+
+
+--
+-- Name: materialflowresources_resource_trigger_warehouseminimumstate; Type: TRIGGER; Schema: public; Owner: -
+--
+
+CREATE TRIGGER materialflowresources_resource_trigger_warehouseminimumstate AFTER INSERT OR DELETE OR UPDATE OF quantity, location_id, product_id ON materialflowresources_resource FOR EACH ROW EXECUTE PROCEDURE refresh_warehouse_minimum_state_resource_trigger();
+
+
 --
 -- Name: repairs_repairorder_trigger_number; Type: TRIGGER; Schema: public; Owner: -
 --
@@ -32018,6 +32675,13 @@ CREATE TRIGGER materialflowresources_document_trigger_number BEFORE INSERT ON ma
 CREATE TRIGGER repairs_repairorder_trigger_number BEFORE INSERT ON repairs_repairorder FOR EACH ROW EXECUTE PROCEDURE generate_and_set_repairorder_number_trigger();
 
 
+--
+-- Name: warehouseminimalstate_warehouseminimumstate_trigger_refresh; Type: TRIGGER; Schema: public; Owner: -
+--
+
+CREATE TRIGGER warehouseminimalstate_warehouseminimumstate_trigger_refresh AFTER INSERT OR DELETE OR UPDATE OF minimumstate, location_id, product_id ON warehouseminimalstate_warehouseminimumstate FOR EACH ROW EXECUTE PROCEDURE refresh_warehouse_minimum_state_warehouseminimumstate_trigger();
+
+
 --
 -- Name: action_subassembly_action_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
 --
@@ -34066,6 +34730,38 @@ ALTER TABLE ONLY materialflow_transfer
     ADD CONSTRAINT fk8c32fdf5d8bb7bc1 FOREIGN KEY (transformationsconsumption_id) REFERENCES materialflow_transformations(id) DEFERRABLE;
 
 
+--
+-- Name: materialflow_sle_location_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY materialflow_stockledgerentry
+    ADD CONSTRAINT materialflow_sle_location_fkey FOREIGN KEY (location_id) REFERENCES materialflow_location(id) DEFERRABLE;
+
+
+--
+-- Name: materialflow_sle_product_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY materialflow_stockledgerentry
+    ADD CONSTRAINT materialflow_sle_product_fkey FOREIGN KEY (product_id) REFERENCES basic_product(id) DEFERRABLE;
+
+
+--
+-- Name: materialflow_scp_location_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY materialflow_stockcheckpoint
+    ADD CONSTRAINT materialflow_scp_location_fkey FOREIGN KEY (location_id) REFERENCES materialflow_location(id) DEFERRABLE;
+
+
+--
+-- Name: materialflow_scp_product_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY materialflow_stockcheckpoint
+    ADD CONSTRAINT materialflow_scp_product_fkey FOREIGN KEY (product_id) REFERENCES basic_product(id) DEFERRABLE;
+
+
 --
 -- Name: fk9b37ca9470d83278; Type: FK CONSTRAINT; Schema: public; Owner: -
 --
@@ -36114,6 +36810,14 @@ ALTER TABLE ONLY jointable_palletnumber_palletnumberhelper
     ADD CONSTRAINT palletnumber_palletnumberhelper_palletnumber_fkey FOREIGN KEY (palletnumber_id) REFERENCES basic_palletnumber(id) DEFERRABLE;
 
 
+--
+-- Name: palletresourcescount_palletnumber_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY materialflowresources_palletresourcescount
+    ADD CONSTRAINT palletresourcescount_palletnumber_fkey FOREIGN KEY (palletnumber_id) REFERENCES basic_palletnumber(id) ON DELETE CASCADE DEFERRABLE;
+
+
 --
 -- Name: palletnumber_palletnumberhelper_palletnumberhelper_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
 --
@@ -36442,6 +37146,38 @@ ALTER TABLE ONLY productioncounting_staffworktime
     ADD CONSTRAINT pc_swt_pc_productionrecord_fkey FOREIGN KEY (productionrecord_id) REFERENCES productioncounting_productiontracking(id) DEFERRABLE;
 
 
+--
+-- Name: pc_pbf_orders_order_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY productioncounting_productionbalancefact
+    ADD CONSTRAINT pc_pbf_orders_order_fkey FOREIGN KEY (order_id) REFERENCES orders_order(id) DEFERRABLE;
+
+
+--
+-- Name: pc_pbf_technologies_toc_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY productioncounting_productionbalancefact
+    ADD CONSTRAINT pc_pbf_technologies_toc_fkey FOREIGN KEY (technologyoperationcomponent_id) REFERENCES technologies_technologyoperationcomponent(id) DEFERRABLE;
+
+
+--
+-- Name: pc_pbf_basic_product_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY productioncounting_productionbalancefact
+    ADD CONSTRAINT pc_pbf_basic_product_fkey FOREIGN KEY (product_id) REFERENCES basic_product(id) DEFERRABLE;
+
+
+--
+-- Name: pc_pbf_basic_staff_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY productioncounting_productionbalancefact
+    ADD CONSTRAINT pc_pbf_basic_staff_fkey FOREIGN KEY (worker_id) REFERENCES basic_staff(id) DEFERRABLE;
+
+
 --
 -- Name: placeofissue_warehouseissue_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
 --
@@ -0,0 +1,79 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.benchmarks;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+/**
+ * Local PostgreSQL database used by benchmarks. Synthetic tables are created in separate schema, which is set as search path,
+ * so benchmarked queries use the same table names as the application and don't touch MES data even if pointed at MES database.
+ * Connection is configured with system properties:
+ * 
+ * <pre>
+ * -Dbenchmark.jdbcUrl=jdbc:postgresql://localhost:5432/mes_benchmarks -Dbenchmark.user=postgres -Dbenchmark.password=postgres
+ * </pre>
+ */
+final class BenchmarkDatabase implements AutoCloseable {
+
+    private static final String L_SCHEMA = "mes_benchmarks";
+
+    private final SingleConnectionDataSource dataSource;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private BenchmarkDatabase(final SingleConnectionDataSource dataSource) {
+        this.dataSource = dataSource;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    static BenchmarkDatabase open() {
+        SingleConnectionDataSource dataSource = new SingleConnectionDataSource(System.getProperty("benchmark.jdbcUrl",
+                "jdbc:postgresql://localhost:5432/mes_benchmarks"), System.getProperty("benchmark.user", "postgres"),
+                System.getProperty("benchmark.password", "postgres"), true);
+
+        BenchmarkDatabase database = new BenchmarkDatabase(dataSource);
+
+        database.execute("CREATE SCHEMA IF NOT EXISTS " + L_SCHEMA, "SET search_path TO " + L_SCHEMA);
+
+        return database;
+    }
+
+    void execute(final String... statements) {
+        for (String statement : statements) {
+            jdbcTemplate.execute(statement);
+        }
+    }
+
+    NamedParameterJdbcTemplate getNamedParameterJdbcTemplate() {
+        return new NamedParameterJdbcTemplate(jdbcTemplate);
+    }
+
+    @Override
+    public void close() {
+        dataSource.destroy();
+    }
+
+}
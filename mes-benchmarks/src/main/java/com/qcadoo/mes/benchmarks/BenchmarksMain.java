@@ -0,0 +1,68 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.benchmarks;
+
+import java.util.Arrays;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs benchmarks of this module, accepts all JMH command line options. When result format isn't given, results are written
+ * as JSON to jmh-result.json, so runs can be compared between builds.
+ *
+ * <pre>
+ * java -Dbenchmark.jdbcUrl=jdbc:postgresql://localhost:5432/mes_benchmarks -jar mes-benchmarks/target/benchmarks.jar \
+ *     [benchmark regexp] [-p resources=10000,100000] [-rf json -rff results.json]
+ * </pre>
+ */
+public final class BenchmarksMain {
+
+    private static final String L_RESULT_FILE = "jmh-result.json";
+
+    private BenchmarksMain() {
+    }
+
+    public static void main(final String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+
+        ChainedOptionsBuilder optionsBuilder = new OptionsBuilder().parent(commandLineOptions);
+
+        if (!Arrays.asList(args).contains("-rf")) {
+            optionsBuilder.resultFormat(ResultFormatType.JSON);
+
+            if (!Arrays.asList(args).contains("-rff")) {
+                optionsBuilder.result(L_RESULT_FILE);
+            }
+        }
+
+        new Runner(optionsBuilder.build()).run();
+    }
+
+}
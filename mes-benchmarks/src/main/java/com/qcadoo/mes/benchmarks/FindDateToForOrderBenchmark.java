@@ -0,0 +1,115 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.benchmarks;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.qcadoo.mes.basic.ShiftsServiceImpl;
+import com.qcadoo.mes.basic.shift.WorkingTimeCalendarService;
+
+/**
+ * End dates of orders computed from synthetic shifts. Orders start at consecutive hours of a year, so calendar has to cover
+ * the whole year. Warm benchmark reuses compiled calendar, like most calls do, cold one drops it before each call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class FindDateToForOrderBenchmark {
+
+    private static final int L_HOURS_IN_YEAR = 365 * 24;
+
+    @Param({ "1", "3" })
+    private int shifts;
+
+    @Param({ "0", "50" })
+    private int exceptionsPerShift;
+
+    @Param({ "8", "720" })
+    private int workingHours;
+
+    private ShiftsServiceImpl shiftsService;
+
+    private WorkingTimeCalendarService workingTimeCalendarService;
+
+    private Date[] dates;
+
+    private int index;
+
+    @Setup
+    public void setUp() {
+        InMemoryModel model = new InMemoryModel();
+        DateTime from = new DateTime(2026, 1, 5, 0, 0);
+
+        SyntheticData.createShifts(model, shifts, exceptionsPerShift, from.toDate());
+
+        shiftsService = new ShiftsServiceImpl();
+        workingTimeCalendarService = new WorkingTimeCalendarService();
+
+        Beans.inject(workingTimeCalendarService, "dataDefinitionService", model.createDataDefinitionService());
+        Beans.inject(workingTimeCalendarService, "shiftsService", shiftsService);
+        Beans.inject(shiftsService, "workingTimeCalendarService", workingTimeCalendarService);
+
+        dates = new Date[L_HOURS_IN_YEAR];
+
+        for (int hour = 0; hour < L_HOURS_IN_YEAR; hour++) {
+            dates[hour] = from.plusHours(hour).plusMinutes(17).toDate();
+        }
+    }
+
+    @Benchmark
+    public Date findDateToForOrderWarm() {
+        return shiftsService.findDateToForOrder(nextDate(), workingHours * 3600L);
+    }
+
+    @Benchmark
+    public Date findDateToForOrderCold() {
+        workingTimeCalendarService.invalidate();
+
+        return shiftsService.findDateToForOrder(nextDate(), workingHours * 3600L);
+    }
+
+    private Date nextDate() {
+        index = (index + 1) % L_HOURS_IN_YEAR;
+
+        return dates[index];
+    }
+
+}
@@ -0,0 +1,424 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.DictionaryService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+import com.qcadoo.model.api.EntityTree;
+import com.qcadoo.model.api.EntityTreeNode;
+import com.qcadoo.model.api.NumberService;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchQueryBuilder;
+import com.qcadoo.model.api.search.SearchResult;
+
+/**
+ * Plain in-memory stand-ins of model API, so services can be benchmarked without Hibernate and application context. Entities
+ * keep their fields in a map, data definitions keep created entities by id. Only methods used by benchmarked code paths are
+ * implemented, any other call fails with {@link UnsupportedOperationException}, so benchmark doesn't silently measure
+ * something else.
+ */
+final class InMemoryModel {
+
+    private static final String L_PARENT = "parent";
+
+    private static final String L_CHILDREN = "children";
+
+    private final Map<String, DataDefinition> dataDefinitions = Maps.newHashMap();
+
+    private final Map<DataDefinition, Map<Long, Entity>> entities = Maps.newHashMap();
+
+    private long lastId;
+
+    DataDefinition getDataDefinition(final String pluginIdentifier, final String modelName) {
+        return dataDefinitions.computeIfAbsent(pluginIdentifier + "." + modelName,
+                key -> proxy(DataDefinition.class, new DataDefinitionHandler(pluginIdentifier, modelName)));
+    }
+
+    /**
+     * Creates entity with next id and given fields, entities can be passed as values of belongs to fields and lists of entities
+     * as values of has many fields.
+     */
+    Entity createEntity(final String pluginIdentifier, final String modelName, final Object... fieldsAndValues) {
+        return createEntityWithId(++lastId, pluginIdentifier, modelName, fieldsAndValues);
+    }
+
+    /**
+     * Creates entity with given id, for entities which have to match rows of {@link BenchmarkDatabase}.
+     */
+    Entity createEntityWithId(final Long id, final String pluginIdentifier, final String modelName,
+            final Object... fieldsAndValues) {
+        DataDefinition dataDefinition = getDataDefinition(pluginIdentifier, modelName);
+        Entity entity = newEntity(dataDefinition, id);
+
+        for (int i = 0; i < fieldsAndValues.length; i += 2) {
+            entity.setField((String) fieldsAndValues[i], fieldsAndValues[i + 1]);
+        }
+
+        entities.computeIfAbsent(dataDefinition, key -> Maps.newLinkedHashMap()).put(entity.getId(), entity);
+
+        return entity;
+    }
+
+    /**
+     * Creates tree of given entities, linked with parent fields. Children of each node are put into its children field.
+     */
+    @SuppressWarnings("unchecked")
+    EntityTree createTree(final List<Entity> nodes) {
+        for (Entity node : nodes) {
+            node.setField(L_CHILDREN, Lists.newArrayList());
+        }
+        for (Entity node : nodes) {
+            Entity parent = node.getBelongsToField(L_PARENT);
+
+            if (Objects.nonNull(parent)) {
+                ((List<Entity>) parent.getField(L_CHILDREN)).add(node);
+            }
+        }
+
+        return proxy(EntityTree.class, new ListHandler(nodes) {
+
+            @Override
+            Object invokeOther(final Method method, final Object[] args) {
+                if ("getRoot".equals(method.getName())) {
+                    return nodes.stream().filter(node -> Objects.isNull(node.getBelongsToField(L_PARENT))).findFirst()
+                            .map(InMemoryModel::treeNode).orElse(null);
+                }
+
+                throw unsupported(method);
+            }
+
+        });
+    }
+
+    DataDefinitionService createDataDefinitionService() {
+        return proxy(DataDefinitionService.class, (proxy, method, args) -> {
+            if ("get".equals(method.getName()) && (args != null) && (args.length == 2)) {
+                return getDataDefinition((String) args[0], (String) args[1]);
+            }
+
+            return invokeObjectMethod(proxy, method, args);
+        });
+    }
+
+    static NumberService createNumberService() {
+        return proxy(NumberService.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getMathContext":
+                    return MathContext.DECIMAL64;
+                case "setScaleWithDefaultMathContext":
+                    if (Objects.isNull(args[0])) {
+                        return null;
+                    }
+
+                    int scale = (args.length > 1) ? (Integer) args[1] : NumberService.DEFAULT_MAX_FRACTION_DIGITS_IN_DECIMAL;
+
+                    return ((BigDecimal) args[0]).setScale(scale, RoundingMode.HALF_EVEN);
+                default:
+                    return invokeObjectMethod(proxy, method, args);
+            }
+        });
+    }
+
+    static DictionaryService createDictionaryService() {
+        return proxy(DictionaryService.class, (proxy, method, args) -> {
+            if ("checkIfUnitIsInteger".equals(method.getName())) {
+                return false;
+            }
+
+            return invokeObjectMethod(proxy, method, args);
+        });
+    }
+
+    private static Entity newEntity(final DataDefinition dataDefinition, final Long id) {
+        return proxy(Entity.class, new EntityHandler(dataDefinition, id));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static EntityTreeNode treeNode(final Entity entity) {
+        return proxy(EntityTreeNode.class, (proxy, method, args) -> {
+            if ("getChildren".equals(method.getName())) {
+                return ((List<Entity>) entity.getField(L_CHILDREN)).stream().map(InMemoryModel::treeNode)
+                        .collect(Collectors.toList());
+            }
+
+            return invoke(entity, method, args);
+        });
+    }
+
+    private static EntityList entityList(final List<Entity> list) {
+        return proxy(EntityList.class, new ListHandler(list));
+    }
+
+    private static <T> T proxy(final Class<T> type, final InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(InMemoryModel.class.getClassLoader(), new Class<?>[] { type }, handler));
+    }
+
+    private static Object invoke(final Object target, final Method method, final Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static Object invokeObjectMethod(final Object proxy, final Method method, final Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return method.getDeclaringClass().getSimpleName() + "@" + System.identityHashCode(proxy);
+            default:
+                throw unsupported(method);
+        }
+    }
+
+    private static UnsupportedOperationException unsupported(final Method method) {
+        return new UnsupportedOperationException(method.getDeclaringClass().getSimpleName() + "." + method.getName());
+    }
+
+    private final class DataDefinitionHandler implements InvocationHandler {
+
+        private final String pluginIdentifier;
+
+        private final String name;
+
+        private DataDefinitionHandler(final String pluginIdentifier, final String name) {
+            this.pluginIdentifier = pluginIdentifier;
+            this.name = name;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) {
+            DataDefinition dataDefinition = (DataDefinition) proxy;
+
+            switch (method.getName()) {
+                case "getName":
+                    return name;
+                case "getPluginIdentifier":
+                    return pluginIdentifier;
+                case "create":
+                    return newEntity(dataDefinition, (args == null) ? null : (Long) args[0]);
+                case "get":
+                    return getEntities(dataDefinition).get(args[0]);
+                case "getField":
+                    return null;
+                case "find":
+                    if (args == null) {
+                        return searchBuilder(SearchCriteriaBuilder.class, dataDefinition);
+                    }
+
+                    // query isn't parsed, like restrictions of criteria
+                    return searchBuilder(SearchQueryBuilder.class, dataDefinition);
+                case "toString":
+                    return pluginIdentifier + "." + name;
+                default:
+                    return invokeObjectMethod(proxy, method, args);
+            }
+        }
+
+        private Map<Long, Entity> getEntities(final DataDefinition dataDefinition) {
+            return entities.getOrDefault(dataDefinition, Collections.emptyMap());
+        }
+
+        private <T> T searchBuilder(final Class<T> type, final DataDefinition dataDefinition) {
+            List<Entity> found = Lists.newArrayList(getEntities(dataDefinition).values());
+
+            return proxy(type, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "list":
+                        return searchResult(found);
+                    case "uniqueResult":
+                        return found.isEmpty() ? null : found.get(0);
+                    default:
+                        if (method.getReturnType().isInstance(proxy)) {
+                            // restrictions, orders and limits aren't applied, benchmarks register only entities they search for
+                            return proxy;
+                        }
+
+                        return invokeObjectMethod(proxy, method, args);
+                }
+            });
+        }
+
+        private SearchResult searchResult(final List<Entity> found) {
+            return proxy(SearchResult.class, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getEntities":
+                        return found;
+                    case "getTotalNumberOfEntities":
+                        return found.size();
+                    default:
+                        return invokeObjectMethod(proxy, method, args);
+                }
+            });
+        }
+
+    }
+
+    private static final class EntityHandler implements InvocationHandler {
+
+        private final DataDefinition dataDefinition;
+
+        private final Map<String, Object> fields = Maps.newHashMap();
+
+        private Long id;
+
+        private boolean valid = true;
+
+        private EntityHandler(final DataDefinition dataDefinition, final Long id) {
+            this.dataDefinition = dataDefinition;
+            this.id = id;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) {
+            switch (method.getName()) {
+                case "getId":
+                    return id;
+                case "setId":
+                    id = (Long) args[0];
+
+                    return null;
+                case "getDataDefinition":
+                    return dataDefinition;
+                case "getFields":
+                    return fields;
+                case "setField":
+                    fields.put((String) args[0], args[1]);
+
+                    return null;
+                case "getField":
+                    return fields.get(args[0]);
+                case "getStringField":
+                    return Objects.toString(fields.get(args[0]), null);
+                case "getBooleanField":
+                    return getBooleanField((String) args[0]);
+                case "getDecimalField":
+                    return getDecimalField((String) args[0]);
+                case "getIntegerField":
+                    return (Integer) fields.get(args[0]);
+                case "getDateField":
+                    return (Date) fields.get(args[0]);
+                case "getBelongsToField":
+                    return getBelongsToField((String) args[0]);
+                case "getHasManyField":
+                    return entityList(getEntities((String) args[0]));
+                case "getTreeField":
+                    return fields.get(args[0]);
+                case "isValid":
+                    return valid;
+                case "addError":
+                case "addGlobalError":
+                    valid = false;
+
+                    return null;
+                default:
+                    return invokeObjectMethod(proxy, method, args);
+            }
+        }
+
+        private boolean getBooleanField(final String fieldName) {
+            Object value = fields.get(fieldName);
+
+            if (value instanceof Boolean) {
+                return (Boolean) value;
+            }
+
+            return (value != null) && ("1".equals(value.toString()) || "true".equals(value.toString()));
+        }
+
+        private BigDecimal getDecimalField(final String fieldName) {
+            Object value = fields.get(fieldName);
+
+            if ((value == null) || (value instanceof BigDecimal)) {
+                return (BigDecimal) value;
+            }
+
+            return new BigDecimal(value.toString());
+        }
+
+        private Entity getBelongsToField(final String fieldName) {
+            Object value = fields.get(fieldName);
+
+            if (value instanceof Long) {
+                return newEntity(null, (Long) value);
+            }
+
+            return (Entity) value;
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<Entity> getEntities(final String fieldName) {
+            List<Entity> value = (List<Entity>) fields.get(fieldName);
+
+            return (value == null) ? Collections.emptyList() : value;
+        }
+
+    }
+
+    private static class ListHandler implements InvocationHandler {
+
+        private final List<Entity> list;
+
+        private ListHandler(final List<Entity> list) {
+            this.list = list;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            if (method.getDeclaringClass().isInstance(list)) {
+                return InMemoryModel.invoke(list, method, args);
+            }
+
+            return invokeOther(method, args);
+        }
+
+        Object invokeOther(final Method method, final Object[] args) {
+            throw unsupported(method);
+        }
+
+    }
+
+}
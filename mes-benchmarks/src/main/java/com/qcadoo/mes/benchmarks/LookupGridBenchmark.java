@@ -0,0 +1,119 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.qcadoo.mes.basic.GridResponse;
+import com.qcadoo.mes.basic.LookupUtils;
+import com.qcadoo.mes.basic.controllers.dataProvider.dto.ProductDTO;
+
+/**
+ * Lookup grid of synthetic products, sorted by number, first page and paging through first pages one by one, without filter
+ * and with name filter. Runs against {@link BenchmarkDatabase}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LookupGridBenchmark {
+
+    private static final String L_QUERY = "SELECT %s FROM (SELECT id, number, name FROM basic_product %s) q";
+
+    private static final int L_PAGES = 20;
+
+    private static final int L_PER_PAGE = 20;
+
+    @Param({ "10000", "100000", "1000000" })
+    private int products;
+
+    @Param({ "", "bolt" })
+    private String name;
+
+    @Param({ "0", "30" })
+    private int countCacheSeconds;
+
+    private BenchmarkDatabase database;
+
+    private LookupUtils lookupUtils;
+
+    @Setup
+    public void setUp() {
+        database = BenchmarkDatabase.open();
+
+        SyntheticData.createProducts(database, products);
+
+        lookupUtils = new LookupUtils();
+
+        Beans.inject(lookupUtils, "jdbcTemplate", database.getNamedParameterJdbcTemplate());
+        Beans.inject(lookupUtils, "countCacheSeconds", countCacheSeconds);
+    }
+
+    @TearDown
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public GridResponse<ProductDTO> firstPage() {
+        return getPage(1);
+    }
+
+    @Benchmark
+    public int nextPages() {
+        int rows = 0;
+
+        for (int page = 1; page <= L_PAGES; page++) {
+            rows += getPage(page).getRows().size();
+        }
+
+        return rows;
+    }
+
+    private GridResponse<ProductDTO> getPage(final int page) {
+        ProductDTO record = new ProductDTO();
+
+        if (!name.isEmpty()) {
+            record.setName(name);
+        }
+
+        return lookupUtils.getGridResponse(L_QUERY, "number", "asc", page, L_PER_PAGE, record);
+    }
+
+}
@@ -0,0 +1,220 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.ShiftsServiceImpl;
+import com.qcadoo.mes.basic.TimetableExceptionService;
+import com.qcadoo.mes.basic.shift.WorkingTimeCalendarService;
+import com.qcadoo.mes.lineChangeoverNorms.ChangeoverNormsMatrixService;
+import com.qcadoo.mes.operationTimeCalculations.OrderRealizationTimeService;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.orders.constants.OrdersConstants;
+import com.qcadoo.mes.orders.states.constants.OrderStateStringValues;
+import com.qcadoo.mes.productionLines.constants.ProductionLinesConstants;
+import com.qcadoo.mes.productionScheduling.BatchOrderSchedulingService;
+import com.qcadoo.mes.productionScheduling.OrdersSchedulingResult;
+import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityTreeNode;
+
+/**
+ * Scheduling of pending orders spread over production lines with {@link BatchOrderSchedulingService}, from reading orders to
+ * the update of their dates, which is the operation behind schedule orders button of orders planning list. Durations of
+ * technologies are fixed per technology and changeover between different technologies takes half an hour, so benchmark
+ * measures ordering of orders, walking working time calendars of lines and writing dates, not norm calculation. Orders table
+ * runs against {@link BenchmarkDatabase}, each invocation writes the same dates again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderSchedulingBenchmark {
+
+    private static final int L_CHANGEOVER_SECONDS = 1800;
+
+    @Param({ "1000", "10000" })
+    private int orders;
+
+    @Param({ "20" })
+    private int productionLines;
+
+    @Param({ "50" })
+    private int technologies;
+
+    @Param({ "1", "3" })
+    private int shifts;
+
+    private BenchmarkDatabase database;
+
+    private BatchOrderSchedulingService batchOrderSchedulingService;
+
+    private List<Long> ordersIds;
+
+    private Date dateFrom;
+
+    @Setup
+    public void setUp() {
+        database = BenchmarkDatabase.open();
+
+        database.execute("DROP TABLE IF EXISTS orders_order",
+                "CREATE TABLE orders_order (id bigint PRIMARY KEY, state varchar(255), productionline_id bigint, "
+                        + "technology_id bigint, technologyprototype_id bigint, startdate timestamp, finishdate timestamp, "
+                        + "datefrom timestamp, dateto timestamp, entityversion bigint DEFAULT 0)",
+                String.format("INSERT INTO orders_order (id, state, productionline_id) SELECT g, '%s', 1 + g %% %d "
+                        + "FROM generate_series(1, %d) g", OrderStateStringValues.PENDING, productionLines, orders),
+                "CREATE INDEX ON orders_order (productionline_id, finishdate)", "ANALYZE orders_order");
+
+        InMemoryModel model = new InMemoryModel();
+
+        dateFrom = new DateTime(2026, 1, 5, 6, 0).toDate();
+
+        SyntheticData.createShifts(model, shifts, 0, dateFrom);
+
+        Random random = new Random(SyntheticData.L_SEED);
+
+        List<Entity> lines = Lists.newArrayList();
+        List<Entity> createdTechnologies = Lists.newArrayList();
+        Map<Long, Integer> unitDurations = Maps.newHashMap();
+
+        for (int i = 0; i < productionLines; i++) {
+            lines.add(model.createEntity(ProductionLinesConstants.PLUGIN_IDENTIFIER,
+                    ProductionLinesConstants.MODEL_PRODUCTION_LINE));
+        }
+
+        for (int i = 0; i < technologies; i++) {
+            Entity operationComponent = model.createEntity(TechnologiesConstants.PLUGIN_IDENTIFIER,
+                    TechnologiesConstants.MODEL_TECHNOLOGY_OPERATION_COMPONENT);
+            Entity technology = model.createEntity(TechnologiesConstants.PLUGIN_IDENTIFIER,
+                    TechnologiesConstants.MODEL_TECHNOLOGY, TechnologyFields.OPERATION_COMPONENTS,
+                    model.createTree(Lists.newArrayList(operationComponent)));
+
+            createdTechnologies.add(technology);
+            unitDurations.put(operationComponent.getId(), 30 + random.nextInt(600));
+        }
+
+        ordersIds = Lists.newArrayList();
+
+        for (long id = 1; id <= orders; id++) {
+            Entity order = model.createEntityWithId(id, OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER,
+                    OrderFields.NUMBER, String.format("O%08d", id), OrderFields.STATE, OrderStateStringValues.PENDING,
+                    OrderFields.PRODUCTION_LINE, lines.get((int) (id % productionLines)), OrderFields.TECHNOLOGY,
+                    createdTechnologies.get(random.nextInt(technologies)), OrderFields.PLANNED_QUANTITY,
+                    BigDecimal.valueOf(1 + random.nextInt(50)), OrderFields.DEADLINE,
+                    new DateTime(dateFrom).plusDays(random.nextInt(90)).toDate());
+
+            ordersIds.add(order.getId());
+        }
+
+        DataDefinitionService dataDefinitionService = model.createDataDefinitionService();
+        ShiftsServiceImpl shiftsService = new ShiftsServiceImpl();
+        WorkingTimeCalendarService workingTimeCalendarService = new WorkingTimeCalendarService();
+
+        Beans.inject(workingTimeCalendarService, "dataDefinitionService", dataDefinitionService);
+        Beans.inject(workingTimeCalendarService, "shiftsService", shiftsService);
+        Beans.inject(workingTimeCalendarService, "timetableExceptionService", new TimetableExceptionService() {
+
+            @Override
+            public List<Entity> findFor(final List<Long> productionLineIds, final List<Long> shiftIds, final Date date,
+                    final String type) {
+                return Lists.newArrayList();
+            }
+
+        });
+        Beans.inject(shiftsService, "workingTimeCalendarService", workingTimeCalendarService);
+
+        batchOrderSchedulingService = new BatchOrderSchedulingService();
+
+        Beans.inject(batchOrderSchedulingService, "dataDefinitionService", dataDefinitionService);
+        Beans.inject(batchOrderSchedulingService, "jdbcTemplate", database.getNamedParameterJdbcTemplate());
+        Beans.inject(batchOrderSchedulingService, "workingTimeCalendarService", workingTimeCalendarService);
+        Beans.inject(batchOrderSchedulingService, "orderRealizationTimeService",
+                createOrderRealizationTimeService(unitDurations));
+        Beans.inject(batchOrderSchedulingService, "changeoverNormsMatrixService", new ChangeoverNormsMatrixService() {
+
+            @Override
+            public int getDuration(final Entity fromTechnology, final Entity toTechnology, final Entity productionLine) {
+                if (Objects.isNull(fromTechnology) || fromTechnology.getId().equals(toTechnology.getId())) {
+                    return 0;
+                }
+
+                return L_CHANGEOVER_SECONDS;
+            }
+
+        });
+    }
+
+    private OrderRealizationTimeService createOrderRealizationTimeService(final Map<Long, Integer> unitDurations) {
+        return (OrderRealizationTimeService) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { OrderRealizationTimeService.class }, (proxy, method, args) -> {
+                    if ("estimateOperationTimeConsumption".equals(method.getName())) {
+                        EntityTreeNode operationComponent = (EntityTreeNode) args[0];
+                        BigDecimal plannedQuantity = (BigDecimal) args[1];
+
+                        return unitDurations.get(operationComponent.getId()) * plannedQuantity.intValue();
+                    }
+
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    @TearDown
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public OrdersSchedulingResult schedule() {
+        return batchOrderSchedulingService.schedule(ordersIds, dateFrom);
+    }
+
+}
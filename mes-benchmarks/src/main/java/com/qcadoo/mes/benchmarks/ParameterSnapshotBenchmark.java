@@ -0,0 +1,120 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcOperations;
+
+import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Reading single basic parameter field the way hot paths did it, loading basic parameter row on each read, against reading it
+ * from {@link com.qcadoo.mes.basic.ParameterSnapshot} of {@link ParameterService}. Parameter row with given number of columns is
+ * created in {@link BenchmarkDatabase}, snapshot is taken from in-memory parameter entity with the same values.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParameterSnapshotBenchmark {
+
+    private static final String L_PARAMETER_QUERY = "SELECT * FROM basic_parameter ORDER BY id LIMIT 1";
+
+    private static final String L_FIELD_NAME = "lockProductionProgress";
+
+    @Param({ "50", "250" })
+    private int columns;
+
+    private BenchmarkDatabase database;
+
+    private JdbcOperations jdbcOperations;
+
+    private ParameterService parameterService;
+
+    @Setup
+    public void setUp() {
+        database = BenchmarkDatabase.open();
+
+        StringBuilder table = new StringBuilder("CREATE TABLE basic_parameter (id bigint PRIMARY KEY, ")
+                .append(L_FIELD_NAME.toLowerCase()).append(" boolean");
+
+        for (int column = 0; column < columns; column++) {
+            table.append(", field").append(column).append(" varchar(255) DEFAULT 'value ").append(column).append("'");
+        }
+
+        database.execute("DROP TABLE IF EXISTS basic_parameter", table.append(")").toString(),
+                "INSERT INTO basic_parameter (id, " + L_FIELD_NAME.toLowerCase() + ") VALUES (1, true)");
+
+        jdbcOperations = database.getNamedParameterJdbcTemplate().getJdbcOperations();
+
+        InMemoryModel model = new InMemoryModel();
+        Entity parameter = model.createEntityWithId(1L, BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PARAMETER);
+
+        for (Map.Entry<String, Object> column : jdbcOperations.queryForMap(L_PARAMETER_QUERY).entrySet()) {
+            if (!"id".equals(column.getKey())) {
+                parameter.setField(column.getKey(), column.getValue());
+            }
+        }
+
+        parameter.setField(L_FIELD_NAME, parameter.getField(L_FIELD_NAME.toLowerCase()));
+
+        parameterService = new ParameterService();
+
+        Beans.inject(parameterService, "dataDefinitionService", model.createDataDefinitionService());
+    }
+
+    @TearDown
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public boolean loadedParameter() {
+        return Boolean.TRUE.equals(jdbcOperations.queryForMap(L_PARAMETER_QUERY).get(L_FIELD_NAME.toLowerCase()));
+    }
+
+    @Benchmark
+    public boolean parameterSnapshot() {
+        return parameterService.getParameterSnapshot().getBooleanField(L_FIELD_NAME);
+    }
+
+}
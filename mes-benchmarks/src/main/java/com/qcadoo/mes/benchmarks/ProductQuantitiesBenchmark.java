@@ -0,0 +1,92 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.qcadoo.mes.technologies.ProductQuantitiesServiceImpl;
+import com.qcadoo.mes.technologies.dto.ProductQuantitiesHolder;
+import com.qcadoo.mes.technologies.states.constants.TechnologyStateStringValues;
+import com.qcadoo.mes.technologies.tree.graph.TechnologyGraphCompiler;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Product component quantities and operation runs of synthetic technology. Graphs of accepted technologies are compiled once
+ * and cached, so for them only propagation of quantities is measured, for draft technologies compilation is measured as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ProductQuantitiesBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    private int operations;
+
+    @Param({ "5" })
+    private int componentsPerOperation;
+
+    @Param({ TechnologyStateStringValues.DRAFT, TechnologyStateStringValues.ACCEPTED })
+    private String technologyState;
+
+    private ProductQuantitiesServiceImpl productQuantitiesService;
+
+    private Entity technology;
+
+    private BigDecimal givenQuantity;
+
+    @Setup
+    public void setUp() {
+        InMemoryModel model = new InMemoryModel();
+
+        productQuantitiesService = new ProductQuantitiesServiceImpl();
+
+        Beans.inject(productQuantitiesService, "numberService", InMemoryModel.createNumberService());
+        Beans.inject(productQuantitiesService, "technologyGraphCompiler", new TechnologyGraphCompiler());
+
+        technology = SyntheticData.createTechnology(model, operations, componentsPerOperation, technologyState);
+        givenQuantity = BigDecimal.valueOf(1250);
+    }
+
+    @Benchmark
+    public ProductQuantitiesHolder getProductComponentQuantities() {
+        return productQuantitiesService.getProductComponentQuantities(technology, givenQuantity);
+    }
+
+}
@@ -0,0 +1,172 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.CalculationQuantityService;
+import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.materialFlow.constants.MaterialFlowConstants;
+import com.qcadoo.mes.materialFlowResources.constants.DocumentFields;
+import com.qcadoo.mes.materialFlowResources.constants.DocumentType;
+import com.qcadoo.mes.materialFlowResources.constants.LocationFieldsMFR;
+import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
+import com.qcadoo.mes.materialFlowResources.constants.ParameterFieldsMFR;
+import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
+import com.qcadoo.mes.materialFlowResources.service.ReleaseResourcesAllocationService;
+import com.qcadoo.mes.materialFlowResources.service.ReservationsService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.NumberService;
+
+/**
+ * Allocation of warehouse resources for release document with positions of random products, as it's done when release
+ * document is accepted: candidate resources are read with one query and positions are allocated in memory. Changed resources
+ * aren't written back, so each invocation works on the same data. Runs against {@link BenchmarkDatabase}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResourceAllocationBenchmark {
+
+    @Param({ "10000", "100000", "1000000" })
+    private int resources;
+
+    @Param({ "10" })
+    private int warehouses;
+
+    @Param({ "1000" })
+    private int products;
+
+    @Param({ "10", "100" })
+    private int positions;
+
+    @Param({ "01fifo", "03fefo" })
+    private String algorithm;
+
+    private BenchmarkDatabase database;
+
+    private ReleaseResourcesAllocationService releaseResourcesAllocationService;
+
+    private Entity document;
+
+    private List<Entity> documentPositions;
+
+    @Setup
+    public void setUp() {
+        database = BenchmarkDatabase.open();
+
+        SyntheticData.createResources(database, warehouses, products, resources);
+
+        InMemoryModel model = new InMemoryModel();
+        NumberService numberService = InMemoryModel.createNumberService();
+
+        Entity documentPositionParameters = model.createEntity(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                "documentPositionParameters", "fillResourceIrrespectiveOfConversion", false);
+        Entity parameter = model.createEntity(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PARAMETER,
+                ParameterFieldsMFR.DOCUMENT_POSITION_PARAMETERS, documentPositionParameters);
+
+        CalculationQuantityService calculationQuantityService = new CalculationQuantityService();
+
+        Beans.inject(calculationQuantityService, "dictionaryService", InMemoryModel.createDictionaryService());
+        Beans.inject(calculationQuantityService, "numberService", numberService);
+
+        releaseResourcesAllocationService = new ReleaseResourcesAllocationService();
+
+        Beans.inject(releaseResourcesAllocationService, "jdbcTemplate", database.getNamedParameterJdbcTemplate());
+        Beans.inject(releaseResourcesAllocationService, "dataDefinitionService", model.createDataDefinitionService());
+        Beans.inject(releaseResourcesAllocationService, "numberService", numberService);
+        Beans.inject(releaseResourcesAllocationService, "calculationQuantityService", calculationQuantityService);
+        Beans.inject(releaseResourcesAllocationService, "reservationsService", new ReservationsService());
+        Beans.inject(releaseResourcesAllocationService, "parameterService", new ParameterService() {
+
+            @Override
+            public Entity getParameter() {
+                return parameter;
+            }
+
+        });
+
+        Entity warehouse = model.createEntity(MaterialFlowConstants.PLUGIN_IDENTIFIER, MaterialFlowConstants.MODEL_LOCATION,
+                LocationFieldsMFR.ALGORITHM, algorithm, LocationFieldsMFR.DRAFT_MAKES_RESERVATION, false);
+
+        document = model.createEntity(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                MaterialFlowResourcesConstants.MODEL_DOCUMENT, DocumentFields.TYPE, DocumentType.RELEASE.getStringValue(),
+                DocumentFields.LOCATION_FROM, warehouse, DocumentFields.IN_BUFFER, false);
+        documentPositions = Lists.newArrayList();
+
+        Random random = new Random(SyntheticData.L_SEED);
+
+        for (int i = 0; i < positions; i++) {
+            Entity product = model.createEntityWithId(1L + random.nextInt(products), BasicConstants.PLUGIN_IDENTIFIER,
+                    BasicConstants.MODEL_PRODUCT, ProductFields.UNIT, "szt");
+
+            documentPositions.add(model.createEntity(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                    MaterialFlowResourcesConstants.MODEL_POSITION, PositionFields.PRODUCT, product, PositionFields.QUANTITY,
+                    BigDecimal.valueOf(1 + random.nextInt(200)), PositionFields.CONVERSION, BigDecimal.ONE,
+                    PositionFields.GIVEN_UNIT, "szt"));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public List<Entity> allocate() {
+        ReleaseResourcesAllocationService.Allocation allocation = releaseResourcesAllocationService.prepare(document,
+                documentPositions);
+
+        List<Entity> allocatedPositions = Lists.newArrayList();
+
+        for (Entity position : documentPositions) {
+            allocatedPositions.addAll(allocation.allocate(position));
+        }
+
+        return allocatedPositions;
+    }
+
+}
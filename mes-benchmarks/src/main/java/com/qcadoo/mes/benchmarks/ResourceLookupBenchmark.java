@@ -0,0 +1,248 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.mes.basic.GridResponse;
+import com.qcadoo.mes.basic.LookupUtils;
+import com.qcadoo.mes.materialFlow.constants.MaterialFlowConstants;
+import com.qcadoo.mes.materialFlowResources.DocumentPositionService;
+import com.qcadoo.mes.materialFlowResources.ResourceDTO;
+import com.qcadoo.mes.materialFlowResources.WarehouseMethodOfDisposalService;
+import com.qcadoo.mes.materialFlowResources.batch.ResourceLookupController;
+import com.qcadoo.mes.materialFlowResources.constants.DocumentFields;
+import com.qcadoo.mes.materialFlowResources.constants.LocationFieldsMFR;
+import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Resource lookup of release document position, computing lastResource from pallet resources counter maintained by trigger
+ * (as application does) and from aggregation of the whole resource table (as it was done before), and resource read by
+ * number of document position service, which always reads the counter. Write cost of the counter is measured by adding and
+ * removing resource and by moving resource between pallets, with the trigger in place for maintained counter and without it
+ * for aggregation. Runs against {@link BenchmarkDatabase}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResourceLookupBenchmark {
+
+    private static final String L_MAINTAINED = "maintained";
+
+    private static final String L_COUNTER_JOIN = "LEFT JOIN materialflowresources_palletresourcescount r1 ";
+
+    private static final String L_AGGREGATED_JOIN = "LEFT JOIN (SELECT palletnumber_id, count(id) as resourcesCount "
+            + "FROM materialflowresources_resource GROUP BY palletnumber_id) r1 ";
+
+    private static final String L_COUNTER_TRIGGER_FUNCTION = "CREATE FUNCTION update_pallet_resources_count_trigger() "
+            + "RETURNS trigger LANGUAGE plpgsql AS $$\n"
+            + "BEGIN\n"
+            + "	IF TG_OP = 'UPDATE' AND OLD.palletnumber_id IS NOT DISTINCT FROM NEW.palletnumber_id THEN\n"
+            + "		RETURN NULL;\n"
+            + "	END IF;\n"
+            + "	IF TG_OP IN ('UPDATE', 'DELETE') AND OLD.palletnumber_id IS NOT NULL THEN\n"
+            + "		UPDATE materialflowresources_palletresourcescount SET resourcescount = resourcescount - 1\n"
+            + "			WHERE palletnumber_id = OLD.palletnumber_id;\n"
+            + "	END IF;\n"
+            + "	IF TG_OP IN ('INSERT', 'UPDATE') AND NEW.palletnumber_id IS NOT NULL THEN\n"
+            + "		INSERT INTO materialflowresources_palletresourcescount (palletnumber_id, resourcescount)\n"
+            + "			VALUES (NEW.palletnumber_id, 1)\n"
+            + "			ON CONFLICT (palletnumber_id) DO UPDATE\n"
+            + "			SET resourcescount = materialflowresources_palletresourcescount.resourcescount + 1;\n"
+            + "	END IF;\n"
+            + "	RETURN NULL;\n"
+            + "END;\n"
+            + "$$";
+
+    private static final String L_COUNTER_TRIGGER = "CREATE TRIGGER materialflowresources_resource_trigger_palletresourcescount "
+            + "AFTER INSERT OR DELETE OR UPDATE OF palletnumber_id ON materialflowresources_resource FOR EACH ROW "
+            + "EXECUTE PROCEDURE update_pallet_resources_count_trigger()";
+
+    private static final long L_DOCUMENT_ID = 1L;
+
+    private static final int L_PER_PAGE = 20;
+
+    @Param({ "10000", "100000", "1000000" })
+    private int resources;
+
+    @Param({ "10" })
+    private int warehouses;
+
+    @Param({ "1000" })
+    private int products;
+
+    @Param({ L_MAINTAINED, "aggregated" })
+    private String counter;
+
+    private BenchmarkDatabase database;
+
+    private ResourceLookupController resourceLookupController;
+
+    private DocumentPositionService documentPositionService;
+
+    private Random random;
+
+    @Setup
+    public void setUp() {
+        database = BenchmarkDatabase.open();
+
+        SyntheticData.createProducts(database, products);
+        SyntheticData.createResources(database, warehouses, products, resources);
+
+        database.execute("DROP TABLE IF EXISTS materialflowresources_palletresourcescount",
+                "DROP TABLE IF EXISTS basic_palletnumber", "DROP TABLE IF EXISTS materialflowresources_storagelocation",
+                "DROP TABLE IF EXISTS basic_additionalcode", "DROP TABLE IF EXISTS materialflowresources_document",
+                "DROP FUNCTION IF EXISTS update_pallet_resources_count_trigger()",
+                "CREATE TABLE materialflowresources_palletresourcescount (palletnumber_id bigint PRIMARY KEY, "
+                        + "resourcescount integer DEFAULT 0 NOT NULL)",
+                "INSERT INTO materialflowresources_palletresourcescount SELECT palletnumber_id, count(id) "
+                        + "FROM materialflowresources_resource GROUP BY palletnumber_id",
+                "CREATE TABLE basic_palletnumber (id bigint PRIMARY KEY, number varchar(255))",
+                "INSERT INTO basic_palletnumber SELECT g, lpad(g::text, 10, '0') FROM generate_series(0, "
+                        + (resources / 4) + ") g",
+                "CREATE TABLE materialflowresources_storagelocation (id bigint PRIMARY KEY, number varchar(255))",
+                "CREATE TABLE basic_additionalcode (id bigint PRIMARY KEY, code varchar(255))",
+                "CREATE TABLE materialflowresources_document (id bigint PRIMARY KEY, locationfrom_id bigint, "
+                        + "locationto_id bigint)",
+                "INSERT INTO materialflowresources_document VALUES (" + L_DOCUMENT_ID + ", 1, NULL)",
+                "CREATE INDEX ON materialflowresources_resource (number)",
+                "ANALYZE materialflowresources_palletresourcescount", "ANALYZE basic_palletnumber");
+
+        if (L_MAINTAINED.equals(counter)) {
+            database.execute(L_COUNTER_TRIGGER_FUNCTION, L_COUNTER_TRIGGER);
+        }
+
+        InMemoryModel model = new InMemoryModel();
+
+        Entity warehouse = model.createEntityWithId(1L, MaterialFlowConstants.PLUGIN_IDENTIFIER,
+                MaterialFlowConstants.MODEL_LOCATION, LocationFieldsMFR.ALGORITHM, "01fifo");
+
+        model.createEntityWithId(L_DOCUMENT_ID, MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                MaterialFlowResourcesConstants.MODEL_DOCUMENT, DocumentFields.LOCATION_FROM, warehouse);
+
+        WarehouseMethodOfDisposalService warehouseMethodOfDisposalService = new WarehouseMethodOfDisposalService();
+
+        Beans.inject(warehouseMethodOfDisposalService, "dataDefinitionService", model.createDataDefinitionService());
+
+        LookupUtils lookupUtils = new LookupUtils();
+
+        Beans.inject(lookupUtils, "jdbcTemplate", database.getNamedParameterJdbcTemplate());
+        Beans.inject(lookupUtils, "countCacheSeconds", 0);
+
+        resourceLookupController = L_MAINTAINED.equals(counter) ? new ResourceLookupController()
+                : new AggregatedResourceLookupController();
+
+        Beans.inject(resourceLookupController, "lookupUtils", lookupUtils);
+        Beans.inject(resourceLookupController, "warehouseMethodOfDisposalService", warehouseMethodOfDisposalService);
+        Beans.inject(resourceLookupController, "translationService", createTranslationService());
+
+        documentPositionService = new DocumentPositionService();
+
+        Beans.inject(documentPositionService, "jdbcTemplate", database.getNamedParameterJdbcTemplate());
+
+        random = new Random(SyntheticData.L_SEED);
+    }
+
+    @TearDown
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public GridResponse<ResourceDTO> lookup() {
+        ResourceDTO record = new ResourceDTO();
+
+        record.setProduct(String.format("P%08d", 1 + random.nextInt(products)));
+        record.setConversion(BigDecimal.ONE);
+
+        return resourceLookupController.getRecords("number", "asc", 1, L_PER_PAGE, L_DOCUMENT_ID, record);
+    }
+
+    @Benchmark
+    public ResourceDTO resourceByNumber() {
+        return documentPositionService.getResourceByNumber("R" + (1 + random.nextInt(resources)));
+    }
+
+    @Benchmark
+    public void addAndRemoveResource() {
+        long id = resources + 1L;
+
+        database.execute(String.format("INSERT INTO materialflowresources_resource (id, product_id, location_id, number, "
+                + "quantity, availablequantity, conversion, palletnumber_id) VALUES (%d, 1, 1, 'R%d', 1, 1, 1, %d)", id, id,
+                random.nextInt(resources / 4)), "DELETE FROM materialflowresources_resource WHERE id = " + id);
+    }
+
+    @Benchmark
+    public void moveResource() {
+        int id = 1 + random.nextInt(resources);
+
+        database.execute(String.format("UPDATE materialflowresources_resource SET palletnumber_id = %d WHERE id = %d",
+                random.nextInt(resources / 4), id), String.format(
+                "UPDATE materialflowresources_resource SET palletnumber_id = %d WHERE id = %d", id / 4, id));
+    }
+
+    private TranslationService createTranslationService() {
+        return (TranslationService) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { TranslationService.class }, (proxy, method, args) -> {
+                    if ("translate".equals(method.getName())) {
+                        return args[0];
+                    }
+
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static class AggregatedResourceLookupController extends ResourceLookupController {
+
+        @Override
+        protected String getQuery(final Long context, final boolean useAdditionalCode, final boolean wasteFilterIsWrong,
+                final boolean lastResourceFilterIsWrong) {
+            return super.getQuery(context, useAdditionalCode, wasteFilterIsWrong, lastResourceFilterIsWrong).replace(
+                    L_COUNTER_JOIN, L_AGGREGATED_JOIN);
+        }
+
+    }
+
+}
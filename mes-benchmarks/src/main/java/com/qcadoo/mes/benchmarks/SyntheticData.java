@@ -0,0 +1,209 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.joda.time.DateTime;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.basic.constants.ShiftFields;
+import com.qcadoo.mes.technologies.constants.OperationProductInComponentFields;
+import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentEntityType;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Generates synthetic technologies, shifts, products and warehouse resources. Generation is deterministic, data of given scale
+ * is the same in each run, so results of different builds can be compared.
+ */
+final class SyntheticData {
+
+    static final long L_SEED = 20100101L;
+
+    private static final int L_CHILDREN_PER_OPERATION = 3;
+
+    private static final int L_COMPONENTS = 1000;
+
+    private static final String[] L_DAYS = { "monday", "tuesday", "wensday", "thursday", "friday", "saturday", "sunday" };
+
+    private static final String[] L_SHIFT_HOURS = { "06:00-14:00", "14:00-22:00", "08:00-12:00, 12:30-16:30" };
+
+    private static final String[] L_PRODUCT_NAMES = { "bolt", "nut", "screw", "washer", "plate", "frame", "bracket" };
+
+    private SyntheticData() {
+    }
+
+    /**
+     * Creates technology with tree of given number of operations, each operation has up to three children and produces single
+     * intermediate, consumed by its parent, from intermediates of its children and given number of components.
+     */
+    static Entity createTechnology(final InMemoryModel model, final int operations, final int componentsPerOperation,
+            final String state) {
+        Random random = new Random(L_SEED);
+
+        List<Entity> components = Lists.newArrayList();
+
+        for (int i = 0; i < L_COMPONENTS; i++) {
+            components.add(createProduct(model, "C" + i));
+        }
+
+        List<Entity> intermediates = Lists.newArrayList();
+        List<Entity> operationComponents = Lists.newArrayList();
+
+        for (int i = 0; i < operations; i++) {
+            intermediates.add(createProduct(model, "I" + i));
+
+            Entity parent = (i == 0) ? null : operationComponents.get((i - 1) / L_CHILDREN_PER_OPERATION);
+
+            operationComponents.add(model.createEntity(TechnologiesConstants.PLUGIN_IDENTIFIER,
+                    TechnologiesConstants.MODEL_TECHNOLOGY_OPERATION_COMPONENT, TechnologyOperationComponentFields.ENTITY_TYPE,
+                    TechnologyOperationComponentEntityType.OPERATION.getStringValue(), TechnologyOperationComponentFields.PARENT,
+                    parent, TechnologyOperationComponentFields.ARE_PRODUCT_QUANTITIES_DIVISIBLE, random.nextBoolean(),
+                    TechnologyOperationComponentFields.IS_TJ_DIVISIBLE, random.nextBoolean()));
+        }
+
+        for (int i = 0; i < operations; i++) {
+            Entity operationComponent = operationComponents.get(i);
+
+            List<Entity> inComponents = Lists.newArrayList();
+
+            for (int child = L_CHILDREN_PER_OPERATION * i + 1; child <= L_CHILDREN_PER_OPERATION * (i + 1)
+                    && child < operations; child++) {
+                inComponents.add(createOperationProductComponent(model,
+                        TechnologiesConstants.MODEL_OPERATION_PRODUCT_IN_COMPONENT, operationComponent, intermediates.get(child),
+                        random));
+            }
+            for (int j = 0; j < componentsPerOperation; j++) {
+                inComponents.add(createOperationProductComponent(model,
+                        TechnologiesConstants.MODEL_OPERATION_PRODUCT_IN_COMPONENT, operationComponent,
+                        components.get(random.nextInt(L_COMPONENTS)), random));
+            }
+
+            operationComponent.setField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS, inComponents);
+            operationComponent.setField(TechnologyOperationComponentFields.OPERATION_PRODUCT_OUT_COMPONENTS, Lists
+                    .newArrayList(createOperationProductComponent(model,
+                            TechnologiesConstants.MODEL_OPERATION_PRODUCT_OUT_COMPONENT, operationComponent,
+                            intermediates.get(i), random)));
+        }
+
+        return model.createEntity(TechnologiesConstants.PLUGIN_IDENTIFIER, TechnologiesConstants.MODEL_TECHNOLOGY,
+                TechnologyFields.PRODUCT, intermediates.get(0), TechnologyFields.STATE, state,
+                TechnologyFields.OPERATION_COMPONENTS, model.createTree(operationComponents));
+    }
+
+    private static Entity createProduct(final InMemoryModel model, final String number) {
+        return model.createEntity(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PRODUCT, ProductFields.NUMBER, number,
+                ProductFields.UNIT, "szt");
+    }
+
+    private static Entity createOperationProductComponent(final InMemoryModel model, final String modelName,
+            final Entity operationComponent, final Entity product, final Random random) {
+        return model.createEntity(TechnologiesConstants.PLUGIN_IDENTIFIER, modelName,
+                OperationProductInComponentFields.OPERATION_COMPONENT, operationComponent,
+                OperationProductInComponentFields.PRODUCT, product, OperationProductInComponentFields.QUANTITY,
+                BigDecimal.valueOf(1 + random.nextInt(100), 1));
+    }
+
+    /**
+     * Creates shifts working on weekdays (first shift also on saturdays), each with given number of one day long timetable
+     * exceptions, free and work time ones alternately, spread over a year since given date.
+     */
+    static List<Entity> createShifts(final InMemoryModel model, final int shifts, final int exceptionsPerShift,
+            final Date from) {
+        Random random = new Random(L_SEED);
+
+        List<Entity> createdShifts = Lists.newArrayList();
+
+        for (int i = 0; i < shifts; i++) {
+            List<Entity> exceptions = Lists.newArrayList();
+
+            for (int j = 0; j < exceptionsPerShift; j++) {
+                DateTime exceptionFrom = new DateTime(from).plusDays(random.nextInt(365));
+
+                exceptions.add(model.createEntity(BasicConstants.PLUGIN_IDENTIFIER,
+                        BasicConstants.MODEL_SHIFT_TIMETABLE_EXCEPTION, "type", (j % 2 == 0) ? "01freeTime" : "02workTime",
+                        "fromDate", exceptionFrom.toDate(), "toDate", exceptionFrom.plusDays(1).toDate()));
+            }
+
+            Entity shift = model.createEntity(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_SHIFT,
+                    ShiftFields.TIMETABLE_EXCEPTIONS, exceptions);
+
+            for (int day = 0; day < L_DAYS.length; day++) {
+                shift.setField(L_DAYS[day] + "Working", (day < 5) || ((day == 5) && (i == 0)));
+                shift.setField(L_DAYS[day] + "Hours", L_SHIFT_HOURS[i % L_SHIFT_HOURS.length]);
+            }
+
+            createdShifts.add(shift);
+        }
+
+        return createdShifts;
+    }
+
+    /**
+     * Creates basic_product table with given number of products, numbered P00000001 and so on.
+     */
+    static void createProducts(final BenchmarkDatabase database, final int products) {
+        StringBuilder names = new StringBuilder();
+
+        for (String name : L_PRODUCT_NAMES) {
+            names.append((names.length() == 0) ? "'" : ", '").append(name).append("'");
+        }
+
+        database.execute("DROP TABLE IF EXISTS basic_product",
+                "CREATE TABLE basic_product (id bigint PRIMARY KEY, number varchar(255), name varchar(1024), unit varchar(255))",
+                String.format("INSERT INTO basic_product SELECT g, 'P' || lpad(g::text, 8, '0'), "
+                        + "(ARRAY[%s])[1 + g %% %d] || ' ' || g, 'szt' FROM generate_series(1, %d) g", names,
+                        L_PRODUCT_NAMES.length, products), "CREATE INDEX ON basic_product (number)", "ANALYZE basic_product");
+    }
+
+    /**
+     * Creates materialflowresources_resource table with given number of resources, spread evenly between given numbers of
+     * warehouses (ids from 1) and products (ids from 1), with four resources on each pallet.
+     */
+    static void createResources(final BenchmarkDatabase database, final int warehouses, final int products,
+            final int resources) {
+        database.execute("DROP TABLE IF EXISTS materialflowresources_resource",
+                "CREATE TABLE materialflowresources_resource (id bigint PRIMARY KEY, product_id bigint, location_id bigint, "
+                        + "number varchar(255), quantity numeric(14,5), availablequantity numeric(14,5), "
+                        + "reservedquantity numeric(14,5), quantityinadditionalunit numeric(14,5), conversion numeric(12,5), "
+                        + "givenunit varchar(255), additionalcode_id bigint, palletnumber_id bigint, storagelocation_id bigint, "
+                        + "typeofpallet varchar(255), waste boolean, price numeric(12,5), batch varchar(255), "
+                        + "productiondate date, expirationdate date, time timestamp)",
+                String.format("INSERT INTO materialflowresources_resource SELECT g, 1 + g %% %d, 1 + (g / %d) %% %d, "
+                        + "'R' || g, 1 + g %% 50, 1 + g %% 50, 0, 1 + g %% 50, 1, 'szt', NULL, g / 4, NULL, NULL, false, 10, "
+                        + "NULL, date '2025-01-01' + g %% 365, date '2026-01-01' + g %% 365, "
+                        + "timestamp '2025-01-01' + g * interval '1 minute' FROM generate_series(1, %d) g", products, products,
+                        warehouses, resources), "CREATE INDEX ON materialflowresources_resource (product_id)",
+                "ANALYZE materialflowresources_resource");
+    }
+
+}
@@ -0,0 +1,166 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basicProductionCounting;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basicProductionCounting.constants.BasicProductionCountingConstants;
+import com.qcadoo.mes.basicProductionCounting.constants.BasicProductionCountingFields;
+import com.qcadoo.mes.basicProductionCounting.validators.BasicProductionCountingValidators;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Updates used and produced quantities of many basic production countings of order at once. Rows are loaded with one query,
+ * changed in memory and written back with one update, validation is the same as on save, but no other hooks are run - instead
+ * {@link BasicProductionCountingsUpdatedEvent} is published after commit.
+ */
+@Service
+public class BasicProductionCountingBatchUpdateService {
+
+    private static final String L_ID = "id";
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private BasicProductionCountingValidators basicProductionCountingValidators;
+
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    /**
+     * Loads quantities of basic production countings of given order. Rows are read with plain query into detached entities, so
+     * that after {@link #update(Entity, Collection)} no stale copies of them are left in current session.
+     *
+     * @return basic production countings of given order by product id, first one when product is counted more than once
+     */
+    public Map<Long, Entity> getBasicProductionCountingsByProduct(final Entity order) {
+        DataDefinition basicProductionCountingDD = dataDefinitionService.get(BasicProductionCountingConstants.PLUGIN_IDENTIFIER,
+                BasicProductionCountingConstants.MODEL_BASIC_PRODUCTION_COUNTING);
+
+        Map<Long, Entity> basicProductionCountingsByProduct = Maps.newHashMap();
+
+        jdbcTemplate.query("SELECT id, product_id, usedquantity, producedquantity "
+                + "FROM basicproductioncounting_basicproductioncounting WHERE order_id = :orderId AND product_id IS NOT NULL "
+                + "ORDER BY id", Collections.singletonMap("orderId", order.getId()), (RowCallbackHandler) resultSet -> {
+            Entity basicProductionCounting = basicProductionCountingDD.create();
+
+            basicProductionCounting.setId(resultSet.getLong(L_ID));
+            basicProductionCounting.setField(BasicProductionCountingFields.USED_QUANTITY,
+                    resultSet.getBigDecimal("usedquantity"));
+            basicProductionCounting.setField(BasicProductionCountingFields.PRODUCED_QUANTITY,
+                    resultSet.getBigDecimal("producedquantity"));
+
+            basicProductionCountingsByProduct.putIfAbsent(resultSet.getLong("product_id"), basicProductionCounting);
+        });
+
+        return basicProductionCountingsByProduct;
+    }
+
+    /**
+     * Writes used and produced quantities of given basic production countings. Ones which don't pass validation are left
+     * unchanged, like they would be by unsuccessful save.
+     *
+     * @return number of updated basic production countings
+     */
+    public int update(final Entity order, final Collection<Entity> basicProductionCountings) {
+        Map<String, Object> params = Maps.newHashMap();
+        Set<Long> basicProductionCountingIds = Sets.newHashSet();
+
+        StringBuilder values = new StringBuilder();
+
+        for (Entity basicProductionCounting : basicProductionCountings) {
+            if (!basicProductionCountingValidators.validatesWith(basicProductionCounting.getDataDefinition(),
+                    basicProductionCounting)) {
+                continue;
+            }
+
+            int index = basicProductionCountingIds.size();
+
+            if (index > 0) {
+                values.append(", ");
+            }
+
+            values.append(String.format("(CAST(:id%1$d AS bigint), CAST(:usedQuantity%1$d AS numeric), "
+                    + "CAST(:producedQuantity%1$d AS numeric))", index));
+
+            params.put(L_ID + index, basicProductionCounting.getId());
+            params.put("usedQuantity" + index,
+                    basicProductionCounting.getDecimalField(BasicProductionCountingFields.USED_QUANTITY));
+            params.put("producedQuantity" + index,
+                    basicProductionCounting.getDecimalField(BasicProductionCountingFields.PRODUCED_QUANTITY));
+
+            basicProductionCountingIds.add(basicProductionCounting.getId());
+        }
+
+        if (basicProductionCountingIds.isEmpty()) {
+            return 0;
+        }
+
+        String query = "UPDATE basicproductioncounting_basicproductioncounting bpc "
+                + "SET usedquantity = v.usedquantity, producedquantity = v.producedquantity, "
+                + "entityversion = bpc.entityversion + 1 "
+                + "FROM (VALUES " + values + ") AS v (id, usedquantity, producedquantity) WHERE bpc.id = v.id";
+
+        int updated = jdbcTemplate.update(query, params);
+
+        publishAfterCommit(new BasicProductionCountingsUpdatedEvent(this, order.getId(), basicProductionCountingIds));
+
+        return updated;
+    }
+
+    private void publishAfterCommit(final BasicProductionCountingsUpdatedEvent event) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCommit() {
+                    applicationEventPublisher.publishEvent(event);
+                }
+
+            });
+        } else {
+            applicationEventPublisher.publishEvent(event);
+        }
+    }
+
+}
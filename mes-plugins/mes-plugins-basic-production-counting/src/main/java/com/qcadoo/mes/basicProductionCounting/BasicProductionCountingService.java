@@ -29,6 +29,7 @@ import com.qcadoo.model.api.Entity;
 import com.qcadoo.view.api.ViewDefinitionState;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -67,6 +68,14 @@ public interface BasicProductionCountingService {
      */
     void createProductionCounting(final Entity order);
 
+    /**
+     * Create production counting of many orders at once, rows of all orders are written with batched inserts
+     *
+     * @param orders
+     *            orders
+     */
+    void createProductionCountings(final Collection<Entity> orders);
+
     /**
      * Creates basic production counting
      * 
@@ -32,6 +32,7 @@ import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -62,10 +63,8 @@ import com.qcadoo.mes.orders.constants.ParameterFieldsO;
 import com.qcadoo.mes.orders.states.constants.OrderState;
 import com.qcadoo.mes.technologies.ProductQuantitiesService;
 import com.qcadoo.mes.technologies.constants.MrpAlgorithm;
-import com.qcadoo.mes.technologies.constants.OperationProductInComponentFields;
 import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
 import com.qcadoo.mes.technologies.constants.TechnologyFields;
-import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
 import com.qcadoo.model.api.BigDecimalUtils;
@@ -97,6 +96,8 @@ public class BasicProductionCountingServiceImpl implements BasicProductionCounti
 
     private static final String PRODUCTION_FLOW = "productionFlow";
 
+    private static final String PRODUCT_FLOW_THRU_DIVISION = "productFlowThruDivision";
+
     private static final String inComponentHQL = "select opic from #technologies_operationProductInComponent opic "
             + "left join opic.operationComponent toc " + "left join toc.technology tech " + "where tech.id = :techId";
 
@@ -118,6 +119,9 @@ public class BasicProductionCountingServiceImpl implements BasicProductionCounti
     @Autowired
     private ParameterService parameterService;
 
+    @Autowired
+    private ProductionCountingBatchService productionCountingBatchService;
+
     @Override
     public void updateProductionCountingQuantitiesAndOperationRuns(final Entity order) {
         final Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
@@ -126,13 +130,30 @@ public class BasicProductionCountingServiceImpl implements BasicProductionCounti
         final OperationProductComponentWithQuantityContainer productComponentQuantities = productQuantitiesService
                 .getProductComponentWithQuantities(Arrays.asList(order), operationRuns, nonComponents);
 
-        updateProductionCountingOperationRuns(order, operationRuns);
-        updateProductionCountingQuantities(order, productComponentQuantities, nonComponents);
+        if (PluginUtils.isEnabled(PRODUCT_FLOW_THRU_DIVISION)) {
+            updateProductionCountingOperationRuns(order, operationRuns);
+            updateProductionCountingQuantities(order, productComponentQuantities, nonComponents);
+        } else {
+            productionCountingBatchService.updateOperationRuns(order,
+                    Maps.transformValues(operationRuns, numberService::setScaleWithDefaultMathContext));
+            productionCountingBatchService.updateProductionCountingQuantities(order,
+                    prepareProductionCountingQuantitiesForUpdate(order, productComponentQuantities, nonComponents),
+                    parameterService.getParameterSnapshot().getBooleanField(ParameterFieldsO.CREATE_SET_ELEMENTS_ON_ACCEPT));
+        }
     }
 
     @Override
     public Entity createProductionCountingOperationRun(final Entity order, final Entity technologyOperationComponent,
             final BigDecimal runs) {
+        Entity productionCountingOperationRun = prepareProductionCountingOperationRun(order, technologyOperationComponent, runs);
+
+        productionCountingOperationRun = productionCountingOperationRun.getDataDefinition().save(productionCountingOperationRun);
+
+        return productionCountingOperationRun;
+    }
+
+    private Entity prepareProductionCountingOperationRun(final Entity order, final Entity technologyOperationComponent,
+            final BigDecimal runs) {
         Entity productionCountingOperationRun = getProductionCountingOperationRunDD().create();
 
         productionCountingOperationRun.setField(ProductionCountingOperationRunFields.ORDER, order);
@@ -141,13 +162,24 @@ public class BasicProductionCountingServiceImpl implements BasicProductionCounti
         productionCountingOperationRun.setField(ProductionCountingOperationRunFields.RUNS,
                 numberService.setScaleWithDefaultMathContext(runs));
 
-        productionCountingOperationRun = productionCountingOperationRun.getDataDefinition().save(productionCountingOperationRun);
-
         return productionCountingOperationRun;
     }
 
     @Override
     public void createProductionCounting(final Entity order) {
+        createProductionCountings(Collections.singletonList(order));
+    }
+
+    @Override
+    public void createProductionCountings(final Collection<Entity> orders) {
+        if (PluginUtils.isEnabled(PRODUCT_FLOW_THRU_DIVISION)) {
+            orders.forEach(this::createProductionCountingEntityByEntity);
+        } else {
+            createProductionCountingsInBatches(orders);
+        }
+    }
+
+    private void createProductionCountingEntityByEntity(final Entity order) {
         Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
         Set<OperationProductComponentHolder> nonComponents = Sets.newHashSet();
 
@@ -158,7 +190,8 @@ public class BasicProductionCountingServiceImpl implements BasicProductionCounti
 
         List<Entity> productionCountingQuantities = new ArrayList<>();
 
-        prepareProductionCountingQuantities(order, nonComponents, productComponentQuantities, productionCountingQuantities);
+        prepareProductionCountingQuantities(order, nonComponents, productComponentQuantities, productionCountingQuantities,
+                false);
 
         List<Entity> basicProductionCounting = Lists.newArrayList();
 
@@ -167,6 +200,103 @@ public class BasicProductionCountingServiceImpl implements BasicProductionCounti
         saveBasicProductionCounting(productionCountingQuantities, basicProductionCounting);
     }
 
+    /**
+     * Prepares production counting of all orders in memory and writes it with batched inserts. Used components are saved
+     * through data definition when set elements are created on accept, because their hooks generate set components.
+     */
+    private void createProductionCountingsInBatches(final Collection<Entity> orders) {
+        boolean createSetElements = parameterService.getParameterSnapshot()
+                .getBooleanField(ParameterFieldsO.CREATE_SET_ELEMENTS_ON_ACCEPT);
+        DataDefinition technologyOperationComponentDD = dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
+                TechnologiesConstants.MODEL_TECHNOLOGY_OPERATION_COMPONENT);
+
+        List<Entity> operationRuns = Lists.newArrayList();
+        List<Entity> basicProductionCountings = Lists.newArrayList();
+        List<Entity> productionCountingQuantities = Lists.newArrayList();
+        List<Entity> productionCountingQuantitiesWithHooks = Lists.newArrayList();
+
+        for (Entity order : orders) {
+            Map<Long, BigDecimal> orderOperationRuns = Maps.newHashMap();
+            Set<OperationProductComponentHolder> nonComponents = Sets.newHashSet();
+
+            final OperationProductComponentWithQuantityContainer productComponentQuantities = productQuantitiesService
+                    .getProductComponentWithQuantities(Arrays.asList(order), orderOperationRuns, nonComponents);
+
+            for (Entry<Long, BigDecimal> operationRun : orderOperationRuns.entrySet()) {
+                operationRuns.add(prepareProductionCountingOperationRun(order,
+                        getDetachedEntity(technologyOperationComponentDD, operationRun.getKey()), operationRun.getValue()));
+            }
+
+            List<Entity> orderProductionCountingQuantities = new ArrayList<>();
+
+            prepareProductionCountingQuantities(order, nonComponents, productComponentQuantities,
+                    orderProductionCountingQuantities, !createSetElements);
+
+            List<Entity> orderBasicProductionCountings = Lists.newArrayList();
+
+            prepareBasicProductionCounting(order, orderProductionCountingQuantities, orderBasicProductionCountings);
+
+            basicProductionCountings.addAll(orderBasicProductionCountings);
+
+            for (Entity productionCountingQuantity : linkBasicProductionCountings(orderProductionCountingQuantities,
+                    orderBasicProductionCountings)) {
+                if (createSetElements && isUsedComponent(productionCountingQuantity)) {
+                    productionCountingQuantitiesWithHooks.add(productionCountingQuantity);
+                } else {
+                    productionCountingQuantities.add(productionCountingQuantity);
+                }
+            }
+        }
+
+        productionCountingBatchService.insert(operationRuns, basicProductionCountings, productionCountingQuantities);
+
+        for (Entity productionCountingQuantity : productionCountingQuantitiesWithHooks) {
+            productionCountingQuantity.getDataDefinition().save(productionCountingQuantity);
+        }
+    }
+
+    /**
+     * Links production counting quantities with basic production countings the same way as saving them one by one does -
+     * quantities of products without basic production counting are left out, the last basic production counting of product
+     * wins.
+     *
+     * @return linked production counting quantities, in order they would be saved
+     */
+    private List<Entity> linkBasicProductionCountings(final List<Entity> productionCountingQuantities,
+            final List<Entity> basicProductionCountings) {
+        Multimap<Long, Entity> productionCountingQuantitiesByProduct = ArrayListMultimap.create();
+
+        for (Entity pCQ : productionCountingQuantities) {
+            productionCountingQuantitiesByProduct.put(pCQ.getBelongsToField(ProductionCountingQuantityFields.PRODUCT).getId(),
+                    pCQ);
+        }
+
+        Map<Long, Entity> basicProductionCountingsByProduct = Maps.newLinkedHashMap();
+
+        for (Entity bpc : basicProductionCountings) {
+            basicProductionCountingsByProduct.put(bpc.getBelongsToField(BasicProductionCountingFields.PRODUCT).getId(), bpc);
+        }
+
+        List<Entity> linkedProductionCountingQuantities = Lists.newArrayList();
+
+        for (Entry<Long, Entity> basicProductionCounting : basicProductionCountingsByProduct.entrySet()) {
+            for (Entity pcq : productionCountingQuantitiesByProduct.get(basicProductionCounting.getKey())) {
+                pcq.setField(ProductionCountingQuantityFields.BASIC_PRODUCTION_COUNTING, basicProductionCounting.getValue());
+
+                linkedProductionCountingQuantities.add(pcq);
+            }
+        }
+
+        return linkedProductionCountingQuantities;
+    }
+
+    private boolean isUsedComponent(final Entity productionCountingQuantity) {
+        return ProductionCountingQuantityRole.USED.getStringValue()
+                .equals(productionCountingQuantity.getStringField(ProductionCountingQuantityFields.ROLE))
+                && ProductionCountingQuantityTypeOfMaterial.COMPONENT.getStringValue()
+                        .equals(productionCountingQuantity.getStringField(ProductionCountingQuantityFields.TYPE_OF_MATERIAL));
+    }
+
     private void saveBasicProductionCounting(final List<Entity> productionCountingQuantities,
             final List<Entity> basicProductionCounting) {
         Multimap<Long, Entity> productionCountingQuantitiesByProduct = ArrayListMultimap.create();
@@ -218,14 +348,32 @@ public class BasicProductionCountingServiceImpl implements BasicProductionCounti
 
     private void prepareProductionCountingQuantities(final Entity order, final Set<OperationProductComponentHolder> nonComponents,
             final OperationProductComponentWithQuantityContainer productComponentQuantities,
-            final List<Entity> productionCountingQuantities) {
+            final List<Entity> productionCountingQuantities, final boolean withDetachedEntities) {
+        Entity orderTechnologyOperationComponent = getOrderTechnologyOperationComponent(order);
+        Multimap<Long, Long> productsUsedInParentOperations = productionCountingBatchService
+                .getProductsUsedOnceInParentOperations(productComponentQuantities.asMap().keySet().stream()
+                        .filter(holder -> isRoleProduced(getRole(holder)) && !nonComponents.contains(holder))
+                        .map(OperationProductComponentHolder::getTechnologyOperationComponentId).filter(Objects::nonNull)
+                        .collect(Collectors.toSet()));
+
         for (Entry<OperationProductComponentHolder, BigDecimal> productComponentQuantity : productComponentQuantities.asMap()
                 .entrySet()) {
             OperationProductComponentHolder operationProductComponentHolder = productComponentQuantity.getKey();
             BigDecimal plannedQuantity = productComponentQuantity.getValue();
 
-            Entity technologyOperationComponent = operationProductComponentHolder.getTechnologyOperationComponent();
-            Entity product = operationProductComponentHolder.getProduct();
+            Entity technologyOperationComponent;
+            Entity product;
+
+            if (withDetachedEntities) {
+                technologyOperationComponent = getDetachedEntity(
+                        operationProductComponentHolder.getTechnologyOperationComponentDD(),
+                        operationProductComponentHolder.getTechnologyOperationComponentId());
+                product = getDetachedEntity(operationProductComponentHolder.getProductDD(),
+                        operationProductComponentHolder.getProductId());
+            } else {
+                technologyOperationComponent = operationProductComponentHolder.getTechnologyOperationComponent();
+                product = operationProductComponentHolder.getProduct();
+            }
 
             String role = getRole(operationProductComponentHolder);
 
@@ -233,19 +381,61 @@ public class BasicProductionCountingServiceImpl implements BasicProductionCounti
 
             Entity productionCountingQuantity = prepareProductionCountingQuantity(order, technologyOperationComponent, product,
                     role, isNonComponent, plannedQuantity);
+
+            productionCountingQuantity.setField(ProductionCountingQuantityFields.TYPE_OF_MATERIAL,
+                    getTypeOfMaterial(order, orderTechnologyOperationComponent, productsUsedInParentOperations,
+                            technologyOperationComponent, product, role, isNonComponent));
+
             productionCountingQuantities.add(productionCountingQuantity);
         }
 
-        if (PluginUtils.isEnabled("productFlowThruDivision")) {
+        if (PluginUtils.isEnabled(PRODUCT_FLOW_THRU_DIVISION)) {
             fillFlow(productionCountingQuantities, order);
         }
 
-        if (parameterService.getParameter().getBooleanField(ParameterFieldsO.CREATE_SET_ELEMENTS_ON_ACCEPT)) {
+        if (parameterService.getParameterSnapshot().getBooleanField(ParameterFieldsO.CREATE_SET_ELEMENTS_ON_ACCEPT)) {
             productionCountingQuantitySetService.markIntermediateInProductionCountingQuantities(productionCountingQuantities,
                     false);
         }
     }
 
+    private List<Entity> prepareProductionCountingQuantitiesForUpdate(final Entity order,
+            final OperationProductComponentWithQuantityContainer productComponentQuantities,
+            final Set<OperationProductComponentHolder> nonComponents) {
+        List<Entity> productionCountingQuantities = Lists.newArrayList();
+
+        for (Entry<OperationProductComponentHolder, BigDecimal> productComponentQuantity : productComponentQuantities.asMap()
+                .entrySet()) {
+            OperationProductComponentHolder operationProductComponentHolder = productComponentQuantity.getKey();
+
+            productionCountingQuantities.add(prepareProductionCountingQuantity(order,
+                    getDetachedEntity(operationProductComponentHolder.getTechnologyOperationComponentDD(),
+                            operationProductComponentHolder.getTechnologyOperationComponentId()),
+                    getDetachedEntity(operationProductComponentHolder.getProductDD(),
+                            operationProductComponentHolder.getProductId()),
+                    getRole(operationProductComponentHolder), nonComponents.contains(operationProductComponentHolder),
+                    productComponentQuantity.getValue()));
+        }
+
+        productionCountingQuantities.add(prepareProductionCountingQuantity(order, getOrderTechnologyOperationComponent(order),
+                order.getBelongsToField(OrderFields.PRODUCT), ProductionCountingQuantityRole.PRODUCED.getStringValue(), false,
+                order.getDecimalField(OrderFields.PLANNED_QUANTITY)));
+
+        return productionCountingQuantities;
+    }
+
+    private Entity getDetachedEntity(final DataDefinition dataDefinition, final Long id) {
+        if ((dataDefinition == null) || (id == null)) {
+            return null;
+        }
+
+        Entity entity = dataDefinition.create();
+
+        entity.setId(id);
+
+        return entity;
+    }
+
     @Override
     public Entity createBasicProductionCounting(final Entity order, final Entity product) {
         Entity basicProductionCounting = getBasicProductionCountingDD().create();
@@ -280,8 +470,6 @@ public class BasicProductionCountingServiceImpl implements BasicProductionCounti
                 technologyOperationComponent);
         productionCountingQuantity.setField(ProductionCountingQuantityFields.PRODUCT, product);
         productionCountingQuantity.setField(ProductionCountingQuantityFields.ROLE, role);
-        productionCountingQuantity.setField(ProductionCountingQuantityFields.TYPE_OF_MATERIAL,
-                getTypeOfMaterial(order, technologyOperationComponent, product, role, isNonComponent));
         productionCountingQuantity.setField(ProductionCountingQuantityFields.IS_NON_COMPONENT, isNonComponent);
         productionCountingQuantity.setField(ProductionCountingQuantityFields.PLANNED_QUANTITY,
                 numberService.setScaleWithDefaultMathContext(plannedQuantity));
@@ -301,14 +489,16 @@ public class BasicProductionCountingServiceImpl implements BasicProductionCounti
         }
     }
 
-    private String getTypeOfMaterial(final Entity order, final Entity technologyOperationComponent, final Entity product,
-            final String role, boolean isNonComponent) {
+    private String getTypeOfMaterial(final Entity order, final Entity orderTechnologyOperationComponent,
+            final Multimap<Long, Long> productsUsedInParentOperations, final Entity technologyOperationComponent,
+            final Entity product, final String role, boolean isNonComponent) {
         if (isNonComponent) {
             return ProductionCountingQuantityTypeOfMaterial.INTERMEDIATE.getStringValue();
         } else if (isRoleProduced(role)) {
-            if (checkIfProductIsFinalProduct(order, technologyOperationComponent, product)) {
+            if (checkIfProductIsFinalProduct(order, orderTechnologyOperationComponent, technologyOperationComponent, product)) {
                 return ProductionCountingQuantityTypeOfMaterial.FINAL_PRODUCT.getStringValue();
-            } else if (checkIfProductAlreadyExists(technologyOperationComponent, product)) {
+            } else if ((technologyOperationComponent != null)
+                    && productsUsedInParentOperations.containsEntry(technologyOperationComponent.getId(), product.getId())) {
                 return ProductionCountingQuantityTypeOfMaterial.INTERMEDIATE.getStringValue();
             } else {
                 return ProductionCountingQuantityTypeOfMaterial.WASTE.getStringValue();
@@ -318,10 +508,10 @@ public class BasicProductionCountingServiceImpl implements BasicProductionCounti
         }
     }
 
-    private boolean checkIfProductIsFinalProduct(final Entity order, final Entity technologyOperationComponent,
-            final Entity product) {
-        return (checkIfProductsAreSame(order, product)
-                && checkIfTechnologyOperationComponentsAreSame(order, technologyOperationComponent));
+    private boolean checkIfProductIsFinalProduct(final Entity order, final Entity orderTechnologyOperationComponent,
+            final Entity technologyOperationComponent, final Entity product) {
+        return (checkIfProductsAreSame(order, product) && (orderTechnologyOperationComponent != null)
+                && technologyOperationComponent.getId().equals(orderTechnologyOperationComponent.getId()));
     }
 
     private boolean checkIfProductsAreSame(final Entity order, final Entity product) {
@@ -330,13 +520,6 @@ public class BasicProductionCountingServiceImpl implements BasicProductionCounti
         return orderProduct != null && product.getId().equals(orderProduct.getId());
     }
 
-    private boolean checkIfTechnologyOperationComponentsAreSame(final Entity order, final Entity technologyOperationComponent) {
-        Entity orderTechnologyOperationComponent = getOrderTechnologyOperationComponent(order);
-
-        return orderTechnologyOperationComponent != null
-                && technologyOperationComponent.getId().equals(orderTechnologyOperationComponent.getId());
-    }
-
     private boolean isRoleProduced(final String role) {
         return ProductionCountingQuantityRole.PRODUCED.getStringValue().equals(role);
     }
@@ -351,25 +534,6 @@ public class BasicProductionCountingServiceImpl implements BasicProductionCounti
         }
     }
 
-    private boolean checkIfProductAlreadyExists(final Entity technologyOperationComponent, final Entity product) {
-        if (technologyOperationComponent == null) {
-            return false;
-        } else {
-            Entity previousTechnologyOperationComponent = technologyOperationComponent
-                    .getBelongsToField(TechnologyOperationComponentFields.PARENT);
-
-            return previousTechnologyOperationComponent != null
-                    && checkIfProductExists(previousTechnologyOperationComponent, product);
-        }
-    }
-
-    private boolean checkIfProductExists(final Entity previousTechnologyOperationComponent, final Entity product) {
-        return (previousTechnologyOperationComponent
-                .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS).find()
-                .add(SearchRestrictions.belongsTo(OperationProductInComponentFields.PRODUCT, product)).list()
-                .getTotalNumberOfEntities() == 1);
-    }
-
     private void updateProductionCountingOperationRuns(final Entity order, final Map<Long, BigDecimal> operationRuns) {
         for (Entry<Long, BigDecimal> operationRun : operationRuns.entrySet()) {
             Entity technologyOperationComponent = productQuantitiesService.getTechnologyOperationComponent(operationRun.getKey());
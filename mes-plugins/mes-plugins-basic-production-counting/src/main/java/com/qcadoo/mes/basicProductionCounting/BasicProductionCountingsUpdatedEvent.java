@@ -0,0 +1,56 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basicProductionCounting;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published after commit of transaction which changed used or produced quantities of order's basic production countings with
+ * {@link BasicProductionCountingBatchUpdateService}, instead of running model hooks for every changed row.
+ */
+public class BasicProductionCountingsUpdatedEvent extends ApplicationEvent {
+
+    private final Long orderId;
+
+    private final Set<Long> basicProductionCountingIds;
+
+    public BasicProductionCountingsUpdatedEvent(final Object source, final Long orderId, final Set<Long> basicProductionCountingIds) {
+        super(source);
+
+        this.orderId = orderId;
+        this.basicProductionCountingIds = Collections.unmodifiableSet(basicProductionCountingIds);
+    }
+
+    public Long getOrderId() {
+        return orderId;
+    }
+
+    public Set<Long> getBasicProductionCountingIds() {
+        return basicProductionCountingIds;
+    }
+
+}
@@ -0,0 +1,403 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basicProductionCounting;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.qcadoo.mes.basicProductionCounting.constants.BasicProductionCountingConstants;
+import com.qcadoo.mes.basicProductionCounting.constants.BasicProductionCountingFields;
+import com.qcadoo.mes.basicProductionCounting.constants.ProductionCountingOperationRunFields;
+import com.qcadoo.mes.basicProductionCounting.constants.ProductionCountingQuantityFields;
+import com.qcadoo.mes.basicProductionCounting.hooks.util.ProductionProgressModifyLockHelper;
+import com.qcadoo.model.api.BigDecimalUtils;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Writes production counting of orders with JDBC batches instead of saving entity by entity. New rows are inserted with
+ * batched statements, existing ones are loaded with one query per order and only rows whose values differ are updated, with
+ * one statement per chunk of rows. Validation of production counting quantities is checked here the same way as on save, rows
+ * which wouldn't pass it are left out, like they would be by unsuccessful save. No other hooks are run, so callers have to
+ * save entities through data definition when some hooks are needed.
+ */
+@Service
+public class ProductionCountingBatchService {
+
+    private static final String L_ID = "id";
+
+    private static final int L_ROWS_PER_UPDATE = 500;
+
+    private static final int L_MAX_UNSCALED_PLANNED_QUANTITY = 9;
+
+    private static final String L_NEXT_BASIC_PRODUCTION_COUNTING_IDS = "SELECT "
+            + "nextval('basicproductioncounting_basicproductioncounting_id_seq') FROM generate_series(1, :count)";
+
+    private static final String L_INSERT_BASIC_PRODUCTION_COUNTING = "INSERT INTO "
+            + "basicproductioncounting_basicproductioncounting (id, order_id, product_id, usedquantity, producedquantity) "
+            + "VALUES (:id, :orderId, :productId, :usedQuantity, :producedQuantity)";
+
+    private static final String L_INSERT_OPERATION_RUN = "INSERT INTO basicproductioncounting_productioncountingoperationrun "
+            + "(order_id, technologyoperationcomponent_id, runs) VALUES (:orderId, :technologyOperationComponentId, :runs)";
+
+    private static final String L_INSERT_PRODUCTION_COUNTING_QUANTITY = "INSERT INTO "
+            + "basicproductioncounting_productioncountingquantity (order_id, technologyoperationcomponent_id, product_id, "
+            + "basicproductioncounting_id, role, typeofmaterial, isnoncomponent, plannedquantity, set) VALUES (:orderId, "
+            + ":technologyOperationComponentId, :productId, :basicProductionCountingId, :role, :typeOfMaterial, "
+            + ":isNonComponent, :plannedQuantity, :set)";
+
+    private static final String L_PRODUCTS_USED_ONCE_IN_PARENT_OPERATIONS = "SELECT toc.id AS toc_id, opic.product_id "
+            + "FROM technologies_technologyoperationcomponent toc JOIN technologies_operationproductincomponent opic "
+            + "ON opic.operationcomponent_id = toc.parent_id WHERE toc.id IN (:technologyOperationComponentIds) "
+            + "GROUP BY toc.id, opic.product_id HAVING COUNT(*) = 1";
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ProductionProgressModifyLockHelper progressModifyLockHelper;
+
+    /**
+     * Finds products, which are used exactly once by parent operations of given technology operation components - produced
+     * ones are then intermediates, not wastes.
+     *
+     * @return product ids by technology operation component id
+     */
+    public Multimap<Long, Long> getProductsUsedOnceInParentOperations(final Collection<Long> technologyOperationComponentIds) {
+        Multimap<Long, Long> productIds = HashMultimap.create();
+
+        if (technologyOperationComponentIds.isEmpty()) {
+            return productIds;
+        }
+
+        jdbcTemplate.query(L_PRODUCTS_USED_ONCE_IN_PARENT_OPERATIONS,
+                Collections.singletonMap("technologyOperationComponentIds", technologyOperationComponentIds),
+                (RowCallbackHandler) resultSet -> productIds.put(resultSet.getLong("toc_id"), resultSet.getLong("product_id")));
+
+        return productIds;
+    }
+
+    /**
+     * Inserts production counting of orders. Basic production countings get their ids before production counting quantities,
+     * which belong to them, are inserted.
+     *
+     * @param operationRuns
+     *            production counting operation runs
+     * @param basicProductionCountings
+     *            basic production countings
+     * @param productionCountingQuantities
+     *            production counting quantities
+     */
+    public void insert(final List<Entity> operationRuns, final List<Entity> basicProductionCountings,
+            final List<Entity> productionCountingQuantities) {
+        insertBasicProductionCountings(basicProductionCountings);
+
+        List<SqlParameterSource> operationRunsParameters = Lists.newArrayListWithCapacity(operationRuns.size());
+
+        for (Entity operationRun : operationRuns) {
+            Entity technologyOperationComponent = operationRun
+                    .getBelongsToField(ProductionCountingOperationRunFields.TECHNOLOGY_OPERATION_COMPONENT);
+
+            operationRunsParameters.add(new MapSqlParameterSource("orderId",
+                    getId(operationRun.getBelongsToField(ProductionCountingOperationRunFields.ORDER)))
+                    .addValue("technologyOperationComponentId", getId(technologyOperationComponent))
+                    .addValue("runs", operationRun.getDecimalField(ProductionCountingOperationRunFields.RUNS)));
+        }
+
+        batchUpdate(L_INSERT_OPERATION_RUN, operationRunsParameters);
+
+        List<SqlParameterSource> productionCountingQuantitiesParameters = Lists
+                .newArrayListWithCapacity(productionCountingQuantities.size());
+        Map<Long, Boolean> lockedOrders = Maps.newHashMap();
+
+        for (Entity productionCountingQuantity : productionCountingQuantities) {
+            Entity order = productionCountingQuantity.getBelongsToField(ProductionCountingQuantityFields.ORDER);
+            BigDecimal plannedQuantity = productionCountingQuantity
+                    .getDecimalField(ProductionCountingQuantityFields.PLANNED_QUANTITY);
+
+            if (!isValidPlannedQuantity(plannedQuantity)
+                    || lockedOrders.computeIfAbsent(order.getId(), orderId -> progressModifyLockHelper.isLocked(order))) {
+                continue;
+            }
+
+            productionCountingQuantitiesParameters.add(new MapSqlParameterSource("orderId", order.getId())
+                    .addValue("technologyOperationComponentId", getId(productionCountingQuantity
+                            .getBelongsToField(ProductionCountingQuantityFields.TECHNOLOGY_OPERATION_COMPONENT)))
+                    .addValue("productId",
+                            getId(productionCountingQuantity.getBelongsToField(ProductionCountingQuantityFields.PRODUCT)))
+                    .addValue("basicProductionCountingId", getId(productionCountingQuantity
+                            .getBelongsToField(ProductionCountingQuantityFields.BASIC_PRODUCTION_COUNTING)))
+                    .addValue("role", productionCountingQuantity.getStringField(ProductionCountingQuantityFields.ROLE))
+                    .addValue("typeOfMaterial",
+                            productionCountingQuantity.getStringField(ProductionCountingQuantityFields.TYPE_OF_MATERIAL))
+                    .addValue("isNonComponent",
+                            productionCountingQuantity.getBooleanField(ProductionCountingQuantityFields.IS_NON_COMPONENT))
+                    .addValue("plannedQuantity", plannedQuantity)
+                    .addValue("set", productionCountingQuantity.getStringField(ProductionCountingQuantityFields.SET)));
+        }
+
+        batchUpdate(L_INSERT_PRODUCTION_COUNTING_QUANTITY, productionCountingQuantitiesParameters);
+    }
+
+    private void insertBasicProductionCountings(final List<Entity> basicProductionCountings) {
+        if (basicProductionCountings.isEmpty()) {
+            return;
+        }
+
+        List<Long> ids = jdbcTemplate.queryForList(L_NEXT_BASIC_PRODUCTION_COUNTING_IDS,
+                Collections.singletonMap("count", basicProductionCountings.size()), Long.class);
+        List<SqlParameterSource> parameters = Lists.newArrayListWithCapacity(basicProductionCountings.size());
+
+        for (int index = 0; index < basicProductionCountings.size(); index++) {
+            Entity basicProductionCounting = basicProductionCountings.get(index);
+
+            basicProductionCounting.setId(ids.get(index));
+
+            parameters.add(new MapSqlParameterSource(L_ID, basicProductionCounting.getId())
+                    .addValue("orderId", getId(basicProductionCounting.getBelongsToField(BasicProductionCountingFields.ORDER)))
+                    .addValue("productId",
+                            getId(basicProductionCounting.getBelongsToField(BasicProductionCountingFields.PRODUCT)))
+                    .addValue("usedQuantity",
+                            basicProductionCounting.getDecimalField(BasicProductionCountingFields.USED_QUANTITY))
+                    .addValue("producedQuantity",
+                            basicProductionCounting.getDecimalField(BasicProductionCountingFields.PRODUCED_QUANTITY)));
+        }
+
+        batchUpdate(L_INSERT_BASIC_PRODUCTION_COUNTING, parameters);
+    }
+
+    /**
+     * Updates runs of production counting operation runs of given order, which differ from given ones. Operation runs of
+     * technology operation components, which aren't counted yet, aren't created.
+     *
+     * @param order
+     *            order
+     * @param operationRuns
+     *            runs by technology operation component id
+     *
+     * @return number of updated operation runs
+     */
+    public int updateOperationRuns(final Entity order, final Map<Long, BigDecimal> operationRuns) {
+        Map<Long, Long> operationRunIds = Maps.newHashMap();
+        Map<Long, BigDecimal> changedRuns = Maps.newLinkedHashMap();
+
+        jdbcTemplate.query("SELECT id, technologyoperationcomponent_id, runs "
+                + "FROM basicproductioncounting_productioncountingoperationrun WHERE order_id = :orderId ORDER BY id",
+                Collections.singletonMap("orderId", order.getId()), (RowCallbackHandler) resultSet -> {
+                    Long technologyOperationComponentId = (Long) resultSet.getObject("technologyoperationcomponent_id");
+
+                    if (operationRuns.containsKey(technologyOperationComponentId)
+                            && !operationRunIds.containsKey(technologyOperationComponentId)) {
+                        operationRunIds.put(technologyOperationComponentId, resultSet.getLong(L_ID));
+
+                        BigDecimal runs = operationRuns.get(technologyOperationComponentId);
+
+                        if (!BigDecimalUtils.valueEquals(resultSet.getBigDecimal("runs"), runs)) {
+                            changedRuns.put(resultSet.getLong(L_ID), runs);
+                        }
+                    }
+                });
+
+        return update("basicproductioncounting_productioncountingoperationrun", "runs = v.runs", "runs",
+                Lists.newArrayList(changedRuns.entrySet()), (index, changedRun, params) -> {
+                    params.put(L_ID + index, changedRun.getKey());
+                    params.put("runs" + index, changedRun.getValue());
+
+                    return String.format("(CAST(:id%1$d AS bigint), CAST(:runs%1$d AS numeric))", index);
+                });
+    }
+
+    /**
+     * Updates production counting quantities of given order, which are matched by technology operation component, product and
+     * role with given ones, but differ from them in planned quantity or non component flag. Production counting quantities,
+     * which aren't counted yet, aren't created.
+     *
+     * @param order
+     *            order
+     * @param productionCountingQuantities
+     *            production counting quantities with current values, later ones win when they are matched with the same row
+     * @param saveWithHooks
+     *            whether changed production counting quantities should be saved through data definition, so that their save
+     *            hooks are run
+     *
+     * @return number of updated production counting quantities
+     */
+    public int updateProductionCountingQuantities(final Entity order, final List<Entity> productionCountingQuantities,
+            final boolean saveWithHooks) {
+        Map<String, Entity> productionCountingQuantitiesByKey = Maps.newHashMap();
+
+        for (Entity productionCountingQuantity : productionCountingQuantities) {
+            productionCountingQuantitiesByKey.put(
+                    getKey(getId(productionCountingQuantity
+                            .getBelongsToField(ProductionCountingQuantityFields.TECHNOLOGY_OPERATION_COMPONENT)),
+                            getId(productionCountingQuantity.getBelongsToField(ProductionCountingQuantityFields.PRODUCT)),
+                            productionCountingQuantity.getStringField(ProductionCountingQuantityFields.ROLE)),
+                    productionCountingQuantity);
+        }
+
+        Map<String, Long> matchedIds = Maps.newHashMap();
+        List<Entity> changedProductionCountingQuantities = Lists.newArrayList();
+        boolean locked = progressModifyLockHelper.isLocked(order);
+
+        jdbcTemplate.query("SELECT id, technologyoperationcomponent_id, product_id, role, isnoncomponent, plannedquantity "
+                + "FROM basicproductioncounting_productioncountingquantity WHERE order_id = :orderId ORDER BY id",
+                Collections.singletonMap("orderId", order.getId()), (RowCallbackHandler) resultSet -> {
+                    String key = getKey((Long) resultSet.getObject("technologyoperationcomponent_id"),
+                            (Long) resultSet.getObject("product_id"), resultSet.getString("role"));
+                    Entity productionCountingQuantity = productionCountingQuantitiesByKey.get(key);
+
+                    if (productionCountingQuantity == null || matchedIds.containsKey(key)) {
+                        return;
+                    }
+
+                    matchedIds.put(key, resultSet.getLong(L_ID));
+
+                    BigDecimal plannedQuantity = productionCountingQuantity
+                            .getDecimalField(ProductionCountingQuantityFields.PLANNED_QUANTITY);
+                    boolean isNonComponent = productionCountingQuantity
+                            .getBooleanField(ProductionCountingQuantityFields.IS_NON_COMPONENT);
+                    boolean plannedQuantityChanged = !BigDecimalUtils.valueEquals(resultSet.getBigDecimal("plannedquantity"),
+                            plannedQuantity);
+
+                    if (!plannedQuantityChanged && isNonComponent == resultSet.getBoolean("isnoncomponent")) {
+                        return;
+                    }
+                    if (plannedQuantityChanged && (locked || !isValidPlannedQuantity(plannedQuantity))) {
+                        return;
+                    }
+
+                    productionCountingQuantity.setId(resultSet.getLong(L_ID));
+
+                    changedProductionCountingQuantities.add(productionCountingQuantity);
+                });
+
+        if (saveWithHooks) {
+            return saveWithHooks(changedProductionCountingQuantities);
+        }
+
+        return update("basicproductioncounting_productioncountingquantity",
+                "plannedquantity = v.plannedquantity, isnoncomponent = v.isnoncomponent", "plannedquantity, isnoncomponent",
+                changedProductionCountingQuantities, (index, productionCountingQuantity, params) -> {
+                    params.put(L_ID + index, productionCountingQuantity.getId());
+                    params.put("plannedQuantity" + index,
+                            productionCountingQuantity.getDecimalField(ProductionCountingQuantityFields.PLANNED_QUANTITY));
+                    params.put("isNonComponent" + index,
+                            productionCountingQuantity.getBooleanField(ProductionCountingQuantityFields.IS_NON_COMPONENT));
+
+                    return String.format("(CAST(:id%1$d AS bigint), CAST(:plannedQuantity%1$d AS numeric), "
+                            + "CAST(:isNonComponent%1$d AS boolean))", index);
+                });
+    }
+
+    private int saveWithHooks(final List<Entity> changedProductionCountingQuantities) {
+        DataDefinition productionCountingQuantityDD = dataDefinitionService.get(
+                BasicProductionCountingConstants.PLUGIN_IDENTIFIER,
+                BasicProductionCountingConstants.MODEL_PRODUCTION_COUNTING_QUANTITY);
+
+        int updated = 0;
+
+        for (Entity changedProductionCountingQuantity : changedProductionCountingQuantities) {
+            Entity productionCountingQuantity = productionCountingQuantityDD.get(changedProductionCountingQuantity.getId());
+
+            productionCountingQuantity.setField(ProductionCountingQuantityFields.IS_NON_COMPONENT,
+                    changedProductionCountingQuantity.getBooleanField(ProductionCountingQuantityFields.IS_NON_COMPONENT));
+            productionCountingQuantity.setField(ProductionCountingQuantityFields.PLANNED_QUANTITY,
+                    changedProductionCountingQuantity.getDecimalField(ProductionCountingQuantityFields.PLANNED_QUANTITY));
+
+            if (productionCountingQuantityDD.save(productionCountingQuantity).isValid()) {
+                updated++;
+            }
+        }
+
+        return updated;
+    }
+
+    private <T> int update(final String table, final String assignments, final String columns, final List<T> rows,
+            final ValuesWriter<T> valuesWriter) {
+        int updated = 0;
+
+        for (List<T> chunk : Lists.partition(rows, L_ROWS_PER_UPDATE)) {
+            Map<String, Object> params = Maps.newHashMap();
+            StringBuilder values = new StringBuilder();
+
+            for (int index = 0; index < chunk.size(); index++) {
+                if (index > 0) {
+                    values.append(", ");
+                }
+
+                values.append(valuesWriter.write(index, chunk.get(index), params));
+            }
+
+            updated += jdbcTemplate.update("UPDATE " + table + " t SET " + assignments + ", entityversion = t.entityversion + 1 "
+                    + "FROM (VALUES " + values + ") AS v (id, " + columns + ") WHERE t.id = v.id", params);
+        }
+
+        return updated;
+    }
+
+    private void batchUpdate(final String query, final List<SqlParameterSource> parameters) {
+        if (!parameters.isEmpty()) {
+            jdbcTemplate.batchUpdate(query, parameters.toArray(new SqlParameterSource[parameters.size()]));
+        }
+    }
+
+    private boolean isValidPlannedQuantity(final BigDecimal plannedQuantity) {
+        return plannedQuantity != null && BigDecimal.ZERO.compareTo(plannedQuantity) < 0
+                && plannedQuantity.precision() - plannedQuantity.scale() <= L_MAX_UNSCALED_PLANNED_QUANTITY;
+    }
+
+    private String getKey(final Long technologyOperationComponentId, final Long productId, final String role) {
+        return Objects.toString(technologyOperationComponentId) + "_" + productId + "_" + role;
+    }
+
+    private Long getId(final Entity entity) {
+        return entity == null ? null : entity.getId();
+    }
+
+    private interface ValuesWriter<T> {
+
+        String write(int index, T row, Map<String, Object> params);
+
+    }
+
+}
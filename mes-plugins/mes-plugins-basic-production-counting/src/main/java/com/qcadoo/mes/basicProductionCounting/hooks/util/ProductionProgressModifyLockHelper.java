@@ -51,7 +51,7 @@ public class ProductionProgressModifyLockHelper {
     }
 
     private boolean isLocked() {
-        return parameterService.getParameter().getBooleanField(ParameterFieldsBPC.LOCK_PRODUCTION_PROGRESS);
+        return parameterService.getParameterSnapshot().getBooleanField(ParameterFieldsBPC.LOCK_PRODUCTION_PROGRESS);
     }
 
 }
@@ -0,0 +1,151 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basicProductionCounting;
+
+import static com.qcadoo.testing.model.EntityTestUtils.mockEntity;
+import static com.qcadoo.testing.model.EntityTestUtils.stubDecimalField;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basicProductionCounting.constants.BasicProductionCountingFields;
+import com.qcadoo.mes.basicProductionCounting.validators.BasicProductionCountingValidators;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+
+public class BasicProductionCountingBatchUpdateServiceTest {
+
+    private BasicProductionCountingBatchUpdateService basicProductionCountingBatchUpdateService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private BasicProductionCountingValidators basicProductionCountingValidators;
+
+    @Mock
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    @Mock
+    private DataDefinition basicProductionCountingDD;
+
+    private Entity order;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        basicProductionCountingBatchUpdateService = new BasicProductionCountingBatchUpdateService();
+
+        ReflectionTestUtils.setField(basicProductionCountingBatchUpdateService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(basicProductionCountingBatchUpdateService, "basicProductionCountingValidators",
+                basicProductionCountingValidators);
+        ReflectionTestUtils.setField(basicProductionCountingBatchUpdateService, "applicationEventPublisher",
+                applicationEventPublisher);
+
+        order = mockEntity(1L);
+    }
+
+    private Entity mockBasicProductionCounting(final Long id, final BigDecimal usedQuantity, final BigDecimal producedQuantity,
+            final boolean valid) {
+        Entity basicProductionCounting = mockEntity(id);
+
+        when(basicProductionCounting.getDataDefinition()).thenReturn(basicProductionCountingDD);
+        stubDecimalField(basicProductionCounting, BasicProductionCountingFields.USED_QUANTITY, usedQuantity);
+        stubDecimalField(basicProductionCounting, BasicProductionCountingFields.PRODUCED_QUANTITY, producedQuantity);
+        when(basicProductionCountingValidators.validatesWith(basicProductionCountingDD, basicProductionCounting)).thenReturn(
+                valid);
+
+        return basicProductionCounting;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldUpdateValidBasicProductionCountingsWithOneStatement() {
+        // given
+        Entity first = mockBasicProductionCounting(10L, BigDecimal.ONE, null, true);
+        Entity invalid = mockBasicProductionCounting(11L, BigDecimal.ONE.negate(), null, false);
+        Entity second = mockBasicProductionCounting(12L, null, BigDecimal.TEN, true);
+
+        when(jdbcTemplate.update(anyString(), anyMapOf(String.class, Object.class))).thenReturn(2);
+
+        // when
+        int updated = basicProductionCountingBatchUpdateService.update(order, Lists.newArrayList(first, invalid, second));
+
+        // then
+        ArgumentCaptor<Map> params = ArgumentCaptor.forClass(Map.class);
+
+        verify(jdbcTemplate).update(anyString(), params.capture());
+
+        assertEquals(2, updated);
+        assertEquals(10L, params.getValue().get("id0"));
+        assertEquals(BigDecimal.ONE, params.getValue().get("usedQuantity0"));
+        assertEquals(12L, params.getValue().get("id1"));
+        assertEquals(BigDecimal.TEN, params.getValue().get("producedQuantity1"));
+        assertFalse(params.getValue().containsValue(11L));
+
+        ArgumentCaptor<BasicProductionCountingsUpdatedEvent> event = ArgumentCaptor
+                .forClass(BasicProductionCountingsUpdatedEvent.class);
+
+        verify(applicationEventPublisher).publishEvent(event.capture());
+
+        assertEquals(Long.valueOf(1L), event.getValue().getOrderId());
+        assertTrue(event.getValue().getBasicProductionCountingIds().contains(10L));
+        assertFalse(event.getValue().getBasicProductionCountingIds().contains(11L));
+    }
+
+    @Test
+    public void shouldNotUpdateNorPublishWhenNothingIsValid() {
+        // given
+        Entity invalid = mockBasicProductionCounting(11L, BigDecimal.ONE.negate(), null, false);
+
+        // when
+        int updated = basicProductionCountingBatchUpdateService.update(order, Lists.newArrayList(invalid));
+
+        // then
+        assertEquals(0, updated);
+        verify(jdbcTemplate, never()).update(anyString(), anyMapOf(String.class, Object.class));
+        verify(applicationEventPublisher, never()).publishEvent(any(BasicProductionCountingsUpdatedEvent.class));
+    }
+
+}
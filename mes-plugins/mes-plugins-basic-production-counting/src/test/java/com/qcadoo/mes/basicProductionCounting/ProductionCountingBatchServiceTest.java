@@ -0,0 +1,169 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basicProductionCounting;
+
+import static com.qcadoo.testing.model.EntityTestUtils.mockEntity;
+import static com.qcadoo.testing.model.EntityTestUtils.stubBelongsToField;
+import static com.qcadoo.testing.model.EntityTestUtils.stubDecimalField;
+import static com.qcadoo.testing.model.EntityTestUtils.stubStringField;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basicProductionCounting.constants.ProductionCountingQuantityFields;
+import com.qcadoo.mes.basicProductionCounting.constants.ProductionCountingQuantityRole;
+import com.qcadoo.mes.basicProductionCounting.hooks.util.ProductionProgressModifyLockHelper;
+import com.qcadoo.model.api.Entity;
+
+public class ProductionCountingBatchServiceTest {
+
+    private static final String L_USED = ProductionCountingQuantityRole.USED.getStringValue();
+
+    private ProductionCountingBatchService productionCountingBatchService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private ProductionProgressModifyLockHelper progressModifyLockHelper;
+
+    private Entity order;
+
+    private Entity technologyOperationComponent;
+
+    @Before
+    public void init() throws Exception {
+        MockitoAnnotations.initMocks(this);
+
+        productionCountingBatchService = new ProductionCountingBatchService();
+
+        ReflectionTestUtils.setField(productionCountingBatchService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(productionCountingBatchService, "progressModifyLockHelper", progressModifyLockHelper);
+
+        order = mockEntity(1L);
+        technologyOperationComponent = mockEntity(2L);
+
+        ResultSet unchanged = mockRow(10L, 3L, BigDecimal.valueOf(5));
+        ResultSet changed = mockRow(11L, 4L, BigDecimal.ONE);
+        ResultSet notCounted = mockRow(12L, 5L, BigDecimal.TEN);
+
+        doAnswer(invocation -> {
+            RowCallbackHandler rowCallbackHandler = (RowCallbackHandler) invocation.getArguments()[2];
+
+            rowCallbackHandler.processRow(unchanged);
+            rowCallbackHandler.processRow(changed);
+            rowCallbackHandler.processRow(notCounted);
+
+            return null;
+        }).when(jdbcTemplate).query(anyString(), anyMapOf(String.class, Object.class), any(RowCallbackHandler.class));
+    }
+
+    private ResultSet mockRow(final Long id, final Long productId, final BigDecimal plannedQuantity) throws Exception {
+        ResultSet resultSet = mock(ResultSet.class);
+
+        when(resultSet.getLong("id")).thenReturn(id);
+        when(resultSet.getObject("technologyoperationcomponent_id")).thenReturn(2L);
+        when(resultSet.getObject("product_id")).thenReturn(productId);
+        when(resultSet.getString("role")).thenReturn(L_USED);
+        when(resultSet.getBoolean("isnoncomponent")).thenReturn(false);
+        when(resultSet.getBigDecimal("plannedquantity")).thenReturn(plannedQuantity);
+
+        return resultSet;
+    }
+
+    private Entity mockProductionCountingQuantity(final Long productId, final BigDecimal plannedQuantity) {
+        Entity productionCountingQuantity = mockEntity();
+
+        stubBelongsToField(productionCountingQuantity, ProductionCountingQuantityFields.TECHNOLOGY_OPERATION_COMPONENT,
+                technologyOperationComponent);
+        stubBelongsToField(productionCountingQuantity, ProductionCountingQuantityFields.PRODUCT, mockEntity(productId));
+        stubStringField(productionCountingQuantity, ProductionCountingQuantityFields.ROLE, L_USED);
+        stubDecimalField(productionCountingQuantity, ProductionCountingQuantityFields.PLANNED_QUANTITY, plannedQuantity);
+
+        return productionCountingQuantity;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldUpdateOnlyChangedProductionCountingQuantities() {
+        // given
+        Entity unchanged = mockProductionCountingQuantity(3L, new BigDecimal("5.00000"));
+        Entity changed = mockProductionCountingQuantity(4L, BigDecimal.valueOf(2));
+
+        when(jdbcTemplate.update(anyString(), anyMapOf(String.class, Object.class))).thenReturn(1);
+
+        // when
+        int updated = productionCountingBatchService.updateProductionCountingQuantities(order,
+                Lists.newArrayList(unchanged, changed), false);
+
+        // then
+        ArgumentCaptor<Map> params = ArgumentCaptor.forClass(Map.class);
+
+        verify(jdbcTemplate).update(anyString(), params.capture());
+        verify(changed).setId(11L);
+        verify(unchanged, never()).setId(any(Long.class));
+
+        assertEquals(1, updated);
+        assertEquals(BigDecimal.valueOf(2), params.getValue().get("plannedQuantity0"));
+        assertFalse(params.getValue().containsKey("plannedQuantity1"));
+    }
+
+    @Test
+    public void shouldNotChangePlannedQuantitiesOfLockedOrder() {
+        // given
+        Entity changed = mockProductionCountingQuantity(4L, BigDecimal.valueOf(2));
+
+        when(progressModifyLockHelper.isLocked(order)).thenReturn(true);
+
+        // when
+        int updated = productionCountingBatchService.updateProductionCountingQuantities(order, Lists.newArrayList(changed),
+                false);
+
+        // then
+        assertEquals(0, updated);
+        verify(jdbcTemplate, never()).update(anyString(), anyMapOf(String.class, Object.class));
+    }
+
+}
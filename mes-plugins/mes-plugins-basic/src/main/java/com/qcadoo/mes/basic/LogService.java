@@ -4,14 +4,18 @@ import java.util.Date;
 import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.Maps;
 import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.mes.basic.constants.LogDurability;
 import com.qcadoo.mes.basic.constants.LogFields;
 import com.qcadoo.mes.basic.constants.LogLevel;
 import com.qcadoo.model.api.DataDefinition;
@@ -41,6 +45,14 @@ public class LogService {
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private LogWriter logWriter;
+
+    @Value("${logDurability:ASYNC_AFTER_COMMIT}")
+    private LogDurability logDurability;
+
+    private volatile Long botUserId;
+
     public final static class Builder {
 
         private Builder() {
@@ -130,40 +142,82 @@ public class LogService {
         }
     }
 
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    /**
+     * Adds log entry, it is written according to configured {@link LogDurability}.
+     * 
+     * @return saved log entity in SYNC mode, otherwise log entity which isn't saved yet and has no id
+     */
     public Entity add(Builder builder) {
         validate(builder);
 
-        DataDefinition logDD = getLogDD();
-        Entity logEntity = logDD.create();
+        Date createTime = builder.createTime;
+
+        if (createTime == null) {
+            createTime = new Date();
+        }
 
-        logEntity.setField(LogFields.ACTION, builder.action);
-        if (builder.createTime == null) {
-            logEntity.setField(LogFields.CREATE_TIME, new Date());
+        LogWriter.LogRow row = new LogWriter.LogRow(createTime, getUserId(), builder.type, builder.action, builder.message,
+                builder.item1, builder.item2, builder.item3, builder.details, builder.logLevel.getCode());
+
+        Entity logEntity = createLogEntity(row);
+
+        if (LogDurability.SYNC.equals(logDurability)) {
+            return saveLogEntity(logEntity);
+        } else if (LogDurability.ASYNC_AFTER_COMMIT.equals(logDurability)
+                && TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    logWriter.enqueue(row);
+                }
+
+            });
         } else {
-            logEntity.setField(LogFields.CREATE_TIME, builder.createTime);
-        }
-        logEntity.setField(LogFields.DETAILS, builder.details);
-        logEntity.setField(LogFields.ITEM_1, builder.item1);
-        logEntity.setField(LogFields.ITEM_2, builder.item2);
-        logEntity.setField(LogFields.ITEM_3, builder.item3);
-        logEntity.setField(LogFields.LOG_LEVEL, builder.logLevel.getCode());
-        logEntity.setField(LogFields.MESSAGE, builder.message);
-        logEntity.setField(LogFields.TYPE, builder.type);
-        Long userId;
-        try {
-            userId = securityService.getCurrentUserId();
-        } catch (Exception ex) {
-            userId = findBotUser().getId();
+            logWriter.enqueue(row);
         }
-        logEntity.setField(LogFields.USER, userId);
-        return logDD.save(logEntity);
+
+        return logEntity;
+    }
+
+    private Entity createLogEntity(final LogWriter.LogRow row) {
+        Entity logEntity = getLogDD().create();
+
+        logEntity.setField(LogFields.CREATE_TIME, row.getCreateTime());
+        logEntity.setField(LogFields.USER, row.getUserId());
+        logEntity.setField(LogFields.TYPE, row.getType());
+        logEntity.setField(LogFields.ACTION, row.getAction());
+        logEntity.setField(LogFields.MESSAGE, row.getMessage());
+        logEntity.setField(LogFields.ITEM_1, row.getItem1());
+        logEntity.setField(LogFields.ITEM_2, row.getItem2());
+        logEntity.setField(LogFields.ITEM_3, row.getItem3());
+        logEntity.setField(LogFields.DETAILS, row.getDetails());
+        logEntity.setField(LogFields.LOG_LEVEL, row.getLogLevel());
+
+        return logEntity;
+    }
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    private Entity saveLogEntity(final Entity logEntity) {
+        return logEntity.getDataDefinition().save(logEntity);
     }
 
     private DataDefinition getLogDD() {
         return dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_LOG);
     }
 
+    private Long getUserId() {
+        try {
+            return securityService.getCurrentUserId();
+        } catch (Exception ex) {
+            if (botUserId == null) {
+                botUserId = findBotUser().getId();
+            }
+
+            return botUserId;
+        }
+    }
+
     private Entity findBotUser() {
         DataDefinition userDD = dataDefinitionService.get(QcadooSecurityConstants.PLUGIN_IDENTIFIER,
                 QcadooSecurityConstants.MODEL_USER);
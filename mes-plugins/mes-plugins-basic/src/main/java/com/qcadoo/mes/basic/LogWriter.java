@@ -0,0 +1,292 @@
+package com.qcadoo.mes.basic;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Writes entries of {@link LogService} to basic_log. Queued entries wait in bounded buffer drained by single background thread,
+ * which inserts everything waiting with multi-row inserts. When the buffer is full new entries are dropped and counted, so
+ * logging never blocks callers. When multi-row insert fails, its rows are inserted one by one, so one bad entry doesn't take
+ * the others with it.
+ */
+@Service
+public class LogWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LogWriter.class);
+
+    private static final int L_MAX_ROWS_IN_INSERT = 500;
+
+    private static final int L_ITEM_MAX_LENGTH = 2048;
+
+    private static final int L_STRING_MAX_LENGTH = 255;
+
+    private static final long L_STOP_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Value("${logQueueCapacity:10000}")
+    private int queueCapacity;
+
+    private BlockingQueue<LogRow> queue;
+
+    private final AtomicLong written = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private volatile boolean running;
+
+    private Thread writerThread;
+
+    @PostConstruct
+    public void start() {
+        queue = new ArrayBlockingQueue<LogRow>(queueCapacity);
+        running = true;
+
+        writerThread = new Thread(this::writeQueued, "log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+
+        writerThread.interrupt();
+        writerThread.join(L_STOP_TIMEOUT);
+    }
+
+    public void enqueue(final LogRow row) {
+        if (!queue.offer(row)) {
+            long droppedCount = dropped.incrementAndGet();
+
+            if (droppedCount % 1000 == 1) {
+                LOG.warn(String.format("Log queue is full, %d entries dropped so far", droppedCount));
+            }
+        }
+    }
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void write(final List<LogRow> rows) {
+        for (List<LogRow> rowsInInsert : Lists.partition(rows, L_MAX_ROWS_IN_INSERT)) {
+            StringBuilder query = new StringBuilder();
+            query.append("INSERT INTO basic_log ");
+            query.append("(createtime, user_id, logtype, action, message, item1, item2, item3, details, loglevel) VALUES ");
+
+            MapSqlParameterSource params = new MapSqlParameterSource();
+
+            for (int index = 0; index < rowsInInsert.size(); index++) {
+                LogRow row = rowsInInsert.get(index);
+
+                if (index > 0) {
+                    query.append(", ");
+                }
+
+                query.append(String.format("(:createTime%1$d, :userId%1$d, :type%1$d, :action%1$d, :message%1$d, "
+                        + ":item1%1$d, :item2%1$d, :item3%1$d, :details%1$d, :logLevel%1$d)", index));
+
+                params.addValue("createTime" + index, row.createTime);
+                params.addValue("userId" + index, row.userId);
+                params.addValue("type" + index, row.type);
+                params.addValue("action" + index, row.action);
+                params.addValue("message" + index, row.message);
+                params.addValue("item1" + index, row.item1);
+                params.addValue("item2" + index, row.item2);
+                params.addValue("item3" + index, row.item3);
+                params.addValue("details" + index, row.details);
+                params.addValue("logLevel" + index, row.logLevel);
+            }
+
+            jdbcTemplate.update(query.toString(), params);
+        }
+
+        written.addAndGet(rows.size());
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    private void writeQueued() {
+        List<LogRow> rows = Lists.newArrayList();
+
+        while (running) {
+            try {
+                rows.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            queue.drainTo(rows, L_MAX_ROWS_IN_INSERT - 1);
+
+            writeQuietly(rows);
+        }
+
+        // application is stopping, write what is left
+        while (queue.drainTo(rows, L_MAX_ROWS_IN_INSERT) > 0) {
+            writeQuietly(rows);
+        }
+    }
+
+    private void writeQuietly(final List<LogRow> rows) {
+        try {
+            write(rows);
+        } catch (Exception e) {
+            if (rows.size() == 1) {
+                failed.incrementAndGet();
+
+                LOG.error("Can't write log entry", e);
+            } else {
+                LOG.warn(String.format("Can't write %d log entries together, writing them one by one", rows.size()), e);
+
+                writeOneByOne(rows);
+            }
+        } finally {
+            rows.clear();
+        }
+    }
+
+    private void writeOneByOne(final List<LogRow> rows) {
+        int failedRows = 0;
+        Exception lastException = null;
+
+        for (LogRow row : rows) {
+            try {
+                write(Collections.singletonList(row));
+            } catch (Exception e) {
+                failedRows++;
+                lastException = e;
+            }
+        }
+
+        if (failedRows > 0) {
+            failed.addAndGet(failedRows);
+
+            LOG.error(String.format("Can't write %d of %d log entries", failedRows, rows.size()), lastException);
+        }
+    }
+
+    /**
+     * Values of single basic_log row, type, action and items are cut to maximal length of their columns.
+     */
+    static final class LogRow {
+
+        private final Date createTime;
+
+        private final Long userId;
+
+        private final String type;
+
+        private final String action;
+
+        private final String message;
+
+        private final String item1;
+
+        private final String item2;
+
+        private final String item3;
+
+        private final String details;
+
+        private final String logLevel;
+
+        LogRow(final Date createTime, final Long userId, final String type, final String action, final String message,
+                final String item1, final String item2, final String item3, final String details, final String logLevel) {
+            this.createTime = createTime;
+            this.userId = userId;
+            this.type = cut(type, L_STRING_MAX_LENGTH);
+            this.action = cut(action, L_STRING_MAX_LENGTH);
+            this.message = message;
+            this.item1 = cut(item1, L_ITEM_MAX_LENGTH);
+            this.item2 = cut(item2, L_ITEM_MAX_LENGTH);
+            this.item3 = cut(item3, L_ITEM_MAX_LENGTH);
+            this.details = details;
+            this.logLevel = logLevel;
+        }
+
+        private static String cut(final String value, final int maxLength) {
+            if ((value == null) || (value.length() <= maxLength)) {
+                return value;
+            }
+
+            return value.substring(0, maxLength);
+        }
+
+        Date getCreateTime() {
+            return createTime;
+        }
+
+        Long getUserId() {
+            return userId;
+        }
+
+        String getType() {
+            return type;
+        }
+
+        String getAction() {
+            return action;
+        }
+
+        String getMessage() {
+            return message;
+        }
+
+        String getItem1() {
+            return item1;
+        }
+
+        String getItem2() {
+            return item2;
+        }
+
+        String getItem3() {
+            return item3;
+        }
+
+        String getDetails() {
+            return details;
+        }
+
+        String getLogLevel() {
+            return logLevel;
+        }
+
+    }
+
+}
@@ -7,120 +7,441 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
+/**
+ * Backend of lookup grids. Filter metadata of record classes is read once per class. When lookup query leaves ordering to
+ * this service (second %s placeholder) and record has id, rows are sorted by grid column with id as tie-breaker and last row
+ * of each served page is remembered, so next pages seek from that row instead of skipping all preceding rows. Jumps far past
+ * known rows read only sort keys of skipped rows, remember last key of each skipped page and seek from the one before
+ * requested page. Counts are cached for a short time, so paging doesn't count all matching rows again on each page, and
+ * remembered rows expire with counts, so rows added or removed in the meantime shift pages the same way as the count. Both
+ * caches keep at most 1000 queries.
+ */
 @Service
 public class LookupUtils {
 
+    private static final String L_ID = "id";
+
+    private static final String L_ASC = "asc";
+
+    private static final String L_DESC = "desc";
+
+    private static final String L_SEEK_VALUE = "lookupSeekValue";
+
+    private static final String L_SEEK_ID = "lookupSeekId";
+
+    private static final String L_SORT_VALUE = "lookupsortvalue";
+
+    private static final String L_ROW_NUMBER = "lookuprownumber";
+
+    private static final String L_PLACEHOLDER = "%s";
+
+    private static final int L_MAX_CACHED_QUERIES = 1000;
+
+    private static final long L_PAGES_BOUNDARIES_TTL = TimeUnit.MINUTES.toMillis(10);
+
+    private static final int L_MAX_SKIPPED_ROWS = 1000;
+
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
+    @Value("${lookupCountCacheSeconds:30}")
+    private int countCacheSeconds;
+
+    private final Map<Class<?>, RecordMetadata> recordsMetadata = new ConcurrentHashMap<>();
+
+    private final Cache<String, CachedCount> counts = CacheBuilder.newBuilder().maximumSize(L_MAX_CACHED_QUERIES).build();
+
+    private final Cache<String, PagesBoundaries> pagesBoundaries = CacheBuilder.newBuilder().maximumSize(L_MAX_CACHED_QUERIES)
+            .expireAfterAccess(L_PAGES_BOUNDARIES_TTL, TimeUnit.MILLISECONDS).build();
+
     public <R> GridResponse<R> getGridResponse(String query, String sidx, String sord, Integer page, int perPage, R recordExample) {
         return getGridResponse(query, sidx, sord, page, perPage, recordExample, new HashMap<>());
     }
 
-    public <R> GridResponse<R> getGridResponse(String query, String sidx, String sord, Integer page, int perPage, R recordExample, Map<String, Object> parameters) {
+    public <R> GridResponse<R> getGridResponse(String query, String sidx, String sord, Integer page, int perPage,
+            R recordExample, Map<String, Object> parameters) {
+        RecordMetadata metadata = getRecordMetadata(recordExample.getClass());
+
         sidx = sidx != null ? sidx.toLowerCase() : "";
         sord = sord != null ? sord.toLowerCase() : "";
 
-        Preconditions.checkState(Arrays.asList("asc", "desc", "").contains(sord));
-        Preconditions.checkState(Arrays.asList(recordExample.getClass().getDeclaredFields()).stream().map(Field::getName).map(String::toLowerCase).collect(Collectors.toList()).contains(sidx));
+        Preconditions.checkState(Arrays.asList(L_ASC, L_DESC, "").contains(sord));
+        Preconditions.checkState(metadata.hasField(sidx));
+
+        boolean seekable = metadata.hasField(L_ID) && hasOrderPlaceholder(query);
+        String where = metadata.getWhere(recordExample);
+
+        query += where;
 
-        query += addQueryWhereForObject(recordExample);
+        parameters.putAll(metadata.getParameters(recordExample));
 
-        parameters.putAll(getParametersForObject(recordExample));
+        int countRecords = countRecords(String.format(query, "COUNT(*)", ""), parameters);
 
-        String queryCount = String.format(query, "COUNT(*)", "");
-        String queryRecords = String.format(query, "*", "ORDER BY " + sidx + " " + sord) + String.format(" LIMIT %d OFFSET %d", perPage, perPage * (page - 1));
+        List<R> records;
 
-        Integer countRecords = jdbcTemplate.queryForObject(queryCount, parameters, Long.class).intValue();
-        List<R> records = jdbcTemplate.query(queryRecords, parameters, new BeanPropertyRowMapper(recordExample.getClass()));
+        if (seekable) {
+            records = getRecordsBySeek(query, !where.isEmpty(), sidx, sord, page, perPage, metadata, parameters);
+        } else {
+            String queryRecords = String.format(query, "*", "ORDER BY " + sidx + " " + sord)
+                    + String.format(" LIMIT %d OFFSET %d", perPage, perPage * (page - 1));
 
-        return new GridResponse<>(page, Double.valueOf(Math.ceil((1.0 * countRecords) / perPage)).intValue(), countRecords, records);
+            records = jdbcTemplate.query(queryRecords, parameters, new BeanPropertyRowMapper(recordExample.getClass()));
+        }
+
+        return new GridResponse<>(page, Double.valueOf(Math.ceil((1.0 * countRecords) / perPage)).intValue(), countRecords,
+                records);
     }
 
-    private String addQueryWhereForObject(Object object) {
-        List<String> items = new ArrayList<>();
+    private boolean hasOrderPlaceholder(final String query) {
+        int first = query.indexOf(L_PLACEHOLDER);
 
-        if (object != null) {
-            for (Field field : object.getClass().getDeclaredFields()) {
-                try {
-                    field.setAccessible(true);
-                    Object value = field.get(object);
-                    if (value != null) {
-                        if (value instanceof Number) {
-                            items.add(String.format("%s = :%s", field.getName(), field.getName()));
+        return first >= 0 && query.indexOf(L_PLACEHOLDER, first + L_PLACEHOLDER.length()) >= 0;
+    }
 
-                        } else if (value instanceof Date) {
-                            items.add(String.format("%s = :%s", field.getName(), field.getName()));
+    private int countRecords(final String queryCount, final Map<String, Object> parameters) {
+        if (countCacheSeconds <= 0) {
+            return jdbcTemplate.queryForObject(queryCount, parameters, Long.class).intValue();
+        }
 
-                        } else if (value instanceof Boolean) {
-                            items.add(String.format("%s = :%s", field.getName(), field.getName()));
+        long now = System.currentTimeMillis();
+        String key = queryCount + new TreeMap<>(parameters);
+        CachedCount cachedCount = counts.getIfPresent(key);
 
-                        } else if (value instanceof String) {
-                            SearchAttribute.SEARCH_TYPE searchType = field.isAnnotationPresent(SearchAttribute.class) ? field.getAnnotation(SearchAttribute.class).searchType() : SearchAttribute.SEARCH_TYPE.LIKE;
+        if (cachedCount != null && cachedCount.isValid(now)) {
+            return cachedCount.getCount();
+        }
 
-                            if (searchType == SearchAttribute.SEARCH_TYPE.EXACT_MATCH) {
-                                items.add(String.format("lower(%s) = lower(:%s)", field.getName(), field.getName()));
+        int count = jdbcTemplate.queryForObject(queryCount, parameters, Long.class).intValue();
 
-                            } else {
-                                items.add(String.format("lower(%s) like lower(:%s)", field.getName(), field.getName()));
-                            }
-                        }
-                    }
+        counts.put(key, new CachedCount(count, now + TimeUnit.SECONDS.toMillis(countCacheSeconds)));
 
-                } catch (IllegalArgumentException | IllegalAccessException ex) {
-                    throw new RuntimeException(ex);
-                }
+        return count;
+    }
+
+    /**
+     * Seeks from the nearest known boundary before requested page, rows between that boundary and the page are skipped with
+     * offset. Without any boundary it's a plain offset query with the same ordering, so pages served both ways line up. When
+     * there are more rows to skip, boundaries of skipped pages are read first.
+     */
+    private <R> List<R> getRecordsBySeek(final String query, final boolean hasWhere, final String sidx, final String sord,
+            final int page, final int perPage, final RecordMetadata metadata, final Map<String, Object> parameters) {
+        long now = System.currentTimeMillis();
+        long validUntil = now + TimeUnit.SECONDS.toMillis(countCacheSeconds);
+        PagesBoundaries boundaries = getPagesBoundaries(query + new TreeMap<>(parameters) + sidx + sord + perPage);
+        Map.Entry<Integer, Object[]> boundary = boundaries.findBefore(page, now);
+
+        boolean descending = L_DESC.equals(sord);
+
+        if (perPage * (page - 1 - getPage(boundary)) > L_MAX_SKIPPED_ROWS) {
+            NavigableMap<Integer, Object[]> skippedBoundaries = getSkippedBoundaries(query, hasWhere, sidx, descending,
+                    boundary, page, perPage, parameters);
+
+            if (!skippedBoundaries.isEmpty()) {
+                boundary = skippedBoundaries.lastEntry();
+            }
+
+            skippedBoundaries.forEach((skippedPage, skippedBoundary) -> boundaries.put(skippedPage, skippedBoundary,
+                    validUntil));
+        }
+
+        Map<String, Object> recordsParameters = new HashMap<>(parameters);
+        StringBuilder queryRecords = new StringBuilder(String.format(query, "*", ""));
+
+        appendSeekCondition(queryRecords, hasWhere, sidx, descending, boundary, recordsParameters);
+
+        queryRecords.append(getOrderBy(sidx, descending));
+        queryRecords.append(String.format(" LIMIT %d OFFSET %d", perPage, perPage * (page - 1 - getPage(boundary))));
+
+        List<R> records = jdbcTemplate.query(queryRecords.toString(), recordsParameters,
+                new BeanPropertyRowMapper(metadata.getRecordClass()));
+
+        if (records.size() == perPage) {
+            R lastRecord = records.get(records.size() - 1);
+            Object value = metadata.getValue(lastRecord, sidx);
+            Object id = metadata.getValue(lastRecord, L_ID);
+
+            if (value != null && id != null) {
+                boundaries.put(page, new Object[] { value, id }, validUntil);
+            }
+        }
+
+        return records;
+    }
+
+    private PagesBoundaries getPagesBoundaries(final String key) {
+        if (countCacheSeconds <= 0) {
+            return new PagesBoundaries();
+        }
+
+        return pagesBoundaries.asMap().computeIfAbsent(key, k -> new PagesBoundaries());
+    }
+
+    private int getPage(final Map.Entry<Integer, Object[]> boundary) {
+        return (boundary == null) ? 0 : boundary.getKey();
+    }
+
+    /**
+     * Reads only sort keys of rows between given boundary and requested page, keeping key of each page's last row.
+     */
+    private NavigableMap<Integer, Object[]> getSkippedBoundaries(final String query, final boolean hasWhere, final String sidx,
+            final boolean descending, final Map.Entry<Integer, Object[]> boundary, final int page, final int perPage,
+            final Map<String, Object> parameters) {
+        Map<String, Object> keysParameters = new HashMap<>(parameters);
+        StringBuilder queryKeys = new StringBuilder(String.format(query, sidx + " AS " + L_SORT_VALUE + ", id", ""));
+
+        appendSeekCondition(queryKeys, hasWhere, sidx, descending, boundary, keysParameters);
+
+        queryKeys.append(getOrderBy(sidx, descending));
+        queryKeys.append(String.format(" LIMIT %d", perPage * (page - 1 - getPage(boundary))));
+
+        String queryBoundaries = String.format("SELECT %1$s, id, %2$s FROM (SELECT %1$s, id, row_number() OVER (%3$s) AS %2$s "
+                + "FROM (%4$s) k) b WHERE %2$s %% %5$d = 0", L_SORT_VALUE, L_ROW_NUMBER,
+                getOrderBy(L_SORT_VALUE, descending).trim(), queryKeys, perPage);
+
+        NavigableMap<Integer, Object[]> skippedBoundaries = new TreeMap<>();
+
+        for (Map<String, Object> row : jdbcTemplate.queryForList(queryBoundaries, keysParameters)) {
+            Object value = row.get(L_SORT_VALUE);
+            Object id = row.get(L_ID);
+
+            if (value != null && id != null) {
+                int rowNumber = ((Number) row.get(L_ROW_NUMBER)).intValue();
+
+                skippedBoundaries.put(getPage(boundary) + rowNumber / perPage, new Object[] { value, id });
             }
         }
 
-        String where = "";
+        return skippedBoundaries;
+    }
 
-        if (!items.isEmpty()) {
-            where = " WHERE " + items.stream().collect(Collectors.joining(" AND "));
+    private void appendSeekCondition(final StringBuilder query, final boolean hasWhere, final String sidx,
+            final boolean descending, final Map.Entry<Integer, Object[]> boundary, final Map<String, Object> parameters) {
+        if (boundary == null) {
+            return;
         }
 
-        return where;
+        query.append(hasWhere ? " AND " : " WHERE ");
+
+        if (descending) {
+            query.append(String.format("(%s, id) < (:%s, :%s)", sidx, L_SEEK_VALUE, L_SEEK_ID));
+        } else {
+            // nulls are sorted last in ascending order and row comparison with null is never true
+            query.append(String.format("((%s, id) > (:%s, :%s) OR %s IS NULL)", sidx, L_SEEK_VALUE, L_SEEK_ID, sidx));
+        }
+
+        parameters.put(L_SEEK_VALUE, boundary.getValue()[0]);
+        parameters.put(L_SEEK_ID, boundary.getValue()[1]);
+    }
+
+    private String getOrderBy(final String column, final boolean descending) {
+        String direction = descending ? L_DESC : L_ASC;
+
+        return String.format(" ORDER BY %s %s, id %s", column, direction, direction);
     }
 
-    private Map<String, Object> getParametersForObject(Object object) {
-        Map<String, Object> parameters = new HashMap<>();
+    private RecordMetadata getRecordMetadata(final Class<?> recordClass) {
+        return recordsMetadata.computeIfAbsent(recordClass, RecordMetadata::new);
+    }
+
+    private static class RecordMetadata {
+
+        private final Class<?> recordClass;
 
-        if (object != null) {
-            for (Field field : object.getClass().getDeclaredFields()) {
-                try {
-                    field.setAccessible(true);
-                    Object value = field.get(object);
-                    if (value != null) {
-                        if (value instanceof String) {
-                            SearchAttribute.SEARCH_TYPE searchType = field.isAnnotationPresent(SearchAttribute.class) ? field.getAnnotation(SearchAttribute.class).searchType() : SearchAttribute.SEARCH_TYPE.LIKE;
+        private final List<Filter> filters = new ArrayList<>();
 
-                            if (searchType == SearchAttribute.SEARCH_TYPE.EXACT_MATCH) {
-                                parameters.put(field.getName(), value);
+        private final Map<String, Field> fields = new HashMap<>();
 
-                            } else {
-                                parameters.put(field.getName(), "%" + value + "%");
-                            }
+        RecordMetadata(final Class<?> recordClass) {
+            this.recordClass = recordClass;
 
-                        } else {
-                            parameters.put(field.getName(), value);
-                        }
-                    }
+            for (Field field : recordClass.getDeclaredFields()) {
+                field.setAccessible(true);
 
-                } catch (IllegalArgumentException | IllegalAccessException ex) {
-                    throw new RuntimeException(ex);
+                filters.add(new Filter(field));
+                fields.put(field.getName().toLowerCase(), field);
+            }
+        }
+
+        Class<?> getRecordClass() {
+            return recordClass;
+        }
+
+        boolean hasField(final String name) {
+            return fields.containsKey(name);
+        }
+
+        Object getValue(final Object record, final String name) {
+            return Filter.getValue(fields.get(name), record);
+        }
+
+        String getWhere(final Object record) {
+            List<String> items = new ArrayList<>();
+
+            for (Filter filter : filters) {
+                String condition = filter.getCondition(record);
+
+                if (condition != null) {
+                    items.add(condition);
+                }
+            }
+
+            String where = "";
+
+            if (!items.isEmpty()) {
+                where = " WHERE " + items.stream().collect(Collectors.joining(" AND "));
+            }
+
+            return where;
+        }
+
+        Map<String, Object> getParameters(final Object record) {
+            Map<String, Object> parameters = new HashMap<>();
+
+            for (Filter filter : filters) {
+                Object value = filter.getParameter(record);
+
+                if (value != null) {
+                    parameters.put(filter.getName(), value);
                 }
             }
+
+            return parameters;
         }
 
-        return parameters;
     }
+
+    private static class Filter {
+
+        private final Field field;
+
+        private final boolean exactMatch;
+
+        private final String equalCondition;
+
+        private final String stringCondition;
+
+        Filter(final Field field) {
+            this.field = field;
+
+            String name = field.getName();
+
+            exactMatch = field.isAnnotationPresent(SearchAttribute.class)
+                    && field.getAnnotation(SearchAttribute.class).searchType() == SearchAttribute.SEARCH_TYPE.EXACT_MATCH;
+            equalCondition = String.format("%s = :%s", name, name);
+
+            if (exactMatch) {
+                stringCondition = String.format("lower(%s) = lower(:%s)", name, name);
+            } else {
+                // plain column with ILIKE can use trigram index, lower(column) would need an expression index
+                stringCondition = String.format("%s ILIKE :%s", name, name);
+            }
+        }
+
+        String getName() {
+            return field.getName();
+        }
+
+        String getCondition(final Object record) {
+            Object value = getValue(field, record);
+
+            if (value instanceof Number || value instanceof Date || value instanceof Boolean) {
+                return equalCondition;
+            } else if (value instanceof String) {
+                return stringCondition;
+            }
+
+            return null;
+        }
+
+        Object getParameter(final Object record) {
+            Object value = getValue(field, record);
+
+            if (value instanceof String && !exactMatch) {
+                return "%" + value + "%";
+            }
+
+            return value;
+        }
+
+        static Object getValue(final Field field, final Object record) {
+            if (record == null) {
+                return null;
+            }
+
+            try {
+                return field.get(record);
+            } catch (IllegalArgumentException | IllegalAccessException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+    }
+
+    private static class CachedCount {
+
+        private final int count;
+
+        private final long validUntil;
+
+        CachedCount(final int count, final long validUntil) {
+            this.count = count;
+            this.validUntil = validUntil;
+        }
+
+        int getCount() {
+            return count;
+        }
+
+        boolean isValid(final long now) {
+            return now < validUntil;
+        }
+
+    }
+
+    /**
+     * Sort keys of last rows of served pages of one query, page number is the key. Each key is valid until given time.
+     */
+    private static class PagesBoundaries {
+
+        private final ConcurrentNavigableMap<Integer, Object[]> boundaries = new ConcurrentSkipListMap<>();
+
+        private final Map<Integer, Long> validUntil = new ConcurrentHashMap<>();
+
+        Map.Entry<Integer, Object[]> findBefore(final int page, final long now) {
+            Map.Entry<Integer, Object[]> boundary = boundaries.floorEntry(page - 1);
+
+            while (boundary != null && validUntil.getOrDefault(boundary.getKey(), 0L) <= now) {
+                boundaries.remove(boundary.getKey(), boundary.getValue());
+
+                boundary = boundaries.floorEntry(boundary.getKey() - 1);
+            }
+
+            return boundary;
+        }
+
+        void put(final int page, final Object[] boundary, final long validUntil) {
+            this.validUntil.put(page, validUntil);
+            boundaries.put(page, boundary);
+        }
+
+    }
+
 }
@@ -26,10 +26,14 @@ package com.qcadoo.mes.basic;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.google.common.base.Preconditions;
 import com.qcadoo.mes.basic.constants.BasicConstants;
@@ -54,6 +58,12 @@ public class ParameterService {
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    private final AtomicLong parameterVersion = new AtomicLong();
+
+    private final AtomicReference<ParameterSnapshot> parameterSnapshot = new AtomicReference<>();
+
+    private final Object parameterSavedInTransaction = new Object();
+
     /**
      * Returns basic parameter entity id for current user
      * 
@@ -88,6 +98,63 @@ public class ParameterService {
         return parameter;
     }
 
+    /**
+     * Returns immutable snapshot of basic parameter for current user. Snapshot is shared by all threads and reading it doesn't
+     * touch Hibernate session, so it's meant for hot paths, which only read parameter values. It's taken again after each
+     * committed save of parameter. Transaction which saved parameter gets its own snapshot with values it has saved, other
+     * transactions keep getting committed values until it commits.
+     * 
+     * @return parameter snapshot
+     */
+    public ParameterSnapshot getParameterSnapshot() {
+        long version = parameterVersion.get();
+        ParameterSnapshot snapshot = parameterSnapshot.get();
+
+        if ((snapshot != null) && (snapshot.getVersion() == version) && !isParameterSavedInTransaction()) {
+            return snapshot;
+        }
+
+        snapshot = ParameterSnapshot.of(version, getParameter());
+
+        if (!isParameterSavedInTransaction()) {
+            parameterSnapshot.accumulateAndGet(snapshot,
+                    (current, taken) -> ((current == null) || (current.getVersion() < taken.getVersion())) ? taken : current);
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Makes snapshots taken so far outdated, when current transaction completes, or at once when there is no transaction.
+     * Called on each save of parameter.
+     */
+    public void invalidateParameterSnapshot() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            parameterVersion.incrementAndGet();
+
+            return;
+        }
+        if (isParameterSavedInTransaction()) {
+            return;
+        }
+
+        TransactionSynchronizationManager.bindResource(parameterSavedInTransaction, Boolean.TRUE);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+            @Override
+            public void afterCompletion(final int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(parameterSavedInTransaction);
+
+                parameterVersion.incrementAndGet();
+            }
+
+        });
+    }
+
+    private boolean isParameterSavedInTransaction() {
+        return TransactionSynchronizationManager.hasResource(parameterSavedInTransaction);
+    }
+
     private Entity createParameter(final DataDefinition dataDefinition) {
         Entity parameter = dataDefinition.create();
         parameter = dataDefinition.save(parameter);
@@ -0,0 +1,144 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Immutable copy of basic parameter values, detached from Hibernate session. Simple fields are kept as they are, dates are
+ * copied, belongs to fields are kept as ids of referenced entities and collections aren't copied at all.
+ *
+ * Typed getters follow {@link Entity} ones, so code reading parameter can switch to the snapshot without other changes.
+ *
+ * @see ParameterService#getParameterSnapshot()
+ */
+public final class ParameterSnapshot {
+
+    private final long version;
+
+    private final Long id;
+
+    private final Map<String, Object> values;
+
+    private final Map<String, Long> belongsToIds;
+
+    ParameterSnapshot(final long version, final Long id, final Map<String, Object> values, final Map<String, Long> belongsToIds) {
+        this.version = version;
+        this.id = id;
+        this.values = Collections.unmodifiableMap(new HashMap<>(values));
+        this.belongsToIds = Collections.unmodifiableMap(new HashMap<>(belongsToIds));
+    }
+
+    static ParameterSnapshot of(final long version, final Entity parameter) {
+        Map<String, Object> values = new HashMap<>();
+        Map<String, Long> belongsToIds = new HashMap<>();
+
+        for (Map.Entry<String, Object> field : parameter.getFields().entrySet()) {
+            Object value = field.getValue();
+
+            if (value instanceof Entity) {
+                belongsToIds.put(field.getKey(), ((Entity) value).getId());
+            } else if (value instanceof Date) {
+                values.put(field.getKey(), new Date(((Date) value).getTime()));
+            } else if (!(value instanceof Collection) && (value != null)) {
+                values.put(field.getKey(), value);
+            }
+        }
+
+        return new ParameterSnapshot(version, parameter.getId(), values, belongsToIds);
+    }
+
+    /**
+     * @return version of parameter this snapshot was taken from, it grows with each committed save of parameter
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public boolean getBooleanField(final String fieldName) {
+        Object value = values.get(fieldName);
+
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+
+        return (value != null) && ("1".equals(value.toString()) || "true".equals(value.toString()));
+    }
+
+    public String getStringField(final String fieldName) {
+        Object value = values.get(fieldName);
+
+        return (value == null) ? null : value.toString();
+    }
+
+    public BigDecimal getDecimalField(final String fieldName) {
+        Object value = values.get(fieldName);
+
+        if ((value == null) || (value instanceof BigDecimal)) {
+            return (BigDecimal) value;
+        }
+
+        return new BigDecimal(value.toString());
+    }
+
+    public Integer getIntegerField(final String fieldName) {
+        Object value = values.get(fieldName);
+
+        if ((value == null) || (value instanceof Integer)) {
+            return (Integer) value;
+        }
+
+        return ((Number) value).intValue();
+    }
+
+    public Date getDateField(final String fieldName) {
+        Object value = values.get(fieldName);
+
+        return (value == null) ? null : new Date(((Date) value).getTime());
+    }
+
+    /**
+     * @return id of entity referenced by given belongs to field, or null when it's empty
+     */
+    public Long getBelongsToFieldId(final String fieldName) {
+        return belongsToIds.get(fieldName);
+    }
+
+    @Override
+    public String toString() {
+        return "ParameterSnapshot[version=" + version + ", id=" + id + "]";
+    }
+
+}
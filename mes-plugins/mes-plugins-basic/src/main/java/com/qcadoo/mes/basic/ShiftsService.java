@@ -48,6 +48,8 @@ public interface ShiftsService {
 
     List<ShiftHour> getHoursForShift(final Entity shift, final Date dateFrom, final Date dateTo);
 
+    List<ShiftHour> getHoursForShift(final Entity shift, final List<Entity> exceptions, final Date dateFrom, final Date dateTo);
+
     Entity getShiftFromDateWithTime(final Date date);
 
     List<Entity> getShiftsWorkingAtDate(final Date date);
@@ -36,7 +36,6 @@ import java.util.Optional;
 import java.util.stream.Collectors;
 
 import org.joda.time.DateTime;
-import org.joda.time.DateTimeConstants;
 import org.joda.time.IllegalFieldValueException;
 import org.joda.time.Interval;
 import org.joda.time.LocalDate;
@@ -55,6 +54,7 @@ import com.qcadoo.mes.basic.constants.ShiftFields;
 import com.qcadoo.mes.basic.constants.ShiftTimetableExceptionFields;
 import com.qcadoo.mes.basic.constants.TimetableExceptionType;
 import com.qcadoo.mes.basic.shift.Shift;
+import com.qcadoo.mes.basic.shift.WorkingTimeCalendarService;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -93,18 +93,15 @@ public class ShiftsServiceImpl implements ShiftsService {
 
     private static final String FROM_DATE_FIELD = "fromDate";
 
-    private static final long STEP = DateTimeConstants.MILLIS_PER_WEEK;
-
-    private static final long MAX_TIMESTAMP = new DateTime(2100, 1, 1, 0, 0, 0, 0).toDate().getTime();
-
-    private static final long MIN_TIMESTAMP = new DateTime(2000, 1, 1, 0, 0, 0, 0).toDate().getTime();
-
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
     @Autowired
     private TimetableExceptionService timetableExceptionService;
 
+    @Autowired
+    private WorkingTimeCalendarService workingTimeCalendarService;
+
     private static final String[] WEEK_DAYS = { L_MONDAY, L_TUESDAY, L_WENSDAY, L_THURSDAY, L_FRIDAY, L_SATURDAY, L_SUNDAY };
 
     private static final Map<Integer, String> DAY_OF_WEEK = buildDayNumToNameMap();
@@ -525,70 +522,12 @@ public class ShiftsServiceImpl implements ShiftsService {
 
     @Override
     public Date findDateToForOrder(final Date dateFrom, final long seconds) {
-        if (dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_SHIFT).find().list()
-                .getTotalNumberOfEntities() == 0) {
-            return null;
-        }
-
-        long start = dateFrom.getTime();
-        long remaining = seconds;
-
-        while (remaining >= 0) {
-            List<ShiftsServiceImpl.ShiftHour> hours = getHoursForAllShifts(new Date(start), new Date(start + STEP));
-
-            for (ShiftsServiceImpl.ShiftHour hour : hours) {
-                long diff = (hour.getDateTo().getTime() - hour.getDateFrom().getTime()) / 1000;
-
-                if (diff >= remaining) {
-                    return new Date(hour.getDateFrom().getTime() + (remaining * 1000));
-                } else {
-                    remaining -= diff;
-                }
-            }
-
-            start += STEP;
-
-            if (start > MAX_TIMESTAMP) {
-                return null;
-            }
-        }
-
-        return null;
+        return workingTimeCalendarService.addWorkingSeconds(dateFrom, seconds).orElse(null);
     }
 
     @Override
     public Date findDateFromForOrder(final Date dateTo, final long seconds) {
-        if (dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_SHIFT).find().list()
-                .getTotalNumberOfEntities() == 0) {
-            return null;
-        }
-
-        long stop = dateTo.getTime();
-        long remaining = seconds;
-
-        while (remaining >= 0) {
-            List<ShiftsServiceImpl.ShiftHour> hours = getHoursForAllShifts(new Date(stop - STEP), new Date(stop));
-
-            for (int i = hours.size() - 1; i >= 0; i--) {
-                ShiftsServiceImpl.ShiftHour hour = hours.get(i);
-
-                long diff = (hour.getDateTo().getTime() - hour.getDateFrom().getTime()) / 1000;
-
-                if (diff >= remaining) {
-                    return new Date(hour.getDateTo().getTime() - (remaining * 1000));
-                } else {
-                    remaining -= diff;
-                }
-            }
-
-            stop -= STEP;
-
-            if (stop < MIN_TIMESTAMP) {
-                return null;
-            }
-        }
-
-        return null;
+        return workingTimeCalendarService.subtractWorkingSeconds(dateTo, seconds).orElse(null);
     }
 
     @Override
@@ -609,6 +548,12 @@ public class ShiftsServiceImpl implements ShiftsService {
 
     @Override
     public List<ShiftHour> getHoursForShift(final Entity shift, final Date dateFrom, final Date dateTo) {
+        return getHoursForShift(shift, shift.getHasManyField(TIMETABLE_EXCEPTIONS_FIELD), dateFrom, dateTo);
+    }
+
+    @Override
+    public List<ShiftHour> getHoursForShift(final Entity shift, final List<Entity> exceptions, final Date dateFrom,
+            final Date dateTo) {
         List<ShiftHour> hours = Lists.newArrayList();
 
         hours.addAll(getHourForDay(shift, dateFrom, dateTo, L_MONDAY, 1));
@@ -619,8 +564,6 @@ public class ShiftsServiceImpl implements ShiftsService {
         hours.addAll(getHourForDay(shift, dateFrom, dateTo, L_SATURDAY, 6));
         hours.addAll(getHourForDay(shift, dateFrom, dateTo, L_SUNDAY, 7));
 
-        List<Entity> exceptions = shift.getHasManyField(TIMETABLE_EXCEPTIONS_FIELD);
-
         addWorkTimeExceptions(hours, exceptions);
         removeFreeTimeExceptions(hours, exceptions);
 
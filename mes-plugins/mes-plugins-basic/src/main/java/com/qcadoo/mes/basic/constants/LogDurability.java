@@ -0,0 +1,47 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.constants;
+
+/**
+ * When entries added by {@link com.qcadoo.mes.basic.LogService} are written to database.
+ */
+public enum LogDurability {
+
+    /**
+     * Written before add returns, in its own transaction.
+     */
+    SYNC,
+
+    /**
+     * Queued when caller's transaction completes, written in background. Entries of rolled back transactions are kept too, as
+     * they were when logs had their own transaction.
+     */
+    ASYNC_AFTER_COMMIT,
+
+    /**
+     * Queued immediately, written in background.
+     */
+    ASYNC_BEST_EFFORT;
+
+}
@@ -0,0 +1,94 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.controllers;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import com.qcadoo.mes.basic.statistics.HotPathStatistics;
+import com.qcadoo.security.api.SecurityService;
+
+/**
+ * Hot path statistics for administrators - latencies and query counts of hooks, listeners and state changes.
+ */
+@Controller
+public final class HotPathStatisticsController {
+
+    private static final String L_ROLE_SUPERADMIN = "ROLE_SUPERADMIN";
+
+    @Autowired
+    private HotPathStatistics hotPathStatistics;
+
+    @Autowired
+    private SecurityService securityService;
+
+    @ResponseBody
+    @RequestMapping(value = "/hotPathStatistics", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<Map<String, Object>> getStatistics(final HttpServletResponse response) {
+        if (!isAllowed(response)) {
+            return Collections.emptyList();
+        }
+
+        return hotPathStatistics.getSummaries();
+    }
+
+    @ResponseBody
+    @RequestMapping(value = "/hotPathStatistics/reset", method = RequestMethod.POST)
+    public void reset(final HttpServletResponse response) {
+        if (isAllowed(response)) {
+            hotPathStatistics.reset();
+        }
+    }
+
+    @ResponseBody
+    @RequestMapping(value = "/hotPathStatistics/enabled", method = RequestMethod.POST)
+    public void setEnabled(@RequestParam("enabled") final boolean enabled, final HttpServletResponse response) {
+        if (isAllowed(response)) {
+            hotPathStatistics.setEnabled(enabled);
+        }
+    }
+
+    private boolean isAllowed(final HttpServletResponse response) {
+        if (securityService.hasCurrentUserRole(L_ROLE_SUPERADMIN)) {
+            return true;
+        }
+
+        response.setStatus(HttpStatus.FORBIDDEN.value());
+
+        return false;
+    }
+
+}
@@ -59,4 +59,9 @@ class AssortmentCellParser implements CellParser {
             errorsAccessor.addError("qcadooView.validate.field.error.lookupCodeNotFound");
         }
     }
+
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
 }
@@ -71,7 +71,15 @@ abstract class CellBinder {
         return cellParser;
     }
 
-    abstract void bind(Cell cell, Entity entity, BindingErrorsAccessor errorsAccessor);
+    void bind(Cell cell, Entity entity, BindingErrorsAccessor errorsAccessor) {
+        bind(null == cell ? null : formatCell(cell), cellParser, entity, errorsAccessor);
+    }
+
+    /**
+     * Binds already formatted cell value, null when cell is empty. Used by streaming import, which reads formatted values
+     * without building cells and may pass parser caching lookups of given import.
+     */
+    abstract void bind(String cellValue, CellParser parser, Entity entity, BindingErrorsAccessor errorsAccessor);
 
     public String getFieldName() {
         return fieldName;
@@ -96,9 +104,9 @@ abstract class CellBinder {
         }
 
         @Override
-        public void bind(Cell cell, Entity entity, BindingErrorsAccessor errorsAccessor) {
-            if (cell != null) {
-                getCellParser().parse(formatCell(cell), errorsAccessor, o -> entity.setField(getFieldName(), o));
+        void bind(String cellValue, CellParser parser, Entity entity, BindingErrorsAccessor errorsAccessor) {
+            if (cellValue != null) {
+                parser.parse(cellValue, errorsAccessor, o -> entity.setField(getFieldName(), o));
             }
         }
     }
@@ -114,11 +122,11 @@ abstract class CellBinder {
         }
 
         @Override
-        public void bind(Cell cell, Entity entity, BindingErrorsAccessor errorsAccessor) {
-            if (cell == null) {
+        void bind(String cellValue, CellParser parser, Entity entity, BindingErrorsAccessor errorsAccessor) {
+            if (cellValue == null) {
                 errorsAccessor.addError("qcadooView.validate.field.error.missing");
             } else {
-                getCellParser().parse(formatCell(cell), errorsAccessor, o -> entity.setField(getFieldName(), o));
+                parser.parse(cellValue, errorsAccessor, o -> entity.setField(getFieldName(), o));
             }
         }
     }
@@ -27,4 +27,11 @@ import java.util.function.Consumer;
 
 interface CellParser {
     void parse(String cellValue, BindingErrorsAccessor errorsAccessor, Consumer<Object> valueConsumer);
+
+    /**
+     * Parsers looking values up in database return true, streaming import parses each distinct value of such column once.
+     */
+    default boolean isCacheable() {
+        return false;
+    }
 }
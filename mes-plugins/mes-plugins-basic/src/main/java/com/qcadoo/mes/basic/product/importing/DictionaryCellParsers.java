@@ -74,6 +74,11 @@ class DictionaryCellParsers {
             }
         }
 
+        @Override
+        public boolean isCacheable() {
+            return true;
+        }
+
         private Entity getProductCategoryDictionary() {
             return dataDefinitionService
                     .get("qcadooModel", "dictionary")
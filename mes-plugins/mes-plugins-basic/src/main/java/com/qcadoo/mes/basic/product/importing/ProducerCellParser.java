@@ -60,4 +60,9 @@ class ProducerCellParser implements CellParser {
             errorsAccessor.addError("qcadooView.validate.field.error.lookupCodeNotFound");
         }
     }
+
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
 }
@@ -0,0 +1,172 @@
+/*
+ * **************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo Framework
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * **************************************************************************
+ */
+package com.qcadoo.mes.basic.product.importing;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.basic.constants.UnitConversionItemFieldsB;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.units.UnitConversionService;
+import com.qcadoo.model.constants.UnitConversionItemFields;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inserts validated products of streaming import with JDBC batches. It does what product's create hooks do for imported
+ * particular products: node number is generated for products with family and default unit conversions are added.
+ * One writer is used for the whole import, so it remembers last node numbers of families and conversions of units.
+ */
+class ProductBatchWriter {
+
+    private static final String L_NEXT_PRODUCT_IDS = "SELECT nextval('basic_product_id_seq') FROM generate_series(1, :count)";
+
+    private static final String L_LAST_CHILD_NUMBER = "SELECT max(split_part(nodenumber, '.', :position)::int) "
+            + "FROM basic_product WHERE nodenumber LIKE :prefix";
+
+    private static final String L_INSERT_PRODUCT = "INSERT INTO basic_product (id, number, name, globaltypeofmaterial, unit, "
+            + "ean, category, description, producer_id, assortment_id, parent_id, nodenumber, entitytype, costfornumber, "
+            + "nominalcost, lastpurchasecost, averagecost, active, createdate, updatedate, createuser, updateuser) "
+            + "VALUES (:id, :number, :name, :globalTypeOfMaterial, :unit, :ean, :category, :description, :producerId, "
+            + ":assortmentId, :parentId, :nodeNumber, :entityType, :costForNumber, :nominalCost, :lastPurchaseCost, "
+            + ":averageCost, true, :date, :date, :user, :user)";
+
+    private static final String L_INSERT_CONVERSION_ITEM = "INSERT INTO qcadoomodel_unitconversionitem (quantityfrom, "
+            + "quantityto, unitfrom, unitto, product_id) VALUES (:quantityFrom, :quantityTo, :unitFrom, :unitTo, :productId)";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    private final UnitConversionService unitConversionService;
+
+    private final String userName;
+
+    private final Map<Long, Integer> lastChildNumbers = new HashMap<>();
+
+    private final Map<String, Collection<Entity>> conversionItemsByUnit = new HashMap<>();
+
+    ProductBatchWriter(final NamedParameterJdbcTemplate jdbcTemplate, final UnitConversionService unitConversionService,
+            final String userName) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.unitConversionService = unitConversionService;
+        this.userName = userName;
+    }
+
+    void insert(final List<Entity> products) {
+        if (products.isEmpty()) {
+            return;
+        }
+
+        List<Long> ids = jdbcTemplate.queryForList(L_NEXT_PRODUCT_IDS, Collections.singletonMap("count", products.size()),
+                Long.class);
+        Date date = new Date();
+        List<SqlParameterSource> productsParameters = Lists.newArrayListWithCapacity(products.size());
+        List<SqlParameterSource> conversionItemsParameters = Lists.newArrayList();
+
+        for (int index = 0; index < products.size(); index++) {
+            Entity product = products.get(index);
+            Long id = ids.get(index);
+
+            productsParameters.add(getProductParameters(product, id, date));
+
+            for (Entity conversionItem : getConversionItems(product.getStringField(ProductFields.UNIT))) {
+                conversionItemsParameters.add(new MapSqlParameterSource("productId", id)
+                        .addValue("quantityFrom", conversionItem.getField(UnitConversionItemFields.QUANTITY_FROM))
+                        .addValue("quantityTo", conversionItem.getField(UnitConversionItemFields.QUANTITY_TO))
+                        .addValue("unitFrom", conversionItem.getStringField(UnitConversionItemFields.UNIT_FROM))
+                        .addValue("unitTo", conversionItem.getStringField(UnitConversionItemFields.UNIT_TO)));
+            }
+        }
+
+        jdbcTemplate.batchUpdate(L_INSERT_PRODUCT, productsParameters.toArray(new SqlParameterSource[productsParameters.size()]));
+
+        if (!conversionItemsParameters.isEmpty()) {
+            jdbcTemplate.batchUpdate(L_INSERT_CONVERSION_ITEM,
+                    conversionItemsParameters.toArray(new SqlParameterSource[conversionItemsParameters.size()]));
+        }
+    }
+
+    private SqlParameterSource getProductParameters(final Entity product, final Long id, final Date date) {
+        Entity parent = product.getBelongsToField(ProductFields.PARENT);
+
+        return new MapSqlParameterSource("id", id).addValue("number", product.getStringField(ProductFields.NUMBER))
+                .addValue("name", product.getStringField(ProductFields.NAME))
+                .addValue("globalTypeOfMaterial", product.getStringField(ProductFields.GLOBAL_TYPE_OF_MATERIAL))
+                .addValue("unit", product.getStringField(ProductFields.UNIT))
+                .addValue("ean", product.getStringField(ProductFields.EAN))
+                .addValue("category", product.getStringField(ProductFields.CATEGORY))
+                .addValue("description", product.getStringField(ProductFields.DESCRIPTION))
+                .addValue("producerId", getId(product.getBelongsToField(ProductFields.PRODUCER)))
+                .addValue("assortmentId", getId(product.getBelongsToField(ProductFields.ASSORTMENT)))
+                .addValue("parentId", getId(parent)).addValue("nodeNumber", getNextNodeNumber(parent))
+                .addValue("entityType", product.getStringField(ProductFields.ENTITY_TYPE))
+                // com.qcadoo.mes.costNormsForProduct.constants.ProductFieldsCNFP
+                .addValue("costForNumber", product.getField("costForNumber"))
+                .addValue("nominalCost", product.getField("nominalCost"))
+                .addValue("lastPurchaseCost", product.getField("lastPurchaseCost"))
+                .addValue("averageCost", product.getField("averageCost")).addValue("date", date).addValue("user", userName);
+    }
+
+    private Long getId(final Entity entity) {
+        return null == entity ? null : entity.getId();
+    }
+
+    private String getNextNodeNumber(final Entity parent) {
+        if (null == parent || null == parent.getStringField(ProductFields.NODE_NUMBER)) {
+            return null;
+        }
+
+        String parentNodeNumber = parent.getStringField(ProductFields.NODE_NUMBER);
+        int number = lastChildNumbers.computeIfAbsent(parent.getId(), parentId -> getLastChildNumber(parentNodeNumber)) + 1;
+
+        lastChildNumbers.put(parent.getId(), number);
+
+        return parentNodeNumber + "." + number;
+    }
+
+    private int getLastChildNumber(final String parentNodeNumber) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource("position", parentNodeNumber.split("\\.").length + 1)
+                .addValue("prefix", parentNodeNumber + ".%");
+        Integer number = jdbcTemplate.queryForObject(L_LAST_CHILD_NUMBER, parameters, Integer.class);
+
+        return null == number ? 0 : number;
+    }
+
+    private Collection<Entity> getConversionItems(final String unit) {
+        if (StringUtils.isEmpty(unit)) {
+            return Collections.emptyList();
+        }
+
+        return conversionItemsByUnit.computeIfAbsent(unit,
+                key -> unitConversionService.getPossibleConversions(key).asEntities(UnitConversionItemFieldsB.PRODUCT, null));
+    }
+
+}
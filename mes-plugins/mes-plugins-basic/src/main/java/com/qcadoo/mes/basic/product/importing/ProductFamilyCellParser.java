@@ -66,4 +66,9 @@ class ProductFamilyCellParser implements CellParser {
             valueConsumer.accept(familyProductCandidate);
         }
     }
+
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
 }
@@ -53,11 +53,11 @@ class RowProcessorFactory {
     }
 
 
-    private DataDefinition getProductDataDefinition() {
+    DataDefinition getProductDataDefinition() {
         return dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PRODUCT);
     }
 
-    private Entity createEntityWithDefaultValues() {
+    Entity createEntityWithDefaultValues() {
         final Entity entity = getProductDataDefinition().create();
         entity.setField(ProductFields.ENTITY_TYPE, ProductFamilyElementType.PARTICULAR_PRODUCT.getStringValue());
         // com.qcadoo.mes.costNormsForProduct.constants.ProductFieldsCNFP.COST_FOR_NUMBER
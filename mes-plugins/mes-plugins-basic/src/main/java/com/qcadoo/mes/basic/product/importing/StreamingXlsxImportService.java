@@ -0,0 +1,376 @@
+/*
+ * **************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo Framework
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * **************************************************************************
+ */
+package com.qcadoo.mes.basic.product.importing;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.basic.product.importing.XlsxSheetReader.SheetRow;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.units.UnitConversionService;
+import com.qcadoo.model.api.validators.ErrorMessage;
+import com.qcadoo.security.api.SecurityService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.i18n.LocaleContext;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Consumer;
+
+/**
+ * Imports products from spreadsheet file without loading the whole workbook. Rows are read with SAX parser in chunks, chunks
+ * are bound and validated in parallel on bounded product import executor and then inserted in reading order with JDBC batches,
+ * each chunk within its own savepoint. Only a few chunks are in progress at once, so memory used doesn't depend on file size.
+ * <p>
+ * Like {@link XlsxImportService}, nothing is imported when any row has errors, but all rows are still validated so the error
+ * report is complete.
+ */
+@Service
+public class StreamingXlsxImportService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StreamingXlsxImportService.class);
+
+    private static final int L_ROWS_PER_CHUNK = 500;
+
+    private static final int L_MAX_CHUNKS_IN_PROGRESS = 8;
+
+    @Autowired
+    private RowProcessorFactory rowProcessorFactory;
+
+    @Autowired
+    private CellBinderRegistry cellBinderRegistry;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private UnitConversionService unitConversionService;
+
+    @Autowired
+    private SecurityService securityService;
+
+    @Autowired
+    @Qualifier("productImportTaskExecutor")
+    private TaskExecutor productImportTaskExecutor;
+
+    @Transactional(rollbackFor = IOException.class)
+    public ImportStatus importFrom(final File file) throws IOException {
+        return importFrom(file, TransactionAspectSupport.currentTransactionStatus());
+    }
+
+    ImportStatus importFrom(final File file, final TransactionStatus transactionStatus) throws IOException {
+        Locale locale = LocaleContextHolder.getLocale();
+        ImportRun importRun = new ImportRun(locale, transactionStatus);
+
+        new XlsxSheetReader(locale).read(file, SpreadsheetSchemaInfo.START_ROW_INDEX, SpreadsheetSchemaInfo.COLUMN_NUMBER,
+                importRun::append);
+
+        importRun.finish();
+
+        if (importRun.getImportStatus().hasErrors()) { // We have to rollback transaction here
+            transactionStatus.setRollbackOnly();
+        }
+
+        return importRun.getImportStatus();
+    }
+
+    private List<BoundRow> bind(final List<SheetRow> rows, final ImportRun importRun) {
+        // With caller runs policy chunk may be bound in importing thread, so its locale has to be restored
+        LocaleContext previousLocaleContext = LocaleContextHolder.getLocaleContext();
+        LocaleContextHolder.setLocale(importRun.getLocale());
+
+        try {
+            return bindInTransaction(rows, importRun);
+        } finally {
+            LocaleContextHolder.setLocaleContext(previousLocaleContext);
+        }
+    }
+
+    @Transactional(readOnly = true)
+    private List<BoundRow> bindInTransaction(final List<SheetRow> rows, final ImportRun importRun) {
+        DataDefinition productDD = rowProcessorFactory.getProductDataDefinition();
+        List<BoundRow> boundRows = Lists.newArrayListWithCapacity(rows.size());
+
+        for (SheetRow row : rows) {
+            Entity product = rowProcessorFactory.createEntityWithDefaultValues();
+            BoundRow boundRow = new BoundRow(row.getRowIndex(), product);
+
+            for (int columnIndex = 0; columnIndex < SpreadsheetSchemaInfo.COLUMN_NUMBER; columnIndex++) {
+                CellBinder binder = cellBinderRegistry.getCellBinder(columnIndex);
+
+                binder.bind(row.getValue(columnIndex), importRun.getCellParser(columnIndex), product,
+                        errorCode -> boundRow.addError(new ImportError(row.getRowIndex(), binder.getFieldName(), errorCode)));
+            }
+
+            if (!productDD.callValidators(product)) {
+                for (Map.Entry<String, ErrorMessage> entry : product.getErrors().entrySet()) {
+                    boundRow.addError(new ImportError(row.getRowIndex(), entry.getKey(), entry.getValue().getMessage(),
+                            entry.getValue().getVars()));
+                }
+                // Global errors aren't bound to any column, they are reported at the first one
+                for (ErrorMessage globalError : product.getGlobalErrors()) {
+                    boundRow.addError(new ImportError(row.getRowIndex(), ProductFields.NUMBER, globalError.getMessage(),
+                            globalError.getVars()));
+                }
+            }
+
+            boundRows.add(boundRow);
+        }
+
+        return boundRows;
+    }
+
+    private class ImportRun {
+
+        private final Locale locale;
+
+        private final TransactionStatus transactionStatus;
+
+        private final ImportStatus importStatus = new ImportStatus();
+
+        private final CellParser[] cellParsers = new CellParser[SpreadsheetSchemaInfo.COLUMN_NUMBER];
+
+        private final Deque<FutureTask<List<BoundRow>>> chunksInProgress = new ArrayDeque<>();
+
+        private final Map<String, Integer> rowIndexesByNumber = new HashMap<>();
+
+        private final ProductBatchWriter productBatchWriter;
+
+        private List<SheetRow> chunk = new ArrayList<>(L_ROWS_PER_CHUNK);
+
+        ImportRun(final Locale locale, final TransactionStatus transactionStatus) {
+            this.locale = locale;
+            this.transactionStatus = transactionStatus;
+            this.productBatchWriter = new ProductBatchWriter(jdbcTemplate, unitConversionService,
+                    securityService.getCurrentUserName());
+
+            for (int columnIndex = 0; columnIndex < SpreadsheetSchemaInfo.COLUMN_NUMBER; columnIndex++) {
+                CellParser cellParser = cellBinderRegistry.getCellBinder(columnIndex).getCellParser();
+
+                cellParsers[columnIndex] = cellParser.isCacheable() ? new CachingCellParser(cellParser) : cellParser;
+            }
+        }
+
+        Locale getLocale() {
+            return locale;
+        }
+
+        ImportStatus getImportStatus() {
+            return importStatus;
+        }
+
+        CellParser getCellParser(final int columnIndex) {
+            return cellParsers[columnIndex];
+        }
+
+        void append(final SheetRow row) {
+            chunk.add(row);
+
+            if (chunk.size() == L_ROWS_PER_CHUNK) {
+                submitChunk();
+            }
+        }
+
+        void finish() {
+            if (!chunk.isEmpty()) {
+                submitChunk();
+            }
+            while (!chunksInProgress.isEmpty()) {
+                persistOldestChunk();
+            }
+        }
+
+        private void submitChunk() {
+            List<SheetRow> rows = chunk;
+            FutureTask<List<BoundRow>> task = new FutureTask<>(() -> bind(rows, this));
+
+            chunk = new ArrayList<>(L_ROWS_PER_CHUNK);
+            chunksInProgress.add(task);
+            productImportTaskExecutor.execute(task);
+
+            if (chunksInProgress.size() > L_MAX_CHUNKS_IN_PROGRESS) {
+                persistOldestChunk();
+            }
+        }
+
+        private void persistOldestChunk() {
+            List<BoundRow> boundRows = waitFor(chunksInProgress.poll());
+            List<Entity> products = Lists.newArrayListWithCapacity(boundRows.size());
+
+            for (BoundRow boundRow : boundRows) {
+                importStatus.incrementRowsProcessedCounter();
+
+                String number = boundRow.getProduct().getStringField(ProductFields.NUMBER);
+                if (null != number && null != rowIndexesByNumber.putIfAbsent(number, boundRow.getRowIndex())) {
+                    // Rows are validated in parallel, so products of the same file aren't visible to unique validator
+                    boundRow.addError(new ImportError(boundRow.getRowIndex(), ProductFields.NUMBER,
+                            "qcadooView.validate.field.error.duplicated"));
+                }
+
+                if (boundRow.getErrors().isEmpty()) {
+                    products.add(boundRow.getProduct());
+                } else {
+                    boundRow.getErrors().forEach(importStatus::addError);
+                }
+            }
+
+            if (!products.isEmpty()) {
+                insertWithinSavepoint(products, boundRows);
+            }
+        }
+
+        private void insertWithinSavepoint(final List<Entity> products, final List<BoundRow> boundRows) {
+            Object savepoint = transactionStatus.createSavepoint();
+
+            try {
+                productBatchWriter.insert(products);
+
+                transactionStatus.releaseSavepoint(savepoint);
+            } catch (DataAccessException exception) {
+                // Only this chunk is rolled back, following chunks are still inserted to report their errors as well
+                transactionStatus.rollbackToSavepoint(savepoint);
+
+                int firstRowIndex = boundRows.get(0).getRowIndex();
+                int lastRowIndex = boundRows.get(boundRows.size() - 1).getRowIndex();
+
+                LOG.warn(String.format("Can't insert products from rows %d - %d", firstRowIndex, lastRowIndex), exception);
+
+                importStatus.addError(new ImportError(firstRowIndex, ProductFields.NUMBER,
+                        "basic.productsImport.error.rowsNotSaved", String.valueOf(firstRowIndex),
+                        String.valueOf(lastRowIndex)));
+            }
+        }
+
+        private List<BoundRow> waitFor(final FutureTask<List<BoundRow>> task) {
+            try {
+                return task.get();
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+
+                throw new IllegalStateException("Interrupted while waiting for imported products validation", exception);
+            } catch (ExecutionException exception) {
+                throw new IllegalStateException("Can't validate imported products", exception.getCause());
+            }
+        }
+
+    }
+
+    private static class BoundRow {
+
+        private final int rowIndex;
+
+        private final Entity product;
+
+        private final List<ImportError> errors = new ArrayList<>();
+
+        BoundRow(final int rowIndex, final Entity product) {
+            this.rowIndex = rowIndex;
+            this.product = product;
+        }
+
+        int getRowIndex() {
+            return rowIndex;
+        }
+
+        Entity getProduct() {
+            return product;
+        }
+
+        List<ImportError> getErrors() {
+            return errors;
+        }
+
+        void addError(final ImportError error) {
+            errors.add(error);
+        }
+
+    }
+
+    /**
+     * Remembers outcome of parsing each distinct value, lookups are done once per import instead of once per row.
+     */
+    private static class CachingCellParser implements CellParser {
+
+        private static final Object L_NOT_ACCEPTED = new Object();
+
+        private final CellParser cellParser;
+
+        private final Map<String, ParsedValue> parsedValues = new ConcurrentHashMap<>();
+
+        CachingCellParser(final CellParser cellParser) {
+            this.cellParser = cellParser;
+        }
+
+        @Override
+        public void parse(final String cellValue, final BindingErrorsAccessor errorsAccessor,
+                final Consumer<Object> valueConsumer) {
+            ParsedValue parsedValue = parsedValues.get(cellValue);
+
+            if (null == parsedValue) {
+                ParsedValue newParsedValue = new ParsedValue();
+
+                cellParser.parse(cellValue, newParsedValue.errorCodes::add, value -> newParsedValue.value = value);
+
+                parsedValue = parsedValues.computeIfAbsent(cellValue, key -> newParsedValue);
+            }
+
+            parsedValue.errorCodes.forEach(errorsAccessor::addError);
+
+            if (L_NOT_ACCEPTED != parsedValue.value) {
+                valueConsumer.accept(parsedValue.value);
+            }
+        }
+
+        private static class ParsedValue {
+
+            private final List<String> errorCodes = new ArrayList<>();
+
+            private Object value = L_NOT_ACCEPTED;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,238 @@
+/*
+ * **************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo Framework
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * **************************************************************************
+ */
+package com.qcadoo.mes.basic.product.importing;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Reads rows of the first sheet with SAX parser, so only the row being read and shared strings are kept in memory. Cell values
+ * are formatted the same way as {@link DataFormatter#formatCellValue} formats cells of loaded workbook. Like
+ * {@link XlsxImportService}, reading stops at the first missing or empty row.
+ */
+class XlsxSheetReader {
+
+    private final DataFormatter dataFormatter;
+
+    XlsxSheetReader(final Locale locale) {
+        this.dataFormatter = new DataFormatter(null == locale ? Locale.getDefault() : locale);
+    }
+
+    void read(final File file, final int startRowIndex, final int columnNumber, final Consumer<SheetRow> rowConsumer)
+            throws IOException {
+        OPCPackage opcPackage;
+        try {
+            opcPackage = OPCPackage.open(file.getPath(), PackageAccess.READ);
+        } catch (OpenXML4JException e) {
+            throw new IOException(e);
+        }
+        try {
+            XSSFReader xssfReader = new XSSFReader(opcPackage);
+            Iterator<InputStream> sheets = xssfReader.getSheetsData();
+            if (!sheets.hasNext()) {
+                return;
+            }
+            SheetHandler sheetHandler = new SheetHandler(new ReadOnlySharedStringsTable(opcPackage),
+                    xssfReader.getStylesTable(), startRowIndex, columnNumber, rowConsumer);
+            try (InputStream sheet = sheets.next()) {
+                SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
+                saxParserFactory.setNamespaceAware(true);
+                saxParserFactory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+                saxParserFactory.newSAXParser().parse(sheet, sheetHandler);
+            }
+        } catch (EndOfRowsException e) {
+            // We are done, the rest of the sheet isn't read at all
+        } catch (OpenXML4JException | ParserConfigurationException | SAXException e) {
+            throw new IOException(e);
+        } finally {
+            // Package was opened read only, revert closes it without saving anything
+            opcPackage.revert();
+        }
+    }
+
+    static class SheetRow {
+
+        private final int rowIndex;
+
+        private final String[] values;
+
+        SheetRow(final int rowIndex, final String[] values) {
+            this.rowIndex = rowIndex;
+            this.values = values;
+        }
+
+        int getRowIndex() {
+            return rowIndex;
+        }
+
+        /**
+         * @return formatted and trimmed value of cell at given column, null when cell is empty
+         */
+        String getValue(final int columnIndex) {
+            return values[columnIndex];
+        }
+
+    }
+
+    private static class EndOfRowsException extends SAXException {
+
+        private static final long serialVersionUID = 1L;
+
+    }
+
+    private class SheetHandler extends DefaultHandler {
+
+        private final ReadOnlySharedStringsTable sharedStrings;
+
+        private final StylesTable styles;
+
+        private final int startRowIndex;
+
+        private final int columnNumber;
+
+        private final Consumer<SheetRow> rowConsumer;
+
+        private final StringBuilder text = new StringBuilder();
+
+        private int nextRowIndex;
+
+        private int rowIndex = -1;
+
+        private String[] values;
+
+        private boolean empty;
+
+        private int columnIndex;
+
+        private String cellType;
+
+        private String cellStyle;
+
+        private boolean collectingText;
+
+        SheetHandler(final ReadOnlySharedStringsTable sharedStrings, final StylesTable styles, final int startRowIndex,
+                final int columnNumber, final Consumer<SheetRow> rowConsumer) {
+            this.sharedStrings = sharedStrings;
+            this.styles = styles;
+            this.startRowIndex = startRowIndex;
+            this.columnNumber = columnNumber;
+            this.rowConsumer = rowConsumer;
+            this.nextRowIndex = startRowIndex;
+        }
+
+        @Override
+        public void startElement(final String uri, final String localName, final String qName, final Attributes attributes)
+                throws SAXException {
+            if ("row".equals(localName)) {
+                String reference = attributes.getValue("r");
+                rowIndex = null == reference ? rowIndex + 1 : Integer.parseInt(reference) - 1;
+                if (rowIndex > nextRowIndex) {
+                    // This whole row is missing in the sheet
+                    throw new EndOfRowsException();
+                }
+                values = new String[columnNumber];
+                empty = true;
+                columnIndex = -1;
+            } else if ("c".equals(localName)) {
+                String reference = attributes.getValue("r");
+                columnIndex = null == reference ? columnIndex + 1 : new CellReference(reference).getCol();
+                cellType = attributes.getValue("t");
+                cellStyle = attributes.getValue("s");
+                text.setLength(0);
+            } else if ("v".equals(localName) || "t".equals(localName)) {
+                collectingText = true;
+            }
+        }
+
+        @Override
+        public void characters(final char[] ch, final int start, final int length) {
+            if (collectingText) {
+                text.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+            if ("v".equals(localName) || "t".equals(localName)) {
+                collectingText = false;
+            } else if ("c".equals(localName)) {
+                if (rowIndex >= startRowIndex && columnIndex < columnNumber && text.length() > 0) {
+                    values[columnIndex] = formatValue(text.toString()).trim();
+                    empty = false;
+                }
+            } else if ("row".equals(localName) && rowIndex >= startRowIndex) {
+                if (empty) {
+                    // We are done. The whole row was empty so stop processing
+                    throw new EndOfRowsException();
+                }
+                rowConsumer.accept(new SheetRow(rowIndex, values));
+                nextRowIndex = rowIndex + 1;
+            }
+        }
+
+        private String formatValue(final String value) {
+            if ("s".equals(cellType)) {
+                return sharedStrings.getEntryAt(Integer.parseInt(value));
+            } else if ("inlineStr".equals(cellType) || "str".equals(cellType) || "e".equals(cellType)) {
+                return value;
+            } else if ("b".equals(cellType)) {
+                return "0".equals(value) ? "FALSE" : "TRUE";
+            }
+
+            int formatIndex = 0;
+            String formatString = null;
+            if (null != styles && null != cellStyle) {
+                XSSFCellStyle style = styles.getStyleAt(Integer.parseInt(cellStyle));
+                formatIndex = style.getDataFormat();
+                formatString = style.getDataFormatString();
+            }
+            if (null == formatString) {
+                formatString = BuiltinFormats.getBuiltinFormat(formatIndex);
+            }
+            return dataFormatter.formatRawCellContents(Double.parseDouble(value), formatIndex, formatString);
+        }
+
+    }
+
+}
@@ -0,0 +1,244 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.shift;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.OptionalLong;
+
+import com.google.common.base.Preconditions;
+import com.qcadoo.mes.basic.ShiftsServiceImpl.ShiftHour;
+
+/**
+ * Immutable, precompiled work time of shifts in given time range.
+ * 
+ * Work intervals are kept as sorted, disjoint arrays of epoch milliseconds together with prefix sums of their lengths, so adding or
+ * subtracting work time is answered with binary search instead of walking through shift hours.
+ */
+public final class WorkingTimeCalendar {
+
+    private final long coveredFrom;
+
+    private final long coveredTo;
+
+    private final long[] starts;
+
+    private final long[] ends;
+
+    // workedBefore[i] is the sum of lengths of intervals 0..i-1
+    private final long[] workedBefore;
+
+    private WorkingTimeCalendar(final long coveredFrom, final long coveredTo, final long[] starts, final long[] ends) {
+        this.coveredFrom = coveredFrom;
+        this.coveredTo = coveredTo;
+        this.starts = starts;
+        this.ends = ends;
+        this.workedBefore = new long[starts.length + 1];
+
+        for (int i = 0; i < starts.length; i++) {
+            workedBefore[i + 1] = workedBefore[i] + (ends[i] - starts[i]);
+        }
+    }
+
+    /**
+     * Builds calendar for given range from shift hours sorted by start date. Overlapping and adjacent hours are merged, hours out
+     * of range are clipped.
+     */
+    public static WorkingTimeCalendar of(final long coveredFrom, final long coveredTo, final List<ShiftHour> hours) {
+        Preconditions.checkArgument(coveredFrom <= coveredTo, "Calendar range is invalid");
+
+        long[] starts = new long[hours.size()];
+        long[] ends = new long[hours.size()];
+
+        int size = 0;
+
+        for (ShiftHour hour : hours) {
+            long start = Math.max(hour.getDateFrom().getTime(), coveredFrom);
+            long end = Math.min(hour.getDateTo().getTime(), coveredTo);
+
+            if (end <= start) {
+                continue;
+            }
+
+            if (size > 0 && start <= ends[size - 1]) {
+                ends[size - 1] = Math.max(ends[size - 1], end);
+            } else {
+                starts[size] = start;
+                ends[size] = end;
+                size++;
+            }
+        }
+
+        return new WorkingTimeCalendar(coveredFrom, coveredTo, Arrays.copyOf(starts, size), Arrays.copyOf(ends, size));
+    }
+
+    /**
+     * Joins this calendar with calendar covering range directly after this one.
+     */
+    public WorkingTimeCalendar append(final WorkingTimeCalendar later) {
+        Preconditions.checkArgument(coveredTo == later.coveredFrom, "Calendars have to be adjacent");
+
+        int size = starts.length;
+        int laterSize = later.starts.length;
+
+        boolean joined = size > 0 && laterSize > 0 && ends[size - 1] == later.starts[0];
+
+        int mergedSize = joined ? size + laterSize - 1 : size + laterSize;
+
+        long[] mergedStarts = Arrays.copyOf(starts, mergedSize);
+        long[] mergedEnds = Arrays.copyOf(ends, mergedSize);
+
+        int offset = joined ? 1 : 0;
+
+        if (joined) {
+            mergedEnds[size - 1] = later.ends[0];
+        }
+
+        System.arraycopy(later.starts, offset, mergedStarts, size, laterSize - offset);
+        System.arraycopy(later.ends, offset, mergedEnds, size, laterSize - offset);
+
+        return new WorkingTimeCalendar(coveredFrom, later.coveredTo, mergedStarts, mergedEnds);
+    }
+
+    public long getCoveredFrom() {
+        return coveredFrom;
+    }
+
+    public long getCoveredTo() {
+        return coveredTo;
+    }
+
+    public boolean covers(final long time) {
+        return coveredFrom <= time && time < coveredTo;
+    }
+
+    public int getNumberOfIntervals() {
+        return starts.length;
+    }
+
+    /**
+     * Returns date which is given amount of work time after given date, or empty value when it falls out of this calendar.
+     * 
+     * @param time
+     *            epoch millis, covered by this calendar
+     * @param millis
+     *            work time in milliseconds
+     */
+    public OptionalLong plus(final long time, final long millis) {
+        int first = findFirstEndingAfter(time);
+
+        if (first == starts.length) {
+            return OptionalLong.empty();
+        }
+
+        long target = getWorkedBefore(time, first) + millis;
+
+        // smallest k > first with workedBefore[k] >= target, interval k - 1 contains result
+        int k = lowerBound(workedBefore, first + 1, workedBefore.length, target);
+
+        if (k == workedBefore.length) {
+            return OptionalLong.empty();
+        }
+
+        int index = k - 1;
+
+        return OptionalLong.of(starts[index] + (target - workedBefore[index]));
+    }
+
+    /**
+     * Returns date which is given amount of work time before given date, or empty value when it falls out of this calendar.
+     * 
+     * @param time
+     *            epoch millis, covered by this calendar
+     * @param millis
+     *            work time in milliseconds
+     */
+    public OptionalLong minus(final long time, final long millis) {
+        int last = lowerBound(starts, 0, starts.length, time) - 1;
+
+        if (last < 0) {
+            return OptionalLong.empty();
+        }
+
+        long target = getWorkedBefore(time, findFirstEndingAfter(time)) - millis;
+
+        if (target < 0 || (target == 0 && starts[0] == coveredFrom)) {
+            return OptionalLong.empty();
+        }
+
+        // largest index <= last with workedBefore[index] <= target
+        int index = upperBound(workedBefore, 0, last + 1, target) - 1;
+
+        return OptionalLong.of(starts[index] + (target - workedBefore[index]));
+    }
+
+    private int findFirstEndingAfter(final long time) {
+        return upperBound(ends, 0, ends.length, time);
+    }
+
+    private long getWorkedBefore(final long time, final int firstEndingAfter) {
+        if (firstEndingAfter == starts.length) {
+            return workedBefore[starts.length];
+        }
+
+        return workedBefore[firstEndingAfter] + Math.max(0, time - starts[firstEndingAfter]);
+    }
+
+    // first index in [from, to) with values[index] >= key, or to
+    private static int lowerBound(final long[] values, final int from, final int to, final long key) {
+        int low = from;
+        int high = to;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (values[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    // first index in [from, to) with values[index] > key, or to
+    private static int upperBound(final long[] values, final int from, final int to, final long key) {
+        int low = from;
+        int high = to;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (values[middle] <= key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+}
@@ -0,0 +1,339 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.shift;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.joda.time.DateTimeConstants;
+import org.joda.time.LocalDate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.ShiftsService;
+import com.qcadoo.mes.basic.ShiftsServiceImpl.ShiftHour;
+import com.qcadoo.mes.basic.ShiftsServiceImpl.ShiftHoursComparator;
+import com.qcadoo.mes.basic.TimetableExceptionService;
+import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.mes.basic.constants.ShiftFields;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Keeps compiled {@link WorkingTimeCalendar}s per shift and production line.
+ * 
+ * Shifts and their timetable exceptions are read once per calendar, later the calendar is extended in memory when dates out of
+ * its range are requested. All calendars are dropped when shift or timetable exception is saved or deleted.
+ */
+@Service
+public class WorkingTimeCalendarService {
+
+    private static final long L_CHUNK = 4L * DateTimeConstants.MILLIS_PER_WEEK;
+
+    private static final long MAX_TIMESTAMP = new LocalDate(2100, 1, 1).toDate().getTime();
+
+    private static final long MIN_TIMESTAMP = new LocalDate(2000, 1, 1).toDate().getTime();
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private ShiftsService shiftsService;
+
+    @Autowired
+    private TimetableExceptionService timetableExceptionService;
+
+    private final Map<CalendarKey, CompiledCalendar> calendars = new ConcurrentHashMap<>();
+
+    /**
+     * Adds work time of all shifts to given date.
+     * 
+     * @return date after given amount of work time, or empty value when there are no shifts or no such date until 2100
+     */
+    public Optional<Date> addWorkingSeconds(final Date dateFrom, final long seconds) {
+        return addWorkingSeconds(null, null, dateFrom, seconds);
+    }
+
+    /**
+     * Subtracts work time of all shifts from given date.
+     * 
+     * @return date before given amount of work time, or empty value when there are no shifts or no such date since 2000
+     */
+    public Optional<Date> subtractWorkingSeconds(final Date dateTo, final long seconds) {
+        return subtractWorkingSeconds(null, null, dateTo, seconds);
+    }
+
+    /**
+     * Adds work time of given shift (or all shifts, if null) to given date. When production line is given, only timetable
+     * exceptions of this production line are taken into account.
+     */
+    public Optional<Date> addWorkingSeconds(final Entity shift, final Entity productionLine, final Date dateFrom,
+            final long seconds) {
+        CalendarKey key = new CalendarKey(shift, productionLine);
+        long time = dateFrom.getTime();
+        long millis = seconds * 1000L;
+
+        while (true) {
+            CompiledCalendar compiled = getCompiledCalendar(key, time);
+
+            if (!compiled.hasShifts()) {
+                return Optional.empty();
+            }
+
+            OptionalLong result = compiled.calendar.plus(time, millis);
+
+            if (result.isPresent()) {
+                return Optional.of(new Date(result.getAsLong()));
+            }
+            if (compiled.calendar.getCoveredTo() > MAX_TIMESTAMP) {
+                return Optional.empty();
+            }
+
+            calendars.put(key, compiled.extendForward());
+        }
+    }
+
+    /**
+     * Subtracts work time of given shift (or all shifts, if null) from given date. When production line is given, only timetable
+     * exceptions of this production line are taken into account.
+     */
+    public Optional<Date> subtractWorkingSeconds(final Entity shift, final Entity productionLine, final Date dateTo,
+            final long seconds) {
+        CalendarKey key = new CalendarKey(shift, productionLine);
+        long time = dateTo.getTime();
+        long millis = seconds * 1000L;
+
+        while (true) {
+            // calendar has to cover time directly before given date
+            CompiledCalendar compiled = getCompiledCalendar(key, time - 1);
+
+            if (!compiled.hasShifts()) {
+                return Optional.empty();
+            }
+
+            OptionalLong result = compiled.calendar.minus(time, millis);
+
+            if (result.isPresent()) {
+                return Optional.of(new Date(result.getAsLong()));
+            }
+            if (compiled.calendar.getCoveredFrom() < MIN_TIMESTAMP) {
+                return Optional.empty();
+            }
+
+            calendars.put(key, compiled.extendBackward());
+        }
+    }
+
+    public boolean hasShifts() {
+        return getCompiledCalendar(new CalendarKey(null, null), System.currentTimeMillis()).hasShifts();
+    }
+
+    /**
+     * Drops all compiled calendars, now and after current transaction commits.
+     */
+    public void invalidate() {
+        calendars.clear();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    calendars.clear();
+                }
+
+            });
+        }
+    }
+
+    private CompiledCalendar getCompiledCalendar(final CalendarKey key, final long time) {
+        CompiledCalendar compiled = calendars.get(key);
+
+        if (Objects.nonNull(compiled) && compiled.calendar.covers(time)) {
+            return compiled;
+        }
+
+        if (Objects.isNull(compiled)) {
+            compiled = compile(key, time);
+        } else if (time >= compiled.calendar.getCoveredTo() && time < compiled.calendar.getCoveredTo() + L_CHUNK) {
+            compiled = compiled.extendForward();
+        } else if (time < compiled.calendar.getCoveredFrom() && time >= compiled.calendar.getCoveredFrom() - L_CHUNK) {
+            compiled = compiled.extendBackward();
+        } else {
+            compiled = compiled.startAt(time);
+        }
+
+        calendars.put(key, compiled);
+
+        return compiled;
+    }
+
+    private CompiledCalendar compile(final CalendarKey key, final long time) {
+        List<Entity> shifts;
+
+        if (Objects.isNull(key.shiftId)) {
+            shifts = dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_SHIFT).find().list()
+                    .getEntities();
+        } else {
+            shifts = Lists.newArrayList(dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_SHIFT)
+                    .get(key.shiftId));
+        }
+
+        List<ShiftWithExceptions> sources = Lists.newArrayList();
+
+        for (Entity shift : shifts) {
+            if (Objects.isNull(shift)) {
+                continue;
+            }
+
+            List<Entity> exceptions = Lists.newArrayList();
+
+            if (Objects.isNull(key.productionLineId)) {
+                List<Entity> shiftExceptions = shift.getHasManyField(ShiftFields.TIMETABLE_EXCEPTIONS);
+
+                if (Objects.nonNull(shiftExceptions)) {
+                    for (Entity exception : shiftExceptions) {
+                        exceptions.add(exception);
+                    }
+                }
+            } else {
+                exceptions = timetableExceptionService.findFor(Lists.newArrayList(key.productionLineId),
+                        Lists.newArrayList(shift.getId()), null, null);
+            }
+
+            sources.add(new ShiftWithExceptions(shift, exceptions));
+        }
+
+        return new CompiledCalendar(sources, null).startAt(time);
+    }
+
+    private static final class CalendarKey {
+
+        private final Long shiftId;
+
+        private final Long productionLineId;
+
+        private CalendarKey(final Entity shift, final Entity productionLine) {
+            this.shiftId = Objects.isNull(shift) ? null : shift.getId();
+            this.productionLineId = Objects.isNull(productionLine) ? null : productionLine.getId();
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(shiftId, productionLineId);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof CalendarKey)) {
+                return false;
+            }
+
+            CalendarKey other = (CalendarKey) obj;
+
+            return Objects.equals(shiftId, other.shiftId) && Objects.equals(productionLineId, other.productionLineId);
+        }
+
+    }
+
+    private static final class ShiftWithExceptions {
+
+        private final Entity shift;
+
+        private final List<Entity> exceptions;
+
+        private ShiftWithExceptions(final Entity shift, final List<Entity> exceptions) {
+            this.shift = shift;
+            this.exceptions = exceptions;
+        }
+
+    }
+
+    private final class CompiledCalendar {
+
+        private final List<ShiftWithExceptions> sources;
+
+        private final WorkingTimeCalendar calendar;
+
+        private CompiledCalendar(final List<ShiftWithExceptions> sources, final WorkingTimeCalendar calendar) {
+            this.sources = sources;
+            this.calendar = calendar;
+        }
+
+        private boolean hasShifts() {
+            return !sources.isEmpty();
+        }
+
+        private CompiledCalendar startAt(final long time) {
+            long from = new LocalDate(time).toDate().getTime();
+
+            return new CompiledCalendar(sources, build(from, from + L_CHUNK));
+        }
+
+        private CompiledCalendar extendForward() {
+            long from = calendar.getCoveredTo();
+
+            return new CompiledCalendar(sources, calendar.append(build(from, from + L_CHUNK)));
+        }
+
+        private CompiledCalendar extendBackward() {
+            long to = calendar.getCoveredFrom();
+
+            return new CompiledCalendar(sources, build(to - L_CHUNK, to).append(calendar));
+        }
+
+        private WorkingTimeCalendar build(final long from, final long to) {
+            if (sources.isEmpty()) {
+                return WorkingTimeCalendar.of(from, to, Collections.emptyList());
+            }
+
+            Date dateFrom = new Date(from);
+            Date dateTo = new Date(to);
+
+            List<ShiftHour> hours = Lists.newArrayList();
+
+            for (ShiftWithExceptions source : sources) {
+                hours.addAll(shiftsService.getHoursForShift(source.shift, source.exceptions, dateFrom, dateTo));
+            }
+
+            Collections.sort(hours, new ShiftHoursComparator());
+
+            return WorkingTimeCalendar.of(from, to, hours);
+        }
+
+    }
+
+}
@@ -0,0 +1,128 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.statistics;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.Signature;
+import org.springframework.stereotype.Service;
+
+/**
+ * Timing and query counting of hot paths - model hooks, view hooks, view listeners and state changes. Each path gets its own
+ * {@link HotPathTimer}, queries are counted per thread by {@link #countQuery()} and assigned to all paths being executed at
+ * the moment, so both latencies and query counts of nested paths are included in paths which called them.
+ *
+ * Statistics are kept in memory since start of application or last {@link #reset()}.
+ */
+@Service
+public class HotPathStatistics {
+
+    public enum Category {
+        MODEL_HOOK, VIEW_HOOK, VIEW_LISTENER, STATE_CHANGE, STATE_CHANGE_PHASE, STATE_CHANGE_LISTENER;
+    }
+
+    private static final ThreadLocal<long[]> QUERY_COUNT = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final Map<Object, HotPathTimer> timers = new ConcurrentHashMap<>();
+
+    private volatile boolean enabled = true;
+
+    /**
+     * Counts query executed by current thread.
+     */
+    public static void countQuery() {
+        QUERY_COUNT.get()[0]++;
+    }
+
+    static long getQueryCount() {
+        return QUERY_COUNT.get()[0];
+    }
+
+    /**
+     * Proceeds join point and records its time and queries executed meanwhile.
+     * 
+     * @param pjp
+     *            measured join point
+     * @param category
+     *            category of hot path
+     * @param key
+     *            key of hot path, either static part of join point, which is then named after its method, or name of path
+     * @return result of join point
+     */
+    public Object measure(final ProceedingJoinPoint pjp, final Category category, final Object key) throws Throwable {
+        if (!enabled) {
+            return pjp.proceed();
+        }
+
+        long queries = getQueryCount();
+        long start = System.nanoTime();
+
+        try {
+            return pjp.proceed();
+        } finally {
+            record(category, key, System.nanoTime() - start, getQueryCount() - queries);
+        }
+    }
+
+    void record(final Category category, final Object key, final long nanos, final long queries) {
+        timers.computeIfAbsent(key, k -> new HotPathTimer(category, getName(k))).record(nanos, queries);
+    }
+
+    private String getName(final Object key) {
+        if (key instanceof JoinPoint.StaticPart) {
+            Signature signature = ((JoinPoint.StaticPart) key).getSignature();
+
+            return signature.getDeclaringTypeName() + "." + signature.getName();
+        }
+
+        return key.toString();
+    }
+
+    /**
+     * @return summaries of all recorded hot paths, the most time consuming first
+     */
+    public List<Map<String, Object>> getSummaries() {
+        return timers.values().stream().sorted(Comparator.comparingLong(HotPathTimer::getTotalNanos).reversed())
+                .map(HotPathTimer::getSummary).collect(Collectors.toList());
+    }
+
+    public void reset() {
+        timers.clear();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+}
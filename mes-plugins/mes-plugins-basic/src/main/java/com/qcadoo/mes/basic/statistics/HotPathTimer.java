@@ -0,0 +1,126 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.statistics;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Latency histogram and query counter of single hot path. Latencies are counted in buckets of powers of two microseconds,
+ * so recording is a few atomic increments and percentiles are upper bounds of buckets they fall into.
+ */
+final class HotPathTimer {
+
+    private static final int L_BUCKETS = 32;
+
+    private final HotPathStatistics.Category category;
+
+    private final String name;
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder totalNanos = new LongAdder();
+
+    private final LongAdder queries = new LongAdder();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    private final AtomicLongArray buckets = new AtomicLongArray(L_BUCKETS);
+
+    HotPathTimer(final HotPathStatistics.Category category, final String name) {
+        this.category = category;
+        this.name = name;
+    }
+
+    void record(final long nanos, final long queryCount) {
+        count.increment();
+        totalNanos.add(nanos);
+        queries.add(queryCount);
+        buckets.incrementAndGet(getBucket(nanos));
+
+        long max = maxNanos.get();
+
+        while ((nanos > max) && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    private static int getBucket(final long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+
+        return Math.min(L_BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(micros));
+    }
+
+    long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    Map<String, Object> getSummary() {
+        long invocations = count.sum();
+        long total = totalNanos.sum();
+        long queryCount = queries.sum();
+        long max = maxNanos.get();
+
+        Map<String, Object> summary = Maps.newLinkedHashMap();
+
+        summary.put("category", category.name());
+        summary.put("name", name);
+        summary.put("count", invocations);
+        summary.put("totalMs", toMillis(total));
+        summary.put("avgMs", (invocations == 0) ? 0D : toMillis(total / invocations));
+        summary.put("p50Ms", toMillis(Math.min(max, getPercentileNanos(invocations, 0.5))));
+        summary.put("p95Ms", toMillis(Math.min(max, getPercentileNanos(invocations, 0.95))));
+        summary.put("p99Ms", toMillis(Math.min(max, getPercentileNanos(invocations, 0.99))));
+        summary.put("maxMs", toMillis(max));
+        summary.put("queries", queryCount);
+        summary.put("avgQueries", (invocations == 0) ? 0D : (double) queryCount / invocations);
+
+        return summary;
+    }
+
+    private long getPercentileNanos(final long invocations, final double percentile) {
+        long rank = (long) Math.ceil(invocations * percentile);
+        long counted = 0;
+
+        for (int bucket = 0; bucket < L_BUCKETS; bucket++) {
+            counted += buckets.get(bucket);
+
+            if ((counted >= rank) && (counted > 0)) {
+                return TimeUnit.MICROSECONDS.toNanos(1L << bucket);
+            }
+        }
+
+        return maxNanos.get();
+    }
+
+    private static double toMillis(final long nanos) {
+        return nanos / 1000000D;
+    }
+
+}
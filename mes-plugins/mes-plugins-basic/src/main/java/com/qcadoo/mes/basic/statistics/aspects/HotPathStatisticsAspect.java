@@ -0,0 +1,122 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.statistics.aspects;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Before;
+import org.aspectj.lang.annotation.Pointcut;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Configurable;
+
+import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.mes.basic.statistics.HotPathStatistics;
+import com.qcadoo.plugin.api.RunIfEnabled;
+
+/**
+ * Measures model hooks, view hooks and view listeners of all plugins and counts queries they execute. Hooks and listeners are
+ * recognized by their signatures, because they are called by framework and aren't marked in any other way.
+ *
+ * Only queries explicitly executed by MES code (data definitions, search builders and jdbc templates) are counted, lazy
+ * loading of entity fields isn't.
+ */
+@Aspect
+@Configurable
+@RunIfEnabled(BasicConstants.PLUGIN_IDENTIFIER)
+public class HotPathStatisticsAspect {
+
+    @Autowired
+    private HotPathStatistics hotPathStatistics;
+
+    @Pointcut("!within(com.qcadoo.mes.basic.statistics..*)")
+    public void notWithinStatistics() {
+    }
+
+    @Pointcut("execution(public * com.qcadoo.mes..*.*(com.qcadoo.model.api.DataDefinition, com.qcadoo.model.api.Entity)) "
+            + "&& notWithinStatistics()")
+    public void modelHookExecution() {
+    }
+
+    @Pointcut("execution(public void com.qcadoo.mes..hooks..*.*(com.qcadoo.view.api.ViewDefinitionState)) "
+            + "&& notWithinStatistics()")
+    public void viewHookExecution() {
+    }
+
+    @Pointcut("execution(public void com.qcadoo.mes..*.*(com.qcadoo.view.api.ViewDefinitionState, "
+            + "com.qcadoo.view.api.ComponentState, String[])) && notWithinStatistics()")
+    public void viewListenerExecution() {
+    }
+
+    @Pointcut("call(* com.qcadoo.model.api.search.SearchCriteriaBuilder.list()) "
+            + "|| call(* com.qcadoo.model.api.search.SearchCriteriaBuilder.uniqueResult()) "
+            + "|| call(* com.qcadoo.model.api.search.SearchQueryBuilder.list()) "
+            + "|| call(* com.qcadoo.model.api.search.SearchQueryBuilder.uniqueResult()) "
+            + "|| call(* com.qcadoo.model.api.DataDefinition.get(..)) "
+            + "|| call(* com.qcadoo.model.api.DataDefinition.getMasterModelEntity(..)) "
+            + "|| call(* com.qcadoo.model.api.DataDefinition.save(..)) "
+            + "|| call(* com.qcadoo.model.api.DataDefinition.delete(..))")
+    public void dataDefinitionQuery() {
+    }
+
+    @Pointcut("call(* org.springframework.jdbc.core.JdbcOperations.query*(..)) "
+            + "|| call(* org.springframework.jdbc.core.JdbcOperations.update(..)) "
+            + "|| call(* org.springframework.jdbc.core.JdbcOperations.batchUpdate(..)) "
+            + "|| call(* org.springframework.jdbc.core.JdbcOperations.execute(..)) "
+            + "|| call(* org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations.query*(..)) "
+            + "|| call(* org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations.update(..)) "
+            + "|| call(* org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations.batchUpdate(..)) "
+            + "|| call(* org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations.execute(..))")
+    public void jdbcQuery() {
+    }
+
+    @Around("modelHookExecution()")
+    public Object measureModelHook(final ProceedingJoinPoint pjp) throws Throwable {
+        return measure(pjp, HotPathStatistics.Category.MODEL_HOOK);
+    }
+
+    @Around("viewHookExecution()")
+    public Object measureViewHook(final ProceedingJoinPoint pjp) throws Throwable {
+        return measure(pjp, HotPathStatistics.Category.VIEW_HOOK);
+    }
+
+    @Around("viewListenerExecution()")
+    public Object measureViewListener(final ProceedingJoinPoint pjp) throws Throwable {
+        return measure(pjp, HotPathStatistics.Category.VIEW_LISTENER);
+    }
+
+    @Before("(dataDefinitionQuery() || jdbcQuery()) && within(com.qcadoo.mes..*) && notWithinStatistics()")
+    public void countQuery() {
+        HotPathStatistics.countQuery();
+    }
+
+    private Object measure(final ProceedingJoinPoint pjp, final HotPathStatistics.Category category) throws Throwable {
+        if (hotPathStatistics == null) {
+            return pjp.proceed();
+        }
+
+        return hotPathStatistics.measure(pjp, category, pjp.getStaticPart());
+    }
+
+}
@@ -0,0 +1,135 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.mes.basic.constants.LogDurability;
+import com.qcadoo.mes.basic.constants.LogFields;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.security.api.SecurityService;
+
+public class LogServiceTest {
+
+    private LogService logService;
+
+    @Mock
+    private LogWriter logWriter;
+
+    @Mock
+    private SecurityService securityService;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private DataDefinition logDD;
+
+    @Mock
+    private Entity logEntity, savedLogEntity;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        logService = new LogService();
+
+        ReflectionTestUtils.setField(logService, "logWriter", logWriter);
+        ReflectionTestUtils.setField(logService, "securityService", securityService);
+        ReflectionTestUtils.setField(logService, "dataDefinitionService", dataDefinitionService);
+
+        given(securityService.getCurrentUserId()).willReturn(1L);
+        given(dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_LOG)).willReturn(logDD);
+        given(logDD.create()).willReturn(logEntity);
+        given(logEntity.getDataDefinition()).willReturn(logDD);
+        given(logDD.save(logEntity)).willReturn(savedLogEntity);
+    }
+
+    @Test
+    public void shouldSaveEntryBeforeReturningInSyncMode() {
+        // given
+        ReflectionTestUtils.setField(logService, "logDurability", LogDurability.SYNC);
+
+        // when
+        Entity log = logService.add(LogService.Builder.info("order", "accept"));
+
+        // then
+        assertEquals(savedLogEntity, log);
+
+        verify(logEntity).setField(LogFields.ACTION, "accept");
+        verify(logEntity).setField(LogFields.USER, 1L);
+        verify(logDD).save(logEntity);
+        verify(logWriter, never()).write(anyListOf(LogWriter.LogRow.class));
+        verify(logWriter, never()).enqueue(any(LogWriter.LogRow.class));
+    }
+
+    @Test
+    public void shouldQueueEntryInBestEffortMode() {
+        // given
+        ReflectionTestUtils.setField(logService, "logDurability", LogDurability.ASYNC_BEST_EFFORT);
+
+        // when
+        Entity log = logService.add(LogService.Builder.info("order", "accept"));
+
+        // then
+        assertEquals(logEntity, log);
+
+        verify(logWriter).enqueue(any(LogWriter.LogRow.class));
+        verify(logWriter, never()).write(anyListOf(LogWriter.LogRow.class));
+        verify(logDD, never()).save(any(Entity.class));
+    }
+
+    @Test
+    public void shouldQueueEntryImmediatelyWhenThereIsNoTransactionInAfterCommitMode() {
+        // given
+        ReflectionTestUtils.setField(logService, "logDurability", LogDurability.ASYNC_AFTER_COMMIT);
+
+        // when
+        logService.add(LogService.Builder.info("order", "accept"));
+
+        // then
+        verify(logWriter).enqueue(any(LogWriter.LogRow.class));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRejectEntryWithoutAction() {
+        // when
+        logService.add(LogService.Builder.info("order", null));
+    }
+
+}
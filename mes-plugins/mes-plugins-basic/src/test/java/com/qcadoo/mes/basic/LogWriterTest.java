@@ -0,0 +1,102 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+
+public class LogWriterTest {
+
+    private LogWriter logWriter;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        logWriter = new LogWriter();
+
+        ReflectionTestUtils.setField(logWriter, "jdbcTemplate", jdbcTemplate);
+    }
+
+    private LogWriter.LogRow createRow(final String action) {
+        return new LogWriter.LogRow(new Date(), 1L, "order", action, null, null, null, null, null, "03info");
+    }
+
+    @Test
+    public void shouldCutTypeActionAndItemsToLengthOfTheirColumns() {
+        // when
+        LogWriter.LogRow row = new LogWriter.LogRow(new Date(), 1L, Strings.repeat("t", 300), Strings.repeat("a", 300),
+                Strings.repeat("m", 5000), Strings.repeat("i", 3000), "item2", null, null, "03info");
+
+        // then
+        assertEquals(255, row.getType().length());
+        assertEquals(255, row.getAction().length());
+        assertEquals(5000, row.getMessage().length());
+        assertEquals(2048, row.getItem1().length());
+        assertEquals("item2", row.getItem2());
+    }
+
+    @Test
+    public void shouldWriteRowsOneByOneWhenMultiRowInsertFails() {
+        // given
+        List<LogWriter.LogRow> rows = Lists.newArrayList(createRow("accept"), createRow("decline"), createRow("correct"));
+
+        given(jdbcTemplate.update(anyString(), any(SqlParameterSource.class)))
+                .willThrow(new DataIntegrityViolationException("multi-row insert")).willReturn(1)
+                .willThrow(new DataIntegrityViolationException("single row insert")).willReturn(1);
+
+        // when
+        ReflectionTestUtils.invokeMethod(logWriter, "writeQuietly", rows);
+
+        // then
+        verify(jdbcTemplate, times(4)).update(anyString(), any(SqlParameterSource.class));
+
+        assertEquals(2L, logWriter.getWrittenCount());
+        assertEquals(1L, logWriter.getFailedCount());
+        assertEquals(0, rows.size());
+    }
+
+}
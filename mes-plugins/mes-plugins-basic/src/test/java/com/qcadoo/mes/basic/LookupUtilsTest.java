@@ -0,0 +1,188 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.controllers.dataProvider.dto.ProductDTO;
+
+public class LookupUtilsTest {
+
+    private static final String L_QUERY = "SELECT %s FROM (SELECT id, number, name FROM basic_product %s) q";
+
+    private LookupUtils lookupUtils;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        lookupUtils = new LookupUtils();
+
+        ReflectionTestUtils.setField(lookupUtils, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(lookupUtils, "countCacheSeconds", 30);
+
+        given(jdbcTemplate.queryForObject(anyString(), anyMapOf(String.class, Object.class), eq(Long.class))).willReturn(4L);
+    }
+
+    @Test
+    public final void shouldFilterStringsWithIlike() {
+        // given
+        ProductDTO record = new ProductDTO();
+        record.setName("bolt");
+
+        // when
+        lookupUtils.getGridResponse(L_QUERY, "number", "asc", 1, 2, record, new HashMap<>());
+
+        // then
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Map> parametersCaptor = ArgumentCaptor.forClass(Map.class);
+
+        verify(jdbcTemplate).query(queryCaptor.capture(), parametersCaptor.capture(), any(RowMapper.class));
+
+        assertTrue(queryCaptor.getValue().contains("WHERE name ILIKE :name"));
+        assertEquals("%bolt%", parametersCaptor.getValue().get("name"));
+    }
+
+    @Test
+    public final void shouldSeekNextPageFromLastRowOfPreviousPage() {
+        // given
+        ProductDTO first = product(1L, "A");
+        ProductDTO second = product(2L, "B");
+
+        given(jdbcTemplate.query(anyString(), anyMapOf(String.class, Object.class), any(RowMapper.class))).willReturn(
+                (List) Lists.newArrayList(first, second));
+
+        // when
+        lookupUtils.getGridResponse(L_QUERY, "number", "asc", 1, 2, new ProductDTO(), new HashMap<>());
+        GridResponse<ProductDTO> response = lookupUtils.getGridResponse(L_QUERY, "number", "asc", 2, 2, new ProductDTO(),
+                new HashMap<>());
+
+        // then
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Map> parametersCaptor = ArgumentCaptor.forClass(Map.class);
+
+        verify(jdbcTemplate, times(2)).query(queryCaptor.capture(), parametersCaptor.capture(), any(RowMapper.class));
+        verify(jdbcTemplate).queryForObject(anyString(), anyMapOf(String.class, Object.class), eq(Long.class));
+
+        String firstPageQuery = queryCaptor.getAllValues().get(0);
+        String secondPageQuery = queryCaptor.getAllValues().get(1);
+
+        assertFalse(firstPageQuery.contains(":lookupSeekId"));
+        assertTrue(firstPageQuery.endsWith("ORDER BY number asc, id asc LIMIT 2 OFFSET 0"));
+        assertTrue(secondPageQuery.contains("WHERE ((number, id) > (:lookupSeekValue, :lookupSeekId) OR number IS NULL)"));
+        assertTrue(secondPageQuery.endsWith("ORDER BY number asc, id asc LIMIT 2 OFFSET 0"));
+        assertEquals("B", parametersCaptor.getAllValues().get(1).get("lookupSeekValue"));
+        assertEquals(2L, parametersCaptor.getAllValues().get(1).get("lookupSeekId"));
+        assertEquals(2, response.getTotal());
+    }
+
+    @Test
+    public final void shouldNotSeekFromRememberedRowsWithoutCountCache() {
+        // given
+        ReflectionTestUtils.setField(lookupUtils, "countCacheSeconds", 0);
+
+        given(jdbcTemplate.query(anyString(), anyMapOf(String.class, Object.class), any(RowMapper.class))).willReturn(
+                (List) Lists.newArrayList(product(1L, "A"), product(2L, "B")));
+
+        // when
+        lookupUtils.getGridResponse(L_QUERY, "number", "asc", 1, 2, new ProductDTO(), new HashMap<>());
+        lookupUtils.getGridResponse(L_QUERY, "number", "asc", 2, 2, new ProductDTO(), new HashMap<>());
+
+        // then
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+
+        verify(jdbcTemplate, times(2)).query(queryCaptor.capture(), anyMapOf(String.class, Object.class), any(RowMapper.class));
+
+        assertFalse(queryCaptor.getAllValues().get(1).contains(":lookupSeekId"));
+        assertTrue(queryCaptor.getAllValues().get(1).endsWith("ORDER BY number asc, id asc LIMIT 2 OFFSET 2"));
+    }
+
+    @Test
+    public final void shouldReadSortKeysOfSkippedPagesBeforeDeepJump() {
+        // given
+        Map<String, Object> lastSkippedRow = ImmutableMap.<String, Object> of("lookupsortvalue", "P2000", "id", 2000L,
+                "lookuprownumber", 2000L);
+
+        given(jdbcTemplate.queryForList(anyString(), anyMapOf(String.class, Object.class))).willReturn(
+                Collections.singletonList(lastSkippedRow));
+
+        // when
+        lookupUtils.getGridResponse(L_QUERY, "number", "asc", 101, 20, new ProductDTO(), new HashMap<>());
+
+        // then
+        ArgumentCaptor<String> keysQueryCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Map> parametersCaptor = ArgumentCaptor.forClass(Map.class);
+
+        verify(jdbcTemplate).queryForList(keysQueryCaptor.capture(), anyMapOf(String.class, Object.class));
+        verify(jdbcTemplate).query(queryCaptor.capture(), parametersCaptor.capture(), any(RowMapper.class));
+
+        assertTrue(keysQueryCaptor.getValue().startsWith("SELECT lookupsortvalue, id, lookuprownumber FROM "));
+        assertTrue(keysQueryCaptor.getValue().contains(
+                "SELECT number AS lookupsortvalue, id FROM (SELECT id, number, name FROM basic_product ) q"));
+        assertTrue(keysQueryCaptor.getValue().contains("ORDER BY number asc, id asc LIMIT 2000"));
+        assertTrue(keysQueryCaptor.getValue().endsWith("WHERE lookuprownumber % 20 = 0"));
+        assertTrue(queryCaptor.getValue().contains("WHERE ((number, id) > (:lookupSeekValue, :lookupSeekId) OR number IS NULL)"));
+        assertTrue(queryCaptor.getValue().endsWith("ORDER BY number asc, id asc LIMIT 20 OFFSET 0"));
+        assertEquals("P2000", parametersCaptor.getValue().get("lookupSeekValue"));
+        assertEquals(2000L, parametersCaptor.getValue().get("lookupSeekId"));
+    }
+
+    private ProductDTO product(final Long id, final String number) {
+        ProductDTO product = new ProductDTO();
+        product.setId(id);
+        product.setNumber(number);
+
+        return product;
+    }
+
+}
@@ -25,16 +25,28 @@ package com.qcadoo.mes.basic;
 
 import static com.qcadoo.mes.basic.constants.BasicConstants.MODEL_PARAMETER;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
+import java.util.Map;
+
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.ImmutableMap;
 
 import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.model.api.DataDefinition;
@@ -69,6 +81,22 @@ public class ParameterServiceTest {
         given(searchQueryBuilder.setCacheable(Mockito.anyBoolean())).willReturn(searchQueryBuilder);
     }
 
+    @After
+    public final void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clear();
+        }
+    }
+
+    private Entity mockParameter(final Map<String, Object> fields) {
+        Entity parameter = mock(Entity.class);
+        given(parameter.getId()).willReturn(13L);
+        given(parameter.isValid()).willReturn(true);
+        given(parameter.getFields()).willReturn(fields);
+
+        return parameter;
+    }
+
     @Test
     public void shouldReturnExistingParameterEntityId() throws Exception {
         // given
@@ -135,4 +163,62 @@ public class ParameterServiceTest {
         parameterService.getParameter();
     }
 
+    @Test
+    public void shouldReuseParameterSnapshotUntilParameterIsSaved() throws Exception {
+        // given
+        Entity currency = mock(Entity.class);
+        given(currency.getId()).willReturn(7L);
+
+        Entity parameter = mockParameter(ImmutableMap.<String, Object> of("lockProductionProgress", true, "currency", currency));
+        given(searchQueryBuilder.uniqueResult()).willReturn(parameter);
+
+        // when
+        ParameterSnapshot snapshot = parameterService.getParameterSnapshot();
+        ParameterSnapshot cachedSnapshot = parameterService.getParameterSnapshot();
+
+        parameterService.invalidateParameterSnapshot();
+
+        ParameterSnapshot refreshedSnapshot = parameterService.getParameterSnapshot();
+
+        // then
+        verify(searchQueryBuilder, times(2)).uniqueResult();
+        assertSame(snapshot, cachedSnapshot);
+        assertNotSame(snapshot, refreshedSnapshot);
+        assertTrue(snapshot.getBooleanField("lockProductionProgress"));
+        assertFalse(snapshot.getBooleanField("createSetElementsOnAccept"));
+        assertEquals(Long.valueOf(7L), snapshot.getBelongsToFieldId("currency"));
+        assertEquals(snapshot.getVersion() + 1, refreshedSnapshot.getVersion());
+    }
+
+    @Test
+    public void shouldPublishSnapshotOfSavedParameterAfterTransactionCompletes() throws Exception {
+        // given
+        Entity parameter = mockParameter(ImmutableMap.<String, Object> of("lockProductionProgress", false));
+        given(searchQueryBuilder.uniqueResult()).willReturn(parameter);
+
+        ParameterSnapshot committedSnapshot = parameterService.getParameterSnapshot();
+
+        TransactionSynchronizationManager.initSynchronization();
+
+        // when
+        parameterService.invalidateParameterSnapshot();
+
+        ParameterSnapshot snapshotInTransaction = parameterService.getParameterSnapshot();
+
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+        }
+
+        TransactionSynchronizationManager.clearSynchronization();
+
+        ParameterSnapshot snapshotAfterCommit = parameterService.getParameterSnapshot();
+
+        // then
+        verify(searchQueryBuilder, times(3)).uniqueResult();
+        assertNotSame(committedSnapshot, snapshotInTransaction);
+        assertEquals(committedSnapshot.getVersion(), snapshotInTransaction.getVersion());
+        assertEquals(committedSnapshot.getVersion() + 1, snapshotAfterCommit.getVersion());
+        assertSame(snapshotAfterCommit, parameterService.getParameterSnapshot());
+    }
+
 }
@@ -39,6 +39,7 @@ import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import com.qcadoo.mes.basic.shift.WorkingTimeCalendarService;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -69,6 +70,12 @@ public class ShiftsServiceTest {
         MockitoAnnotations.initMocks(this);
 
         ReflectionTestUtils.setField(shiftsService, "dataDefinitionService", dataDefinitionService);
+
+        WorkingTimeCalendarService workingTimeCalendarService = new WorkingTimeCalendarService();
+
+        ReflectionTestUtils.setField(workingTimeCalendarService, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(workingTimeCalendarService, "shiftsService", shiftsService);
+        ReflectionTestUtils.setField(shiftsService, "workingTimeCalendarService", workingTimeCalendarService);
     }
 
     private EntityList mockEntityList(List<Entity> list) {
@@ -201,7 +208,7 @@ public class ShiftsServiceTest {
         when(shift.getField("sundayWorking")).thenReturn(true);
         when(shift.getStringField("sundayHours")).thenReturn(hours);
 
-        when(shift.getHasManyField("timetableExceptions")).thenReturn((EntityList) exceptions);
+        when(shift.getHasManyField("shiftTimetableExceptions")).thenReturn((EntityList) exceptions);
         // when
         shiftsService.findDateFromForOrder(dateTo, 123L);
         // then
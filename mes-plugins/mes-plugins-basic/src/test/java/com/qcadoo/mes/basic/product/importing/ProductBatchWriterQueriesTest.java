@@ -0,0 +1,249 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.product.importing;
+
+import static com.qcadoo.testing.model.EntityTestUtils.mockEntity;
+import static com.qcadoo.testing.model.EntityTestUtils.stubBelongsToField;
+import static com.qcadoo.testing.model.EntityTestUtils.stubStringField;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.constants.ProductFamilyElementType;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.basic.constants.UnitConversionItemFieldsB;
+import com.qcadoo.mes.basic.hooks.ProductHooks;
+import com.qcadoo.mes.basic.tree.ProductNumberingServiceImpl;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchCriterion;
+import com.qcadoo.model.api.search.SearchOrder;
+import com.qcadoo.model.api.units.PossibleUnitConversions;
+import com.qcadoo.model.api.units.UnitConversionService;
+import com.qcadoo.model.constants.UnitConversionItemFields;
+
+/**
+ * Runs inserts of {@link ProductBatchWriter} against PostgreSQL given by test.jdbcUrl (and test.jdbcUser, test.jdbcPassword)
+ * system properties, in a schema created for each test, and compares node numbers with those generated by
+ * {@link ProductHooks#generateNodeNumber}. Without them tests are skipped.
+ */
+public class ProductBatchWriterQueriesTest {
+
+    private static final String L_TEST_SCHEMA = "productimport_test";
+
+    private static final String L_SZT = "szt";
+
+    private SingleConnectionDataSource dataSource;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private UnitConversionService unitConversionService;
+
+    private ProductBatchWriter productBatchWriter;
+
+    private ProductHooks productHooks;
+
+    @Before
+    public void init() {
+        String url = System.getProperty("test.jdbcUrl");
+
+        Assume.assumeTrue(url != null);
+
+        dataSource = new SingleConnectionDataSource(url, System.getProperty("test.jdbcUser"),
+                System.getProperty("test.jdbcPassword"), true);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+
+        jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + L_TEST_SCHEMA + " CASCADE");
+        jdbcTemplate.execute("CREATE SCHEMA " + L_TEST_SCHEMA);
+        jdbcTemplate.execute("SET search_path TO " + L_TEST_SCHEMA);
+        jdbcTemplate.execute("CREATE SEQUENCE basic_product_id_seq START 100");
+        jdbcTemplate.execute("CREATE TABLE basic_product (id bigint PRIMARY KEY, number character varying(255), "
+                + "name character varying(1024), globaltypeofmaterial character varying(255), unit character varying(255), "
+                + "ean character varying(255), category character varying(255), description character varying(2048), "
+                + "producer_id bigint, assortment_id bigint, parent_id bigint, nodenumber character varying(255), "
+                + "entitytype character varying(255), costfornumber numeric(12,5), nominalcost numeric(12,5), "
+                + "lastpurchasecost numeric(12,5), averagecost numeric(12,5), active boolean, "
+                + "createdate timestamp without time zone, updatedate timestamp without time zone, "
+                + "createuser character varying(255), updateuser character varying(255))");
+        jdbcTemplate.execute("CREATE TABLE qcadoomodel_unitconversionitem (id bigserial PRIMARY KEY, "
+                + "quantityfrom numeric(14,5), quantityto numeric(14,5), unitfrom character varying(255), "
+                + "unitto character varying(255), product_id bigint)");
+
+        NamedParameterJdbcTemplate namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+
+        unitConversionService = mock(UnitConversionService.class);
+        productBatchWriter = new ProductBatchWriter(namedParameterJdbcTemplate, unitConversionService, "admin");
+
+        ProductNumberingServiceImpl productNumberingService = new ProductNumberingServiceImpl();
+
+        ReflectionTestUtils.setField(productNumberingService, "jdbcTemplate", namedParameterJdbcTemplate);
+
+        productHooks = new ProductHooks();
+
+        ReflectionTestUtils.setField(productHooks, "productNumberingService", productNumberingService);
+    }
+
+    @After
+    public void destroy() {
+        if (dataSource != null) {
+            jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + L_TEST_SCHEMA + " CASCADE");
+
+            dataSource.destroy();
+        }
+    }
+
+    @Test
+    public final void shouldNumberProductsOfFamiliesLikeProductHooks() {
+        // given
+        addProduct(1L, null, "1");
+        addProduct(2L, 1L, "1.1");
+        addProduct(3L, 1L, "1.2");
+        addProduct(4L, 3L, "1.2.1");
+        addProduct(5L, 1L, "1.10");
+        addProduct(6L, null, "11");
+        addProduct(7L, 6L, "11.4");
+        addProduct(8L, null, "2");
+
+        Entity family = mockFamily(1L, "1");
+        Entity subfamily = mockFamily(3L, "1.2");
+        Entity emptyFamily = mockFamily(8L, "2");
+
+        for (Entity parent : Lists.newArrayList(family, emptyFamily, family, subfamily, emptyFamily, family)) {
+            Entity product = mockProduct(parent, null);
+
+            String expectedNodeNumber = generateNodeNumberLikeProductHooks(product);
+
+            // when
+            productBatchWriter.insert(Lists.newArrayList(product));
+
+            // then
+            assertEquals(expectedNodeNumber, getLastInsertedProduct().get("nodenumber"));
+            assertEquals(parent.getId(), ((Number) getLastInsertedProduct().get("parent_id")).longValue());
+        }
+
+        assertEquals(Lists.newArrayList("1.11", "1.12", "1.13", "1.2.2", "2.1", "2.2"), jdbcTemplate.queryForList(
+                "SELECT nodenumber FROM basic_product WHERE id >= 100 ORDER BY nodenumber", String.class));
+    }
+
+    @Test
+    public final void shouldInsertProductsWithDefaultConversions() {
+        // given
+        PossibleUnitConversions possibleUnitConversions = mock(PossibleUnitConversions.class);
+        Entity conversionItem = mockEntity();
+
+        given(conversionItem.getField(UnitConversionItemFields.QUANTITY_FROM)).willReturn(BigDecimal.ONE);
+        given(conversionItem.getField(UnitConversionItemFields.QUANTITY_TO)).willReturn(new BigDecimal("12"));
+        stubStringField(conversionItem, UnitConversionItemFields.UNIT_FROM, L_SZT);
+        stubStringField(conversionItem, UnitConversionItemFields.UNIT_TO, "op");
+        given(unitConversionService.getPossibleConversions(L_SZT)).willReturn(possibleUnitConversions);
+        given(possibleUnitConversions.asEntities(eq(UnitConversionItemFieldsB.PRODUCT), any(Entity.class))).willReturn(
+                Lists.newArrayList(conversionItem));
+
+        // when
+        productBatchWriter.insert(Lists.newArrayList(mockProduct(null, L_SZT), mockProduct(null, null)));
+
+        // then
+        List<Map<String, Object>> conversionItems = jdbcTemplate.queryForList(
+                "SELECT product_id, quantityfrom, quantityto, unitfrom, unitto FROM qcadoomodel_unitconversionitem");
+
+        assertEquals(1, conversionItems.size());
+        assertEquals(100L, ((Number) conversionItems.get(0).get("product_id")).longValue());
+        assertEquals(0, BigDecimal.ONE.compareTo((BigDecimal) conversionItems.get(0).get("quantityfrom")));
+        assertEquals(0, new BigDecimal("12").compareTo((BigDecimal) conversionItems.get(0).get("quantityto")));
+        assertEquals(L_SZT, conversionItems.get(0).get("unitfrom"));
+        assertEquals("op", conversionItems.get(0).get("unitto"));
+        assertEquals(Collections.singletonList(L_SZT),
+                jdbcTemplate.queryForList("SELECT unit FROM basic_product WHERE unit IS NOT NULL", String.class));
+    }
+
+    private String generateNodeNumberLikeProductHooks(final Entity product) {
+        productHooks.generateNodeNumber(mock(DataDefinition.class), product);
+
+        ArgumentCaptor<Object> nodeNumberCaptor = ArgumentCaptor.forClass(Object.class);
+
+        verify(product).setField(eq(ProductFields.NODE_NUMBER), nodeNumberCaptor.capture());
+
+        return (String) nodeNumberCaptor.getValue();
+    }
+
+    private Map<String, Object> getLastInsertedProduct() {
+        return jdbcTemplate.queryForMap("SELECT * FROM basic_product ORDER BY id DESC LIMIT 1");
+    }
+
+    private void addProduct(final Long id, final Long parentId, final String nodeNumber) {
+        jdbcTemplate.update("INSERT INTO basic_product (id, number, parent_id, nodenumber) VALUES (?, ?, ?, ?)", id, "P" + id,
+                parentId, nodeNumber);
+    }
+
+    private Entity mockProduct(final Entity parent, final String unit) {
+        Entity product = mockEntity();
+
+        stubStringField(product, ProductFields.ENTITY_TYPE, ProductFamilyElementType.PARTICULAR_PRODUCT.getStringValue());
+        stubStringField(product, ProductFields.UNIT, unit);
+        stubBelongsToField(product, ProductFields.PARENT, parent);
+
+        return product;
+    }
+
+    private Entity mockFamily(final Long id, final String nodeNumber) {
+        Entity family = mockEntity(id);
+        EntityList children = mock(EntityList.class);
+        SearchCriteriaBuilder searchCriteriaBuilder = mock(SearchCriteriaBuilder.class);
+
+        stubStringField(family, ProductFields.NODE_NUMBER, nodeNumber);
+        given(family.getHasManyField(ProductFields.PRODUCT_FAMILY_CHILDRENS)).willReturn(children);
+        given(children.find()).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.add(any(SearchCriterion.class))).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.addOrder(any(SearchOrder.class))).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.setMaxResults(anyInt())).willReturn(searchCriteriaBuilder);
+        // Like product hooks, look children up in database: last child is taken only to know whether there are any
+        given(searchCriteriaBuilder.uniqueResult()).willAnswer(invocation -> jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM basic_product WHERE parent_id = ?", Long.class, id) > 0 ? mockEntity() : null);
+
+        return family;
+    }
+
+}
@@ -0,0 +1,251 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.product.importing;
+
+import static com.qcadoo.testing.model.EntityTestUtils.mockEntity;
+import static com.qcadoo.testing.model.EntityTestUtils.stubBelongsToField;
+import static com.qcadoo.testing.model.EntityTestUtils.stubStringField;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.ProductService;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.basic.constants.UnitConversionItemFieldsB;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.units.PossibleUnitConversions;
+import com.qcadoo.model.api.units.UnitConversionService;
+import com.qcadoo.model.constants.UnitConversionItemFields;
+
+public class ProductBatchWriterTest {
+
+    private static final String L_INSERT_PRODUCT = "INSERT INTO basic_product";
+
+    private static final String L_INSERT_CONVERSION_ITEM = "INSERT INTO qcadoomodel_unitconversionitem";
+
+    private static final String L_SZT = "szt";
+
+    private ProductBatchWriter productBatchWriter;
+
+    private ProductService productService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private UnitConversionService unitConversionService;
+
+    @Mock
+    private PossibleUnitConversions possibleUnitConversions;
+
+    private long lastProductId;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        productBatchWriter = new ProductBatchWriter(jdbcTemplate, unitConversionService, "admin");
+
+        productService = new ProductService();
+
+        ReflectionTestUtils.setField(productService, "unitConversionService", unitConversionService);
+
+        given(jdbcTemplate.queryForList(anyString(), anyMapOf(String.class, Object.class), eq(Long.class))).willAnswer(
+                invocation -> {
+                    int count = (Integer) ((Map<?, ?>) invocation.getArguments()[1]).get("count");
+                    List<Long> ids = Lists.newArrayList();
+
+                    for (int index = 0; index < count; index++) {
+                        ids.add(++lastProductId);
+                    }
+
+                    return ids;
+                });
+        given(unitConversionService.getPossibleConversions(L_SZT)).willReturn(possibleUnitConversions);
+    }
+
+    @Test
+    public final void shouldAddDefaultConversionsLikeProductHooks() {
+        // given
+        Entity product = mockProduct(L_SZT, null);
+        List<Entity> conversionItems = Lists.newArrayList(mockConversionItem("1", L_SZT, "10", "kg"),
+                mockConversionItem("1", L_SZT, "2", "op"));
+
+        given(possibleUnitConversions.asEntities(eq(UnitConversionItemFieldsB.PRODUCT), any(Entity.class))).willReturn(
+                conversionItems);
+
+        productService.conversionForProductUnit(product);
+
+        ArgumentCaptor<Object> hookConversionItemsCaptor = ArgumentCaptor.forClass(Object.class);
+
+        verify(product).setField(eq(ProductFields.CONVERSION_ITEMS), hookConversionItemsCaptor.capture());
+
+        // when
+        productBatchWriter.insert(Lists.newArrayList(product));
+
+        // then
+        Collection<?> hookConversionItems = (Collection<?>) hookConversionItemsCaptor.getValue();
+        SqlParameterSource[] conversionItemsParameters = captureBatch(L_INSERT_CONVERSION_ITEM);
+
+        assertEquals(hookConversionItems.size(), conversionItemsParameters.length);
+
+        int index = 0;
+
+        for (Object hookConversionItem : hookConversionItems) {
+            Entity conversionItem = (Entity) hookConversionItem;
+            SqlParameterSource parameters = conversionItemsParameters[index++];
+
+            assertEquals(lastProductId, parameters.getValue("productId"));
+            assertEquals(conversionItem.getField(UnitConversionItemFields.QUANTITY_FROM), parameters.getValue("quantityFrom"));
+            assertEquals(conversionItem.getField(UnitConversionItemFields.QUANTITY_TO), parameters.getValue("quantityTo"));
+            assertEquals(conversionItem.getStringField(UnitConversionItemFields.UNIT_FROM), parameters.getValue("unitFrom"));
+            assertEquals(conversionItem.getStringField(UnitConversionItemFields.UNIT_TO), parameters.getValue("unitTo"));
+        }
+    }
+
+    @Test
+    public final void shouldNotAddConversionsOfProductWithoutUnitLikeProductHooks() {
+        // given
+        Entity product = mockProduct("", null);
+
+        productService.conversionForProductUnit(product);
+
+        // when
+        productBatchWriter.insert(Lists.newArrayList(product, mockProduct(null, null)));
+
+        // then
+        verify(product, never()).setField(eq(ProductFields.CONVERSION_ITEMS), any());
+        verifyZeroInteractions(unitConversionService);
+        verify(jdbcTemplate, never()).batchUpdate(startsWith(L_INSERT_CONVERSION_ITEM), any(SqlParameterSource[].class));
+    }
+
+    @Test
+    public final void shouldLookUpConversionsOncePerUnit() {
+        // given
+        given(possibleUnitConversions.asEntities(eq(UnitConversionItemFieldsB.PRODUCT), any(Entity.class))).willReturn(
+                Lists.newArrayList(mockConversionItem("1", L_SZT, "10", "kg")));
+
+        // when
+        productBatchWriter.insert(Lists.newArrayList(mockProduct(L_SZT, null), mockProduct(L_SZT, null)));
+        productBatchWriter.insert(Lists.newArrayList(mockProduct(L_SZT, null)));
+
+        // then
+        verify(unitConversionService).getPossibleConversions(L_SZT);
+        verify(jdbcTemplate, times(2)).batchUpdate(startsWith(L_INSERT_CONVERSION_ITEM), any(SqlParameterSource[].class));
+    }
+
+    @Test
+    public final void shouldNumberProductsOfFamilyAfterItsLastChild() {
+        // given
+        Entity family = mockFamily(1L, "1.2");
+        Entity emptyFamily = mockFamily(2L, "3");
+
+        given(jdbcTemplate.queryForObject(anyString(), any(SqlParameterSource.class), eq(Integer.class))).willReturn(4)
+                .willReturn(null);
+
+        // when
+        productBatchWriter.insert(Lists.newArrayList(mockProduct(null, family), mockProduct(null, null),
+                mockProduct(null, family)));
+        productBatchWriter.insert(Lists.newArrayList(mockProduct(null, family), mockProduct(null, emptyFamily)));
+
+        // then
+        ArgumentCaptor<SqlParameterSource[]> productsParametersCaptor = ArgumentCaptor.forClass(SqlParameterSource[].class);
+
+        verify(jdbcTemplate, times(2)).batchUpdate(startsWith(L_INSERT_PRODUCT), productsParametersCaptor.capture());
+        verify(jdbcTemplate, times(2)).queryForObject(anyString(), any(SqlParameterSource.class), eq(Integer.class));
+
+        SqlParameterSource[] first = productsParametersCaptor.getAllValues().get(0);
+        SqlParameterSource[] second = productsParametersCaptor.getAllValues().get(1);
+
+        assertEquals("1.2.5", first[0].getValue("nodeNumber"));
+        assertEquals(1L, first[0].getValue("parentId"));
+        assertNull(first[1].getValue("nodeNumber"));
+        assertNull(first[1].getValue("parentId"));
+        assertEquals("1.2.6", first[2].getValue("nodeNumber"));
+        assertEquals("1.2.7", second[0].getValue("nodeNumber"));
+        assertEquals("3.1", second[1].getValue("nodeNumber"));
+    }
+
+    private SqlParameterSource[] captureBatch(final String sql) {
+        ArgumentCaptor<SqlParameterSource[]> parametersCaptor = ArgumentCaptor.forClass(SqlParameterSource[].class);
+
+        verify(jdbcTemplate).batchUpdate(startsWith(sql), parametersCaptor.capture());
+
+        return parametersCaptor.getValue();
+    }
+
+    private Entity mockProduct(final String unit, final Entity parent) {
+        Entity product = mockEntity();
+
+        stubStringField(product, ProductFields.UNIT, unit);
+        stubBelongsToField(product, ProductFields.PARENT, parent);
+
+        return product;
+    }
+
+    private Entity mockFamily(final Long id, final String nodeNumber) {
+        Entity family = mockEntity(id);
+
+        stubStringField(family, ProductFields.NODE_NUMBER, nodeNumber);
+
+        return family;
+    }
+
+    private Entity mockConversionItem(final String quantityFrom, final String unitFrom, final String quantityTo,
+            final String unitTo) {
+        Entity conversionItem = mockEntity();
+
+        given(conversionItem.getField(UnitConversionItemFields.QUANTITY_FROM)).willReturn(new BigDecimal(quantityFrom));
+        given(conversionItem.getField(UnitConversionItemFields.QUANTITY_TO)).willReturn(new BigDecimal(quantityTo));
+        stubStringField(conversionItem, UnitConversionItemFields.UNIT_FROM, unitFrom);
+        stubStringField(conversionItem, UnitConversionItemFields.UNIT_TO, unitTo);
+
+        return conversionItem;
+    }
+
+}
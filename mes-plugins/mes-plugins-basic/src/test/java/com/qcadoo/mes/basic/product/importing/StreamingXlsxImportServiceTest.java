@@ -0,0 +1,281 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.product.importing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionStatus;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.units.UnitConversionService;
+import com.qcadoo.security.api.SecurityService;
+
+public class StreamingXlsxImportServiceTest {
+
+    private static final String L_INSERT_PRODUCT = "INSERT INTO basic_product";
+
+    private static final int L_ROWS_PER_CHUNK = 500;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private StreamingXlsxImportService streamingXlsxImportService;
+
+    @Mock
+    private RowProcessorFactory rowProcessorFactory;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private UnitConversionService unitConversionService;
+
+    @Mock
+    private SecurityService securityService;
+
+    @Mock
+    private DataDefinition productDD;
+
+    @Mock
+    private TransactionStatus transactionStatus;
+
+    private XSSFWorkbook workbook;
+
+    private Sheet sheet;
+
+    private long lastProductId;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        CellBinderRegistry cellBinderRegistry = new CellBinderRegistry();
+
+        cellBinderRegistry.setCellBinder(CellBinder.required(ProductFields.NUMBER));
+        cellBinderRegistry.setCellBinder(CellBinder.optional(ProductFields.NAME));
+        cellBinderRegistry.setCellBinder(CellBinder.optional(ProductFields.GLOBAL_TYPE_OF_MATERIAL));
+        cellBinderRegistry.setCellBinder(CellBinder.optional(ProductFields.UNIT));
+        cellBinderRegistry.setCellBinder(CellBinder.optional(ProductFields.EAN));
+        cellBinderRegistry.setCellBinder(CellBinder.optional(ProductFields.CATEGORY));
+        cellBinderRegistry.setCellBinder(CellBinder.optional(ProductFields.DESCRIPTION));
+        cellBinderRegistry.setCellBinder(CellBinder.optional(ProductFields.PRODUCER));
+        cellBinderRegistry.setCellBinder(CellBinder.optional(ProductFields.ASSORTMENT));
+        cellBinderRegistry.setCellBinder(CellBinder.optional(ProductFields.PARENT));
+        cellBinderRegistry.setCellBinder(CellBinder.optional("nominalCost"));
+        cellBinderRegistry.setCellBinder(CellBinder.optional("lastPurchaseCost"));
+        cellBinderRegistry.setCellBinder(CellBinder.optional("averageCost"));
+
+        streamingXlsxImportService = new StreamingXlsxImportService();
+
+        ReflectionTestUtils.setField(streamingXlsxImportService, "rowProcessorFactory", rowProcessorFactory);
+        ReflectionTestUtils.setField(streamingXlsxImportService, "cellBinderRegistry", cellBinderRegistry);
+        ReflectionTestUtils.setField(streamingXlsxImportService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(streamingXlsxImportService, "unitConversionService", unitConversionService);
+        ReflectionTestUtils.setField(streamingXlsxImportService, "securityService", securityService);
+        ReflectionTestUtils.setField(streamingXlsxImportService, "productImportTaskExecutor", new SyncTaskExecutor());
+
+        given(rowProcessorFactory.getProductDataDefinition()).willReturn(productDD);
+        given(rowProcessorFactory.createEntityWithDefaultValues()).willAnswer(invocation -> createProduct());
+        given(productDD.callValidators(any(Entity.class))).willReturn(true);
+        given(jdbcTemplate.queryForList(anyString(), anyMapOf(String.class, Object.class), eq(Long.class))).willAnswer(
+                invocation -> {
+                    int count = (Integer) ((Map<?, ?>) invocation.getArguments()[1]).get("count");
+                    List<Long> ids = Lists.newArrayList();
+
+                    for (int index = 0; index < count; index++) {
+                        ids.add(++lastProductId);
+                    }
+
+                    return ids;
+                });
+
+        workbook = new XSSFWorkbook();
+        sheet = workbook.createSheet();
+
+        sheet.createRow(0).createCell(0).setCellValue("number");
+    }
+
+    @Test
+    public final void shouldImportAllRowsInChunks() throws IOException {
+        // given
+        addRows(1, L_ROWS_PER_CHUNK + 1);
+
+        // when
+        ImportStatus importStatus = importFile();
+
+        // then
+        assertFalse(importStatus.hasErrors());
+        assertEquals(L_ROWS_PER_CHUNK + 1, importStatus.getRowsProcessed());
+        assertEquals(Lists.newArrayList(L_ROWS_PER_CHUNK, 1), getInsertedChunkSizes(2));
+        verify(transactionStatus, times(2)).releaseSavepoint(any());
+        verify(transactionStatus, never()).setRollbackOnly();
+    }
+
+    @Test
+    public final void shouldReportDuplicatedNumbersOfFileAfterFirstOccurrence() throws IOException {
+        // given
+        addRows(1, L_ROWS_PER_CHUNK + 1);
+        addRow(L_ROWS_PER_CHUNK + 2, "P2");
+        addRow(L_ROWS_PER_CHUNK + 3, "P" + (L_ROWS_PER_CHUNK + 1));
+
+        // when
+        ImportStatus importStatus = importFile();
+
+        // then
+        assertEquals(L_ROWS_PER_CHUNK + 3, importStatus.getRowsProcessed());
+        assertEquals(2, importStatus.getErrors().size());
+        assertTrue(importStatus.getErrors().contains(
+                new ImportError(L_ROWS_PER_CHUNK + 2, ProductFields.NUMBER, "qcadooView.validate.field.error.duplicated")));
+        assertTrue(importStatus.getErrors().contains(
+                new ImportError(L_ROWS_PER_CHUNK + 3, ProductFields.NUMBER, "qcadooView.validate.field.error.duplicated")));
+        assertEquals(Lists.newArrayList(L_ROWS_PER_CHUNK, 1), getInsertedChunkSizes(2));
+        verify(transactionStatus).setRollbackOnly();
+    }
+
+    @Test
+    public final void shouldRollbackFailingChunkToItsSavepointAndInsertFollowingChunks() throws IOException {
+        // given
+        Object firstSavepoint = new Object();
+        Object secondSavepoint = new Object();
+
+        addRows(1, L_ROWS_PER_CHUNK + 1);
+
+        given(transactionStatus.createSavepoint()).willReturn(firstSavepoint, secondSavepoint);
+        given(jdbcTemplate.batchUpdate(startsWith(L_INSERT_PRODUCT), any(SqlParameterSource[].class))).willThrow(
+                new DataIntegrityViolationException("duplicate key value violates unique constraint")).willReturn(new int[1]);
+
+        // when
+        ImportStatus importStatus = importFile();
+
+        // then
+        InOrder inOrder = inOrder(transactionStatus);
+
+        inOrder.verify(transactionStatus).createSavepoint();
+        inOrder.verify(transactionStatus).rollbackToSavepoint(firstSavepoint);
+        inOrder.verify(transactionStatus).createSavepoint();
+        inOrder.verify(transactionStatus).releaseSavepoint(secondSavepoint);
+        inOrder.verify(transactionStatus).setRollbackOnly();
+        verify(transactionStatus, never()).releaseSavepoint(firstSavepoint);
+
+        assertEquals(L_ROWS_PER_CHUNK + 1, importStatus.getRowsProcessed());
+        assertEquals(1, importStatus.getErrors().size());
+
+        ImportError error = importStatus.getErrors().iterator().next();
+
+        assertEquals(new ImportError(1, ProductFields.NUMBER, "basic.productsImport.error.rowsNotSaved"), error);
+        assertEquals(Lists.newArrayList("1", String.valueOf(L_ROWS_PER_CHUNK)), Lists.newArrayList(error.getArgs()));
+        assertEquals(Lists.newArrayList(L_ROWS_PER_CHUNK, 1), getInsertedChunkSizes(2));
+    }
+
+    private ImportStatus importFile() throws IOException {
+        File file = temporaryFolder.newFile("products.xlsx");
+
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            workbook.write(outputStream);
+        }
+
+        return streamingXlsxImportService.importFrom(file, transactionStatus);
+    }
+
+    private List<Integer> getInsertedChunkSizes(final int numberOfChunks) {
+        ArgumentCaptor<SqlParameterSource[]> productsParametersCaptor = ArgumentCaptor.forClass(SqlParameterSource[].class);
+
+        verify(jdbcTemplate, times(numberOfChunks)).batchUpdate(startsWith(L_INSERT_PRODUCT),
+                productsParametersCaptor.capture());
+
+        List<Integer> chunkSizes = Lists.newArrayList();
+
+        for (SqlParameterSource[] productsParameters : productsParametersCaptor.getAllValues()) {
+            chunkSizes.add(productsParameters.length);
+        }
+
+        return chunkSizes;
+    }
+
+    private void addRows(final int firstRowIndex, final int lastRowIndex) {
+        for (int rowIndex = firstRowIndex; rowIndex <= lastRowIndex; rowIndex++) {
+            addRow(rowIndex, "P" + rowIndex);
+        }
+    }
+
+    private void addRow(final int rowIndex, final String number) {
+        Row row = sheet.createRow(rowIndex);
+
+        row.createCell(0).setCellValue(number);
+        row.createCell(1).setCellValue("Product " + number);
+    }
+
+    private Entity createProduct() {
+        Map<String, Object> fields = Maps.newHashMap();
+        Entity product = mock(Entity.class);
+
+        doAnswer(invocation -> fields.put((String) invocation.getArguments()[0], invocation.getArguments()[1])).when(product)
+                .setField(anyString(), any());
+        given(product.getField(anyString())).willAnswer(invocation -> fields.get(invocation.getArguments()[0]));
+        given(product.getStringField(anyString())).willAnswer(invocation -> fields.get(invocation.getArguments()[0]));
+
+        return product;
+    }
+
+}
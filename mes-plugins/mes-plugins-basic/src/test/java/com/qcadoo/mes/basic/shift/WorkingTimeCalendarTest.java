@@ -0,0 +1,96 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.shift;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Date;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.ShiftsServiceImpl.ShiftHour;
+
+public class WorkingTimeCalendarTest {
+
+    private static final long L_HOUR = 3600000L;
+
+    private static long time(final int day, final int hour) {
+        return new DateTime(2020, 3, day, hour, 0, 0, 0).getMillis();
+    }
+
+    private static ShiftHour hour(final long from, final long to) {
+        return new ShiftHour(new Date(from), new Date(to));
+    }
+
+    private WorkingTimeCalendar buildCalendar() {
+        List<ShiftHour> hours = Lists.newArrayList(hour(time(2, 8), time(2, 16)), hour(time(3, 8), time(3, 16)));
+
+        return WorkingTimeCalendar.of(time(2, 0), time(4, 0), hours);
+    }
+
+    @Test
+    public final void shouldAddWorkTimeAcrossIntervals() {
+        // given
+        WorkingTimeCalendar calendar = buildCalendar();
+
+        // when & then
+        assertEquals(time(2, 12), calendar.plus(time(2, 7), 4 * L_HOUR).getAsLong());
+        assertEquals(time(3, 10), calendar.plus(time(2, 7), 10 * L_HOUR).getAsLong());
+        assertEquals(time(2, 16), calendar.plus(time(2, 12), 4 * L_HOUR).getAsLong());
+        assertFalse(calendar.plus(time(2, 7), 17 * L_HOUR).isPresent());
+    }
+
+    @Test
+    public final void shouldSubtractWorkTimeAcrossIntervals() {
+        // given
+        WorkingTimeCalendar calendar = buildCalendar();
+
+        // when & then
+        assertEquals(time(2, 8), calendar.minus(time(3, 10), 10 * L_HOUR).getAsLong());
+        assertEquals(time(3, 8), calendar.minus(time(3, 20), 8 * L_HOUR).getAsLong());
+        assertEquals(time(2, 14), calendar.minus(time(3, 8), 2 * L_HOUR).getAsLong());
+        assertFalse(calendar.minus(time(3, 10), 11 * L_HOUR).isPresent());
+    }
+
+    @Test
+    public final void shouldMergeOverlappingAndAdjacentHours() {
+        // given
+        List<ShiftHour> firstHours = Lists.newArrayList(hour(time(2, 8), time(2, 16)), hour(time(2, 12), time(2, 20)),
+                hour(time(2, 20), time(3, 4)));
+        List<ShiftHour> secondHours = Lists.newArrayList(hour(time(3, 0), time(3, 6)));
+
+        // when
+        WorkingTimeCalendar calendar = WorkingTimeCalendar.of(time(2, 0), time(3, 0), firstHours).append(
+                WorkingTimeCalendar.of(time(3, 0), time(4, 0), secondHours));
+
+        // then
+        assertEquals(1, calendar.getNumberOfIntervals());
+        assertEquals(time(3, 6), calendar.plus(time(2, 0), 22 * L_HOUR).getAsLong());
+    }
+
+}
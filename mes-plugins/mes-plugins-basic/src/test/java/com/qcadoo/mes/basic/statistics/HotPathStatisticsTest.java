@@ -0,0 +1,109 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.statistics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HotPathStatisticsTest {
+
+    private HotPathStatistics hotPathStatistics;
+
+    @Before
+    public void init() {
+        hotPathStatistics = new HotPathStatistics();
+    }
+
+    @Test
+    public void shouldSummarizeRecordedHotPathsStartingWithTheMostTimeConsuming() {
+        // given
+        for (int i = 0; i < 99; i++) {
+            hotPathStatistics.record(HotPathStatistics.Category.MODEL_HOOK, "fastHook", TimeUnit.MICROSECONDS.toNanos(100), 1);
+        }
+
+        hotPathStatistics.record(HotPathStatistics.Category.MODEL_HOOK, "fastHook", TimeUnit.MILLISECONDS.toNanos(50), 3);
+        hotPathStatistics.record(HotPathStatistics.Category.VIEW_LISTENER, "slowListener", TimeUnit.SECONDS.toNanos(1), 0);
+
+        // when
+        List<Map<String, Object>> summaries = hotPathStatistics.getSummaries();
+
+        // then
+        assertEquals(2, summaries.size());
+        assertEquals("slowListener", summaries.get(0).get("name"));
+
+        Map<String, Object> fastHook = summaries.get(1);
+
+        assertEquals("MODEL_HOOK", fastHook.get("category"));
+        assertEquals(100L, fastHook.get("count"));
+        assertEquals(102L, fastHook.get("queries"));
+        assertEquals(50D, fastHook.get("maxMs"));
+        assertTrue((Double) fastHook.get("p50Ms") <= 0.128D);
+        assertTrue((Double) fastHook.get("p99Ms") <= 0.128D);
+    }
+
+    @Test
+    public void shouldCountQueriesExecutedByMeasuredJoinPoint() throws Throwable {
+        // given
+        ProceedingJoinPoint pjp = mock(ProceedingJoinPoint.class);
+
+        given(pjp.proceed()).willAnswer(invocation -> {
+            HotPathStatistics.countQuery();
+            HotPathStatistics.countQuery();
+
+            return "result";
+        });
+
+        // when
+        Object result = hotPathStatistics.measure(pjp, HotPathStatistics.Category.STATE_CHANGE, "order 01pending -> 02accepted");
+
+        // then
+        assertEquals("result", result);
+        assertEquals(2L, hotPathStatistics.getSummaries().get(0).get("queries"));
+    }
+
+    @Test
+    public void shouldNotRecordWhenDisabled() throws Throwable {
+        // given
+        ProceedingJoinPoint pjp = mock(ProceedingJoinPoint.class);
+
+        hotPathStatistics.setEnabled(false);
+
+        // when
+        hotPathStatistics.measure(pjp, HotPathStatistics.Category.VIEW_HOOK, "hook");
+
+        // then
+        assertTrue(hotPathStatistics.getSummaries().isEmpty());
+    }
+
+}
@@ -0,0 +1,117 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.costCalculation;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.qcadoo.mes.costCalculation.constants.CostCalculationConstants;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Calculates costs of many cost calculations, of orders or technologies, in parallel on bounded cost calculation executor, each
+ * in its own transaction.
+ */
+@Service
+public class CostCalculationBatchService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CostCalculationBatchService.class);
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private CostCalculationService costCalculationService;
+
+    @Autowired
+    @Qualifier("costCalculationTaskExecutor")
+    private TaskExecutor costCalculationTaskExecutor;
+
+    /**
+     * @return ids of cost calculations which couldn't be calculated
+     */
+    public Set<Long> calculateTotalCosts(final Collection<Long> costCalculationsIds) {
+        Set<Long> failedCostCalculationsIds = ConcurrentHashMap.newKeySet();
+        CountDownLatch finished = new CountDownLatch(costCalculationsIds.size());
+
+        for (Long costCalculationId : costCalculationsIds) {
+            costCalculationTaskExecutor.execute(() -> {
+                try {
+                    if (!calculateInTransaction(costCalculationId)) {
+                        failedCostCalculationsIds.add(costCalculationId);
+                    }
+                } catch (Exception exception) {
+                    LOG.warn(String.format("Can't calculate costs of cost calculation %d", costCalculationId), exception);
+
+                    failedCostCalculationsIds.add(costCalculationId);
+                } finally {
+                    finished.countDown();
+                }
+            });
+        }
+
+        try {
+            finished.await();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException("Interrupted while waiting for cost calculations", exception);
+        }
+
+        return failedCostCalculationsIds;
+    }
+
+    @Transactional
+    private boolean calculateInTransaction(final Long costCalculationId) {
+        Entity costCalculation = dataDefinitionService.get(CostCalculationConstants.PLUGIN_IDENTIFIER,
+                CostCalculationConstants.MODEL_COST_CALCULATION).get(costCalculationId);
+
+        if (costCalculation == null) {
+            return false;
+        }
+
+        costCalculation = costCalculationService.calculateTotalCost(costCalculation);
+
+        if (!costCalculation.isValid()) {
+            return false;
+        }
+
+        costCalculationService.calculateSellPriceOverhead(costCalculation);
+        costCalculationService.calculateSellPrice(costCalculation);
+
+        return costCalculation.getDataDefinition().save(costCalculation).isValid();
+    }
+
+}
@@ -0,0 +1,127 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.costCalculation;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.costCalculation.constants.CostCalculationConstants;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+
+public class CostCalculationBatchServiceTest {
+
+    private static final Long L_CALCULATED_ID = 1L;
+
+    private static final Long L_MISSING_ID = 2L;
+
+    private static final Long L_INVALID_ID = 3L;
+
+    private static final Long L_FAILING_ID = 4L;
+
+    private CostCalculationBatchService costCalculationBatchService;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private CostCalculationService costCalculationService;
+
+    @Mock
+    private DataDefinition costCalculationDD;
+
+    @Mock
+    private Entity calculated, invalid, failing;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        costCalculationBatchService = new CostCalculationBatchService();
+
+        TaskExecutor costCalculationTaskExecutor = Runnable::run;
+
+        ReflectionTestUtils.setField(costCalculationBatchService, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(costCalculationBatchService, "costCalculationService", costCalculationService);
+        ReflectionTestUtils.setField(costCalculationBatchService, "costCalculationTaskExecutor", costCalculationTaskExecutor);
+
+        given(dataDefinitionService.get(CostCalculationConstants.PLUGIN_IDENTIFIER,
+                CostCalculationConstants.MODEL_COST_CALCULATION)).willReturn(costCalculationDD);
+
+        given(costCalculationDD.get(L_CALCULATED_ID)).willReturn(calculated);
+        given(costCalculationDD.get(L_INVALID_ID)).willReturn(invalid);
+        given(costCalculationDD.get(L_FAILING_ID)).willReturn(failing);
+
+        given(costCalculationService.calculateTotalCost(calculated)).willReturn(calculated);
+        given(costCalculationService.calculateTotalCost(invalid)).willReturn(invalid);
+        given(costCalculationService.calculateTotalCost(failing)).willThrow(new IllegalStateException("no technology"));
+
+        given(calculated.isValid()).willReturn(true);
+        given(calculated.getDataDefinition()).willReturn(costCalculationDD);
+        given(costCalculationDD.save(calculated)).willReturn(calculated);
+    }
+
+    @Test
+    public final void shouldCalculateAndSaveCostCalculation() {
+        // when
+        Set<Long> failedCostCalculationsIds = costCalculationBatchService.calculateTotalCosts(Lists
+                .newArrayList(L_CALCULATED_ID));
+
+        // then
+        assertEquals(0, failedCostCalculationsIds.size());
+
+        verify(costCalculationService).calculateSellPriceOverhead(calculated);
+        verify(costCalculationService).calculateSellPrice(calculated);
+        verify(costCalculationDD).save(calculated);
+    }
+
+    @Test
+    public final void shouldReturnIdsOfCostCalculationsWhichCouldNotBeCalculated() {
+        // when
+        Set<Long> failedCostCalculationsIds = costCalculationBatchService.calculateTotalCosts(Lists.newArrayList(L_CALCULATED_ID,
+                L_MISSING_ID, L_INVALID_ID, L_FAILING_ID));
+
+        // then
+        assertEquals(ImmutableSet.of(L_MISSING_ID, L_INVALID_ID, L_FAILING_ID), failedCostCalculationsIds);
+
+        verify(costCalculationDD).save(calculated);
+        verify(costCalculationDD, never()).save(invalid);
+        verify(costCalculationDD, never()).save(failing);
+    }
+
+}
@@ -403,7 +403,7 @@ public class DeliveredProductHooks {
     }
 
     private boolean isBiggerDeliveredQuantityAllowed() {
-        return parameterService.getParameter().getBooleanField(ParameterFieldsD.DELIVERED_BIGGER_THAN_ORDERED);
+        return parameterService.getParameterSnapshot().getBooleanField(ParameterFieldsD.DELIVERED_BIGGER_THAN_ORDERED);
     }
 
     @Autowired
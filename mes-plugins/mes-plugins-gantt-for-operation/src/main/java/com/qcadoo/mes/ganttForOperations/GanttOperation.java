@@ -0,0 +1,127 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.ganttForOperations;
+
+import java.util.Date;
+
+/**
+ * Operation of order with its effective dates, as calculated by operation durations of order.
+ */
+public class GanttOperation {
+
+    private Long orderId;
+
+    private String orderNumber;
+
+    private String productionLineNumber;
+
+    private Long technologyOperationComponentId;
+
+    private String nodeNumber;
+
+    private String operationNumber;
+
+    private String operationName;
+
+    private Date effectiveDateFrom;
+
+    private Date effectiveDateTo;
+
+    public Long getOrderId() {
+        return orderId;
+    }
+
+    public void setOrderId(final Long orderId) {
+        this.orderId = orderId;
+    }
+
+    public String getOrderNumber() {
+        return orderNumber;
+    }
+
+    public void setOrderNumber(final String orderNumber) {
+        this.orderNumber = orderNumber;
+    }
+
+    public String getProductionLineNumber() {
+        return productionLineNumber;
+    }
+
+    public void setProductionLineNumber(final String productionLineNumber) {
+        this.productionLineNumber = productionLineNumber;
+    }
+
+    public Long getTechnologyOperationComponentId() {
+        return technologyOperationComponentId;
+    }
+
+    public void setTechnologyOperationComponentId(final Long technologyOperationComponentId) {
+        this.technologyOperationComponentId = technologyOperationComponentId;
+    }
+
+    public String getNodeNumber() {
+        return nodeNumber;
+    }
+
+    public void setNodeNumber(final String nodeNumber) {
+        this.nodeNumber = nodeNumber;
+    }
+
+    public String getOperationNumber() {
+        return operationNumber;
+    }
+
+    public void setOperationNumber(final String operationNumber) {
+        this.operationNumber = operationNumber;
+    }
+
+    public String getOperationName() {
+        return operationName;
+    }
+
+    public void setOperationName(final String operationName) {
+        this.operationName = operationName;
+    }
+
+    public Date getEffectiveDateFrom() {
+        return effectiveDateFrom;
+    }
+
+    public void setEffectiveDateFrom(final Date effectiveDateFrom) {
+        this.effectiveDateFrom = effectiveDateFrom;
+    }
+
+    public Date getEffectiveDateTo() {
+        return effectiveDateTo;
+    }
+
+    public void setEffectiveDateTo(final Date effectiveDateTo) {
+        this.effectiveDateTo = effectiveDateTo;
+    }
+
+    public String getDescription() {
+        return nodeNumber + " " + operationNumber + " " + operationName;
+    }
+
+}
@@ -0,0 +1,91 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.ganttForOperations;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.orders.states.constants.OrderStateStringValues;
+
+/**
+ * Reads effective dates of operations of orders with one query. Operations without calculated durations are skipped, nothing is
+ * created while chart is rendered.
+ */
+@Service
+public class GanttOperationsDataService {
+
+    private static final String L_SELECT = "SELECT o.id AS orderId, o.number AS orderNumber, "
+            + "pl.number AS productionLineNumber, toc.id AS technologyOperationComponentId, toc.nodenumber AS nodeNumber, "
+            + "op.number AS operationNumber, op.name AS operationName, "
+            + "occ.effectivedatefrom AS effectiveDateFrom, occ.effectivedateto AS effectiveDateTo "
+            + "FROM productionscheduling_opercomptimecalculation occ "
+            + "JOIN productionscheduling_ordertimecalculation otc ON otc.id = occ.ordertimecalculation_id "
+            + "JOIN orders_order o ON o.id = otc.order_id "
+            + "JOIN technologies_technologyoperationcomponent toc ON toc.id = occ.technologyoperationcomponent_id "
+            + "JOIN technologies_operation op ON op.id = toc.operation_id "
+            + "LEFT JOIN productionlines_productionline pl ON pl.id = o.productionline_id "
+            + "WHERE occ.effectivedatefrom IS NOT NULL AND occ.effectivedateto IS NOT NULL ";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    public List<GanttOperation> findOperations(final Collection<Long> ordersIds) {
+        if (ordersIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Map<String, Object> params = Maps.newHashMap();
+        params.put("ordersIds", ordersIds);
+
+        return jdbcTemplate.query(L_SELECT + "AND otc.order_id IN (:ordersIds) ORDER BY o.id, occ.effectivedatefrom", params,
+                new BeanPropertyRowMapper<>(GanttOperation.class));
+    }
+
+    /**
+     * @return operations of all orders, except declined and abandoned, which overlap given window, sorted by production line,
+     *         order and start date
+     */
+    public List<GanttOperation> findOperations(final Date dateFrom, final Date dateTo) {
+        Map<String, Object> params = Maps.newHashMap();
+        params.put("dateFrom", dateFrom);
+        params.put("dateTo", dateTo);
+        params.put("declined", OrderStateStringValues.DECLINED);
+        params.put("abandoned", OrderStateStringValues.ABANDONED);
+
+        return jdbcTemplate.query(L_SELECT + "AND occ.effectivedateto >= :dateFrom AND occ.effectivedatefrom <= :dateTo "
+                + "AND o.state NOT IN (:declined, :abandoned) "
+                + "ORDER BY pl.number NULLS LAST, o.number, occ.effectivedatefrom, toc.nodenumber", params,
+                new BeanPropertyRowMapper<>(GanttOperation.class));
+    }
+
+}
@@ -23,11 +23,9 @@
  */
 package com.qcadoo.mes.ganttForOperations;
 
-import com.qcadoo.mes.operationTimeCalculations.OperationWorkTimeService;
 import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.mes.productionScheduling.constants.OrderTimeCalculationFields;
 import com.qcadoo.mes.technologies.constants.TechnologyFields;
-import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
 import com.qcadoo.mes.timeNormsForOperations.constants.TimeNormsConstants;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -43,7 +41,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.Collections;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -54,22 +51,10 @@ import java.util.Objects;
 @Service
 public class OperationsGanttChartItemResolverImpl implements OperationsGanttChartItemResolver {
 
-    private static final String NAME_FIELD = "name";
-
-    private static final String NUMBER_FIELD = "number";
-
-    private static final String NODE_NUMBER_FIELD = "nodeNumber";
-
     private static final String ORDERS_MODEL = "orders";
 
-    private static final String OPERATION_FIELD = "operation";
-
     private static final String ORDER_FIELD = "order";
 
-    private static final String EFFECTIVE_DATE_TO_FIELD = "effectiveDateTo";
-
-    private static final String EFFECTIVE_DATE_FROM_FIELD = "effectiveDateFrom";
-
     @Autowired
     private EntityTreeUtilsService entityTreeUtilsService;
 
@@ -79,7 +64,7 @@ public class OperationsGanttChartItemResolverImpl implements OperationsGanttChar
     private DataDefinitionService dataDefinitionService;
 
     @Autowired
-    private OperationWorkTimeService operationWorkTimeService;
+    private GanttOperationsDataService ganttOperationsDataService;
 
     @Override
     public Map<String, List<GanttChartItem>> resolve(final GanttChartScale scale, final JSONObject context, final Locale locale) {
@@ -92,13 +77,11 @@ public class OperationsGanttChartItemResolverImpl implements OperationsGanttChar
                 return Collections.emptyMap();
             }
 
-            Entity technology = order.getBelongsToField(OrderFields.TECHNOLOGY);
+            Map<Long, GanttOperation> operations = new HashMap<Long, GanttOperation>();
 
-            List<Entity> operations = dataDefinitionService
-                    .get(com.qcadoo.mes.technologies.constants.TechnologiesConstants.PLUGIN_IDENTIFIER,
-                            com.qcadoo.mes.technologies.constants.TechnologiesConstants.MODEL_TECHNOLOGY_OPERATION_COMPONENT)
-                    .find().add(SearchRestrictions.belongsTo(TechnologyOperationComponentFields.TECHNOLOGY, technology)).list()
-                    .getEntities();
+            for (GanttOperation operation : ganttOperationsDataService.findOperations(Collections.singletonList(orderId))) {
+                operations.put(operation.getTechnologyOperationComponentId(), operation);
+            }
 
             if (operations.isEmpty()) {
                 LOG.warn("Cannot find operations for " + order);
@@ -121,18 +104,13 @@ public class OperationsGanttChartItemResolverImpl implements OperationsGanttChar
                     OrderFields.TECHNOLOGY).getTreeField(TechnologyFields.OPERATION_COMPONENTS));
 
             for (Entity operationFromTree : sortedOperationFromTree) {
-                Entity operation = operations.get(operations.indexOf(operationFromTree));
-
-                Entity timeCalculation = operationWorkTimeService.createOrGetOperCompTimeCalculation(order, operation);
-
-                Date dateFrom = timeCalculation.getDateField(EFFECTIVE_DATE_FROM_FIELD);
-                Date dateTo = timeCalculation.getDateField(EFFECTIVE_DATE_TO_FIELD);
+                GanttOperation operation = operations.get(operationFromTree.getId());
 
-                if (dateFrom == null || dateTo == null || dateTo.before(scale.getDateFrom())) {
+                if (operation == null || operation.getEffectiveDateTo().before(scale.getDateFrom())) {
                     continue;
                 }
 
-                StringBuffer operationName = new StringBuffer(getDescriptionForOperation(operation));
+                StringBuffer operationName = new StringBuffer(operation.getDescription());
 
                 int counter = 0;
 
@@ -144,7 +122,8 @@ public class OperationsGanttChartItemResolverImpl implements OperationsGanttChar
                 }
 
                 GanttChartItem item = scale.createGanttChartItem(operationName.toString(), operationName.toString(),
-                        operation.getId(), dateFrom, dateTo);
+                        operation.getTechnologyOperationComponentId(), operation.getEffectiveDateFrom(),
+                        operation.getEffectiveDateTo());
 
                 if (item != null) {
                     items.put(operationName.toString(), Collections.singletonList(item));
@@ -160,10 +139,4 @@ public class OperationsGanttChartItemResolverImpl implements OperationsGanttChar
         }
     }
 
-    private String getDescriptionForOperation(final Entity operation) {
-        return operation.getStringField(NODE_NUMBER_FIELD) + " "
-                + operation.getBelongsToField(OPERATION_FIELD).getStringField(NUMBER_FIELD) + " "
-                + operation.getBelongsToField(OPERATION_FIELD).getStringField(NAME_FIELD);
-    }
-
 }
@@ -0,0 +1,77 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.ganttForOperations;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.view.api.components.ganttChart.GanttChartItem;
+import com.qcadoo.view.api.components.ganttChart.GanttChartScale;
+
+/**
+ * Operations of all orders of plant in chart window, one row per operation of order, grouped by production line.
+ */
+@Service
+public class PlantOperationsGanttChartItemResolverImpl implements PlantOperationsGanttChartItemResolver {
+
+    @Autowired
+    private GanttOperationsDataService ganttOperationsDataService;
+
+    @Override
+    public Map<String, List<GanttChartItem>> resolve(final GanttChartScale scale, final JSONObject context, final Locale locale) {
+        Map<String, List<GanttChartItem>> items = new LinkedHashMap<String, List<GanttChartItem>>();
+
+        for (GanttOperation operation : ganttOperationsDataService.findOperations(scale.getDateFrom(), scale.getDateTo())) {
+            String rowName = getRowName(operation);
+
+            GanttChartItem item = scale.createGanttChartItem(rowName, operation.getDescription(),
+                    operation.getTechnologyOperationComponentId(), operation.getEffectiveDateFrom(),
+                    operation.getEffectiveDateTo());
+
+            if (item != null) {
+                items.computeIfAbsent(rowName, key -> new ArrayList<GanttChartItem>()).add(item);
+            }
+        }
+
+        return items;
+    }
+
+    private String getRowName(final GanttOperation operation) {
+        StringBuilder rowName = new StringBuilder();
+
+        if (operation.getProductionLineNumber() != null) {
+            rowName.append(operation.getProductionLineNumber()).append(" - ");
+        }
+
+        return rowName.append(operation.getOrderNumber()).append(" - ").append(operation.getDescription()).toString();
+    }
+
+}
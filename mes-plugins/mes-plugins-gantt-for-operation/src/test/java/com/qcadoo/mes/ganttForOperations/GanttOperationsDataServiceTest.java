@@ -0,0 +1,131 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.ganttForOperations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.orders.states.constants.OrderStateStringValues;
+
+public class GanttOperationsDataServiceTest {
+
+    private GanttOperationsDataService ganttOperationsDataService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        ganttOperationsDataService = new GanttOperationsDataService();
+
+        ReflectionTestUtils.setField(ganttOperationsDataService, "jdbcTemplate", jdbcTemplate);
+    }
+
+    @Test
+    public final void shouldNotQueryOperationsWhenThereAreNoOrders() {
+        // when
+        List<GanttOperation> operations = ganttOperationsDataService.findOperations(Collections.<Long> emptyList());
+
+        // then
+        assertTrue(operations.isEmpty());
+
+        verifyZeroInteractions(jdbcTemplate);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public final void shouldQueryOperationsOfGivenOrders() {
+        // given
+        GanttOperation operation = new GanttOperation();
+
+        given(jdbcTemplate.query(anyString(), anyMapOf(String.class, Object.class), any(RowMapper.class))).willReturn(
+                Lists.newArrayList(operation));
+
+        // when
+        List<GanttOperation> operations = ganttOperationsDataService.findOperations(Lists.newArrayList(1L, 2L));
+
+        // then
+        assertEquals(Lists.newArrayList(operation), operations);
+
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Map> paramsCaptor = ArgumentCaptor.forClass(Map.class);
+
+        verify(jdbcTemplate).query(queryCaptor.capture(), paramsCaptor.capture(), any(RowMapper.class));
+
+        assertTrue(queryCaptor.getValue().contains("otc.order_id IN (:ordersIds)"));
+        assertEquals(Lists.newArrayList(1L, 2L), paramsCaptor.getValue().get("ordersIds"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public final void shouldQueryOperationsOverlappingWindowOfOrdersWhichAreNotDeclinedNorAbandoned() {
+        // given
+        Date dateFrom = new DateTime(2016, 3, 1, 0, 0).toDate();
+        Date dateTo = new DateTime(2016, 3, 8, 0, 0).toDate();
+
+        given(jdbcTemplate.query(anyString(), anyMapOf(String.class, Object.class), any(RowMapper.class))).willReturn(
+                Lists.newArrayList());
+
+        // when
+        ganttOperationsDataService.findOperations(dateFrom, dateTo);
+
+        // then
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Map> paramsCaptor = ArgumentCaptor.forClass(Map.class);
+
+        verify(jdbcTemplate).query(queryCaptor.capture(), paramsCaptor.capture(), any(RowMapper.class));
+
+        assertTrue(queryCaptor.getValue().contains("occ.effectivedateto >= :dateFrom AND occ.effectivedatefrom <= :dateTo"));
+        assertTrue(queryCaptor.getValue().contains("ORDER BY pl.number NULLS LAST, o.number"));
+        assertEquals(dateFrom, paramsCaptor.getValue().get("dateFrom"));
+        assertEquals(dateTo, paramsCaptor.getValue().get("dateTo"));
+        assertEquals(OrderStateStringValues.DECLINED, paramsCaptor.getValue().get("declined"));
+        assertEquals(OrderStateStringValues.ABANDONED, paramsCaptor.getValue().get("abandoned"));
+    }
+
+}
@@ -0,0 +1,158 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.ganttForOperations;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.view.api.components.ganttChart.GanttChartItem;
+import com.qcadoo.view.api.components.ganttChart.GanttChartScale;
+
+public class PlantOperationsGanttChartItemResolverImplTest {
+
+    private static final Date L_DATE_FROM = new DateTime(2016, 3, 1, 0, 0).toDate();
+
+    private static final Date L_DATE_TO = new DateTime(2016, 3, 8, 0, 0).toDate();
+
+    private PlantOperationsGanttChartItemResolverImpl plantOperationsGanttChartItemResolver;
+
+    @Mock
+    private GanttOperationsDataService ganttOperationsDataService;
+
+    @Mock
+    private GanttChartScale scale;
+
+    @Mock
+    private GanttChartItem firstItem, secondItem, thirdItem;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        plantOperationsGanttChartItemResolver = new PlantOperationsGanttChartItemResolverImpl();
+
+        ReflectionTestUtils.setField(plantOperationsGanttChartItemResolver, "ganttOperationsDataService",
+                ganttOperationsDataService);
+
+        given(scale.getDateFrom()).willReturn(L_DATE_FROM);
+        given(scale.getDateTo()).willReturn(L_DATE_TO);
+    }
+
+    @Test
+    public final void shouldGroupOperationsByProductionLineAndOrder() {
+        // given
+        GanttOperation cutting = createOperation(1L, "L1", "O1", 11L, "1.", "OP1", "cutting", 2, 3);
+        GanttOperation welding = createOperation(1L, "L1", "O1", 12L, "2.", "OP2", "welding", 3, 4);
+        GanttOperation painting = createOperation(2L, null, "O2", 21L, "1.", "OP3", "painting", 4, 5);
+
+        given(ganttOperationsDataService.findOperations(L_DATE_FROM, L_DATE_TO)).willReturn(
+                Lists.newArrayList(cutting, welding, painting));
+
+        stubItem(cutting, firstItem);
+        stubItem(welding, secondItem);
+        stubItem(painting, thirdItem);
+
+        // when
+        Map<String, List<GanttChartItem>> items = plantOperationsGanttChartItemResolver.resolve(scale, new JSONObject(), null);
+
+        // then
+        assertEquals(Lists.newArrayList("L1 - O1 - 1. OP1 cutting", "L1 - O1 - 2. OP2 welding", "O2 - 1. OP3 painting"),
+                Lists.newArrayList(items.keySet()));
+        assertEquals(Lists.newArrayList(firstItem), items.get("L1 - O1 - 1. OP1 cutting"));
+        assertEquals(Lists.newArrayList(secondItem), items.get("L1 - O1 - 2. OP2 welding"));
+        assertEquals(Lists.newArrayList(thirdItem), items.get("O2 - 1. OP3 painting"));
+    }
+
+    @Test
+    public final void shouldSkipOperationsOutsideOfChartWindow() {
+        // given
+        GanttOperation cutting = createOperation(1L, "L1", "O1", 11L, "1.", "OP1", "cutting", 2, 3);
+        GanttOperation welding = createOperation(1L, "L1", "O1", 12L, "2.", "OP2", "welding", 9, 12);
+
+        given(ganttOperationsDataService.findOperations(L_DATE_FROM, L_DATE_TO)).willReturn(
+                Lists.newArrayList(cutting, welding));
+
+        stubItem(cutting, firstItem);
+
+        // when
+        Map<String, List<GanttChartItem>> items = plantOperationsGanttChartItemResolver.resolve(scale, new JSONObject(), null);
+
+        // then
+        assertEquals(1, items.size());
+        assertEquals(Lists.newArrayList(firstItem), items.get("L1 - O1 - 1. OP1 cutting"));
+    }
+
+    @Test
+    public final void shouldReturnNoRowsWhenThereAreNoOperations() {
+        // given
+        given(ganttOperationsDataService.findOperations(L_DATE_FROM, L_DATE_TO)).willReturn(
+                Lists.<GanttOperation> newArrayList());
+
+        // when
+        Map<String, List<GanttChartItem>> items = plantOperationsGanttChartItemResolver.resolve(scale, new JSONObject(), null);
+
+        // then
+        assertEquals(0, items.size());
+    }
+
+    private void stubItem(final GanttOperation operation, final GanttChartItem item) {
+        given(scale.createGanttChartItem(anyString(), eq(operation.getDescription()),
+                eq(operation.getTechnologyOperationComponentId()), any(Date.class), any(Date.class))).willReturn(item);
+    }
+
+    private GanttOperation createOperation(final Long orderId, final String productionLineNumber, final String orderNumber,
+            final Long technologyOperationComponentId, final String nodeNumber, final String operationNumber,
+            final String operationName, final int dayFrom, final int dayTo) {
+        GanttOperation operation = new GanttOperation();
+
+        operation.setOrderId(orderId);
+        operation.setProductionLineNumber(productionLineNumber);
+        operation.setOrderNumber(orderNumber);
+        operation.setTechnologyOperationComponentId(technologyOperationComponentId);
+        operation.setNodeNumber(nodeNumber);
+        operation.setOperationNumber(operationNumber);
+        operation.setOperationName(operationName);
+        operation.setEffectiveDateFrom(new DateTime(2016, 3, dayFrom, 8, 0).toDate());
+        operation.setEffectiveDateTo(new DateTime(2016, 3, dayTo, 8, 0).toDate());
+
+        return operation;
+    }
+
+}
@@ -0,0 +1,205 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.lineChangeoverNorms;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Objects;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Immutable index of all line changeover norms. Holds the best norm for each pair of technologies or technology groups and each
+ * production line (or no line), so the best matching norm is chosen out of at most four candidates, with the same precedence
+ * as {@link ChangeoverNormsSearchService#findBestMatching(Long, Long, Long, Long, Long)} - norms for technologies first, norms
+ * with production line first, newest first.
+ */
+public class ChangeoverNormsMatrix {
+
+    private static final Comparator<Norm> L_PRECEDENCE = Comparator
+            .comparing(Norm::getChangeoverType, Comparator.nullsLast(Comparator.naturalOrder()))
+            .thenComparing(norm -> Objects.isNull(norm.getProductionLineId()))
+            .thenComparing(Norm::getId, Comparator.reverseOrder());
+
+    private final Map<Key, Norm> technologiesNorms = Maps.newHashMap();
+
+    private final Map<Key, Norm> technologyGroupsNorms = Maps.newHashMap();
+
+    public ChangeoverNormsMatrix(final Collection<Norm> norms) {
+        for (Norm norm : norms) {
+            if (Objects.nonNull(norm.getFromTechnologyId()) && Objects.nonNull(norm.getToTechnologyId())) {
+                technologiesNorms.merge(new Key(norm.getFromTechnologyId(), norm.getToTechnologyId(), norm.getProductionLineId()),
+                        norm, ChangeoverNormsMatrix::better);
+            }
+            if (Objects.nonNull(norm.getFromTechnologyGroupId()) && Objects.nonNull(norm.getToTechnologyGroupId())) {
+                technologyGroupsNorms.merge(
+                        new Key(norm.getFromTechnologyGroupId(), norm.getToTechnologyGroupId(), norm.getProductionLineId()), norm,
+                        ChangeoverNormsMatrix::better);
+            }
+        }
+    }
+
+    /**
+     * @return best matching norm or null, if there is no such norm
+     */
+    public Norm findBestMatching(final Long fromTechnologyId, final Long fromTechnologyGroupId, final Long toTechnologyId,
+            final Long toTechnologyGroupId, final Long productionLineId) {
+        Norm best = null;
+
+        if (Objects.nonNull(fromTechnologyId) && Objects.nonNull(toTechnologyId)) {
+            best = better(best, technologiesNorms.get(new Key(fromTechnologyId, toTechnologyId, null)));
+
+            if (Objects.nonNull(productionLineId)) {
+                best = better(best, technologiesNorms.get(new Key(fromTechnologyId, toTechnologyId, productionLineId)));
+            }
+        }
+        if (Objects.nonNull(fromTechnologyGroupId) && Objects.nonNull(toTechnologyGroupId)) {
+            best = better(best, technologyGroupsNorms.get(new Key(fromTechnologyGroupId, toTechnologyGroupId, null)));
+
+            if (Objects.nonNull(productionLineId)) {
+                best = better(best,
+                        technologyGroupsNorms.get(new Key(fromTechnologyGroupId, toTechnologyGroupId, productionLineId)));
+            }
+        }
+
+        return best;
+    }
+
+    private static Norm better(final Norm norm, final Norm otherNorm) {
+        if (Objects.isNull(norm)) {
+            return otherNorm;
+        }
+        if (Objects.isNull(otherNorm)) {
+            return norm;
+        }
+
+        return (L_PRECEDENCE.compare(norm, otherNorm) <= 0) ? norm : otherNorm;
+    }
+
+    public static class Norm {
+
+        private final Long id;
+
+        private final String changeoverType;
+
+        private final Long fromTechnologyId;
+
+        private final Long toTechnologyId;
+
+        private final Long fromTechnologyGroupId;
+
+        private final Long toTechnologyGroupId;
+
+        private final Long productionLineId;
+
+        private final Integer duration;
+
+        public Norm(final Long id, final String changeoverType, final Long fromTechnologyId, final Long toTechnologyId,
+                final Long fromTechnologyGroupId, final Long toTechnologyGroupId, final Long productionLineId,
+                final Integer duration) {
+            this.id = id;
+            this.changeoverType = changeoverType;
+            this.fromTechnologyId = fromTechnologyId;
+            this.toTechnologyId = toTechnologyId;
+            this.fromTechnologyGroupId = fromTechnologyGroupId;
+            this.toTechnologyGroupId = toTechnologyGroupId;
+            this.productionLineId = productionLineId;
+            this.duration = duration;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public String getChangeoverType() {
+            return changeoverType;
+        }
+
+        public Long getFromTechnologyId() {
+            return fromTechnologyId;
+        }
+
+        public Long getToTechnologyId() {
+            return toTechnologyId;
+        }
+
+        public Long getFromTechnologyGroupId() {
+            return fromTechnologyGroupId;
+        }
+
+        public Long getToTechnologyGroupId() {
+            return toTechnologyGroupId;
+        }
+
+        public Long getProductionLineId() {
+            return productionLineId;
+        }
+
+        /**
+         * @return duration in seconds
+         */
+        public Integer getDuration() {
+            return duration;
+        }
+
+    }
+
+    private static final class Key {
+
+        private final Long fromId;
+
+        private final Long toId;
+
+        private final Long productionLineId;
+
+        private Key(final Long fromId, final Long toId, final Long productionLineId) {
+            this.fromId = fromId;
+            this.toId = toId;
+            this.productionLineId = productionLineId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fromId, toId, productionLineId);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) obj;
+
+            return Objects.equals(fromId, other.fromId) && Objects.equals(toId, other.toId)
+                    && Objects.equals(productionLineId, other.productionLineId);
+        }
+
+    }
+
+}
@@ -0,0 +1,147 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.lineChangeoverNorms;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Keeps {@link ChangeoverNormsMatrix} of all line changeover norms. The matrix is read once and dropped when any norm is saved
+ * or deleted, matrix which was being loaded meanwhile is returned to its caller but not kept.
+ */
+@Service
+public class ChangeoverNormsMatrixService {
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    private volatile ChangeoverNormsMatrix matrix;
+
+    // incremented by each invalidation, matrix loaded before it isn't stored
+    private long version;
+
+    public ChangeoverNormsMatrix getMatrix() {
+        ChangeoverNormsMatrix currentMatrix = matrix;
+
+        if (Objects.isNull(currentMatrix)) {
+            long loadedVersion;
+
+            synchronized (this) {
+                loadedVersion = version;
+            }
+
+            currentMatrix = loadMatrix();
+
+            synchronized (this) {
+                if (version == loadedVersion) {
+                    matrix = currentMatrix;
+                }
+            }
+        }
+
+        return currentMatrix;
+    }
+
+    /**
+     * @return changeover duration in seconds, 0 if there is no matching norm
+     */
+    public int getDuration(final Entity fromTechnology, final Entity toTechnology, final Entity productionLine) {
+        if (Objects.isNull(fromTechnology) || Objects.isNull(toTechnology)) {
+            return 0;
+        }
+
+        ChangeoverNormsMatrix.Norm norm = getMatrix().findBestMatching(fromTechnology.getId(),
+                getIdOrNull(fromTechnology.getBelongsToField(TechnologyFields.TECHNOLOGY_GROUP)), toTechnology.getId(),
+                getIdOrNull(toTechnology.getBelongsToField(TechnologyFields.TECHNOLOGY_GROUP)), getIdOrNull(productionLine));
+
+        return getDuration(norm);
+    }
+
+    /**
+     * Drops the matrix, now and after current transaction completes - so that matrix read by concurrent transaction before
+     * commit is dropped as well.
+     */
+    public void invalidate() {
+        drop();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    drop();
+                }
+
+            });
+        }
+    }
+
+    private synchronized void drop() {
+        version++;
+        matrix = null;
+    }
+
+    private ChangeoverNormsMatrix loadMatrix() {
+        List<ChangeoverNormsMatrix.Norm> norms = Lists.newArrayList();
+
+        jdbcTemplate.query("SELECT id, changeovertype, fromtechnology_id, totechnology_id, fromtechnologygroup_id, "
+                + "totechnologygroup_id, productionline_id, duration FROM linechangeovernorms_linechangeovernorms",
+                Collections.emptyMap(), (RowCallbackHandler) resultSet -> norms.add(new ChangeoverNormsMatrix.Norm(resultSet
+                        .getLong("id"), resultSet.getString("changeovertype"), (Long) resultSet.getObject("fromtechnology_id"),
+                        (Long) resultSet.getObject("totechnology_id"), (Long) resultSet.getObject("fromtechnologygroup_id"),
+                        (Long) resultSet.getObject("totechnologygroup_id"), (Long) resultSet.getObject("productionline_id"),
+                        (Integer) resultSet.getObject("duration"))));
+
+        return new ChangeoverNormsMatrix(norms);
+    }
+
+    private int getDuration(final ChangeoverNormsMatrix.Norm norm) {
+        if (Objects.isNull(norm) || Objects.isNull(norm.getDuration())) {
+            return 0;
+        }
+
+        return norm.getDuration();
+    }
+
+    private Long getIdOrNull(final Entity entity) {
+        if (Objects.isNull(entity)) {
+            return null;
+        }
+
+        return entity.getId();
+    }
+
+}
@@ -0,0 +1,103 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.lineChangeoverNorms;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class ChangeoverNormsMatrixServiceTest {
+
+    private ChangeoverNormsMatrixService changeoverNormsMatrixService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        changeoverNormsMatrixService = new ChangeoverNormsMatrixService();
+
+        ReflectionTestUtils.setField(changeoverNormsMatrixService, "jdbcTemplate", jdbcTemplate);
+    }
+
+    @Test
+    public final void shouldLoadMatrixOnce() {
+        // when
+        ChangeoverNormsMatrix matrix = changeoverNormsMatrixService.getMatrix();
+        ChangeoverNormsMatrix nextMatrix = changeoverNormsMatrixService.getMatrix();
+
+        // then
+        assertSame(matrix, nextMatrix);
+        verify(jdbcTemplate).query(anyString(), anyMap(), any(RowCallbackHandler.class));
+    }
+
+    @Test
+    public final void shouldLoadMatrixAgainAfterInvalidation() {
+        // given
+        changeoverNormsMatrixService.getMatrix();
+
+        // when
+        changeoverNormsMatrixService.invalidate();
+        changeoverNormsMatrixService.getMatrix();
+
+        // then
+        verify(jdbcTemplate, times(2)).query(anyString(), anyMap(), any(RowCallbackHandler.class));
+    }
+
+    @Test
+    public final void shouldNotKeepMatrixLoadedWhileBeingInvalidated() {
+        // given
+        doAnswer(invocation -> {
+            changeoverNormsMatrixService.invalidate();
+
+            return null;
+        }).doNothing().when(jdbcTemplate).query(anyString(), anyMap(), any(RowCallbackHandler.class));
+
+        // when
+        ChangeoverNormsMatrix staleMatrix = changeoverNormsMatrixService.getMatrix();
+        ChangeoverNormsMatrix matrix = changeoverNormsMatrixService.getMatrix();
+        ChangeoverNormsMatrix nextMatrix = changeoverNormsMatrixService.getMatrix();
+
+        // then
+        assertNotNull(staleMatrix);
+        assertSame(matrix, nextMatrix);
+        verify(jdbcTemplate, times(2)).query(anyString(), anyMap(), any(RowCallbackHandler.class));
+    }
+
+}
@@ -0,0 +1,106 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.lineChangeoverNorms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.lineChangeoverNorms.constants.ChangeoverType;
+
+public class ChangeoverNormsMatrixTest {
+
+    private static final String L_FOR_TECHNOLOGY = ChangeoverType.FOR_TECHNOLOGY.getStringValue();
+
+    private static final String L_FOR_TECHNOLOGY_GROUP = ChangeoverType.FOR_TECHNOLOGY_GROUP.getStringValue();
+
+    private static final Long L_FROM_TECH_ID = 1L;
+
+    private static final Long L_TO_TECH_ID = 2L;
+
+    private static final Long L_FROM_TECH_GROUP_ID = 101L;
+
+    private static final Long L_TO_TECH_GROUP_ID = 202L;
+
+    private static final Long L_PRODUCTION_LINE_ID = 1001L;
+
+    private static final Long L_OTHER_PRODUCTION_LINE_ID = 1002L;
+
+    @Test
+    public final void shouldPreferNormForTechnologiesOverNormForTechnologyGroups() {
+        // given
+        ChangeoverNormsMatrix matrix = new ChangeoverNormsMatrix(Lists.newArrayList(
+                technologyGroupsNorm(3L, L_PRODUCTION_LINE_ID), technologiesNorm(1L, null)));
+
+        // when
+        ChangeoverNormsMatrix.Norm norm = matrix.findBestMatching(L_FROM_TECH_ID, L_FROM_TECH_GROUP_ID, L_TO_TECH_ID,
+                L_TO_TECH_GROUP_ID, L_PRODUCTION_LINE_ID);
+
+        // then
+        assertEquals(Long.valueOf(1L), norm.getId());
+    }
+
+    @Test
+    public final void shouldPreferNormWithProductionLineAndThenNewestNorm() {
+        // given
+        ChangeoverNormsMatrix matrix = new ChangeoverNormsMatrix(Lists.newArrayList(technologiesNorm(1L, L_PRODUCTION_LINE_ID),
+                technologiesNorm(2L, null), technologiesNorm(3L, null), technologiesNorm(4L, L_OTHER_PRODUCTION_LINE_ID)));
+
+        // when
+        ChangeoverNormsMatrix.Norm normForLine = matrix.findBestMatching(L_FROM_TECH_ID, null, L_TO_TECH_ID, null,
+                L_PRODUCTION_LINE_ID);
+        ChangeoverNormsMatrix.Norm normWithoutLine = matrix.findBestMatching(L_FROM_TECH_ID, null, L_TO_TECH_ID, null, null);
+
+        // then
+        assertEquals(Long.valueOf(1L), normForLine.getId());
+        assertEquals(Long.valueOf(3L), normWithoutLine.getId());
+    }
+
+    @Test
+    public final void shouldReturnNullIfNoNormMatches() {
+        // given
+        ChangeoverNormsMatrix matrix = new ChangeoverNormsMatrix(Lists.newArrayList(
+                technologiesNorm(1L, L_OTHER_PRODUCTION_LINE_ID), technologyGroupsNorm(2L, null)));
+
+        // when
+        ChangeoverNormsMatrix.Norm norm = matrix.findBestMatching(L_FROM_TECH_ID, null, L_TO_TECH_ID, null,
+                L_PRODUCTION_LINE_ID);
+
+        // then
+        assertNull(norm);
+    }
+
+    private ChangeoverNormsMatrix.Norm technologiesNorm(final Long id, final Long productionLineId) {
+        return new ChangeoverNormsMatrix.Norm(id, L_FOR_TECHNOLOGY, L_FROM_TECH_ID, L_TO_TECH_ID, null, null, productionLineId,
+                60);
+    }
+
+    private ChangeoverNormsMatrix.Norm technologyGroupsNorm(final Long id, final Long productionLineId) {
+        return new ChangeoverNormsMatrix.Norm(id, L_FOR_TECHNOLOGY_GROUP, null, null, L_FROM_TECH_GROUP_ID, L_TO_TECH_GROUP_ID,
+                productionLineId, 120);
+    }
+
+}
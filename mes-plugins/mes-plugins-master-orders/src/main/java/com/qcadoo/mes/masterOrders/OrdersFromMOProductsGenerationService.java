@@ -1,13 +1,13 @@
 package com.qcadoo.mes.masterOrders;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.mes.basic.ParameterService;
 import com.qcadoo.mes.basic.ShiftsService;
-import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.basic.constants.ProductFields;
-import com.qcadoo.mes.lineChangeoverNorms.ChangeoverNormsService;
-import com.qcadoo.mes.lineChangeoverNorms.constants.LineChangeoverNormsFields;
+import com.qcadoo.mes.lineChangeoverNorms.ChangeoverNormsMatrixService;
 import com.qcadoo.mes.lineChangeoverNormsForOrders.LineChangeoverNormsForOrdersService;
 import com.qcadoo.mes.masterOrders.constants.MasterOrderFields;
 import com.qcadoo.mes.masterOrders.constants.MasterOrderProductFields;
@@ -22,6 +22,7 @@ import com.qcadoo.mes.orders.constants.OrdersConstants;
 import com.qcadoo.mes.orders.constants.ParameterFieldsO;
 import com.qcadoo.mes.orders.states.constants.OrderState;
 import com.qcadoo.mes.orders.states.constants.OrderStateStringValues;
+import com.qcadoo.mes.productionLines.constants.ParameterFieldsPL;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -30,8 +31,12 @@ import com.qcadoo.model.api.search.SearchOrders;
 import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.view.api.utils.NumberGeneratorService;
 import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
@@ -40,8 +45,14 @@ import java.math.BigDecimal;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.qcadoo.mes.orders.constants.OrderFields.PRODUCTION_LINE;
 import static com.qcadoo.model.api.BigDecimalUtils.convertNullToZero;
@@ -49,6 +60,8 @@ import static com.qcadoo.model.api.BigDecimalUtils.convertNullToZero;
 @Service
 public class OrdersFromMOProductsGenerationService {
 
+    private static final Logger LOG = LoggerFactory.getLogger(OrdersFromMOProductsGenerationService.class);
+
     private static final List<String> L_TECHNOLOGY_FIELD_NAMES = Lists.newArrayList("registerQuantityInProduct",
             "registerQuantityOutProduct", "registerProductionTime", "registerPiecework", "justOne", "allowToClose",
             "autoCloseOrder", "typeOfProductionRecording");
@@ -76,7 +89,7 @@ public class OrdersFromMOProductsGenerationService {
     private TranslationService translationService;
 
     @Autowired
-    private ChangeoverNormsService changeoverNormsService;
+    private ChangeoverNormsMatrixService changeoverNormsMatrixService;
 
     @Autowired
     private LineChangeoverNormsForOrdersService lineChangeoverNormsForOrdersService;
@@ -84,25 +97,68 @@ public class OrdersFromMOProductsGenerationService {
     @Autowired
     private ShiftsService shiftsService;
 
+    @Autowired
+    @Qualifier("ordersGenerationTaskExecutor")
+    private TaskExecutor ordersGenerationTaskExecutor;
+
     public GenerationOrderResult generateOrders(List<Entity> masterOrderProducts, boolean generatePPS) {
         GenerationOrderResult result = new GenerationOrderResult(translationService);
-        boolean automaticPps = parameterService.getParameter().getBooleanField("ppsIsAutomatic");
+        GenerationContext context = new GenerationContext(parameterService.getParameter());
+        boolean automaticPps = context.getParameter().getBooleanField("ppsIsAutomatic");
+        boolean generateOrdersPps = generatePPS && automaticPps
+                && !context.getParameter().getBooleanField(ORDERS_GENERATION_NOT_COMPLETE_DATES);
+
+        preloadMasterOrderProducts(context, masterOrderProducts);
+
+        List<Entity> orders = generateOrders(context, result, masterOrderProducts);
+
+        if (generateOrdersPps) {
+            generatePps(orders, result);
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Generates orders in their own transaction, which is committed before PPS generation starts - so that PPS of independent
+     * orders can be generated in other threads, which see committed orders only.
+     * 
+     * @return valid generated orders
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    private List<Entity> generateOrders(final GenerationContext context, final GenerationOrderResult result,
+            final List<Entity> masterOrderProducts) {
+        List<Entity> orders = Lists.newArrayList();
+
         masterOrderProducts.forEach(masterOrderProduct -> {
-            Optional<Entity> dtoEntity = Optional.ofNullable(masterOrderProduct.getDataDefinition().getMasterModelEntity(
-                    masterOrderProduct.getId()));
-            if (dtoEntity.isPresent()) {
-                generateOrder(generatePPS, automaticPps, result, dtoEntity.get());
-            } else {
-                generateOrder(generatePPS, automaticPps, result, masterOrderProduct);
+            Entity order = generateOrder(context, result, context.getMasterOrderProduct(masterOrderProduct));
+
+            if (order.isValid()) {
+                orders.add(order);
             }
         });
 
-        return result;
+        return orders;
+    }
+
+    private void preloadMasterOrderProducts(final GenerationContext context, final List<Entity> masterOrderProducts) {
+        List<Long> masterOrderProductsIds = masterOrderProducts.stream().map(Entity::getId).collect(Collectors.toList());
 
+        if (masterOrderProductsIds.isEmpty()) {
+            return;
+        }
+
+        dataDefinitionService.get(MasterOrdersConstants.PLUGIN_IDENTIFIER, MasterOrdersConstants.MODEL_MASTER_ORDER_PRODUCT)
+                .find().add(SearchRestrictions.in("id", masterOrderProductsIds)).list().getEntities()
+                .forEach(context::addMasterOrderProduct);
+        getMasterOrderProductDtoDD().find().add(SearchRestrictions.in("id", masterOrderProductsIds)).list().getEntities()
+                .forEach(context::addMasterOrderProductDto);
     }
 
-    private void generateOrder(boolean generatePPS, boolean automaticPps, GenerationOrderResult result, Entity masterOrderProduct) {
-        Entity order = createOrder(masterOrderProduct);
+    private Entity generateOrder(final GenerationContext context, final GenerationOrderResult result,
+            final Entity masterOrderProduct) {
+        Entity order = createOrder(context, masterOrderProduct);
         order = getOrderDD().save(order);
         if (!order.isValid()) {
             MasterOrderProductErrorContainer productErrorContainer = new MasterOrderProductErrorContainer();
@@ -116,12 +172,84 @@ public class OrdersFromMOProductsGenerationService {
         } else {
             result.addGeneratedOrderNumber(order.getStringField(OrderFields.NUMBER));
         }
-        Entity parameter = parameterService.getParameter();
 
         generateSubOrders(result, order);
 
-        if (order.isValid() && generatePPS && automaticPps && !parameter.getBooleanField(ORDERS_GENERATION_NOT_COMPLETE_DATES)) {
-            List<Entity> orders = getOrderAndSubOrders(order.getId());
+        return order;
+    }
+
+    /**
+     * Generates PPS of committed orders and their sub orders. Orders which share no production line are independent, so their
+     * groups are generated concurrently.
+     */
+    private void generatePps(final List<Entity> orders, final GenerationOrderResult result) {
+        if (orders.isEmpty()) {
+            return;
+        }
+
+        List<List<List<Entity>>> groups = groupByProductionLines(orders.stream()
+                .map(order -> getOrderAndSubOrders(order.getId())).collect(Collectors.toList()));
+
+        LOG.info(String.format("Generating PPS of %d orders in %d independent groups", orders.size(), groups.size()));
+
+        if (groups.size() == 1) {
+            groups.forEach(group -> generatePps(group).forEach(result::addOrderWithoutPps));
+
+            return;
+        }
+
+        AtomicInteger finishedGroups = new AtomicInteger();
+
+        List<CompletableFuture<List<String>>> futures = groups
+                .stream()
+                .map(group -> CompletableFuture.supplyAsync(() -> {
+                    List<String> ordersWithoutPps = generatePps(group);
+
+                    LOG.info(String.format("PPS generated in %d of %d groups", finishedGroups.incrementAndGet(),
+                            groups.size()));
+
+                    return ordersWithoutPps;
+                }, ordersGenerationTaskExecutor)).collect(Collectors.toList());
+
+        futures.forEach(future -> future.join().forEach(result::addOrderWithoutPps));
+    }
+
+    /**
+     * Merges order trees into groups, so that trees using the same production line land in the same group. Trees in one group
+     * keep their order, because start date of each order depends on orders planned before it on its line.
+     */
+    private List<List<List<Entity>>> groupByProductionLines(final List<List<Entity>> orderTrees) {
+        List<Set<Long>> groupsLines = Lists.newArrayList();
+        List<List<List<Entity>>> groups = Lists.newArrayList();
+
+        for (List<Entity> orderTree : orderTrees) {
+            Set<Long> lines = orderTree.stream().map(order -> order.getBelongsToField(PRODUCTION_LINE)).filter(Objects::nonNull)
+                    .map(Entity::getId).collect(Collectors.toSet());
+            Set<Long> mergedLines = Sets.newHashSet(lines);
+            List<List<Entity>> mergedGroup = Lists.newArrayList();
+
+            for (int index = groups.size() - 1; index >= 0; index--) {
+                if (!Collections.disjoint(groupsLines.get(index), lines)) {
+                    mergedLines.addAll(groupsLines.remove(index));
+                    mergedGroup.addAll(0, groups.remove(index));
+                }
+            }
+
+            mergedGroup.add(orderTree);
+            groupsLines.add(mergedLines);
+            groups.add(mergedGroup);
+        }
+
+        return groups;
+    }
+
+    private List<String> generatePps(final List<List<Entity>> orderTrees) {
+        List<String> ordersWithoutPps = Lists.newArrayList();
+
+        Map<String, Object> ppsGenerationData = Maps.newHashMap();
+
+        for (List<Entity> orderTree : orderTrees) {
+            List<Entity> orders = Lists.newArrayList(orderTree);
             Collections.reverse(orders);
             Integer lastLevel = null;
             Date lastDate = null;
@@ -152,21 +280,22 @@ public class OrdersFromMOProductsGenerationService {
                 }
 
                 try {
-                    Date finishDate = tryGeneratePPS(ord, calculatedOrderStartDate);
+                    Date finishDate = tryGeneratePPS(ord, calculatedOrderStartDate, ppsGenerationData);
                     if (Objects.nonNull(lastDate) && finishDate.after(lastDate)) {
                         lastDate = finishDate;
                     } else if (Objects.isNull(lastDate)) {
                         lastDate = finishDate;
                     }
                 } catch (Exception ex) {
-                    result.addOrderWithoutPps(ord.getStringField(OrderFields.NUMBER));
+                    ordersWithoutPps.add(ord.getStringField(OrderFields.NUMBER));
                     break;
                 }
                 lastLevel = ord.getIntegerField("level");
 
             }
-
         }
+
+        return ordersWithoutPps;
     }
 
     public Optional<Entity> findLastOrder(final Entity order) {
@@ -204,27 +333,32 @@ public class OrdersFromMOProductsGenerationService {
     private void tryGeneratePPS(final Entity order) {
         Date startDate = findStartDate(order);
         generateEmptyPpsForOrder(order);
-        order.setField("generatePPS", true);
         order.setField(OrderFields.START_DATE, startDate);
         order.setField(OrderFields.FINISH_DATE, new DateTime(order.getDateField(OrderFields.START_DATE)).plusDays(1).toDate());
-        Entity storedOrder = order.getDataDefinition().save(order);
-        if (!storedOrder.isValid()) {
-            throw new EntityRuntimeException(storedOrder);
-        }
+        generateOrderPps(order, Maps.newHashMap());
     }
 
     @Transactional(propagation = Propagation.REQUIRES_NEW)
-    private Date tryGeneratePPS(final Entity order, Date date) {
+    private Date tryGeneratePPS(final Entity order, Date date, final Map<String, Object> ppsGenerationData) {
         Date startDate = findStartDate(order, date);
         generateEmptyPpsForOrder(order);
-        order.setField("generatePPS", true);
         order.setField(OrderFields.START_DATE, startDate);
         order.setField(OrderFields.FINISH_DATE, new DateTime(order.getDateField(OrderFields.START_DATE)).plusDays(1).toDate());
+        generateOrderPps(order, ppsGenerationData);
+        return order.getDateField(OrderFields.FINISH_DATE);
+    }
+
+    /*
+     * override by aspect - saves order and generates its PPS, which sets order finish date, throws EntityRuntimeException when
+     * PPS can't be generated. PPS generation data is shared by orders generated one after another, so that PPS plugin can keep
+     * there what it computes once for them, e.g. shift work times of production lines
+     */
+    public void generateOrderPps(final Entity order, final Map<String, Object> ppsGenerationData) {
+        order.setField("generatePPS", true);
         Entity storedOrder = order.getDataDefinition().save(order);
         if (!storedOrder.isValid()) {
             throw new EntityRuntimeException(storedOrder);
         }
-        return order.getDateField(OrderFields.FINISH_DATE);
     }
 
     private void generateEmptyPpsForOrder(Entity order) {
@@ -297,34 +431,30 @@ public class OrdersFromMOProductsGenerationService {
         Entity fromTechnology = previousOrder.getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE);
         Entity toTechnology = nextOrder.getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE);
         Entity productionLine = nextOrder.getBelongsToField(PRODUCTION_LINE);
-        Entity changeover = changeoverNormsService.getMatchingChangeoverNorms(fromTechnology, toTechnology, productionLine);
-        if (changeover != null) {
-            Integer duration = changeover.getIntegerField(LineChangeoverNormsFields.DURATION);
-            if (duration == null) {
-                return 0;
-            }
-            return duration * 1000;
-        }
-        return 0;
+        return changeoverNormsMatrixService.getDuration(fromTechnology, toTechnology, productionLine) * 1000;
     }
 
     public Entity createOrder(final Entity masterOrderProduct) {
-        Entity parameter = parameterService.getParameter();
+        return createOrder(new GenerationContext(parameterService.getParameter()), masterOrderProduct);
+    }
+
+    private Entity createOrder(final GenerationContext context, final Entity masterOrderProduct) {
+        Entity parameter = context.getParameter();
         Entity masterOrder = masterOrderProduct.getBelongsToField(MasterOrderProductFields.MASTER_ORDER);
         Entity product = masterOrderProduct.getBelongsToField(MasterOrderProductFields.PRODUCT);
-        Entity technology = getTechnology(masterOrderProduct);
+        Entity technology = getTechnology(context, masterOrderProduct);
         Date masterOrderDeadline = masterOrder.getDateField(MasterOrderFields.DEADLINE);
         Date masterOrderStartDate = masterOrder.getDateField(MasterOrderFields.START_DATE);
         Date masterOrderFinishDate = masterOrder.getDateField(MasterOrderFields.FINISH_DATE);
 
         Entity order = getOrderDD().create();
-        order.setField(OrderFields.NUMBER, generateOrderNumber(parameter, masterOrder));
+        order.setField(OrderFields.NUMBER, generateOrderNumber(masterOrder));
         order.setField(OrderFields.NAME, generateOrderName(product, technology));
         order.setField(OrderFields.COMPANY, masterOrder.getBelongsToField(MasterOrderFields.COMPANY));
         order.setField(OrderFields.ADDRESS, masterOrder.getBelongsToField(MasterOrderFields.ADDRESS));
         order.setField(OrderFields.PRODUCT, product);
         order.setField(OrderFields.TECHNOLOGY_PROTOTYPE, technology);
-        order.setField(OrderFields.PRODUCTION_LINE, getProductionLine(technology));
+        order.setField(OrderFields.PRODUCTION_LINE, getProductionLine(context, technology));
         if (!parameter.getBooleanField(ORDERS_GENERATION_NOT_COMPLETE_DATES)) {
             order.setField(OrderFields.DATE_FROM, masterOrderStartDate);
             order.setField(OrderFields.DATE_TO, masterOrderFinishDate);
@@ -335,12 +465,11 @@ public class OrdersFromMOProductsGenerationService {
         order.setField(OrderFields.STATE, OrderStateStringValues.PENDING);
         order.setField(OrderFieldsMO.MASTER_ORDER, masterOrder);
         order.setField(OrderFields.ORDER_TYPE, OrderType.WITH_PATTERN_TECHNOLOGY.getStringValue());
-        order.setField(OrderFields.PLANNED_QUANTITY, getPlannedQuantityForOrder(masterOrderProduct));
+        order.setField(OrderFields.PLANNED_QUANTITY, getPlannedQuantityForOrder(context, masterOrderProduct));
 
         order.setField("ignoreMissingComponents", parameter.getBooleanField("ignoreMissingComponents"));
 
-        boolean fillOrderDescriptionBasedOnTechnology = dataDefinitionService
-                .get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PARAMETER).find().setMaxResults(1).uniqueResult()
+        boolean fillOrderDescriptionBasedOnTechnology = parameter
                 .getBooleanField(ParameterFieldsO.FILL_ORDER_DESCRIPTION_BASED_ON_TECHNOLOGY_DESCRIPTION);
         String orderDescription;
         if (parameter.getBooleanField(ParameterFieldsMO.COPY_DESCRIPTION)) {
@@ -352,9 +481,13 @@ public class OrdersFromMOProductsGenerationService {
         return order;
     }
 
-    private BigDecimal getPlannedQuantityForOrder(final Entity masterOrderProduct) {
+    private BigDecimal getPlannedQuantityForOrder(final GenerationContext context, final Entity masterOrderProduct) {
         BigDecimal masterOrderQuantity, cumulatedOrderQuantity;
-        Entity masterOrderProductDto = getMasterOrderProductDtoDD().get(masterOrderProduct.getId());
+        Entity masterOrderProductDto = context.getMasterOrderProductDto(masterOrderProduct.getId());
+
+        if (Objects.isNull(masterOrderProductDto)) {
+            masterOrderProductDto = getMasterOrderProductDtoDD().get(masterOrderProduct.getId());
+        }
         masterOrderQuantity = masterOrderProductDto.getDecimalField(MasterOrderProductFields.MASTER_ORDER_QUANTITY);
         cumulatedOrderQuantity = masterOrderProductDto.getDecimalField(CUMULATED_MASTER_ORDER_QUANTITY);
 
@@ -367,28 +500,36 @@ public class OrdersFromMOProductsGenerationService {
         return orderService.makeDefaultName(product, technology, LocaleContextHolder.getLocale());
     }
 
-    private String generateOrderNumber(final Entity parameter, final Entity masterOrder) {
+    /**
+     * Generates each number with number generator, which sees orders saved before in the same transaction - numbers derived
+     * from the first one could collide with orders of the master order generated meanwhile by someone else.
+     */
+    private String generateOrderNumber(final Entity masterOrder) {
         return numberGeneratorService.generateNumberWithPrefix(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER, 3,
                 masterOrder.getStringField(MasterOrderFields.NUMBER) + "-");
     }
 
     public Entity getProductionLine(final Entity technology) {
+        return getProductionLine(new GenerationContext(parameterService.getParameter()), technology);
+    }
+
+    private Entity getProductionLine(final GenerationContext context, final Entity technology) {
         Entity productionLine = null;
         if (Objects.nonNull(technology)) {
             productionLine = technology.getBelongsToField("productionLine");
         }
         if (Objects.isNull(productionLine)) {
-            productionLine = orderService.getDefaultProductionLine();
+            productionLine = context.getParameter().getBelongsToField(ParameterFieldsPL.DEFAULT_PRODUCTION_LINE);
         }
         return productionLine;
     }
 
-    private Entity getTechnology(final Entity masterOrderProduct) {
+    private Entity getTechnology(final GenerationContext context, final Entity masterOrderProduct) {
         Entity technology;
         technology = masterOrderProduct.getBelongsToField(MasterOrderProductFields.TECHNOLOGY);
         if (Objects.isNull(technology)) {
             Entity product = masterOrderProduct.getBelongsToField(MasterOrderProductFields.PRODUCT);
-            technology = technologyServiceO.getDefaultTechnology(product);
+            technology = context.getDefaultTechnology(product, technologyServiceO::getDefaultTechnology);
         }
 
         return technology;
@@ -419,4 +560,49 @@ public class OrdersFromMOProductsGenerationService {
         return dataDefinitionService.get(MasterOrdersConstants.PLUGIN_IDENTIFIER,
                 MasterOrdersConstants.MODEL_MASTER_ORDER_POSITION_DTO);
     }
+
+    /**
+     * Data read once per generation: parameter, master order products with their quantities and default technologies of
+     * products.
+     */
+    private static class GenerationContext {
+
+        private final Entity parameter;
+
+        private final Map<Long, Entity> masterOrderProducts = Maps.newHashMap();
+
+        private final Map<Long, Entity> masterOrderProductDtos = Maps.newHashMap();
+
+        private final Map<Long, Optional<Entity>> defaultTechnologies = Maps.newHashMap();
+
+        GenerationContext(final Entity parameter) {
+            this.parameter = parameter;
+        }
+
+        Entity getParameter() {
+            return parameter;
+        }
+
+        void addMasterOrderProduct(final Entity masterOrderProduct) {
+            masterOrderProducts.put(masterOrderProduct.getId(), masterOrderProduct);
+        }
+
+        Entity getMasterOrderProduct(final Entity masterOrderProduct) {
+            return masterOrderProducts.getOrDefault(masterOrderProduct.getId(), masterOrderProduct);
+        }
+
+        void addMasterOrderProductDto(final Entity masterOrderProductDto) {
+            masterOrderProductDtos.put(masterOrderProductDto.getId(), masterOrderProductDto);
+        }
+
+        Entity getMasterOrderProductDto(final Long masterOrderProductId) {
+            return masterOrderProductDtos.get(masterOrderProductId);
+        }
+
+        Entity getDefaultTechnology(final Entity product, final Function<Entity, Entity> defaultTechnologyProvider) {
+            return defaultTechnologies.computeIfAbsent(product.getId(),
+                    productId -> Optional.ofNullable(defaultTechnologyProvider.apply(product))).orElse(null);
+        }
+
+    }
 }
@@ -0,0 +1,248 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.masterOrders;
+
+import static com.qcadoo.testing.model.EntityTestUtils.mockEntity;
+import static com.qcadoo.testing.model.EntityTestUtils.stubBelongsToField;
+import static com.qcadoo.testing.model.EntityTestUtils.stubDecimalField;
+import static com.qcadoo.testing.model.EntityTestUtils.stubStringField;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.masterOrders.constants.MasterOrderFields;
+import com.qcadoo.mes.masterOrders.constants.MasterOrderProductFields;
+import com.qcadoo.mes.masterOrders.constants.MasterOrdersConstants;
+import com.qcadoo.mes.masterOrders.constants.OrderFieldsMO;
+import com.qcadoo.mes.orders.OrderService;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.orders.constants.OrdersConstants;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchCriterion;
+import com.qcadoo.model.api.search.SearchResult;
+import com.qcadoo.view.api.ComponentState;
+import com.qcadoo.view.api.ViewDefinitionState;
+import com.qcadoo.view.api.utils.NumberGeneratorService;
+
+public class OrdersFromMOProductsGenerationServiceTest {
+
+    private static final String L_GENERATED_ORDER_NUMBERS = "masterOrders.masterOrder.generationOrder.generatedOrderNumbers";
+
+    private OrdersFromMOProductsGenerationService ordersFromMOProductsGenerationService;
+
+    @Mock
+    private ParameterService parameterService;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private NumberGeneratorService numberGeneratorService;
+
+    @Mock
+    private OrderService orderService;
+
+    @Mock
+    private TranslationService translationService;
+
+    @Mock
+    private DataDefinition masterOrderProductDD, masterOrderProductDtoDD, orderDD;
+
+    @Mock
+    private SearchCriteriaBuilder masterOrderProductsCriteria, masterOrderProductDtosCriteria;
+
+    @Mock
+    private Entity parameter, masterOrder, product, technology, firstOrder, secondOrder;
+
+    @Mock
+    private ViewDefinitionState view;
+
+    private Entity firstMasterOrderProduct, secondMasterOrderProduct;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        ordersFromMOProductsGenerationService = new OrdersFromMOProductsGenerationService();
+
+        ReflectionTestUtils.setField(ordersFromMOProductsGenerationService, "parameterService", parameterService);
+        ReflectionTestUtils.setField(ordersFromMOProductsGenerationService, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(ordersFromMOProductsGenerationService, "numberGeneratorService", numberGeneratorService);
+        ReflectionTestUtils.setField(ordersFromMOProductsGenerationService, "orderService", orderService);
+        ReflectionTestUtils.setField(ordersFromMOProductsGenerationService, "translationService", translationService);
+
+        given(parameterService.getParameter()).willReturn(parameter);
+
+        given(dataDefinitionService.get(MasterOrdersConstants.PLUGIN_IDENTIFIER,
+                MasterOrdersConstants.MODEL_MASTER_ORDER_PRODUCT)).willReturn(masterOrderProductDD);
+        given(dataDefinitionService.get(MasterOrdersConstants.PLUGIN_IDENTIFIER,
+                MasterOrdersConstants.MODEL_MASTER_ORDER_POSITION_DTO)).willReturn(masterOrderProductDtoDD);
+        given(dataDefinitionService.get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER)).willReturn(orderDD);
+
+        stubStringField(masterOrder, MasterOrderFields.NUMBER, "MO1");
+
+        firstMasterOrderProduct = mockMasterOrderProduct(1L);
+        secondMasterOrderProduct = mockMasterOrderProduct(2L);
+
+        stubSearch(masterOrderProductDD, masterOrderProductsCriteria,
+                Lists.newArrayList(firstMasterOrderProduct, secondMasterOrderProduct));
+        stubSearch(masterOrderProductDtoDD, masterOrderProductDtosCriteria,
+                Lists.newArrayList(mockMasterOrderProductDto(1L, "10", "4"), mockMasterOrderProductDto(2L, "5", null)));
+
+        given(orderDD.create()).willReturn(firstOrder, secondOrder);
+        given(orderDD.save(any(Entity.class))).willAnswer(invocation -> invocation.getArguments()[0]);
+        given(firstOrder.isValid()).willReturn(true);
+        given(secondOrder.isValid()).willReturn(true);
+        stubStringField(firstOrder, OrderFields.NUMBER, "MO1-001");
+        stubStringField(secondOrder, OrderFields.NUMBER, "MO1-002");
+
+        given(numberGeneratorService.generateNumberWithPrefix(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER, 3,
+                "MO1-")).willReturn("MO1-001", "MO1-002");
+    }
+
+    private Entity mockMasterOrderProduct(final Long id) {
+        Entity masterOrderProduct = mockEntity(id);
+
+        stubBelongsToField(masterOrderProduct, MasterOrderProductFields.MASTER_ORDER, masterOrder);
+        stubBelongsToField(masterOrderProduct, MasterOrderProductFields.PRODUCT, product);
+        stubBelongsToField(masterOrderProduct, MasterOrderProductFields.TECHNOLOGY, technology);
+
+        return masterOrderProduct;
+    }
+
+    private Entity mockMasterOrderProductDto(final Long id, final String masterOrderQuantity,
+            final String cumulatedMasterOrderQuantity) {
+        Entity masterOrderProductDto = mockEntity(id);
+
+        stubDecimalField(masterOrderProductDto, MasterOrderProductFields.MASTER_ORDER_QUANTITY,
+                new BigDecimal(masterOrderQuantity));
+
+        if (cumulatedMasterOrderQuantity != null) {
+            stubDecimalField(masterOrderProductDto, OrdersFromMOProductsGenerationService.CUMULATED_MASTER_ORDER_QUANTITY,
+                    new BigDecimal(cumulatedMasterOrderQuantity));
+        }
+
+        return masterOrderProductDto;
+    }
+
+    private void stubSearch(final DataDefinition dataDefinition, final SearchCriteriaBuilder searchCriteriaBuilder,
+            final List<Entity> entities) {
+        SearchResult searchResult = mock(SearchResult.class);
+
+        given(dataDefinition.find()).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.add(any(SearchCriterion.class))).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.list()).willReturn(searchResult);
+        given(searchResult.getEntities()).willReturn(entities);
+    }
+
+    @Test
+    public final void shouldReadMasterOrderProductsAndQuantitiesOnce() {
+        // when
+        ordersFromMOProductsGenerationService.generateOrders(Lists.newArrayList(mockEntity(1L), mockEntity(2L)), false);
+
+        // then
+        verify(parameterService).getParameter();
+        verify(masterOrderProductsCriteria).list();
+        verify(masterOrderProductDtosCriteria).list();
+        verify(masterOrderProductDtoDD, never()).get(anyLong());
+
+        verify(orderService, times(2)).makeDefaultName(eq(product), eq(technology), any());
+        verify(firstOrder).setField(OrderFields.PLANNED_QUANTITY, new BigDecimal("6"));
+        verify(secondOrder).setField(OrderFields.PLANNED_QUANTITY, new BigDecimal("5"));
+        verify(firstOrder).setField(OrderFieldsMO.MASTER_ORDER, masterOrder);
+    }
+
+    @Test
+    public final void shouldGenerateNumberOfEachOrderWithNumberGenerator() {
+        // when
+        GenerationOrderResult result = ordersFromMOProductsGenerationService.generateOrders(
+                Lists.newArrayList(firstMasterOrderProduct, secondMasterOrderProduct), false);
+
+        // then
+        verify(numberGeneratorService, times(2)).generateNumberWithPrefix(OrdersConstants.PLUGIN_IDENTIFIER,
+                OrdersConstants.MODEL_ORDER, 3, "MO1-");
+        verify(firstOrder).setField(OrderFields.NUMBER, "MO1-001");
+        verify(secondOrder).setField(OrderFields.NUMBER, "MO1-002");
+
+        result.showMessage(view);
+
+        verify(view).addMessage(L_GENERATED_ORDER_NUMBERS, ComponentState.MessageType.INFO, false, "MO1-001, MO1-002");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public final void shouldGroupOrderTreesSharingProductionLine() {
+        // given
+        Entity firstLine = mockEntity(11L);
+        Entity secondLine = mockEntity(12L);
+        Entity thirdLine = mockEntity(13L);
+
+        List<Entity> firstTree = Lists.newArrayList(mockOrder(firstLine));
+        List<Entity> secondTree = Lists.newArrayList(mockOrder(secondLine));
+        List<Entity> thirdTree = Lists.newArrayList(mockOrder(thirdLine));
+        List<Entity> fourthTree = Lists.newArrayList(mockOrder(secondLine), mockOrder(thirdLine));
+        List<Entity> treeWithoutLine = Lists.newArrayList(mockOrder(null));
+
+        // when
+        List<List<List<Entity>>> groups = (List<List<List<Entity>>>) ReflectionTestUtils.invokeMethod(
+                ordersFromMOProductsGenerationService, "groupByProductionLines",
+                Lists.newArrayList(firstTree, secondTree, thirdTree, fourthTree, treeWithoutLine));
+
+        // then
+        assertEquals(3, groups.size());
+        assertEquals(Lists.newArrayList(firstTree), groups.get(0));
+        assertEquals(Lists.newArrayList(secondTree, thirdTree, fourthTree), groups.get(1));
+        assertEquals(Lists.newArrayList(treeWithoutLine), groups.get(2));
+    }
+
+    private Entity mockOrder(final Entity productionLine) {
+        Entity order = mockEntity();
+
+        stubBelongsToField(order, OrderFields.PRODUCTION_LINE, productionLine);
+
+        return order;
+    }
+
+}
@@ -0,0 +1,718 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlowResources.service;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.CalculationQuantityService;
+import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.materialFlowResources.constants.DocumentFields;
+import com.qcadoo.mes.materialFlowResources.constants.LocationFieldsMFR;
+import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
+import com.qcadoo.mes.materialFlowResources.constants.ParameterFieldsMFR;
+import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.mes.materialFlowResources.constants.WarehouseAlgorithm;
+import com.qcadoo.mes.materialFlowResources.exceptions.InvalidResourceException;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.NumberService;
+
+/**
+ * Set-based allocation of warehouse resources for release documents.
+ *
+ * All candidate resources for the products of a document are read with one ordered query, positions are matched against them
+ * in memory (with the same FIFO/LIFO/FEFO/LEFO, additional code and conversion rules as the per-position search in
+ * {@link ResourceManagementServiceImpl}) and changed resources are written back with JDBC batch statements.
+ */
+@Service
+public class ReleaseResourcesAllocationService {
+
+    private static final String L_FILL_RESOURCE_IRRESPECTIVE_OF_CONVERSION = "fillResourceIrrespectiveOfConversion";
+
+    private static final String L_SELECT_CANDIDATES = "SELECT r.id, r.product_id, r.location_id, r.number, r.quantity, "
+            + "r.availablequantity, r.reservedquantity, r.quantityinadditionalunit, r.conversion, r.givenunit, "
+            + "r.additionalcode_id, r.palletnumber_id, r.storagelocation_id, r.typeofpallet, r.waste, r.price, r.batch, "
+            + "r.productiondate, r.expirationdate "
+            + "FROM materialflowresources_resource r ";
+
+    private static final String L_UPDATE_RESOURCE = "UPDATE materialflowresources_resource SET quantity = :quantity, "
+            + "availablequantity = :availableQuantity, reservedquantity = :reservedQuantity, "
+            + "quantityinadditionalunit = :quantityInAdditionalUnit, entityversion = entityversion + 1 WHERE id = :id";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private NumberService numberService;
+
+    @Autowired
+    private CalculationQuantityService calculationQuantityService;
+
+    @Autowired
+    private ParameterService parameterService;
+
+    @Autowired
+    private PalletNumberDisposalService palletNumberDisposalService;
+
+    @Autowired
+    private ReservationsService reservationsService;
+
+    /**
+     * Loads all candidate resources for positions of given document with one query.
+     *
+     * @param document
+     *            release or internal outbound document
+     * @param positions
+     *            positions which will be allocated or matched
+     * @return allocation context, which should be used for one document only
+     */
+    public Allocation prepare(final Entity document, final List<Entity> positions) {
+        Entity warehouse = document.getBelongsToField(DocumentFields.LOCATION_FROM);
+        WarehouseAlgorithm warehouseAlgorithm = WarehouseAlgorithm.parseString(warehouse
+                .getStringField(LocationFieldsMFR.ALGORITHM));
+
+        Set<Long> productIds = Sets.newHashSet();
+        Set<Long> resourceIds = Sets.newHashSet();
+        Set<Long> positionIds = Sets.newHashSet();
+
+        for (Entity position : positions) {
+            productIds.add(position.getBelongsToField(PositionFields.PRODUCT).getId());
+
+            Entity resource = position.getBelongsToField(PositionFields.RESOURCE);
+
+            if (Objects.nonNull(resource) && Objects.nonNull(resource.getId())) {
+                resourceIds.add(resource.getId());
+            }
+            if (Objects.nonNull(position.getId())) {
+                positionIds.add(position.getId());
+            }
+        }
+
+        List<ResourceCandidate> candidates = findCandidates(warehouse.getId(), productIds, resourceIds, warehouseAlgorithm);
+
+        Map<Long, BigDecimal> reservedForPositions = Collections.emptyMap();
+
+        if (!resourceIds.isEmpty()) {
+            reservedForPositions = findReservationQuantities(positionIds);
+        }
+
+        Allocation allocation = new Allocation(warehouse, candidates, reservedForPositions,
+                isFillResourceIrrespectiveOfConversion());
+
+        if (reservationsService.reservationsEnabledForDocumentPositions(document)) {
+            allocation.positionIdsWithReservations.addAll(positionIds);
+        }
+
+        return allocation;
+    }
+
+    private boolean isFillResourceIrrespectiveOfConversion() {
+        Entity documentPositionParameters = parameterService.getParameter().getBelongsToField(
+                ParameterFieldsMFR.DOCUMENT_POSITION_PARAMETERS);
+
+        return documentPositionParameters.getBooleanField(L_FILL_RESOURCE_IRRESPECTIVE_OF_CONVERSION);
+    }
+
+    private List<ResourceCandidate> findCandidates(final Long warehouseId, final Set<Long> productIds,
+            final Set<Long> resourceIds, final WarehouseAlgorithm warehouseAlgorithm) {
+        if (productIds.isEmpty()) {
+            return Lists.newArrayList();
+        }
+
+        StringBuilder query = new StringBuilder(L_SELECT_CANDIDATES);
+
+        query.append("WHERE (r.location_id = :warehouseId AND r.product_id IN (:productIds) AND r.availablequantity > 0) ");
+
+        if (!resourceIds.isEmpty()) {
+            query.append("OR r.id IN (:resourceIds) ");
+        }
+
+        query.append("ORDER BY ").append(getOrderByClause(warehouseAlgorithm)).append(", r.id");
+
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("warehouseId", warehouseId);
+        params.put("productIds", productIds);
+        params.put("resourceIds", resourceIds);
+
+        return jdbcTemplate.query(query.toString(), params, (rs, rowNum) -> mapCandidate(rs));
+    }
+
+    private String getOrderByClause(final WarehouseAlgorithm warehouseAlgorithm) {
+        switch (warehouseAlgorithm) {
+            case LIFO:
+                return "r.time DESC";
+            case FEFO:
+                return "r.expirationdate ASC, r.availablequantity ASC";
+            case LEFO:
+                return "r.expirationdate DESC, r.availablequantity ASC";
+            default:
+                return "r.time ASC";
+        }
+    }
+
+    private ResourceCandidate mapCandidate(final ResultSet rs) throws SQLException {
+        ResourceCandidate candidate = new ResourceCandidate(rs.getLong("id"), rs.getLong("product_id"),
+                rs.getLong("location_id"), rs.getBigDecimal("quantity"), rs.getBigDecimal("availablequantity"),
+                rs.getBigDecimal("conversion"), getLongOrNull(rs, "additionalcode_id"));
+
+        candidate.number = rs.getString("number");
+        candidate.reservedQuantity = rs.getBigDecimal("reservedquantity");
+        candidate.quantityInAdditionalUnit = rs.getBigDecimal("quantityinadditionalunit");
+        candidate.givenUnit = rs.getString("givenunit");
+        candidate.palletNumberId = getLongOrNull(rs, "palletnumber_id");
+        candidate.storageLocationId = getLongOrNull(rs, "storagelocation_id");
+        candidate.typeOfPallet = rs.getString("typeofpallet");
+        candidate.waste = rs.getBoolean("waste");
+        candidate.price = rs.getBigDecimal("price");
+        candidate.batch = rs.getString("batch");
+        candidate.productionDate = rs.getDate("productiondate");
+        candidate.expirationDate = rs.getDate("expirationdate");
+
+        return candidate;
+    }
+
+    private Long getLongOrNull(final ResultSet rs, final String column) throws SQLException {
+        long value = rs.getLong(column);
+
+        return rs.wasNull() ? null : value;
+    }
+
+    private Map<Long, BigDecimal> findReservationQuantities(final Set<Long> positionIds) {
+        Map<Long, BigDecimal> result = Maps.newHashMap();
+
+        if (positionIds.isEmpty()) {
+            return result;
+        }
+
+        String query = "SELECT position_id, quantity FROM materialflowresources_reservation WHERE position_id IN (:positionIds)";
+
+        jdbcTemplate.query(query, Collections.singletonMap("positionIds", positionIds), rs -> {
+            result.putIfAbsent(rs.getLong("position_id"), rs.getBigDecimal("quantity"));
+        });
+
+        return result;
+    }
+
+    static class ResourceCandidate {
+
+        private final Long id;
+
+        private final Long productId;
+
+        private final Long locationId;
+
+        private String number;
+
+        private BigDecimal quantity;
+
+        private BigDecimal availableQuantity;
+
+        private BigDecimal reservedQuantity;
+
+        private BigDecimal quantityInAdditionalUnit;
+
+        private final BigDecimal conversion;
+
+        private String givenUnit;
+
+        private final Long additionalCodeId;
+
+        private Long palletNumberId;
+
+        private Long storageLocationId;
+
+        private String typeOfPallet;
+
+        private boolean waste;
+
+        private BigDecimal price;
+
+        private String batch;
+
+        private Date productionDate;
+
+        private Date expirationDate;
+
+        private boolean changed;
+
+        private boolean deleted;
+
+        ResourceCandidate(final Long id, final Long productId, final Long locationId, final BigDecimal quantity,
+                final BigDecimal availableQuantity, final BigDecimal conversion, final Long additionalCodeId) {
+            this.id = id;
+            this.productId = productId;
+            this.locationId = locationId;
+            this.quantity = quantity;
+            this.availableQuantity = availableQuantity;
+            this.reservedQuantity = BigDecimal.ZERO;
+            this.conversion = conversion;
+            this.additionalCodeId = additionalCodeId;
+        }
+
+        boolean isAvailable() {
+            return !deleted && Objects.nonNull(availableQuantity) && BigDecimal.ZERO.compareTo(availableQuantity) < 0;
+        }
+
+        Long getId() {
+            return id;
+        }
+
+        BigDecimal getQuantity() {
+            return quantity;
+        }
+
+        BigDecimal getAvailableQuantity() {
+            return availableQuantity;
+        }
+
+        boolean isDeleted() {
+            return deleted;
+        }
+
+    }
+
+    /**
+     * In-memory state of one document allocation. Resource changes are kept until {@link #flush()} is called.
+     */
+    public class Allocation {
+
+        private final Entity warehouse;
+
+        private final Map<Long, ResourceCandidate> candidatesById = Maps.newLinkedHashMap();
+
+        private final Map<Long, List<ResourceCandidate>> candidatesByProduct = Maps.newHashMap();
+
+        private final Map<Long, BigDecimal> reservedForPositions;
+
+        private final boolean fillResourceIrrespectiveOfConversion;
+
+        private final Set<Long> positionIdsWithReservations = Sets.newHashSet();
+
+        Allocation(final Entity warehouse, final List<ResourceCandidate> candidates,
+                final Map<Long, BigDecimal> reservedForPositions, final boolean fillResourceIrrespectiveOfConversion) {
+            this.warehouse = warehouse;
+            this.reservedForPositions = reservedForPositions;
+            this.fillResourceIrrespectiveOfConversion = fillResourceIrrespectiveOfConversion;
+
+            for (ResourceCandidate candidate : candidates) {
+                candidatesById.put(candidate.id, candidate);
+                candidatesByProduct.computeIfAbsent(candidate.productId, productId -> Lists.newArrayList()).add(candidate);
+            }
+        }
+
+        /**
+         * Takes resources for given position, in the same way as per-position update of resources for release documents.
+         * Quantities of used resources are changed in memory only.
+         *
+         * @param position
+         *            document position
+         * @return generated positions, or given position with error, when there are not enough resources
+         */
+        public List<Entity> allocate(final Entity position) {
+            List<Entity> newPositions = Lists.newArrayList();
+
+            Entity product = position.getBelongsToField(PositionFields.PRODUCT);
+
+            ResourceCandidate assignedResource = getAssignedResource(position);
+
+            List<ResourceCandidate> resources;
+
+            if (Objects.nonNull(assignedResource)) {
+                BigDecimal reservationQuantity = reservedForPositions.get(position.getId());
+
+                if (Objects.nonNull(reservationQuantity)) {
+                    assignedResource.availableQuantity = assignedResource.availableQuantity.add(reservationQuantity);
+                }
+
+                resources = Lists.newArrayList(assignedResource);
+            } else {
+                resources = getOrderedCandidates(position, product);
+            }
+
+            BigDecimal quantity = position.getDecimalField(PositionFields.QUANTITY);
+            BigDecimal conversion = position.getDecimalField(PositionFields.CONVERSION);
+            String givenUnit = position.getStringField(PositionFields.GIVEN_UNIT);
+
+            for (ResourceCandidate resource : resources) {
+                Entity newPosition = createNewPosition(position, product, resource);
+
+                quantity = recalculateQuantity(quantity, conversion, givenUnit, resource.conversion,
+                        product.getStringField(ProductFields.UNIT));
+                conversion = resource.conversion;
+                givenUnit = resource.givenUnit;
+
+                BigDecimal resourceQuantity = resource.quantity;
+                BigDecimal resourceAvailableQuantity = resource.availableQuantity;
+                BigDecimal givenQuantity = calculationQuantityService.calculateAdditionalQuantity(quantity, conversion, givenUnit);
+                BigDecimal givenResourceAvailableQuantity = calculationQuantityService.calculateAdditionalQuantity(
+                        resourceAvailableQuantity, conversion, givenUnit);
+
+                if (Objects.nonNull(assignedResource) && warehouse.getBooleanField(LocationFieldsMFR.DRAFT_MAKES_RESERVATION)) {
+                    resource.reservedQuantity = resource.reservedQuantity.subtract(quantity, numberService.getMathContext());
+                    resource.changed = true;
+                }
+
+                if (quantity.compareTo(resourceAvailableQuantity) >= 0
+                        || givenQuantity.compareTo(givenResourceAvailableQuantity) == 0) {
+                    quantity = quantity.subtract(resourceAvailableQuantity, numberService.getMathContext());
+
+                    if (resourceQuantity.compareTo(resourceAvailableQuantity) <= 0) {
+                        resource.deleted = true;
+                    } else {
+                        BigDecimal newResourceQuantity = resourceQuantity.subtract(resourceAvailableQuantity);
+
+                        resource.availableQuantity = BigDecimal.ZERO;
+                        resource.quantity = newResourceQuantity;
+                        resource.quantityInAdditionalUnit = calculationQuantityService.calculateAdditionalQuantity(
+                                newResourceQuantity, conversion, givenUnit);
+                        resource.changed = true;
+                    }
+
+                    newPosition.setField(PositionFields.QUANTITY,
+                            numberService.setScaleWithDefaultMathContext(resourceAvailableQuantity));
+                    newPosition.setField(PositionFields.GIVEN_QUANTITY, givenResourceAvailableQuantity);
+
+                    newPositions.add(newPosition);
+
+                    if (BigDecimal.ZERO.compareTo(quantity) == 0
+                            || BigDecimal.ZERO.compareTo(calculationQuantityService.calculateAdditionalQuantity(quantity,
+                                    conversion, givenUnit)) == 0) {
+                        return newPositions;
+                    }
+                } else {
+                    resourceQuantity = resourceQuantity.subtract(quantity, numberService.getMathContext());
+                    resourceAvailableQuantity = resourceAvailableQuantity.subtract(quantity, numberService.getMathContext());
+
+                    resource.quantityInAdditionalUnit = calculationQuantityService.calculateAdditionalQuantity(resourceQuantity,
+                            conversion, givenUnit);
+                    resource.quantity = numberService.setScaleWithDefaultMathContext(resourceQuantity);
+                    resource.availableQuantity = resourceAvailableQuantity;
+                    resource.changed = true;
+
+                    newPosition.setField(PositionFields.QUANTITY, numberService.setScaleWithDefaultMathContext(quantity));
+                    newPosition.setField(PositionFields.GIVEN_QUANTITY, givenQuantity);
+
+                    newPositions.add(newPosition);
+
+                    return newPositions;
+                }
+            }
+
+            position.addError(position.getDataDefinition().getField(PositionFields.QUANTITY),
+                    "materialFlow.error.position.quantity.notEnough");
+
+            return Lists.newArrayList(position);
+        }
+
+        /**
+         * Matches resources to position without changing their quantities, as it is done when resources are filled in draft
+         * document. Waste resources are skipped.
+         *
+         * @param position
+         *            document position without resource
+         * @return generated positions, last one without resource when there is not enough resources
+         */
+        public List<Entity> match(final Entity position) {
+            List<Entity> newPositions = Lists.newArrayList();
+
+            Entity product = position.getBelongsToField(PositionFields.PRODUCT);
+
+            BigDecimal quantity = position.getDecimalField(PositionFields.QUANTITY);
+            BigDecimal conversion = position.getDecimalField(PositionFields.CONVERSION);
+            String givenUnit = position.getStringField(PositionFields.GIVEN_UNIT);
+
+            for (ResourceCandidate resource : getOrderedCandidates(position, product)) {
+                if (resource.waste) {
+                    continue;
+                }
+
+                Entity newPosition = createNewPosition(position, product, resource);
+
+                newPosition.setField(PositionFields.RESOURCE, resource.id);
+
+                quantity = recalculateQuantity(quantity, conversion, givenUnit, resource.conversion,
+                        product.getStringField(ProductFields.UNIT));
+                conversion = resource.conversion;
+                givenUnit = resource.givenUnit;
+
+                if (quantity.compareTo(resource.availableQuantity) > 0) {
+                    quantity = quantity.subtract(resource.availableQuantity, numberService.getMathContext());
+
+                    setPositionQuantityAndGivenQuantity(resource.availableQuantity, newPosition);
+                    newPositions.add(newPosition);
+                } else {
+                    setPositionQuantityAndGivenQuantity(quantity, newPosition);
+                    newPositions.add(newPosition);
+
+                    return newPositions;
+                }
+            }
+
+            Entity missingPosition = position.getDataDefinition().create();
+
+            missingPosition.setField(PositionFields.PRODUCT, product);
+            missingPosition.setField(PositionFields.GIVEN_UNIT, position.getStringField(PositionFields.GIVEN_UNIT));
+            missingPosition.setField(PositionFields.CONVERSION, position.getField(PositionFields.CONVERSION));
+
+            setPositionQuantityAndGivenQuantity(quantity, missingPosition);
+
+            newPositions.add(missingPosition);
+
+            return newPositions;
+        }
+
+        /**
+         * Returns sum of available quantities of resources with the same conversion as given position.
+         */
+        public BigDecimal getAvailableQuantity(final Entity position) {
+            Entity product = position.getBelongsToField(PositionFields.PRODUCT);
+            BigDecimal expectedConversion = getExpectedConversion(position, product);
+
+            return getOrderedCandidates(position, product).stream()
+                    .filter(candidate -> hasConversion(candidate, expectedConversion))
+                    .map(candidate -> candidate.availableQuantity).reduce(BigDecimal.ZERO, BigDecimal::add);
+        }
+
+        /**
+         * Writes all changed and exhausted resources with batch statements and removes reservations of allocated positions.
+         */
+        public void flush() {
+            if (!positionIdsWithReservations.isEmpty()) {
+                jdbcTemplate.update("DELETE FROM materialflowresources_reservation WHERE position_id IN (:positionIds)",
+                        Collections.singletonMap("positionIds", positionIdsWithReservations));
+
+                positionIdsWithReservations.clear();
+            }
+
+            List<ResourceCandidate> deleted = candidatesById.values().stream().filter(ResourceCandidate::isDeleted)
+                    .collect(Collectors.toList());
+            List<ResourceCandidate> changed = candidatesById.values().stream()
+                    .filter(candidate -> candidate.changed && !candidate.deleted).collect(Collectors.toList());
+
+            List<SqlParameterSource> updates = Lists.newArrayList();
+
+            for (ResourceCandidate candidate : changed) {
+                if (canBeUpdatedWithoutValidation(candidate)) {
+                    updates.add(new MapSqlParameterSource().addValue("id", candidate.id)
+                            .addValue("quantity", candidate.quantity).addValue("availableQuantity", candidate.availableQuantity)
+                            .addValue("reservedQuantity", candidate.reservedQuantity)
+                            .addValue("quantityInAdditionalUnit", candidate.quantityInAdditionalUnit));
+                } else {
+                    saveWithValidation(candidate);
+                }
+            }
+
+            if (!updates.isEmpty()) {
+                jdbcTemplate.batchUpdate(L_UPDATE_RESOURCE, updates.toArray(new SqlParameterSource[updates.size()]));
+            }
+
+            if (!deleted.isEmpty()) {
+                deleteResources(deleted);
+            }
+
+            candidatesById.values().forEach(candidate -> candidate.changed = false);
+        }
+
+        private ResourceCandidate getAssignedResource(final Entity position) {
+            Entity resource = position.getBelongsToField(PositionFields.RESOURCE);
+
+            if (Objects.isNull(resource) || Objects.isNull(resource.getId())) {
+                return null;
+            }
+
+            ResourceCandidate candidate = candidatesById.get(resource.getId());
+
+            if (Objects.isNull(candidate) || candidate.deleted) {
+                return null;
+            }
+
+            return candidate;
+        }
+
+        List<ResourceCandidate> getOrderedCandidates(final Entity position, final Entity product) {
+            List<ResourceCandidate> candidates = candidatesByProduct.getOrDefault(product.getId(), Collections.emptyList());
+
+            BigDecimal expectedConversion = getExpectedConversion(position, product);
+            Entity additionalCode = position.getBelongsToField(PositionFields.ADDITIONAL_CODE);
+            Long additionalCodeId = Objects.isNull(additionalCode) ? null : additionalCode.getId();
+
+            Comparator<ResourceCandidate> byMatch = Comparator.comparingInt(candidate -> getMatchRank(candidate,
+                    expectedConversion, additionalCodeId));
+
+            return candidates.stream()
+                    .filter(candidate -> warehouse.getId().equals(candidate.locationId) && candidate.isAvailable())
+                    .filter(candidate -> fillResourceIrrespectiveOfConversion
+                            || hasConversion(candidate, expectedConversion))
+                    .sorted(byMatch).collect(Collectors.toList());
+        }
+
+        private BigDecimal getExpectedConversion(final Entity position, final Entity product) {
+            if (StringUtils.isNotEmpty(product.getStringField(ProductFields.ADDITIONAL_UNIT))) {
+                return position.getDecimalField(PositionFields.CONVERSION);
+            }
+
+            return BigDecimal.ONE;
+        }
+
+        private int getMatchRank(final ResourceCandidate candidate, final BigDecimal expectedConversion,
+                final Long additionalCodeId) {
+            int rank = 0;
+
+            if (!hasConversion(candidate, expectedConversion)) {
+                rank += 2;
+            }
+            if (Objects.nonNull(additionalCodeId) && !additionalCodeId.equals(candidate.additionalCodeId)) {
+                rank += 1;
+            }
+
+            return rank;
+        }
+
+        private boolean hasConversion(final ResourceCandidate candidate, final BigDecimal expectedConversion) {
+            return Objects.nonNull(candidate.conversion) && Objects.nonNull(expectedConversion)
+                    && candidate.conversion.compareTo(expectedConversion) == 0;
+        }
+
+        private Entity createNewPosition(final Entity position, final Entity product, final ResourceCandidate resource) {
+            Entity newPosition = position.getDataDefinition().create();
+
+            newPosition.setField(PositionFields.PRODUCT, product);
+            newPosition.setField(PositionFields.GIVEN_UNIT, resource.givenUnit);
+            newPosition.setField(PositionFields.PRICE, resource.price);
+            newPosition.setField(PositionFields.BATCH, resource.batch);
+            newPosition.setField(PositionFields.PRODUCTION_DATE, resource.productionDate);
+            newPosition.setField(PositionFields.EXPIRATION_DATE, resource.expirationDate);
+            newPosition.setField(PositionFields.RESOURCE, null);
+            newPosition.setField(PositionFields.RESOURCE_NUMBER, resource.number);
+            newPosition.setField(PositionFields.STORAGE_LOCATION, resource.storageLocationId);
+            newPosition.setField(PositionFields.ADDITIONAL_CODE, resource.additionalCodeId);
+            newPosition.setField(PositionFields.CONVERSION, resource.conversion);
+            newPosition.setField(PositionFields.PALLET_NUMBER, resource.palletNumberId);
+            newPosition.setField(PositionFields.TYPE_OF_PALLET, resource.typeOfPallet);
+            newPosition.setField(PositionFields.WASTE, resource.waste);
+
+            return newPosition;
+        }
+
+        private BigDecimal recalculateQuantity(final BigDecimal quantity, final BigDecimal conversion, final String givenUnit,
+                final BigDecimal resourceConversion, final String unit) {
+            if (conversion.compareTo(resourceConversion) != 0) {
+                BigDecimal givenQuantity = calculationQuantityService.calculateAdditionalQuantity(quantity, conversion,
+                        givenUnit);
+
+                return calculationQuantityService.calculateQuantity(givenQuantity, resourceConversion, unit);
+            }
+
+            return quantity;
+        }
+
+        private void setPositionQuantityAndGivenQuantity(final BigDecimal quantity, final Entity newPosition) {
+            newPosition.setField(PositionFields.QUANTITY, numberService.setScaleWithDefaultMathContext(quantity));
+
+            BigDecimal givenQuantity = calculationQuantityService.calculateAdditionalQuantity(quantity,
+                    newPosition.getDecimalField(PositionFields.CONVERSION),
+                    newPosition.getStringField(PositionFields.GIVEN_UNIT));
+
+            newPosition.setField(PositionFields.GIVEN_QUANTITY, givenQuantity);
+        }
+
+        private boolean canBeUpdatedWithoutValidation(final ResourceCandidate candidate) {
+            return BigDecimal.ZERO.compareTo(candidate.quantity) < 0
+                    && (Objects.isNull(candidate.quantityInAdditionalUnit) || BigDecimal.ZERO
+                            .compareTo(candidate.quantityInAdditionalUnit) < 0)
+                    && BigDecimal.ZERO.compareTo(candidate.availableQuantity) <= 0
+                    && BigDecimal.ZERO.compareTo(candidate.reservedQuantity) <= 0;
+        }
+
+        private void saveWithValidation(final ResourceCandidate candidate) {
+            DataDefinition resourceDD = dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                    MaterialFlowResourcesConstants.MODEL_RESOURCE);
+
+            Entity resource = resourceDD.get(candidate.id);
+
+            resource.setField(ResourceFields.QUANTITY, candidate.quantity);
+            resource.setField(ResourceFields.AVAILABLE_QUANTITY, candidate.availableQuantity);
+            resource.setField(ResourceFields.RESERVED_QUANTITY, candidate.reservedQuantity);
+
+            if (Objects.nonNull(candidate.quantityInAdditionalUnit)) {
+                resource.setField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT, candidate.quantityInAdditionalUnit);
+            }
+
+            Entity savedResource = resourceDD.save(resource);
+
+            if (!savedResource.isValid()) {
+                throw new InvalidResourceException(savedResource);
+            }
+        }
+
+        private void deleteResources(final Collection<ResourceCandidate> resources) {
+            Map<String, Object> params = Collections.singletonMap("resourceIds",
+                    resources.stream().map(ResourceCandidate::getId).collect(Collectors.toSet()));
+
+            jdbcTemplate.update("UPDATE materialflowresources_position SET resource_id = NULL, "
+                    + "entityversion = entityversion + 1 WHERE resource_id IN (:resourceIds)", params);
+            jdbcTemplate.update("UPDATE materialflowresources_resourcecorrection SET resource_id = NULL, "
+                    + "entityversion = entityversion + 1 WHERE resource_id IN (:resourceIds)", params);
+            jdbcTemplate.update("DELETE FROM materialflowresources_reservation WHERE resource_id IN (:resourceIds)", params);
+            jdbcTemplate.update("DELETE FROM materialflowresources_resource WHERE id IN (:resourceIds)", params);
+
+            DataDefinition palletNumberDD = dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER,
+                    BasicConstants.MODEL_PALLET_NUMBER);
+
+            resources.stream().map(resource -> resource.palletNumberId).filter(Objects::nonNull).distinct()
+                    .map(palletNumberDD::get).forEach(palletNumberDisposalService::tryToDispose);
+        }
+
+    }
+
+}
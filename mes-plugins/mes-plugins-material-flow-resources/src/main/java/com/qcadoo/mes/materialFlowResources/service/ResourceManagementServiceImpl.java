@@ -30,6 +30,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
 import org.hibernate.exception.LockAcquisitionException;
@@ -42,6 +43,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.qcadoo.mes.basic.CalculationQuantityService;
 import com.qcadoo.mes.basic.ParameterService;
@@ -111,6 +113,9 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
     @Autowired
     private CalculationQuantityService calculationQuantityService;
 
+    @Autowired
+    private ReleaseResourcesAllocationService releaseResourcesAllocationService;
+
     @Override
     @Transactional
     public void createResources(final Entity document) {
@@ -353,44 +358,61 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
     private void updateResourcesForReleaseDocuments(final Entity document) {
         Entity warehouse = document.getBelongsToField(DocumentFields.LOCATION_FROM);
 
-        WarehouseAlgorithm warehouseAlgorithm = WarehouseAlgorithm.parseString(warehouse
-                .getStringField(LocationFieldsMFR.ALGORITHM));
-
         boolean enoughResources = true;
 
         NotEnoughResourcesErrorMessageHolder errorMessageHolder = notEnoughResourcesErrorMessageHolderFactory.create();
 
-        Multimap<Long, BigDecimal> quantitiesForWarehouse = getQuantitiesInWarehouse(warehouse,
-                getProductsAndPositionsFromDocument(document));
+        List<Entity> positions = document.getHasManyField(DocumentFields.POSITIONS);
 
-        for (Entity position : document.getHasManyField(DocumentFields.POSITIONS)) {
+        ReleaseResourcesAllocationService.Allocation allocation = releaseResourcesAllocationService.prepare(document, positions);
+
+        Map<Long, BigDecimal> quantitiesForWarehouse = Maps.newHashMap();
+
+        for (Entity position : positions) {
+            Long productId = position.getBelongsToField(PositionFields.PRODUCT).getId();
+
+            quantitiesForWarehouse.merge(productId, allocation.getAvailableQuantity(position), BigDecimal::add);
+        }
+
+        Map<Entity, List<Entity>> generatedPositionsForPositions = Maps.newLinkedHashMap();
+
+        for (Entity position : positions) {
             Entity product = position.getBelongsToField(PositionFields.PRODUCT);
 
-            List<Entity> generatedPositions = updateResources(warehouse, position, warehouseAlgorithm);
+            List<Entity> generatedPositions = allocation.allocate(position);
 
             enoughResources = enoughResources && position.isValid();
 
             if (!position.isValid()) {
-                BigDecimal quantityInWarehouse = getQuantityOfProductFromMultimap(quantitiesForWarehouse, product);
+                BigDecimal quantityInWarehouse = quantitiesForWarehouse.getOrDefault(product.getId(), BigDecimal.ZERO);
 
                 BigDecimal quantity = position.getDecimalField(QUANTITY);
 
                 errorMessageHolder.addErrorEntry(product, quantity.subtract(quantityInWarehouse, numberService.getMathContext()));
             } else {
-                if (generatedPositions.size() > 1) {
-                    if (Objects.nonNull(position.getId())) {
-                        position.getDataDefinition().delete(position.getId());
-                    }
-                    for (Entity newPosition : generatedPositions) {
-                        newPosition.setField(PositionFields.DOCUMENT, document);
-                        Entity saved = newPosition.getDataDefinition().save(newPosition);
-                        addPositionErrors(document, saved);
-                    }
-                } else {
-                    copyPositionValues(position, generatedPositions.get(0));
-                    Entity saved = position.getDataDefinition().save(position);
+                generatedPositionsForPositions.put(position, generatedPositions);
+            }
+        }
+
+        allocation.flush();
+
+        for (Map.Entry<Entity, List<Entity>> positionAndGeneratedPositions : generatedPositionsForPositions.entrySet()) {
+            Entity position = positionAndGeneratedPositions.getKey();
+            List<Entity> generatedPositions = positionAndGeneratedPositions.getValue();
+
+            if (generatedPositions.size() > 1) {
+                if (Objects.nonNull(position.getId())) {
+                    position.getDataDefinition().delete(position.getId());
+                }
+                for (Entity newPosition : generatedPositions) {
+                    newPosition.setField(PositionFields.DOCUMENT, document);
+                    Entity saved = newPosition.getDataDefinition().save(newPosition);
                     addPositionErrors(document, saved);
                 }
+            } else {
+                copyPositionValues(position, generatedPositions.get(0));
+                Entity saved = position.getDataDefinition().save(position);
+                addPositionErrors(document, saved);
             }
         }
 
@@ -429,110 +451,6 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
         position.setField(PositionFields.GIVEN_QUANTITY, newPosition.getField(PositionFields.GIVEN_QUANTITY));
     }
 
-    private List<Entity> updateResources(final Entity warehouse, final Entity position,
-            final WarehouseAlgorithm warehouseAlgorithm) {
-        List<Entity> newPositions = Lists.newArrayList();
-
-        Entity product = position.getBelongsToField(PositionFields.PRODUCT);
-
-        List<Entity> resources = getResourcesForWarehouseProductAndAlgorithm(warehouse, product, position, warehouseAlgorithm);
-
-        reservationsService.deleteReservationFromDocumentPosition(position);
-
-        BigDecimal quantity = position.getDecimalField(PositionFields.QUANTITY);
-        BigDecimal conversion = position.getDecimalField(PositionFields.CONVERSION);
-        String givenUnit = position.getStringField(PositionFields.GIVEN_UNIT);
-
-        for (Entity resource : resources) {
-            Entity newPosition = createNewPosition(position, product, resource);
-
-            quantity = recalculateQuantity(quantity, conversion, givenUnit, resource.getDecimalField(ResourceFields.CONVERSION),
-                    product.getStringField(ProductFields.UNIT));
-            conversion = resource.getDecimalField(ResourceFields.CONVERSION);
-            givenUnit = resource.getStringField(ResourceFields.GIVEN_UNIT);
-            BigDecimal resourceQuantity = resource.getDecimalField(ResourceFields.QUANTITY);
-            BigDecimal resourceAvailableQuantity = resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY);
-            BigDecimal givenQuantity = calculationQuantityService.calculateAdditionalQuantity(quantity, conversion, givenUnit);
-            BigDecimal givenResourceAvailableQuantity = calculationQuantityService.calculateAdditionalQuantity(
-                    resourceAvailableQuantity, conversion, givenUnit);
-
-            if (position.getBelongsToField(PositionFields.RESOURCE) != null
-                    && warehouse.getBooleanField(LocationFieldsMFR.DRAFT_MAKES_RESERVATION)) {
-                BigDecimal reservedQuantity = resource.getDecimalField(ResourceFields.RESERVED_QUANTITY).subtract(quantity,
-                        numberService.getMathContext());
-                resource.setField(ResourceFields.RESERVED_QUANTITY, reservedQuantity);
-            }
-
-            if (quantity.compareTo(resourceAvailableQuantity) >= 0
-                    || givenQuantity.compareTo(givenResourceAvailableQuantity) == 0) {
-                quantity = quantity.subtract(resourceAvailableQuantity, numberService.getMathContext());
-
-                if (resourceQuantity.compareTo(resourceAvailableQuantity) <= 0) {
-                    Entity palletNumberToDispose = resource.getBelongsToField(ResourceFields.PALLET_NUMBER);
-
-                    resource.getDataDefinition().delete(resource.getId());
-
-                    palletNumberDisposalService.tryToDispose(palletNumberToDispose);
-                } else {
-                    BigDecimal newResourceQuantity = resourceQuantity.subtract(resourceAvailableQuantity);
-                    BigDecimal quantityInAdditionalUnit = calculationQuantityService.calculateAdditionalQuantity(
-                            newResourceQuantity, conversion, givenUnit);
-
-                    resource.setField(ResourceFields.AVAILABLE_QUANTITY, BigDecimal.ZERO);
-                    resource.setField(ResourceFields.QUANTITY, newResourceQuantity);
-                    resource.setField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT, quantityInAdditionalUnit);
-
-                    Entity savedResource = resource.getDataDefinition().save(resource);
-
-                    if (!savedResource.isValid()) {
-                        throw new InvalidResourceException(savedResource);
-                    }
-                }
-
-                newPosition.setField(PositionFields.QUANTITY, numberService.setScaleWithDefaultMathContext(resourceAvailableQuantity));
-
-                newPosition.setField(PositionFields.GIVEN_QUANTITY, givenResourceAvailableQuantity);
-
-                newPositions.add(newPosition);
-
-                if (BigDecimal.ZERO.compareTo(quantity) == 0
-                        || BigDecimal.ZERO.compareTo(calculationQuantityService.calculateAdditionalQuantity(quantity, conversion,
-                                givenUnit)) == 0) {
-                    return newPositions;
-                }
-            } else {
-                resourceQuantity = resourceQuantity.subtract(quantity, numberService.getMathContext());
-                resourceAvailableQuantity = resourceAvailableQuantity.subtract(quantity, numberService.getMathContext());
-
-                BigDecimal quantityInAdditionalUnit = calculationQuantityService.calculateAdditionalQuantity(resourceQuantity,
-                        conversion, givenUnit);
-
-                resource.setField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT, quantityInAdditionalUnit);
-                resource.setField(ResourceFields.QUANTITY, numberService.setScaleWithDefaultMathContext(resourceQuantity));
-                resource.setField(ResourceFields.AVAILABLE_QUANTITY, resourceAvailableQuantity);
-
-                Entity savedResource = resource.getDataDefinition().save(resource);
-
-                if (!savedResource.isValid()) {
-                    throw new InvalidResourceException(savedResource);
-                }
-
-                newPosition.setField(PositionFields.QUANTITY, numberService.setScaleWithDefaultMathContext(quantity));
-
-                newPosition.setField(PositionFields.GIVEN_QUANTITY, givenQuantity);
-
-                newPositions.add(newPosition);
-
-                return newPositions;
-            }
-        }
-
-        position.addError(position.getDataDefinition().getField(PositionFields.QUANTITY),
-                "materialFlow.error.position.quantity.notEnough");
-
-        return Lists.newArrayList(position);
-    }
-
     private void moveResourcesForTransferDocument(final Entity document) {
         Entity warehouseFrom = document.getBelongsToField(DocumentFields.LOCATION_FROM);
         Entity warehouseTo = document.getBelongsToField(DocumentFields.LOCATION_TO);
@@ -858,32 +776,31 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
         List<Entity> positions = document.getHasManyField(DocumentFields.POSITIONS);
         logger.info("INITIAL POSITIONS IN DOCUMENT: id = " + document.getId() + ": size = " + positions.size());
         logger.info(positions.toString());
-        Entity warehouse = document.getBelongsToField(DocumentFields.LOCATION_FROM);
-        WarehouseAlgorithm warehouseAlgorithm = WarehouseAlgorithm.parseString(warehouse
-                .getStringField(LocationFieldsMFR.ALGORITHM));
+        List<Entity> positionsWithoutResource = positions.stream()
+                .filter(position -> position.getBelongsToField(PositionFields.RESOURCE) == null).collect(Collectors.toList());
+        ReleaseResourcesAllocationService.Allocation allocation = releaseResourcesAllocationService.prepare(document,
+                positionsWithoutResource);
         boolean valid = true;
 
-        for (Entity position : positions) {
-            if (position.getBelongsToField(PositionFields.RESOURCE) == null) {
-                List<Entity> newPositions = matchResourcesToPosition(position, warehouse, warehouseAlgorithm);
-                if (!newPositions.isEmpty()) {
-                    logger.info("GENERATED POSITIONS IN DOCUMENT: id = " + document.getId() + ", FOR POSITION: id = "
-                            + position.getId() + ", size = " + newPositions.size());
-                    logger.info(newPositions.toString());
-                    if (newPositions.size() > 1) {
-                        position.getDataDefinition().delete(position.getId());
-                        for (Entity newPosition : newPositions) {
-                            newPosition.setField(PositionFields.DOCUMENT, document);
-                            Entity saved = newPosition.getDataDefinition().save(newPosition);
-                            valid = valid && saved.isValid();
-                            addPositionErrors(view, saved);
-                        }
-                    } else {
-                        copyPositionValues(position, newPositions.get(0));
-                        Entity saved = position.getDataDefinition().save(position);
+        for (Entity position : positionsWithoutResource) {
+            List<Entity> newPositions = allocation.match(position);
+            if (!newPositions.isEmpty()) {
+                logger.info("GENERATED POSITIONS IN DOCUMENT: id = " + document.getId() + ", FOR POSITION: id = "
+                        + position.getId() + ", size = " + newPositions.size());
+                logger.info(newPositions.toString());
+                if (newPositions.size() > 1) {
+                    position.getDataDefinition().delete(position.getId());
+                    for (Entity newPosition : newPositions) {
+                        newPosition.setField(PositionFields.DOCUMENT, document);
+                        Entity saved = newPosition.getDataDefinition().save(newPosition);
                         valid = valid && saved.isValid();
                         addPositionErrors(view, saved);
                     }
+                } else {
+                    copyPositionValues(position, newPositions.get(0));
+                    Entity saved = position.getDataDefinition().save(position);
+                    valid = valid && saved.isValid();
+                    addPositionErrors(view, saved);
                 }
             }
         }
@@ -907,53 +824,6 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
         }
     }
 
-    private List<Entity> matchResourcesToPosition(final Entity position, final Entity warehouse,
-            final WarehouseAlgorithm warehouseAlgorithm) {
-        DataDefinition positionDD = dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
-                MaterialFlowResourcesConstants.MODEL_POSITION);
-
-        List<Entity> newPositions = Lists.newArrayList();
-
-        Entity product = position.getBelongsToField(PositionFields.PRODUCT);
-
-        List<Entity> resources = getResourcesForWarehouseProductAndAlgorithm(warehouse, product, position, warehouseAlgorithm);
-        BigDecimal quantity = position.getDecimalField(PositionFields.QUANTITY);
-        BigDecimal conversion = position.getDecimalField(PositionFields.CONVERSION);
-        String givenUnit = position.getStringField(PositionFields.GIVEN_UNIT);
-
-        for (Entity resource : resources) {
-            if (resource.getBooleanField(ResourceFields.WASTE)) {
-                continue;
-            }
-            logger.info("DOCUMENT: " + position.getBelongsToField(PositionFields.DOCUMENT).getId() + " POSITION: "
-                    + position.toString());
-            logger.info("RESOURCE USED: " + resource.toString());
-
-            Entity newPosition = createNewPosition(position, product, resource);
-            newPosition.setField(PositionFields.RESOURCE, resource);
-
-            quantity = recalculateQuantity(quantity, conversion, givenUnit, resource.getDecimalField(ResourceFields.CONVERSION),
-                    product.getStringField(ProductFields.UNIT));
-            conversion = resource.getDecimalField(ResourceFields.CONVERSION);
-            givenUnit = resource.getStringField(ResourceFields.GIVEN_UNIT);
-            BigDecimal resourceAvailableQuantity = resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY);
-
-            if (quantity.compareTo(resourceAvailableQuantity) > 0) {
-                quantity = quantity.subtract(resourceAvailableQuantity, numberService.getMathContext());
-
-                setPositionQuantityAndGivenQuantity(resourceAvailableQuantity, newPosition);
-                newPositions.add(newPosition);
-            } else {
-                setPositionQuantityAndGivenQuantity(quantity, newPosition);
-                newPositions.add(newPosition);
-
-                return newPositions;
-            }
-        }
-        newPositions.add(createPositionWithoutResourceForMissingQuantity(position, positionDD, quantity));
-        return newPositions;
-    }
-
     private Entity createNewPosition(Entity position, Entity product, Entity resource) {
         Entity newPosition = position.getDataDefinition().create();
 
@@ -984,23 +854,4 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
         return quantity;
     }
 
-    private void setPositionQuantityAndGivenQuantity(BigDecimal quantity, Entity newPosition) {
-        newPosition.setField(PositionFields.QUANTITY, numberService.setScaleWithDefaultMathContext(quantity));
-
-        BigDecimal givenQuantity = calculationQuantityService.calculateAdditionalQuantity(quantity,
-                newPosition.getDecimalField(PositionFields.CONVERSION), newPosition.getStringField(PositionFields.GIVEN_UNIT));
-
-        newPosition.setField(PositionFields.GIVEN_QUANTITY, givenQuantity);
-    }
-
-    private Entity createPositionWithoutResourceForMissingQuantity(Entity position, DataDefinition positionDD, BigDecimal quantity) {
-        Entity newPosition = positionDD.create();
-
-        newPosition.setField(PositionFields.PRODUCT, position.getBelongsToField(PositionFields.PRODUCT));
-        newPosition.setField(PositionFields.GIVEN_UNIT, position.getStringField(PositionFields.GIVEN_UNIT));
-        newPosition.setField(PositionFields.CONVERSION, position.getField(PositionFields.CONVERSION));
-        setPositionQuantityAndGivenQuantity(quantity, newPosition);
-        return newPosition;
-    }
-
 }
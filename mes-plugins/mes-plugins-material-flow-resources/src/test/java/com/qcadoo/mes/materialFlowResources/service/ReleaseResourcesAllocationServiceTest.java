@@ -0,0 +1,204 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlowResources.service;
+
+import static com.qcadoo.testing.model.EntityTestUtils.mockEntity;
+import static com.qcadoo.testing.model.EntityTestUtils.stubBelongsToField;
+import static com.qcadoo.testing.model.EntityTestUtils.stubDecimalField;
+import static com.qcadoo.testing.model.EntityTestUtils.stubStringField;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.CalculationQuantityService;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.materialFlowResources.constants.LocationFieldsMFR;
+import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
+import com.qcadoo.mes.materialFlowResources.service.ReleaseResourcesAllocationService.Allocation;
+import com.qcadoo.mes.materialFlowResources.service.ReleaseResourcesAllocationService.ResourceCandidate;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.NumberService;
+
+public class ReleaseResourcesAllocationServiceTest {
+
+    private static final Long L_WAREHOUSE_ID = 1L;
+
+    private static final Long L_PRODUCT_ID = 10L;
+
+    private ReleaseResourcesAllocationService releaseResourcesAllocationService;
+
+    @Mock
+    private NumberService numberService;
+
+    @Mock
+    private CalculationQuantityService calculationQuantityService;
+
+    @Mock
+    private DataDefinition positionDD;
+
+    private Entity warehouse;
+
+    private Entity product;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        releaseResourcesAllocationService = new ReleaseResourcesAllocationService();
+
+        ReflectionTestUtils.setField(releaseResourcesAllocationService, "numberService", numberService);
+        ReflectionTestUtils.setField(releaseResourcesAllocationService, "calculationQuantityService",
+                calculationQuantityService);
+
+        when(numberService.getMathContext()).thenReturn(MathContext.DECIMAL64);
+        when(numberService.setScaleWithDefaultMathContext(any(BigDecimal.class))).thenAnswer(
+                invocation -> invocation.getArguments()[0]);
+        when(calculationQuantityService.calculateAdditionalQuantity(any(BigDecimal.class), any(BigDecimal.class), anyString()))
+                .thenAnswer(invocation -> ((BigDecimal) invocation.getArguments()[0]).multiply((BigDecimal) invocation
+                        .getArguments()[1]));
+        when(positionDD.create()).thenAnswer(invocation -> mockEntity());
+
+        warehouse = mockEntity(L_WAREHOUSE_ID);
+        when(warehouse.getBooleanField(LocationFieldsMFR.DRAFT_MAKES_RESERVATION)).thenReturn(false);
+
+        product = mockEntity(L_PRODUCT_ID);
+        stubStringField(product, ProductFields.UNIT, "szt");
+    }
+
+    private Entity mockPosition(final BigDecimal quantity) {
+        Entity position = mockEntity();
+
+        when(position.getDataDefinition()).thenReturn(positionDD);
+        stubBelongsToField(position, PositionFields.PRODUCT, product);
+        stubDecimalField(position, PositionFields.QUANTITY, quantity);
+        stubDecimalField(position, PositionFields.CONVERSION, BigDecimal.ONE);
+        stubStringField(position, PositionFields.GIVEN_UNIT, "szt");
+
+        return position;
+    }
+
+    private ResourceCandidate candidate(final Long id, final BigDecimal quantity, final BigDecimal conversion) {
+        return new ResourceCandidate(id, L_PRODUCT_ID, L_WAREHOUSE_ID, quantity, quantity, conversion, null);
+    }
+
+    private Allocation allocation(final boolean fillResourceIrrespectiveOfConversion, final ResourceCandidate... candidates) {
+        return releaseResourcesAllocationService.new Allocation(warehouse, Lists.newArrayList(candidates),
+                Collections.emptyMap(), fillResourceIrrespectiveOfConversion);
+    }
+
+    @Test
+    public void shouldTakeResourcesInGivenOrderAndShareThemBetweenPositions() {
+        // given
+        ResourceCandidate first = candidate(100L, BigDecimal.valueOf(5), BigDecimal.ONE);
+        ResourceCandidate second = candidate(101L, BigDecimal.valueOf(10), BigDecimal.ONE);
+
+        Allocation allocation = allocation(false, first, second);
+
+        // when
+        List<Entity> firstPositions = allocation.allocate(mockPosition(BigDecimal.valueOf(7)));
+        List<Entity> secondPositions = allocation.allocate(mockPosition(BigDecimal.valueOf(6)));
+
+        // then
+        assertEquals(2, firstPositions.size());
+        verify(firstPositions.get(0)).setField(PositionFields.QUANTITY, BigDecimal.valueOf(5));
+        verify(firstPositions.get(1)).setField(PositionFields.QUANTITY, BigDecimal.valueOf(2));
+
+        assertEquals(1, secondPositions.size());
+        verify(secondPositions.get(0)).setField(PositionFields.QUANTITY, BigDecimal.valueOf(6));
+
+        assertTrue(first.isDeleted());
+        assertFalse(second.isDeleted());
+        assertEquals(0, BigDecimal.valueOf(2).compareTo(second.getAvailableQuantity()));
+        assertEquals(0, BigDecimal.valueOf(2).compareTo(second.getQuantity()));
+    }
+
+    @Test
+    public void shouldMarkPositionInvalidWhenThereAreNotEnoughResources() {
+        // given
+        Allocation allocation = allocation(false, candidate(100L, BigDecimal.valueOf(5), BigDecimal.ONE));
+        Entity position = mockPosition(BigDecimal.valueOf(6));
+
+        // when
+        List<Entity> positions = allocation.allocate(position);
+
+        // then
+        assertEquals(1, positions.size());
+        assertEquals(position, positions.get(0));
+        verify(position).addError(any(), eq("materialFlow.error.position.quantity.notEnough"));
+    }
+
+    @Test
+    public void shouldSkipResourcesWithDifferentConversionUnlessAllowed() {
+        // given
+        ResourceCandidate otherConversion = candidate(100L, BigDecimal.valueOf(5), BigDecimal.TEN);
+        ResourceCandidate sameConversion = candidate(101L, BigDecimal.valueOf(5), BigDecimal.ONE);
+
+        // when
+        Allocation strictAllocation = allocation(false, otherConversion, sameConversion);
+        Allocation irrespectiveAllocation = allocation(true, otherConversion, sameConversion);
+
+        Entity position = mockPosition(BigDecimal.ONE);
+
+        // then
+        assertEquals(Lists.newArrayList(sameConversion), strictAllocation.getOrderedCandidates(position, product));
+        assertEquals(Lists.newArrayList(sameConversion, otherConversion),
+                irrespectiveAllocation.getOrderedCandidates(position, product));
+        assertEquals(0, BigDecimal.valueOf(5).compareTo(irrespectiveAllocation.getAvailableQuantity(position)));
+    }
+
+    @Test
+    public void shouldNotChangeResourcesWhenMatchingPositions() {
+        // given
+        ResourceCandidate resource = candidate(100L, BigDecimal.valueOf(5), BigDecimal.ONE);
+        Allocation allocation = allocation(false, resource);
+
+        // when
+        List<Entity> firstPositions = allocation.match(mockPosition(BigDecimal.valueOf(4)));
+        List<Entity> secondPositions = allocation.match(mockPosition(BigDecimal.valueOf(4)));
+
+        // then
+        assertEquals(1, firstPositions.size());
+        assertEquals(1, secondPositions.size());
+        assertEquals(0, BigDecimal.valueOf(5).compareTo(resource.getAvailableQuantity()));
+    }
+
+}
@@ -41,4 +41,8 @@ public interface MaterialFlowConstants {
 
     String MODEL_TRANSFORMATIONS = "transformations";
 
+    String MODEL_STOCK_LEDGER_ENTRY = "stockLedgerEntry";
+
+    String MODEL_STOCK_CHECKPOINT = "stockCheckpoint";
+
 }
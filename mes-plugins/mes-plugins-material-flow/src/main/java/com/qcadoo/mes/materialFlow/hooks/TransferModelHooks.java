@@ -33,14 +33,19 @@ import static com.qcadoo.mes.materialFlow.constants.TransferFields.TYPE;
 import static com.qcadoo.mes.materialFlow.constants.TransferType.CONSUMPTION;
 import static com.qcadoo.mes.materialFlow.constants.TransferType.PRODUCTION;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.qcadoo.mes.materialFlow.ledger.StockLedgerService;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.Entity;
 
 @Service
 public class TransferModelHooks {
 
+    @Autowired
+    private StockLedgerService stockLedgerService;
+
     public void copyProductionOrConsumptionDataFromBelongingTransformation(final DataDefinition dd, final Entity transfer) {
         Entity transformations = transfer.getBelongsToField(TRANSFORMATIONS_PRODUCTION);
 
@@ -63,4 +68,14 @@ public class TransferModelHooks {
         transfer.setField(STAFF, transformations.getBelongsToField(STAFF));
     }
 
+    public void updateStockLedger(final DataDefinition dd, final Entity transfer) {
+        stockLedgerService.recordTransfer(transfer);
+    }
+
+    public boolean reverseInStockLedger(final DataDefinition dd, final Entity transfer) {
+        stockLedgerService.recordTransferRemoval(transfer.getId());
+
+        return true;
+    }
+
 }
@@ -0,0 +1,102 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlow.ledger;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.joda.time.LocalDate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.qcadoo.tenant.api.MultiTenantCallback;
+import com.qcadoo.tenant.api.MultiTenantService;
+
+/**
+ * Compares stock ledger with moves of transfers it is derived from and rebuilds ledger of location and product pairs which
+ * differ. Runs nightly, followed by creating checkpoints of the previous day, and when plugin is enabled, which also fills
+ * ledger with transfers made before it was introduced.
+ */
+@Service
+public class StockLedgerConsistencyChecker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StockLedgerConsistencyChecker.class);
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MultiTenantService multiTenantService;
+
+    @Autowired
+    private StockLedgerService stockLedgerService;
+
+    public void checkAndRepairTrigger() {
+        multiTenantService.doInMultiTenantContext(new MultiTenantCallback() {
+
+            @Override
+            public void invoke() {
+                checkAndRepair();
+
+                stockLedgerService.createCheckpoints(LocalDate.now().toDate());
+            }
+
+        });
+    }
+
+    @Transactional
+    public void checkAndRepair() {
+        List<Object[]> locationAndProductIds = findInconsistentLocationAndProductIds();
+
+        if (!locationAndProductIds.isEmpty()) {
+            LOG.warn(String.format("Stock ledger of %d location and product pairs differs from transfers, rebuilding",
+                    locationAndProductIds.size()));
+
+            stockLedgerService.rebuild(locationAndProductIds);
+        }
+    }
+
+    public List<Object[]> findInconsistentLocationAndProductIds() {
+        StringBuilder query = new StringBuilder();
+        query.append("WITH expected AS (SELECT m.location_id, m.product_id, m.\"time\", SUM(m.quantity) AS quantity FROM (");
+        StockLedgerService.appendTransferMoves(query);
+        query.append(") m GROUP BY m.location_id, m.product_id, m.\"time\"), ");
+        query.append("actual AS (SELECT l.location_id, l.product_id, l.\"time\", SUM(l.quantity) AS quantity ");
+        query.append("FROM " + StockLedgerService.L_LEDGER_TABLE + " l GROUP BY l.location_id, l.product_id, l.\"time\") ");
+        query.append("SELECT DISTINCT COALESCE(e.location_id, a.location_id) AS location_id, ");
+        query.append("COALESCE(e.product_id, a.product_id) AS product_id ");
+        query.append("FROM expected e FULL JOIN actual a ON e.location_id = a.location_id ");
+        query.append("AND e.product_id = a.product_id AND e.\"time\" = a.\"time\" ");
+        query.append("WHERE COALESCE(e.quantity, 0) <> COALESCE(a.quantity, 0) ");
+        query.append("ORDER BY location_id, product_id");
+
+        return jdbcTemplate.query(query.toString(), Collections.emptyMap(),
+                (resultSet, rowNum) -> new Object[] { resultSet.getLong("location_id"), resultSet.getLong("product_id") });
+    }
+
+}
@@ -0,0 +1,401 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlow.ledger;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.materialFlow.constants.StockCorrectionFields;
+import com.qcadoo.mes.materialFlow.constants.TransferFields;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Keeps append-only stock ledger of transfer moves and per location, product and day checkpoints of stock balance. Quantity of
+ * product in location at given time is read from the later of last checkpoint and last stock correction before that time, plus
+ * sum of ledger entries between them, so it doesn't depend on length of transfer history.
+ */
+@Service
+public class StockLedgerService {
+
+    static final String L_LEDGER_TABLE = "materialflow_stockledgerentry";
+
+    static final String L_CHECKPOINT_TABLE = "materialflow_stockcheckpoint";
+
+    private static final String L_PAIR = "SELECT CAST(:locationId AS bigint) AS location_id, "
+            + "CAST(:productId AS bigint) AS product_id";
+
+    private static final String L_PRODUCTS_IN_LOCATION = "SELECT l.location_id, l.product_id FROM " + L_LEDGER_TABLE + " l "
+            + "WHERE l.location_id = :locationId AND l.quantity > 0 UNION SELECT sc.location_id, sc.product_id "
+            + "FROM materialflow_stockcorrection sc WHERE sc.location_id = :locationId";
+
+    private static final String L_PAIRS_WITHOUT_CHECKPOINT = "SELECT DISTINCT a.location_id, a.product_id FROM ("
+            + "SELECT l.location_id, l.product_id, l.\"time\" FROM " + L_LEDGER_TABLE + " l UNION ALL "
+            + "SELECT sc.location_id, sc.product_id, sc.stockcorrectiondate FROM materialflow_stockcorrection sc) a "
+            + "WHERE a.\"time\" < :forDate AND NOT EXISTS (SELECT 1 FROM " + L_CHECKPOINT_TABLE + " c "
+            + "WHERE c.location_id = a.location_id AND c.product_id = a.product_id AND c.day + 1 > a.\"time\")";
+
+    private static final String L_PAIRS = "(location_id, product_id) IN (:pairs)";
+
+    // each pair takes two bind parameters, PostgreSQL accepts at most 32767 of them in one statement
+    private static final int L_PAIRS_PER_QUERY = 1000;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    public void recordTransfer(final Entity transfer) {
+        List<StockMove> moves = Lists.newArrayList();
+
+        if (transfer.getId() != null) {
+            for (StockMove move : getTransferMoves(transfer.getId())) {
+                moves.add(move.reversed());
+            }
+        }
+
+        moves.addAll(getTransferMoves(transfer));
+
+        append(moves);
+    }
+
+    public void recordTransferRemoval(final Long transferId) {
+        List<StockMove> moves = Lists.newArrayList();
+
+        for (StockMove move : getTransferMoves(transferId)) {
+            moves.add(move.reversed());
+        }
+
+        append(moves);
+    }
+
+    public void recordStockCorrection(final Entity stockCorrection) {
+        if (stockCorrection.getId() != null) {
+            recordStockCorrectionRemoval(stockCorrection.getId());
+        }
+
+        Entity location = stockCorrection.getBelongsToField(StockCorrectionFields.LOCATION);
+        Entity product = stockCorrection.getBelongsToField(StockCorrectionFields.PRODUCT);
+        Date stockCorrectionDate = stockCorrection.getDateField(StockCorrectionFields.STOCK_CORRECTION_DATE);
+
+        if ((location != null) && (product != null) && (stockCorrectionDate != null)) {
+            invalidateCheckpoints(location.getId(), product.getId(), stockCorrectionDate);
+        }
+    }
+
+    public void recordStockCorrectionRemoval(final Long stockCorrectionId) {
+        Map<String, Object> params = Collections.singletonMap("stockCorrectionId", stockCorrectionId);
+
+        jdbcTemplate.query("SELECT sc.location_id, sc.product_id, sc.stockcorrectiondate FROM materialflow_stockcorrection sc "
+                + "WHERE sc.id = :stockCorrectionId", params, (RowCallbackHandler) resultSet -> invalidateCheckpoints(
+                resultSet.getLong("location_id"), resultSet.getLong("product_id"),
+                resultSet.getTimestamp("stockcorrectiondate")));
+    }
+
+    /**
+     * @return quantity of product in location at given time, never negative
+     */
+    public BigDecimal getQuantity(final Long locationId, final Long productId, final Date forDate) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+
+        params.addValue("locationId", locationId);
+        params.addValue("productId", productId);
+        params.addValue("forDate", forDate);
+
+        List<BigDecimal> quantities = jdbcTemplate.queryForList(buildQuantitiesQuery(L_PAIR), params, BigDecimal.class);
+
+        if (quantities.isEmpty()) {
+            return BigDecimal.ZERO;
+        }
+
+        return quantities.get(0);
+    }
+
+    /**
+     * @return quantities at given time of all products which have been brought or counted in location, by product id
+     */
+    public Map<Long, BigDecimal> getQuantities(final Long locationId, final Date forDate) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+
+        params.addValue("locationId", locationId);
+        params.addValue("forDate", forDate);
+
+        Map<Long, BigDecimal> quantities = Maps.newHashMap();
+
+        jdbcTemplate.query(buildQuantitiesQuery(L_PRODUCTS_IN_LOCATION), params,
+                (RowCallbackHandler) resultSet -> quantities.put(resultSet.getLong("product_id"),
+                        resultSet.getBigDecimal("quantity")));
+
+        return quantities;
+    }
+
+    /**
+     * Stores balances at the end of given day's previous day for all location and product pairs which have ledger entries or
+     * stock corrections not yet covered by a checkpoint.
+     */
+    @Transactional
+    public void createCheckpoints(final Date today) {
+        StringBuilder query = new StringBuilder();
+        query.append("INSERT INTO " + L_CHECKPOINT_TABLE + " (location_id, product_id, day, quantity) ");
+        query.append("SELECT b.location_id, b.product_id, CAST(:forDate AS date) - 1, b.quantity FROM (");
+        appendBalances(query, L_PAIRS_WITHOUT_CHECKPOINT, "<");
+        query.append(") b");
+
+        jdbcTemplate.update(query.toString(), Collections.singletonMap("forDate", today));
+    }
+
+    /**
+     * Replaces ledger entries of given location and product pairs with moves of their current transfers and drops their
+     * checkpoints. Pairs are rebuilt in chunks, there can be any number of them.
+     */
+    @Transactional
+    public void rebuild(final Collection<Object[]> locationAndProductIds) {
+        if (locationAndProductIds.isEmpty()) {
+            return;
+        }
+
+        StringBuilder query = new StringBuilder();
+        query.append("INSERT INTO " + L_LEDGER_TABLE + " (location_id, product_id, \"time\", quantity) ");
+        query.append("SELECT m.location_id, m.product_id, m.\"time\", m.quantity FROM (");
+        appendTransferMoves(query);
+        query.append(") m WHERE (m.location_id, m.product_id) IN (:pairs)");
+
+        for (List<Object[]> pairs : Lists.partition(Lists.newArrayList(locationAndProductIds), L_PAIRS_PER_QUERY)) {
+            Map<String, Object> params = Collections.singletonMap("pairs", pairs);
+
+            jdbcTemplate.update("DELETE FROM " + L_LEDGER_TABLE + " WHERE " + L_PAIRS, params);
+            jdbcTemplate.update("DELETE FROM " + L_CHECKPOINT_TABLE + " WHERE " + L_PAIRS, params);
+            jdbcTemplate.update(query.toString(), params);
+        }
+    }
+
+    private String buildQuantitiesQuery(final String pairs) {
+        StringBuilder query = new StringBuilder();
+        query.append("SELECT b.product_id, GREATEST(b.quantity, 0) AS quantity FROM (");
+        appendBalances(query, pairs, "<=");
+        query.append(") b");
+
+        return query.toString();
+    }
+
+    /**
+     * Appends query of balances of given location and product pairs at :forDate, either including or excluding moves at that
+     * time. Checkpoint of day covers moves before the next day's midnight, stock correction covers moves up to its date, the
+     * later one of them is the base for the remaining ledger entries.
+     */
+    static void appendBalances(final StringBuilder query, final String pairs, final String timeComparison) {
+        query.append("SELECT p.location_id, p.product_id, COALESCE(base.quantity, 0) + COALESCE((");
+        query.append("SELECT SUM(l.quantity) FROM " + L_LEDGER_TABLE + " l ");
+        query.append("WHERE l.location_id = p.location_id AND l.product_id = p.product_id ");
+        query.append("AND l.\"time\" ").append(timeComparison).append(" :forDate AND (base.since IS NULL ");
+        query.append("OR l.\"time\" > base.since OR (base.checkpoint AND l.\"time\" = base.since))), 0) AS quantity ");
+        query.append("FROM (").append(pairs).append(") p LEFT JOIN LATERAL (SELECT * FROM (");
+        query.append("(SELECT CAST(c.day + 1 AS timestamp) AS since, c.quantity, TRUE AS checkpoint ");
+        query.append("FROM " + L_CHECKPOINT_TABLE + " c WHERE c.location_id = p.location_id AND c.product_id = p.product_id ");
+        query.append("AND c.day + 1 <= :forDate ORDER BY c.day DESC LIMIT 1) UNION ALL ");
+        query.append("(SELECT sc.stockcorrectiondate AS since, sc.found AS quantity, FALSE AS checkpoint ");
+        query.append("FROM materialflow_stockcorrection sc WHERE sc.location_id = p.location_id ");
+        query.append("AND sc.product_id = p.product_id AND sc.stockcorrectiondate ").append(timeComparison);
+        query.append(" :forDate ORDER BY sc.stockcorrectiondate DESC LIMIT 1)) bases ");
+        query.append("ORDER BY bases.since DESC, bases.checkpoint LIMIT 1) base ON TRUE");
+    }
+
+    /**
+     * Appends query of signed moves of all transfers - incoming to location to and outgoing from location from.
+     */
+    static void appendTransferMoves(final StringBuilder query) {
+        query.append("SELECT t.locationto_id AS location_id, t.product_id, t.\"time\", t.quantity ");
+        query.append("FROM materialflow_transfer t WHERE t.locationto_id IS NOT NULL AND t.\"time\" IS NOT NULL ");
+        query.append("AND t.quantity IS NOT NULL UNION ALL ");
+        query.append("SELECT t.locationfrom_id AS location_id, t.product_id, t.\"time\", -t.quantity AS quantity ");
+        query.append("FROM materialflow_transfer t WHERE t.locationfrom_id IS NOT NULL AND t.\"time\" IS NOT NULL ");
+        query.append("AND t.quantity IS NOT NULL");
+    }
+
+    private List<StockMove> getTransferMoves(final Long transferId) {
+        List<StockMove> moves = Lists.newArrayList();
+
+        jdbcTemplate.query("SELECT t.locationfrom_id, t.locationto_id, t.product_id, t.\"time\", t.quantity "
+                + "FROM materialflow_transfer t WHERE t.id = :transferId", Collections.singletonMap("transferId", transferId),
+                (RowCallbackHandler) resultSet -> addTransferMoves(moves, getId(resultSet, "locationfrom_id"),
+                        getId(resultSet, "locationto_id"), getId(resultSet, "product_id"), resultSet.getTimestamp("time"),
+                        resultSet.getBigDecimal("quantity")));
+
+        return moves;
+    }
+
+    private List<StockMove> getTransferMoves(final Entity transfer) {
+        List<StockMove> moves = Lists.newArrayList();
+
+        addTransferMoves(moves, getId(transfer.getBelongsToField(TransferFields.LOCATION_FROM)),
+                getId(transfer.getBelongsToField(TransferFields.LOCATION_TO)),
+                getId(transfer.getBelongsToField(TransferFields.PRODUCT)), transfer.getDateField(TransferFields.TIME),
+                transfer.getDecimalField(TransferFields.QUANTITY));
+
+        return moves;
+    }
+
+    private void addTransferMoves(final List<StockMove> moves, final Long locationFromId, final Long locationToId,
+            final Long productId, final Date time, final BigDecimal quantity) {
+        if ((productId == null) || (time == null) || (quantity == null)) {
+            return;
+        }
+        if (locationToId != null) {
+            moves.add(new StockMove(locationToId, productId, time, quantity));
+        }
+        if (locationFromId != null) {
+            moves.add(new StockMove(locationFromId, productId, time, quantity.negate()));
+        }
+    }
+
+    private Long getId(final Entity entity) {
+        if (entity == null) {
+            return null;
+        }
+
+        return entity.getId();
+    }
+
+    private Long getId(final ResultSet resultSet, final String column) throws SQLException {
+        long id = resultSet.getLong(column);
+
+        if (resultSet.wasNull()) {
+            return null;
+        }
+
+        return id;
+    }
+
+    /**
+     * Appends given moves netted per location, product and time, so saving unchanged transfer doesn't grow the ledger, and drops
+     * checkpoints which don't include them anymore.
+     */
+    private void append(final List<StockMove> moves) {
+        Map<StockMove, BigDecimal> netMoves = Maps.newLinkedHashMap();
+
+        for (StockMove move : moves) {
+            BigDecimal quantity = netMoves.get(move);
+
+            netMoves.put(move, (quantity == null) ? move.quantity : quantity.add(move.quantity));
+        }
+
+        List<SqlParameterSource> entries = Lists.newArrayList();
+
+        for (Map.Entry<StockMove, BigDecimal> netMove : netMoves.entrySet()) {
+            if (netMove.getValue().signum() == 0) {
+                continue;
+            }
+
+            StockMove move = netMove.getKey();
+
+            MapSqlParameterSource entry = new MapSqlParameterSource();
+
+            entry.addValue("locationId", move.locationId);
+            entry.addValue("productId", move.productId);
+            entry.addValue("time", move.time);
+            entry.addValue("quantity", netMove.getValue());
+
+            entries.add(entry);
+
+            invalidateCheckpoints(move.locationId, move.productId, move.time);
+        }
+
+        if (!entries.isEmpty()) {
+            jdbcTemplate.batchUpdate("INSERT INTO " + L_LEDGER_TABLE + " (location_id, product_id, \"time\", quantity) "
+                    + "VALUES (:locationId, :productId, :time, :quantity)",
+                    entries.toArray(new SqlParameterSource[entries.size()]));
+        }
+    }
+
+    private void invalidateCheckpoints(final Long locationId, final Long productId, final Date time) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+
+        params.addValue("locationId", locationId);
+        params.addValue("productId", productId);
+        params.addValue("time", time);
+
+        jdbcTemplate.update("DELETE FROM " + L_CHECKPOINT_TABLE + " WHERE location_id = :locationId "
+                + "AND product_id = :productId AND day >= CAST(:time AS date)", params);
+    }
+
+    /**
+     * Signed quantity of product moved to or from location, equal when they differ in quantity only.
+     */
+    private static class StockMove {
+
+        private final Long locationId;
+
+        private final Long productId;
+
+        private final Date time;
+
+        private final BigDecimal quantity;
+
+        StockMove(final Long locationId, final Long productId, final Date time, final BigDecimal quantity) {
+            this.locationId = locationId;
+            this.productId = productId;
+            this.time = new Date(time.getTime());
+            this.quantity = quantity;
+        }
+
+        StockMove reversed() {
+            return new StockMove(locationId, productId, time, quantity.negate());
+        }
+
+        @Override
+        public boolean equals(final Object object) {
+            if (this == object) {
+                return true;
+            }
+            if (!(object instanceof StockMove)) {
+                return false;
+            }
+
+            StockMove other = (StockMove) object;
+
+            return locationId.equals(other.locationId) && productId.equals(other.productId) && time.equals(other.time);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(locationId, productId, time);
+        }
+
+    }
+
+}
@@ -0,0 +1,238 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlow.ledger;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Runs ledger queries of {@link StockLedgerService} against PostgreSQL given by test.jdbcUrl (and test.jdbcUser,
+ * test.jdbcPassword) system properties, in a schema created for each test. Without them tests are skipped.
+ */
+public class StockLedgerQueriesTest {
+
+    private static final String L_TEST_SCHEMA = "stockledger_test";
+
+    private static final Long L_LOCATION_ID = 1L;
+
+    private static final Long L_OTHER_LOCATION_ID = 2L;
+
+    private static final Long L_PRODUCT_ID = 11L;
+
+    private SingleConnectionDataSource dataSource;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private StockLedgerService stockLedgerService;
+
+    private long lastTransferId;
+
+    @Before
+    public void init() {
+        String url = System.getProperty("test.jdbcUrl");
+
+        Assume.assumeTrue(url != null);
+
+        dataSource = new SingleConnectionDataSource(url, System.getProperty("test.jdbcUser"),
+                System.getProperty("test.jdbcPassword"), true);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+
+        jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + L_TEST_SCHEMA + " CASCADE");
+        jdbcTemplate.execute("CREATE SCHEMA " + L_TEST_SCHEMA);
+        jdbcTemplate.execute("SET search_path TO " + L_TEST_SCHEMA);
+        jdbcTemplate.execute("CREATE TABLE materialflow_stockledgerentry (id bigserial PRIMARY KEY, location_id bigint, "
+                + "product_id bigint, \"time\" timestamp without time zone, quantity numeric(12,5))");
+        jdbcTemplate.execute("CREATE TABLE materialflow_stockcheckpoint (id bigserial PRIMARY KEY, location_id bigint, "
+                + "product_id bigint, day date, quantity numeric(12,5))");
+        jdbcTemplate.execute("CREATE TABLE materialflow_stockcorrection (id bigserial PRIMARY KEY, "
+                + "stockcorrectiondate timestamp without time zone, location_id bigint, product_id bigint, found numeric(12,5))");
+        jdbcTemplate.execute("CREATE TABLE materialflow_transfer (id bigint PRIMARY KEY, \"time\" timestamp without time zone, "
+                + "locationfrom_id bigint, locationto_id bigint, product_id bigint, quantity numeric(12,5))");
+
+        stockLedgerService = new StockLedgerService();
+
+        ReflectionTestUtils.setField(stockLedgerService, "jdbcTemplate", new NamedParameterJdbcTemplate(jdbcTemplate));
+    }
+
+    @After
+    public void destroy() {
+        if (dataSource != null) {
+            jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + L_TEST_SCHEMA + " CASCADE");
+
+            dataSource.destroy();
+        }
+    }
+
+    @Test
+    public final void shouldSumMovesOfTransfersUpToGivenTime() {
+        // given
+        addTransfer(null, L_LOCATION_ID, L_PRODUCT_ID, day(1), "10");
+        addTransfer(L_LOCATION_ID, L_OTHER_LOCATION_ID, L_PRODUCT_ID, day(2), "3");
+        addTransfer(null, L_LOCATION_ID, L_PRODUCT_ID, day(4), "5");
+        rebuildAll();
+
+        // when & then
+        assertQuantity("0", L_LOCATION_ID, day(0));
+        assertQuantity("10", L_LOCATION_ID, day(1));
+        assertQuantity("7", L_LOCATION_ID, day(3));
+        assertQuantity("12", L_LOCATION_ID, day(4));
+        assertQuantity("3", L_OTHER_LOCATION_ID, day(3));
+    }
+
+    @Test
+    public final void shouldCountFromLastStockCorrection() {
+        // given
+        addTransfer(null, L_LOCATION_ID, L_PRODUCT_ID, day(1), "10");
+        addStockCorrection(L_LOCATION_ID, L_PRODUCT_ID, day(2), "4");
+        addTransfer(null, L_LOCATION_ID, L_PRODUCT_ID, day(3), "2");
+        rebuildAll();
+
+        // when & then
+        assertQuantity("10", L_LOCATION_ID, day(1).plusHours(1));
+        assertQuantity("4", L_LOCATION_ID, day(2));
+        assertQuantity("6", L_LOCATION_ID, day(3));
+    }
+
+    @Test
+    public final void shouldNeverReturnNegativeQuantity() {
+        // given
+        addTransfer(L_LOCATION_ID, L_OTHER_LOCATION_ID, L_PRODUCT_ID, day(1), "3");
+        rebuildAll();
+
+        // when & then
+        assertQuantity("0", L_LOCATION_ID, day(2));
+    }
+
+    @Test
+    public final void shouldReturnTheSameQuantitiesFromCheckpoints() {
+        // given
+        addTransfer(null, L_LOCATION_ID, L_PRODUCT_ID, day(1), "10");
+        addStockCorrection(L_LOCATION_ID, L_PRODUCT_ID, day(2), "4");
+        addTransfer(L_LOCATION_ID, L_OTHER_LOCATION_ID, L_PRODUCT_ID, day(3), "1");
+        rebuildAll();
+
+        // when
+        stockLedgerService.createCheckpoints(day(5).withTimeAtStartOfDay().toDate());
+
+        // then
+        assertEquals(2, jdbcTemplate.queryForObject("SELECT count(*) FROM materialflow_stockcheckpoint", Integer.class)
+                .intValue());
+        assertQuantity("3", L_LOCATION_ID, day(6));
+        assertQuantity("1", L_OTHER_LOCATION_ID, day(6));
+        assertQuantity("4", L_LOCATION_ID, day(2));
+    }
+
+    @Test
+    public final void shouldReadQuantitiesOfAllProductsInLocation() {
+        // given
+        addTransfer(null, L_LOCATION_ID, L_PRODUCT_ID, day(1), "10");
+        addTransfer(null, L_LOCATION_ID, L_PRODUCT_ID + 1, day(1), "2");
+        addStockCorrection(L_LOCATION_ID, L_PRODUCT_ID + 2, day(1), "7");
+        rebuildAll();
+
+        // when
+        Map<Long, BigDecimal> quantities = stockLedgerService.getQuantities(L_LOCATION_ID, day(2).toDate());
+
+        // then
+        assertEquals(3, quantities.size());
+        assertEquals(0, new BigDecimal("10").compareTo(quantities.get(L_PRODUCT_ID)));
+        assertEquals(0, new BigDecimal("2").compareTo(quantities.get(L_PRODUCT_ID + 1)));
+        assertEquals(0, new BigDecimal("7").compareTo(quantities.get(L_PRODUCT_ID + 2)));
+    }
+
+    @Test
+    public final void shouldRebuildMorePairsThanFitInOneStatement() {
+        // given
+        List<Object[]> pairs = Lists.newArrayList();
+
+        for (long productId = 1; productId <= 20000; productId++) {
+            addTransfer(null, L_LOCATION_ID, productId, day(1), "1");
+
+            pairs.add(new Object[] { L_LOCATION_ID, productId });
+        }
+
+        jdbcTemplate.update("INSERT INTO materialflow_stockledgerentry (location_id, product_id, \"time\", quantity) "
+                + "VALUES (?, ?, ?, 100)", L_LOCATION_ID, 1L, day(1).toDate());
+
+        // when
+        stockLedgerService.rebuild(pairs);
+
+        // then
+        assertEquals(20000, jdbcTemplate.queryForObject("SELECT count(*) FROM materialflow_stockledgerentry", Integer.class)
+                .intValue());
+        assertQuantity("1", L_LOCATION_ID, 15000L, day(2));
+        assertQuantity("1", L_LOCATION_ID, 1L, day(2));
+    }
+
+    private void rebuildAll() {
+        List<Object[]> pairs = jdbcTemplate.query("SELECT DISTINCT location_id, product_id FROM (SELECT locationto_id AS "
+                + "location_id, product_id FROM materialflow_transfer UNION SELECT locationfrom_id, product_id "
+                + "FROM materialflow_transfer) p WHERE location_id IS NOT NULL",
+                (resultSet, rowNum) -> new Object[] { resultSet.getLong("location_id"), resultSet.getLong("product_id") });
+
+        stockLedgerService.rebuild(pairs);
+    }
+
+    private void addTransfer(final Long locationFromId, final Long locationToId, final Long productId, final DateTime time,
+            final String quantity) {
+        jdbcTemplate.update("INSERT INTO materialflow_transfer (id, \"time\", locationfrom_id, locationto_id, product_id, "
+                + "quantity) VALUES (?, ?, ?, ?, ?, ?)", ++lastTransferId, time.toDate(), locationFromId, locationToId,
+                productId, new BigDecimal(quantity));
+    }
+
+    private void addStockCorrection(final Long locationId, final Long productId, final DateTime date, final String found) {
+        jdbcTemplate.update("INSERT INTO materialflow_stockcorrection (stockcorrectiondate, location_id, product_id, found) "
+                + "VALUES (?, ?, ?, ?)", date.toDate(), locationId, productId, new BigDecimal(found));
+    }
+
+    private void assertQuantity(final String expected, final Long locationId, final DateTime forDate) {
+        assertQuantity(expected, locationId, L_PRODUCT_ID, forDate);
+    }
+
+    private void assertQuantity(final String expected, final Long locationId, final Long productId, final DateTime forDate) {
+        BigDecimal quantity = stockLedgerService.getQuantity(locationId, productId, forDate.toDate());
+
+        assertEquals(expected + " expected, but was " + quantity, 0, new BigDecimal(expected).compareTo(quantity));
+    }
+
+    private DateTime day(final int day) {
+        return new DateTime(2016, 3, 1, 12, 0).plusDays(day);
+    }
+
+}
@@ -0,0 +1,248 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlow.ledger;
+
+import static com.qcadoo.mes.materialFlow.constants.TransferFields.LOCATION_FROM;
+import static com.qcadoo.mes.materialFlow.constants.TransferFields.LOCATION_TO;
+import static com.qcadoo.mes.materialFlow.constants.TransferFields.PRODUCT;
+import static com.qcadoo.mes.materialFlow.constants.TransferFields.QUANTITY;
+import static com.qcadoo.mes.materialFlow.constants.TransferFields.TIME;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.model.api.Entity;
+
+public class StockLedgerServiceTest {
+
+    private static final Long L_LOCATION_FROM_ID = 1L;
+
+    private static final Long L_LOCATION_TO_ID = 2L;
+
+    private static final Long L_PRODUCT_ID = 3L;
+
+    private static final Date L_TIME = new Date(1400000000000L);
+
+    private static final BigDecimal L_QUANTITY = BigDecimal.TEN;
+
+    private StockLedgerService stockLedgerService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private Entity transfer, locationFrom, locationTo, product;
+
+    @Mock
+    private ResultSet resultSet;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        stockLedgerService = new StockLedgerService();
+
+        ReflectionTestUtils.setField(stockLedgerService, "jdbcTemplate", jdbcTemplate);
+
+        given(locationFrom.getId()).willReturn(L_LOCATION_FROM_ID);
+        given(locationTo.getId()).willReturn(L_LOCATION_TO_ID);
+        given(product.getId()).willReturn(L_PRODUCT_ID);
+
+        given(transfer.getBelongsToField(LOCATION_FROM)).willReturn(locationFrom);
+        given(transfer.getBelongsToField(LOCATION_TO)).willReturn(locationTo);
+        given(transfer.getBelongsToField(PRODUCT)).willReturn(product);
+        given(transfer.getDateField(TIME)).willReturn(L_TIME);
+        given(transfer.getDecimalField(QUANTITY)).willReturn(L_QUANTITY);
+    }
+
+    @Test
+    public void shouldAppendIncomingAndOutgoingEntriesOfNewTransfer() {
+        // when
+        stockLedgerService.recordTransfer(transfer);
+
+        // then
+        ArgumentCaptor<SqlParameterSource[]> entriesCaptor = ArgumentCaptor.forClass(SqlParameterSource[].class);
+
+        verify(jdbcTemplate).batchUpdate(anyString(), entriesCaptor.capture());
+
+        SqlParameterSource[] entries = entriesCaptor.getValue();
+
+        assertEquals(2, entries.length);
+        assertEquals(L_LOCATION_TO_ID, entries[0].getValue("locationId"));
+        assertEquals(L_QUANTITY, entries[0].getValue("quantity"));
+        assertEquals(L_LOCATION_FROM_ID, entries[1].getValue("locationId"));
+        assertEquals(L_QUANTITY.negate(), entries[1].getValue("quantity"));
+    }
+
+    @Test
+    public void shouldNotAppendEntriesWhenSavingUnchangedTransfer() throws Exception {
+        // given
+        given(transfer.getId()).willReturn(5L);
+
+        given(resultSet.getLong("locationfrom_id")).willReturn(L_LOCATION_FROM_ID);
+        given(resultSet.getLong("locationto_id")).willReturn(L_LOCATION_TO_ID);
+        given(resultSet.getLong("product_id")).willReturn(L_PRODUCT_ID);
+        given(resultSet.getTimestamp("time")).willReturn(new Timestamp(L_TIME.getTime()));
+        given(resultSet.getBigDecimal("quantity")).willReturn(L_QUANTITY);
+
+        doAnswer(invocation -> {
+            ((RowCallbackHandler) invocation.getArguments()[2]).processRow(resultSet);
+
+            return null;
+        }).when(jdbcTemplate).query(anyString(), anyMap(), any(RowCallbackHandler.class));
+
+        // when
+        stockLedgerService.recordTransfer(transfer);
+
+        // then
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), any(SqlParameterSource[].class));
+        verify(jdbcTemplate, never()).update(anyString(), any(SqlParameterSource.class));
+    }
+
+    @Test
+    public void shouldReturnZeroQuantityWhenProductWasNeverInLocation() {
+        // given
+        given(jdbcTemplate.queryForList(anyString(), any(MapSqlParameterSource.class), eq(BigDecimal.class))).willReturn(
+                Collections.<BigDecimal> emptyList());
+
+        // when
+        BigDecimal quantity = stockLedgerService.getQuantity(L_LOCATION_TO_ID, L_PRODUCT_ID, L_TIME);
+
+        // then
+        assertEquals(BigDecimal.ZERO, quantity);
+    }
+
+    @Test
+    public void shouldReadQuantityOfProductInLocationAtGivenTime() {
+        // given
+        given(jdbcTemplate.queryForList(anyString(), any(MapSqlParameterSource.class), eq(BigDecimal.class))).willReturn(
+                Lists.newArrayList(L_QUANTITY));
+
+        // when
+        BigDecimal quantity = stockLedgerService.getQuantity(L_LOCATION_TO_ID, L_PRODUCT_ID, L_TIME);
+
+        // then
+        assertEquals(L_QUANTITY, quantity);
+
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<MapSqlParameterSource> paramsCaptor = ArgumentCaptor.forClass(MapSqlParameterSource.class);
+
+        verify(jdbcTemplate).queryForList(queryCaptor.capture(), paramsCaptor.capture(), eq(BigDecimal.class));
+
+        assertTrue(queryCaptor.getValue().contains("GREATEST(b.quantity, 0)"));
+        assertTrue(queryCaptor.getValue().contains("l.\"time\" <= :forDate"));
+        assertEquals(L_LOCATION_TO_ID, paramsCaptor.getValue().getValue("locationId"));
+        assertEquals(L_PRODUCT_ID, paramsCaptor.getValue().getValue("productId"));
+        assertEquals(L_TIME, paramsCaptor.getValue().getValue("forDate"));
+    }
+
+    @Test
+    public void shouldReadQuantitiesOfAllProductsInLocationByProduct() throws Exception {
+        // given
+        given(resultSet.getLong("product_id")).willReturn(L_PRODUCT_ID);
+        given(resultSet.getBigDecimal("quantity")).willReturn(L_QUANTITY);
+
+        doAnswer(invocation -> {
+            ((RowCallbackHandler) invocation.getArguments()[2]).processRow(resultSet);
+
+            return null;
+        }).when(jdbcTemplate).query(anyString(), any(MapSqlParameterSource.class), any(RowCallbackHandler.class));
+
+        // when
+        Map<Long, BigDecimal> quantities = stockLedgerService.getQuantities(L_LOCATION_TO_ID, L_TIME);
+
+        // then
+        assertEquals(Collections.singletonMap(L_PRODUCT_ID, L_QUANTITY), quantities);
+    }
+
+    @Test
+    public void shouldNotRebuildWhenThereAreNoPairs() {
+        // when
+        stockLedgerService.rebuild(Collections.<Object[]> emptyList());
+
+        // then
+        verifyZeroInteractions(jdbcTemplate);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldRebuildPairsInChunksWhichFitInBindParametersLimit() {
+        // given
+        List<Object[]> pairs = Lists.newArrayList();
+
+        for (long productId = 0; productId < 2500; productId++) {
+            pairs.add(new Object[] { L_LOCATION_TO_ID, productId });
+        }
+
+        // when
+        stockLedgerService.rebuild(pairs);
+
+        // then
+        ArgumentCaptor<Map> paramsCaptor = ArgumentCaptor.forClass(Map.class);
+
+        verify(jdbcTemplate, times(9)).update(anyString(), paramsCaptor.capture());
+
+        int rebuiltPairs = 0;
+
+        for (int chunk = 0; chunk < 3; chunk++) {
+            List<Object[]> chunkPairs = (List<Object[]>) paramsCaptor.getAllValues().get(chunk * 3).get("pairs");
+
+            assertTrue(chunkPairs.size() <= 1000);
+
+            rebuiltPairs += chunkPairs.size();
+        }
+
+        assertEquals(pairs.size(), rebuiltPairs);
+    }
+
+}
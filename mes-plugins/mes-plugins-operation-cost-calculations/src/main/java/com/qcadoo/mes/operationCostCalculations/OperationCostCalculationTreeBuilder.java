@@ -27,7 +27,6 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.qcadoo.mes.costNormsForOperation.constants.CostNormsForOperationConstants.MODEL_CALCULATION_OPERATION_COMPONENT;
 import static com.qcadoo.mes.costNormsForOperation.constants.CostNormsForOperationConstants.PLUGIN_IDENTIFIER;
 import static com.qcadoo.mes.technologies.constants.TechnologyFields.OPERATION_COMPONENTS;
-import static java.util.Arrays.asList;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -68,8 +67,17 @@ public class OperationCostCalculationTreeBuilder {
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    /**
+     * Builds tree of calculation operation components of given cost calculation or production balance from operation components
+     * of its technology, or technology of its order. Existing tree is removed, built one is kept in memory only and gets saved
+     * together with cost calculation or production balance, after costs are calculated.
+     * 
+     * @param costCalculation
+     *            cost calculation or production balance
+     * @return root of built tree, or null when technology has no operation components
+     */
     @Transactional
-    public Entity copyTechnologyTree(final Entity costCalculation) {
+    public Entity buildCalculationOperationComponents(final Entity costCalculation) {
         deleteOperationsTreeIfExists(costCalculation);
 
         Entity operationsTreeContainer;
@@ -79,25 +87,17 @@ public class OperationCostCalculationTreeBuilder {
             operationsTreeContainer = costCalculation.getBelongsToField(L_ORDER).getBelongsToField(L_TECHNOLOGY);
         }
         EntityTree sourceOperationsTree = operationsTreeContainer.getTreeField(OPERATION_COMPONENTS);
-        return createTechnologyInstanceForCalculation(sourceOperationsTree, costCalculation);
-    }
-
-    private Entity createTechnologyInstanceForCalculation(final EntityTree sourceTree, final Entity parentEntity) {
-        checkArgument(sourceTree != null, "source is null");
-        DataDefinition calculationOperationComponentDD = dataDefinitionService.get(PLUGIN_IDENTIFIER,
-                MODEL_CALCULATION_OPERATION_COMPONENT);
+        checkArgument(sourceOperationsTree != null, "source is null");
 
-        // drop old operation components tree
-        EntityTree oldCalculationOperationComponents = parentEntity.getTreeField(L_CALCULATION_OPERATION_COMPONENTS);
-        if (oldCalculationOperationComponents != null && oldCalculationOperationComponents.getRoot() != null) {
-            calculationOperationComponentDD.delete(oldCalculationOperationComponents.getRoot().getId());
+        if (sourceOperationsTree.getRoot() == null) {
+            return null;
         }
 
-        Entity tree = createCalculationOperationComponent(sourceTree.getRoot(), null, calculationOperationComponentDD,
-                parentEntity);
+        DataDefinition calculationOperationComponentDD = dataDefinitionService.get(PLUGIN_IDENTIFIER,
+                MODEL_CALCULATION_OPERATION_COMPONENT);
 
-        parentEntity.setField(L_CALCULATION_OPERATION_COMPONENTS, asList(tree));
-        return parentEntity;
+        return createCalculationOperationComponent(sourceOperationsTree.getRoot(), null, calculationOperationComponentDD,
+                costCalculation);
     }
 
     private Entity createCalculationOperationComponent(final EntityTreeNode sourceTreeNode, final Entity parent,
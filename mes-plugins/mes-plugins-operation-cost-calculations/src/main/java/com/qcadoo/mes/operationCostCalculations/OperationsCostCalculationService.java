@@ -30,7 +30,6 @@ import org.springframework.stereotype.Service;
 
 import com.qcadoo.mes.operationTimeCalculations.dto.OperationTimesContainer;
 import com.qcadoo.model.api.Entity;
-import com.qcadoo.model.api.EntityTreeNode;
 
 @Service
 public interface OperationsCostCalculationService {
@@ -56,7 +55,7 @@ public interface OperationsCostCalculationService {
      * 
      * @return cost
      */
-    Map<String, BigDecimal> estimateCostCalculationForHourly(final EntityTreeNode calculationOperationComponent,
+    Map<String, BigDecimal> estimateCostCalculationForHourly(final Entity calculationOperationComponent,
             final BigDecimal productionCostMargin, final BigDecimal quantity, final OperationTimesContainer operationTimes,
             final boolean hourlyCostFromOperation);
 
@@ -73,7 +72,7 @@ public interface OperationsCostCalculationService {
      * 
      * @return cost
      */
-    BigDecimal estimateCostCalculationForPieceWork(final EntityTreeNode calculationOperationComponent,
+    BigDecimal estimateCostCalculationForPieceWork(final Entity calculationOperationComponent,
             final BigDecimal productionCostMargin, final BigDecimal quantity, final Map<Long, BigDecimal> operationRuns);
 
 }
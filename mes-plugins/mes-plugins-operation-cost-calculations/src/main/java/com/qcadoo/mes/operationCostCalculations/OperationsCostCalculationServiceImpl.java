@@ -23,6 +23,7 @@
  */
 package com.qcadoo.mes.operationCostCalculations;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.qcadoo.mes.basic.ParameterService;
@@ -33,18 +34,17 @@ import com.qcadoo.mes.operationTimeCalculations.OperationWorkTime;
 import com.qcadoo.mes.operationTimeCalculations.OperationWorkTimeService;
 import com.qcadoo.mes.operationTimeCalculations.dto.OperationTimes;
 import com.qcadoo.mes.operationTimeCalculations.dto.OperationTimesContainer;
+import com.qcadoo.mes.productionLines.constants.ProductionLineFields;
+import com.qcadoo.mes.productionLines.constants.WorkstationTypeComponentFields;
 import com.qcadoo.mes.technologies.ProductQuantitiesService;
-import com.qcadoo.mes.technologies.ProductionLinesService;
+import com.qcadoo.mes.technologies.constants.OperationFields;
 import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
-import com.qcadoo.mes.technologies.constants.TechnologyFields;
 import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
 import com.qcadoo.mes.technologies.dto.ProductQuantitiesHolder;
 import com.qcadoo.model.api.BigDecimalUtils;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
-import com.qcadoo.model.api.EntityTree;
-import com.qcadoo.model.api.EntityTreeNode;
 import com.qcadoo.model.api.IntegerUtils;
 import com.qcadoo.model.api.NumberService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -52,10 +52,10 @@ import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.math.MathContext;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
@@ -110,6 +110,10 @@ public class OperationsCostCalculationServiceImpl implements OperationsCostCalcu
 
     private static final String L_TOTAL_MACHINE_OPERATION_COST_WITH_MARGIN = "totalMachineOperationCostWithMargin";
 
+    private static final String L_CHILDREN = "children";
+
+    private static final String L_WORKSTATIONS_QUANTITY_FROM_PRODUCTION_LINE = "workstationsQuantityFromProductionLine";
+
     private static final Set<String> L_COST_KEYS = Sets.newHashSet(CalculationOperationComponentFields.LABOR_HOURLY_COST,
             CalculationOperationComponentFields.MACHINE_HOURLY_COST);
 
@@ -122,9 +126,6 @@ public class OperationsCostCalculationServiceImpl implements OperationsCostCalcu
     @Autowired
     private ProductQuantitiesService productQuantitiesService;
 
-    @Autowired
-    private ProductionLinesService productionLinesService;
-
     @Autowired
     private OperationWorkTimeService operationWorkTimeService;
 
@@ -164,29 +165,20 @@ public class OperationsCostCalculationServiceImpl implements OperationsCostCalcu
         if (order != null) {
             order.setField(L_TECHNOLOGY, technology);
         }
-        Entity copyCostCalculationOrProductionBalance = operationCostCalculationTreeBuilder
-                .copyTechnologyTree(costCalculationOrProductionBalance);
-
-        Entity yetAnotherCostCalculationOrProductionBalance = costCalculationOrProductionBalanceDD
-                .save(copyCostCalculationOrProductionBalance);
-        Entity newCostCalculationOrProductionBalance = costCalculationOrProductionBalanceDD
-                .get(yetAnotherCostCalculationOrProductionBalance.getId());
 
-        EntityTree calculationOperationComponents = newCostCalculationOrProductionBalance
-                .getTreeField(L_CALCULATION_OPERATION_COMPONENTS);
+        Entity calculationOperationComponentsRoot = operationCostCalculationTreeBuilder
+                .buildCalculationOperationComponents(costCalculationOrProductionBalance);
 
-        checkArgument(calculationOperationComponents != null, "given operation components is null");
+        if (calculationOperationComponentsRoot == null) {
+            costCalculationOrProductionBalance.addError(costCalculationOrProductionBalanceDD.getField(L_ORDER),
+                    "costCalculation.lackOfTreeComponents");
+            costCalculationOrProductionBalance.addError(costCalculationOrProductionBalanceDD.getField(L_TECHNOLOGY),
+                    "costCalculation.lackOfTreeComponents");
+            return;
+        }
 
         if (CalculateOperationCostMode.PIECEWORK.equals(calculateOperationCostMode)) {
-            if (calculationOperationComponents.isEmpty()) {
-                costCalculationOrProductionBalance.addError(costCalculationOrProductionBalanceDD.getField(L_ORDER),
-                        "costCalculation.lackOfTreeComponents");
-                costCalculationOrProductionBalance.addError(costCalculationOrProductionBalanceDD.getField(L_TECHNOLOGY),
-                        "costCalculation.lackOfTreeComponents");
-                return;
-            }
-
-            BigDecimal totalPieceworkCost = estimateCostCalculationForPieceWork(calculationOperationComponents.getRoot(),
+            BigDecimal totalPieceworkCost = estimateCostCalculationForPieceWork(calculationOperationComponentsRoot,
                     productionCostMargin, quantity, productQuantitiesAndOperationRuns.getOperationRuns());
 
             costCalculationOrProductionBalance.setField(L_TOTAL_PIECEWORK_COSTS, numberService.setScaleWithDefaultMathContext(totalPieceworkCost));
@@ -196,15 +188,17 @@ public class OperationsCostCalculationServiceImpl implements OperationsCostCalcu
             Boolean includeTPZ = costCalculationOrProductionBalance.getBooleanField(L_INCLUDE_TPZ);
             Boolean includeAdditionalTime = costCalculationOrProductionBalance.getBooleanField(L_INCLUDE_ADDITIONAL_TIME);
 
-            Map<Long, Integer> workstations = getWorkstationsMapsForOperationsComponent(copyCostCalculationOrProductionBalance,
+            List<Entity> tocs = Lists.newArrayList();
+
+            collectTechnologyOperationComponents(calculationOperationComponentsRoot, tocs);
+
+            Map<Long, Integer> workstations = getWorkstationsMapsForOperationsComponent(costCalculationOrProductionBalance, tocs,
                     productionLine);
 
-            List<Entity> tocs = calculationOperationComponents.stream()
-                    .map(e -> e.getBelongsToField("technologyOperationComponent")).collect(Collectors.toList());
             OperationTimesContainer operationTimes = operationWorkTimeService.estimateOperationsWorkTimes(tocs,
                     productQuantitiesAndOperationRuns.getOperationRuns(), includeTPZ, includeAdditionalTime, workstations, true);
 
-            Map<String, BigDecimal> resultsMap = estimateCostCalculationForHourly(calculationOperationComponents.getRoot(),
+            Map<String, BigDecimal> resultsMap = estimateCostCalculationForHourly(calculationOperationComponentsRoot,
                     productionCostMargin, quantity, operationTimes, hourlyCostFromOperation);
 
             costCalculationOrProductionBalance.setField(L_TOTAL_MACHINE_HOURLY_COSTS,
@@ -215,7 +209,9 @@ public class OperationsCostCalculationServiceImpl implements OperationsCostCalcu
             throw new IllegalStateException("Unsupported calculateOperationCostMode");
         }
 
-        costCalculationOrProductionBalance.setField(L_CALCULATION_OPERATION_COMPONENTS, calculationOperationComponents);
+        // tree with calculated costs is saved along with cost calculation or production balance
+        costCalculationOrProductionBalance.setField(L_CALCULATION_OPERATION_COMPONENTS,
+                Lists.newArrayList(calculationOperationComponentsRoot));
     }
 
     private ProductQuantitiesHolder getProductQuantitiesAndOperationRuns(final Entity technology, final BigDecimal quantity,
@@ -224,7 +220,7 @@ public class OperationsCostCalculationServiceImpl implements OperationsCostCalcu
     }
 
     @Override
-    public Map<String, BigDecimal> estimateCostCalculationForHourly(final EntityTreeNode calculationOperationComponent,
+    public Map<String, BigDecimal> estimateCostCalculationForHourly(final Entity calculationOperationComponent,
             final BigDecimal productionCostMargin, final BigDecimal plannedQuantity,
             final OperationTimesContainer realizationTimes, final boolean hourlyCostFromOperation) {
         checkArgument(calculationOperationComponent != null, "given operationComponent is empty");
@@ -237,7 +233,7 @@ public class OperationsCostCalculationServiceImpl implements OperationsCostCalcu
             costs.put(costKey, BigDecimal.ZERO);
         }
 
-        for (EntityTreeNode child : calculationOperationComponent.getChildren()) {
+        for (Entity child : getChildren(calculationOperationComponent)) {
             Map<String, BigDecimal> unitCosts = estimateCostCalculationForHourly(child, productionCostMargin, plannedQuantity,
                     realizationTimes, hourlyCostFromOperation);
 
@@ -280,9 +276,9 @@ public class OperationsCostCalculationServiceImpl implements OperationsCostCalcu
             laborHourlyCost = BigDecimalUtils.convertNullToZero(technologyOperationComponent
                     .getField(TechnologyOperationComponentFieldsCNFO.LABOR_HOURLY_COST));
         } else {
-            machineHourlyCost = BigDecimalUtils.convertNullToZero(parameterService.getParameter().getDecimalField(
+            machineHourlyCost = BigDecimalUtils.convertNullToZero(parameterService.getParameterSnapshot().getDecimalField(
                     "averageMachineHourlyCostPB"));
-            laborHourlyCost = BigDecimalUtils.convertNullToZero(parameterService.getParameter().getDecimalField(
+            laborHourlyCost = BigDecimalUtils.convertNullToZero(parameterService.getParameterSnapshot().getDecimalField(
                     "averageLaborHourlyCostPB"));
         }
 
@@ -320,18 +316,16 @@ public class OperationsCostCalculationServiceImpl implements OperationsCostCalcu
     }
 
     @Override
-    public BigDecimal estimateCostCalculationForPieceWork(final EntityTreeNode calculationOperationComponent,
+    public BigDecimal estimateCostCalculationForPieceWork(final Entity calculationOperationComponent,
             final BigDecimal productionCostMargin, final BigDecimal plannedQuantity, final Map<Long, BigDecimal> operationRuns) {
 
         BigDecimal cost = BigDecimal.ZERO;
 
-        for (EntityTreeNode child : calculationOperationComponent.getChildren()) {
+        for (Entity child : getChildren(calculationOperationComponent)) {
             cost = cost.add(estimateCostCalculationForPieceWork(child, productionCostMargin, plannedQuantity, operationRuns),
                     numberService.getMathContext());
         }
 
-        // FIXME MAKU unnecessary mapping of whole entity - we need only their id! We can increase performance by replacing line
-        // below by a query projection
         Entity technologyOperationComponent = calculationOperationComponent
                 .getBelongsToField(CalculationOperationComponentFields.TECHNOLOGY_OPERATION_COMPONENT);
 
@@ -347,7 +341,7 @@ public class OperationsCostCalculationServiceImpl implements OperationsCostCalcu
     }
 
     private Map<String, BigDecimal> estimatePieceworkCostCalculationForSingleOperation(
-            final EntityTreeNode calculationOperationComponent, final BigDecimal productionCostMargin,
+            final Entity calculationOperationComponent, final BigDecimal productionCostMargin,
             final BigDecimal operationRuns) {
         Map<String, BigDecimal> costs = Maps.newHashMap();
 
@@ -403,46 +397,72 @@ public class OperationsCostCalculationServiceImpl implements OperationsCostCalcu
                 numberService.setScaleWithDefaultMathContext(operationMarginCost));
         calculationOperationComponent.setField(CalculationOperationComponentFields.TOTAL_OPERATION_COST,
                 numberService.setScaleWithDefaultMathContext(operationCost.add(operationMarginCost, numberService.getMathContext())));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Entity> getChildren(final Entity calculationOperationComponent) {
+        Object children = calculationOperationComponent.getField(L_CHILDREN);
 
-        calculationOperationComponent.getDataDefinition().save(calculationOperationComponent);
+        return (children == null) ? Collections.emptyList() : (List<Entity>) children;
     }
 
-    private Map<Long, Integer> getWorkstationsMapsForOperationsComponent(final Entity costCalculationOrProductionBalance,
-            final Entity productionLine) {
-        Entity order = costCalculationOrProductionBalance.getBelongsToField(L_ORDER);
-        if (order == null) {
-            return getWorkstationsFromTechnology(costCalculationOrProductionBalance.getBelongsToField(L_TECHNOLOGY),
-                    productionLine);
-        } else {
-            return getWorkstationsFromOrder(order);
+    private void collectTechnologyOperationComponents(final Entity calculationOperationComponent, final List<Entity> tocs) {
+        tocs.add(calculationOperationComponent
+                .getBelongsToField(CalculationOperationComponentFields.TECHNOLOGY_OPERATION_COMPONENT));
+
+        for (Entity child : getChildren(calculationOperationComponent)) {
+            collectTechnologyOperationComponents(child, tocs);
         }
     }
 
-    private Map<Long, Integer> getWorkstationsFromTechnology(final Entity technology, final Entity productionLine) {
+    private Map<Long, Integer> getWorkstationsMapsForOperationsComponent(final Entity costCalculationOrProductionBalance,
+            final List<Entity> technologyOperationComponents, final Entity productionLine) {
         Map<Long, Integer> workstations = Maps.newHashMap();
-        if (parameterService.getParameter().getBooleanField("workstationsQuantityFromProductionLine")) {
-            for (Entity operComp : technology.getHasManyField(TechnologyFields.OPERATION_COMPONENTS)) {
-                workstations.put(operComp.getId(), productionLinesService.getWorkstationTypesCount(operComp, productionLine));
+
+        if ((costCalculationOrProductionBalance.getBelongsToField(L_ORDER) == null) && (productionLine != null)
+                && parameterService.getParameterSnapshot().getBooleanField(L_WORKSTATIONS_QUANTITY_FROM_PRODUCTION_LINE)) {
+            Map<Long, Integer> workstationTypesCounts = getWorkstationTypesCounts(productionLine);
+            Integer quantityForOtherWorkstationTypes = productionLine
+                    .getIntegerField(ProductionLineFields.QUANTITY_FOR_OTHER_WORKSTATION_TYPES);
+
+            for (Entity technologyOperationComponent : technologyOperationComponents) {
+                Entity workstationType = technologyOperationComponent
+                        .getBelongsToField(TechnologyOperationComponentFields.OPERATION)
+                        .getBelongsToField(OperationFields.WORKSTATION_TYPE);
+
+                if ((workstationType != null) && workstationTypesCounts.containsKey(workstationType.getId())) {
+                    workstations.put(technologyOperationComponent.getId(), workstationTypesCounts.get(workstationType.getId()));
+                } else {
+                    workstations.put(technologyOperationComponent.getId(), quantityForOtherWorkstationTypes);
+                }
             }
         } else {
-            for (Entity operComp : technology.getHasManyField(TechnologyFields.OPERATION_COMPONENTS)) {
-                workstations.put(operComp.getId(), IntegerUtils.convertNullToZero(operComp
+            for (Entity technologyOperationComponent : technologyOperationComponents) {
+                workstations.put(technologyOperationComponent.getId(), IntegerUtils.convertNullToZero(technologyOperationComponent
                         .getIntegerField(TechnologyOperationComponentFields.QUANTITY_OF_WORKSTATIONS)));
             }
         }
+
         return workstations;
     }
 
-    private Map<Long, Integer> getWorkstationsFromOrder(final Entity order) {
-        Map<Long, Integer> workstations = Maps.newHashMap();
+    /**
+     * Counts like {@link com.qcadoo.mes.technologies.ProductionLinesService#getWorkstationTypesCount(Entity, Entity)}, but
+     * reads workstation type components of production line once for all operations.
+     */
+    private Map<Long, Integer> getWorkstationTypesCounts(final Entity productionLine) {
+        Map<Long, Integer> workstationTypesCounts = Maps.newHashMap();
 
-        for (Entity technologyOperationComponent : order.getBelongsToField(L_TECHNOLOGY).getHasManyField(
-                TechnologyFields.OPERATION_COMPONENTS)) {
-            workstations.put(technologyOperationComponent.getId(), IntegerUtils.convertNullToZero(technologyOperationComponent
-                    .getIntegerField(TechnologyOperationComponentFields.QUANTITY_OF_WORKSTATIONS)));
+        for (Entity workstationTypeComponent : productionLine.getHasManyField(ProductionLineFields.WORKSTATION_TYPE_COMPONENTS)) {
+            Long workstationTypeId = workstationTypeComponent.getBelongsToField(OperationFields.WORKSTATION_TYPE).getId();
+
+            if (!workstationTypesCounts.containsKey(workstationTypeId)) {
+                workstationTypesCounts.put(workstationTypeId,
+                        (Integer) workstationTypeComponent.getField(WorkstationTypeComponentFields.QUANTITY));
+            }
         }
 
-        return workstations;
+        return workstationTypesCounts;
     }
 
 }
@@ -0,0 +1,260 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.operationCostCalculations;
+
+import static com.qcadoo.testing.model.EntityTestUtils.mockEntity;
+import static com.qcadoo.testing.model.EntityTestUtils.stubBelongsToField;
+import static com.qcadoo.testing.model.EntityTestUtils.stubDecimalField;
+import static com.qcadoo.testing.model.EntityTestUtils.stubField;
+import static com.qcadoo.testing.model.EntityTestUtils.stubStringField;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.costNormsForOperation.constants.CalculateOperationCostMode;
+import com.qcadoo.mes.costNormsForOperation.constants.CalculationOperationComponentFields;
+import com.qcadoo.mes.costNormsForOperation.constants.TechnologyOperationComponentFieldsCNFO;
+import com.qcadoo.mes.operationTimeCalculations.OperationWorkTime;
+import com.qcadoo.mes.operationTimeCalculations.OperationWorkTimeService;
+import com.qcadoo.mes.operationTimeCalculations.dto.OperationTimesContainer;
+import com.qcadoo.mes.technologies.ProductQuantitiesService;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.mes.technologies.dto.ProductQuantitiesHolder;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.FieldDefinition;
+import com.qcadoo.model.api.NumberService;
+
+public class OperationsCostCalculationServiceImplTest {
+
+    private static final BigDecimal L_QUANTITY = new BigDecimal("10");
+
+    private static final String L_CALCULATE_OPERATION_COSTS_MODE = "calculateOperationCostsMode";
+
+    private static final String L_TOTAL_PIECEWORK_COSTS = "totalPieceworkCosts";
+
+    private static final String L_TOTAL_LABOR_HOURLY_COSTS = "totalLaborHourlyCosts";
+
+    private static final String L_TOTAL_MACHINE_HOURLY_COSTS = "totalMachineHourlyCosts";
+
+    private OperationsCostCalculationServiceImpl operationsCostCalculationService;
+
+    @Mock
+    private NumberService numberService;
+
+    @Mock
+    private ProductQuantitiesService productQuantitiesService;
+
+    @Mock
+    private OperationWorkTimeService operationWorkTimeService;
+
+    @Mock
+    private OperationCostCalculationTreeBuilder operationCostCalculationTreeBuilder;
+
+    @Mock
+    private ParameterService parameterService;
+
+    @Mock
+    private DataDefinition costCalculationDD;
+
+    private Entity costCalculation, technology;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        operationsCostCalculationService = new OperationsCostCalculationServiceImpl();
+
+        ReflectionTestUtils.setField(operationsCostCalculationService, "numberService", numberService);
+        ReflectionTestUtils.setField(operationsCostCalculationService, "productQuantitiesService", productQuantitiesService);
+        ReflectionTestUtils.setField(operationsCostCalculationService, "operationWorkTimeService", operationWorkTimeService);
+        ReflectionTestUtils.setField(operationsCostCalculationService, "operationCostCalculationTreeBuilder",
+                operationCostCalculationTreeBuilder);
+        ReflectionTestUtils.setField(operationsCostCalculationService, "parameterService", parameterService);
+
+        given(numberService.getMathContext()).willReturn(MathContext.DECIMAL64);
+        given(numberService.setScaleWithDefaultMathContext(any(BigDecimal.class))).willAnswer(
+                invocation -> ((BigDecimal) invocation.getArguments()[0]).setScale(5, RoundingMode.HALF_EVEN));
+
+        given(costCalculationDD.getName()).willReturn("costCalculation");
+
+        costCalculation = mockEntity(costCalculationDD);
+        technology = mockEntity(1L);
+
+        stubBelongsToField(costCalculation, "technology", technology);
+        stubDecimalField(costCalculation, "quantity", L_QUANTITY);
+        stubDecimalField(costCalculation, "productionCostMargin", BigDecimal.ZERO);
+
+        // root operation runs 10 times, 12 minutes and piecework cost 12 per run, its child runs 20 times, 3 minutes per run
+        // and piecework cost 6 per two runs; labor costs 60 per hour and machine nothing, so both modes cost 120 + 60
+        Entity rootOperation = mockTechnologyOperationComponent(1L);
+        Entity childOperation = mockTechnologyOperationComponent(2L);
+
+        Entity rootComponent = mockCalculationOperationComponent(rootOperation, "12", null);
+        Entity childComponent = mockCalculationOperationComponent(childOperation, "6", 2);
+
+        stubField(rootComponent, "children", Lists.newArrayList(childComponent));
+
+        given(operationCostCalculationTreeBuilder.buildCalculationOperationComponents(costCalculation)).willReturn(rootComponent);
+
+        Map<Long, BigDecimal> operationRuns = ImmutableMap.of(1L, new BigDecimal("10"), 2L, new BigDecimal("20"));
+
+        given(productQuantitiesService.getProductComponentQuantities(technology, L_QUANTITY)).willReturn(
+                new ProductQuantitiesHolder(new OperationProductComponentWithQuantityContainer(), operationRuns));
+
+        OperationTimesContainer operationTimes = new OperationTimesContainer();
+
+        operationTimes.add(rootOperation, createWorkTime(10 * 720));
+        operationTimes.add(childOperation, createWorkTime(20 * 180));
+
+        given(operationWorkTimeService.estimateOperationsWorkTimes(anyListOf(Entity.class),
+                anyMapOf(Long.class, BigDecimal.class), anyBoolean(), anyBoolean(), anyMapOf(Long.class, Integer.class),
+                anyBoolean())).willReturn(operationTimes);
+    }
+
+    @Test
+    public final void shouldCalculateTheSameTotalOfTechnologyInHourlyAndPieceworkMode() {
+        // given
+        stubStringField(costCalculation, L_CALCULATE_OPERATION_COSTS_MODE, CalculateOperationCostMode.PIECEWORK.getStringValue());
+
+        // when
+        operationsCostCalculationService.calculateOperationsCost(costCalculation, true);
+
+        // then
+        BigDecimal totalPieceworkCosts = getSetDecimalField(L_TOTAL_PIECEWORK_COSTS);
+
+        // given
+        stubStringField(costCalculation, L_CALCULATE_OPERATION_COSTS_MODE, CalculateOperationCostMode.HOURLY.getStringValue());
+
+        // when
+        operationsCostCalculationService.calculateOperationsCost(costCalculation, true);
+
+        // then
+        BigDecimal totalLaborHourlyCosts = getSetDecimalField(L_TOTAL_LABOR_HOURLY_COSTS);
+        BigDecimal totalMachineHourlyCosts = getSetDecimalField(L_TOTAL_MACHINE_HOURLY_COSTS);
+
+        assertEquals(0, new BigDecimal("180").compareTo(totalPieceworkCosts));
+        assertEquals(0, totalPieceworkCosts.compareTo(totalLaborHourlyCosts.add(totalMachineHourlyCosts)));
+    }
+
+    @Test
+    public final void shouldTakeWorkstationsFromOperationsWhenCostCalculationHasNoProductionLine() {
+        // given
+        stubStringField(costCalculation, L_CALCULATE_OPERATION_COSTS_MODE, CalculateOperationCostMode.HOURLY.getStringValue());
+
+        // when
+        operationsCostCalculationService.calculateOperationsCost(costCalculation, true);
+
+        // then
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Map<Long, Integer>> workstationsCaptor = ArgumentCaptor.forClass((Class) Map.class);
+
+        verify(operationWorkTimeService).estimateOperationsWorkTimes(anyListOf(Entity.class),
+                anyMapOf(Long.class, BigDecimal.class), anyBoolean(), anyBoolean(), workstationsCaptor.capture(), anyBoolean());
+
+        assertEquals(ImmutableMap.of(1L, 0, 2L, 0), workstationsCaptor.getValue());
+    }
+
+    @Test
+    public final void shouldAddErrorWhenTechnologyHasNoOperations() {
+        // given
+        stubStringField(costCalculation, L_CALCULATE_OPERATION_COSTS_MODE, CalculateOperationCostMode.HOURLY.getStringValue());
+
+        given(operationCostCalculationTreeBuilder.buildCalculationOperationComponents(costCalculation)).willReturn(null);
+
+        // when
+        operationsCostCalculationService.calculateOperationsCost(costCalculation, true);
+
+        // then
+        verify(costCalculation, times(2)).addError(any(FieldDefinition.class), eq("costCalculation.lackOfTreeComponents"));
+        verify(costCalculation, never()).setField(eq(L_TOTAL_LABOR_HOURLY_COSTS), any());
+        verify(operationWorkTimeService, never()).estimateOperationsWorkTimes(anyListOf(Entity.class),
+                anyMapOf(Long.class, BigDecimal.class), anyBoolean(), anyBoolean(), anyMapOf(Long.class, Integer.class),
+                anyBoolean());
+    }
+
+    private Entity mockTechnologyOperationComponent(final Long id) {
+        Entity technologyOperationComponent = mockEntity(id);
+
+        stubField(technologyOperationComponent, TechnologyOperationComponentFieldsCNFO.LABOR_HOURLY_COST, new BigDecimal("60"));
+        stubField(technologyOperationComponent, TechnologyOperationComponentFieldsCNFO.MACHINE_HOURLY_COST, BigDecimal.ZERO);
+
+        return technologyOperationComponent;
+    }
+
+    private Entity mockCalculationOperationComponent(final Entity technologyOperationComponent, final String pieceworkCost,
+            final Integer numberOfOperations) {
+        Entity calculationOperationComponent = mockEntity();
+
+        stubBelongsToField(calculationOperationComponent, CalculationOperationComponentFields.TECHNOLOGY_OPERATION_COMPONENT,
+                technologyOperationComponent);
+        stubDecimalField(calculationOperationComponent, CalculationOperationComponentFields.PIECEWORK_COST,
+                new BigDecimal(pieceworkCost));
+        stubField(calculationOperationComponent, CalculationOperationComponentFields.NUMBER_OF_OPERATIONS, numberOfOperations);
+
+        return calculationOperationComponent;
+    }
+
+    private OperationWorkTime createWorkTime(final int laborWorkTime) {
+        OperationWorkTime operationWorkTime = new OperationWorkTime();
+
+        operationWorkTime.setLaborWorkTime(laborWorkTime);
+        operationWorkTime.setMachineWorkTime(laborWorkTime);
+        operationWorkTime.setDuration(laborWorkTime);
+
+        return operationWorkTime;
+    }
+
+    private BigDecimal getSetDecimalField(final String fieldName) {
+        ArgumentCaptor<Object> valueCaptor = ArgumentCaptor.forClass(Object.class);
+
+        verify(costCalculation, atLeastOnce()).setField(eq(fieldName), valueCaptor.capture());
+
+        return (BigDecimal) valueCaptor.getValue();
+    }
+
+}
@@ -224,7 +224,7 @@ public class CopyOfTechnologyHooks {
     }
 
     public boolean lockTechnologyTree() {
-        return parameterService.getParameter().getBooleanField(ParameterFieldsO.LOCK_TECHNOLOGY_TREE);
+        return parameterService.getParameterSnapshot().getBooleanField(ParameterFieldsO.LOCK_TECHNOLOGY_TREE);
     }
 
     private void enableGroupField(final ViewDefinitionState view, final Entity order) {
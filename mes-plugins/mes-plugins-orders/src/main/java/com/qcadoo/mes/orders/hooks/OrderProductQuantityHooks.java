@@ -97,7 +97,7 @@ public class OrderProductQuantityHooks {
     }
 
     public boolean blockAbilityToChangeApprovalOrder() {
-        return parameterService.getParameter().getBooleanField(BLOCK_ABILILITY_TO_CHANGE_APPROVAL_ORDER);
+        return parameterService.getParameterSnapshot().getBooleanField(BLOCK_ABILILITY_TO_CHANGE_APPROVAL_ORDER);
     }
 
     public void fillProductUnit(final ViewDefinitionState state) {
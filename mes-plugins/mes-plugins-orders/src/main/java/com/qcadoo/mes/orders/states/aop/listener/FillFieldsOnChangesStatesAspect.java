@@ -62,7 +62,7 @@ public class FillFieldsOnChangesStatesAspect extends AbstractStateListenerAspect
     @After(PHASE_EXECUTION_POINTCUT)
     public void afterStartProgress(final StateChangeContext stateChangeContext, final int phase) {
         stateChangeContext.getOwner().setField(OrderFields.DONE_QUANTITY, BigDecimal.ZERO);
-        if (parameterService.getParameter().getBooleanField(ParameterFieldsO.SET_EFFECTIVE_DATE_FROM_ON_IN_PROGRESS)) {
+        if (parameterService.getParameterSnapshot().getBooleanField(ParameterFieldsO.SET_EFFECTIVE_DATE_FROM_ON_IN_PROGRESS)) {
             stateChangeContext.getOwner().setField(OrderFields.EFFECTIVE_DATE_FROM, new Date());
         }
         orderStateService.checkOrderDates(stateChangeContext);
@@ -72,7 +72,7 @@ public class FillFieldsOnChangesStatesAspect extends AbstractStateListenerAspect
     @RunForStateTransition(targetState = OrderStateStringValues.COMPLETED)
     @After(PHASE_EXECUTION_POINTCUT)
     public void afterComplete(final StateChangeContext stateChangeContext, final int phase) {
-        if (parameterService.getParameter().getBooleanField(ParameterFieldsO.SET_EFFECTIVE_DATE_TO_ON_COMPLETED)) {
+        if (parameterService.getParameterSnapshot().getBooleanField(ParameterFieldsO.SET_EFFECTIVE_DATE_TO_ON_COMPLETED)) {
             stateChangeContext.getOwner().setField(OrderFields.EFFECTIVE_DATE_TO, new Date());
         }
     }
@@ -55,6 +55,8 @@ public final class ProductionCountingConstants {
 
     public static final String MODEL_STAFF_WORK_TIME = "staffWorkTime";
 
+    public static final String MODEL_PRODUCTION_BALANCE_FACT = "productionBalanceFact";
+
     public static final String MODEL_ANOMALY = "anomaly";
 
     public static final String MODEL_ANOMALY_EXPLANATION = "anomalyExplanation";
@@ -99,7 +99,7 @@ public class ProductionCountingQuantityHooksPC {
     }
 
     public void onCreate(final DataDefinition productionCountingQuantityDD, final Entity productionCountingQuantity) {
-       if(parameterService.getParameter().getBooleanField(ParameterFieldsO.CREATE_SET_ELEMENTS_ON_ACCEPT)) {
+       if(parameterService.getParameterSnapshot().getBooleanField(ParameterFieldsO.CREATE_SET_ELEMENTS_ON_ACCEPT)) {
            String typeOfMaterial = productionCountingQuantity.getStringField(ProductionCountingQuantityFields.TYPE_OF_MATERIAL);
            String role = productionCountingQuantity.getStringField(ProductionCountingQuantityFields.ROLE);
 
@@ -116,7 +116,7 @@ public class ProductionCountingQuantityHooksPC {
     }
 
     public void onSave(final DataDefinition productionCountingQuantityDD, final Entity productionCountingQuantity) {
-        if(parameterService.getParameter().getBooleanField(ParameterFieldsO.CREATE_SET_ELEMENTS_ON_ACCEPT)) {
+        if(parameterService.getParameterSnapshot().getBooleanField(ParameterFieldsO.CREATE_SET_ELEMENTS_ON_ACCEPT)) {
             recalculateProductionCountingQuantities(productionCountingQuantity);
         }
     }
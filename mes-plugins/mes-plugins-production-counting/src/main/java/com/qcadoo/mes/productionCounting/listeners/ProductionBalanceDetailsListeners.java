@@ -23,6 +23,8 @@
  */
 package com.qcadoo.mes.productionCounting.listeners;
 
+import static org.springframework.web.util.UriComponentsBuilder.fromPath;
+
 import java.io.IOException;
 import java.util.Date;
 import java.util.List;
@@ -135,6 +137,19 @@ public class ProductionBalanceDetailsListeners {
                 ProductionCountingConstants.MODEL_PRODUCTION_BALANCE });
     }
 
+    public void printProductionBalanceXlsx(final ViewDefinitionState view, final ComponentState state, final String[] args) {
+        Long productionBalanceId = (Long) state.getFieldValue();
+
+        if (productionBalanceId == null) {
+            return;
+        }
+
+        String redirectUrl = fromPath("/productionCounting/productionBalance.xlsx").queryParam("id", productionBalanceId)
+                .build().toUriString();
+
+        view.redirectTo(redirectUrl, false, false);
+    }
+
     public void disableCheckboxes(final ViewDefinitionState view, final ComponentState state, final String[] args) {
         productionBalanceService.disableCheckboxes(view);
     }
@@ -32,17 +32,19 @@ import static com.qcadoo.model.api.search.SearchOrders.asc;
 
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.stereotype.Service;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.basicProductionCounting.BasicProductionCountingBatchUpdateService;
 import com.qcadoo.mes.basicProductionCounting.BasicProductionCountingService;
 import com.qcadoo.mes.basicProductionCounting.constants.BasicProductionCountingFields;
-import com.qcadoo.mes.basicProductionCounting.constants.OrderFieldsBPC;
 import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.mes.orders.states.aop.OrderStateChangeAspect;
 import com.qcadoo.mes.orders.states.constants.OrderState;
@@ -54,6 +56,7 @@ import com.qcadoo.mes.productionCounting.constants.TrackingOperationProductInCom
 import com.qcadoo.mes.productionCounting.constants.TrackingOperationProductOutComponentFields;
 import com.qcadoo.mes.productionCounting.states.constants.ProductionTrackingStateStringValues;
 import com.qcadoo.mes.productionCounting.utils.OrderClosingHelper;
+import com.qcadoo.mes.productionCounting.xls.ProductionBalanceFactService;
 import com.qcadoo.mes.states.StateChangeContext;
 import com.qcadoo.mes.states.constants.StateChangeStatus;
 import com.qcadoo.mes.states.service.StateChangeContextBuilder;
@@ -83,6 +86,9 @@ public final class ProductionTrackingListenerService {
     @Autowired
     private BasicProductionCountingService basicProductionCountingService;
 
+    @Autowired
+    private BasicProductionCountingBatchUpdateService basicProductionCountingBatchUpdateService;
+
     @Autowired
     private OrderStateChangeAspect orderStateChangeAspect;
 
@@ -95,6 +101,9 @@ public final class ProductionTrackingListenerService {
     @Autowired
     private ParameterService parameterService;
 
+    @Autowired
+    private ProductionBalanceFactService productionBalanceFactService;
+
     public void onChangeFromDraftToAny(final Entity productionTracking) {
         productionTracking.setField(ProductionTrackingFields.LAST_STATE_CHANGE_FAILS, false);
         productionTracking.setField(ProductionTrackingFields.LAST_STATE_CHANGE_FAIL_CAUSE, null);
@@ -114,12 +123,14 @@ public final class ProductionTrackingListenerService {
     public void onAccept(final Entity productionTracking) {
         updateBasicProductionCounting(productionTracking, new Addition());
         setOrderDoneAndWastesQuantity(productionTracking, new Addition());
+        productionBalanceFactService.add(productionTracking);
         closeOrder(productionTracking);
     }
 
     public void onChangeFromAcceptedToDeclined(final Entity productionTracking) {
         updateBasicProductionCounting(productionTracking, new Substraction());
         setOrderDoneAndWastesQuantity(productionTracking, new Substraction());
+        productionBalanceFactService.subtract(productionTracking);
     }
 
     private void checkIfRecordOperationProductComponentsWereFilled(final Entity productionTracking) {
@@ -285,8 +296,13 @@ public final class ProductionTrackingListenerService {
         final List<Entity> trackingOperationProductOutComponents = productionTracking
                 .getHasManyField(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_OUT_COMPONENTS);
 
+        final Map<Long, Entity> basicProductionCountings = basicProductionCountingBatchUpdateService
+                .getBasicProductionCountingsByProduct(order);
+        final Map<Long, Entity> changedBasicProductionCountings = Maps.newLinkedHashMap();
+
         trackingOperationProductInComponents.forEach(trackingOperationProductInComponent -> {
-            Entity basicProductionCounting = getBasicProductionCounting(trackingOperationProductInComponent, order);
+            Entity basicProductionCounting = getBasicProductionCounting(trackingOperationProductInComponent,
+                    basicProductionCountings);
 
             if (basicProductionCounting == null) {
                 return;
@@ -298,11 +314,12 @@ public final class ProductionTrackingListenerService {
             final BigDecimal result = operation.perform(usedQuantity, productQuantity);
 
             basicProductionCounting.setField(BasicProductionCountingFields.USED_QUANTITY, result);
-            basicProductionCounting.getDataDefinition().save(basicProductionCounting);
+            changedBasicProductionCountings.put(basicProductionCounting.getId(), basicProductionCounting);
         });
 
         trackingOperationProductOutComponents.forEach(trackingOperationProductOutComponent -> {
-            Entity basicProductionCounting = getBasicProductionCounting(trackingOperationProductOutComponent, order);
+            Entity basicProductionCounting = getBasicProductionCounting(trackingOperationProductOutComponent,
+                    basicProductionCountings);
 
             if (basicProductionCounting == null) {
                 return;
@@ -315,8 +332,10 @@ public final class ProductionTrackingListenerService {
             final BigDecimal result = operation.perform(usedQuantity, productQuantity);
 
             basicProductionCounting.setField(BasicProductionCountingFields.PRODUCED_QUANTITY, result);
-            basicProductionCounting.getDataDefinition().save(basicProductionCounting);
+            changedBasicProductionCountings.put(basicProductionCounting.getId(), basicProductionCounting);
         });
+
+        basicProductionCountingBatchUpdateService.update(order, changedBasicProductionCountings.values());
     }
 
     private void checkIfTimesIsSet(final Entity productionTracking) {
@@ -342,17 +361,21 @@ public final class ProductionTrackingListenerService {
         }
     }
 
-    private Entity getBasicProductionCounting(final Entity trackingOperationProductComponent, final Entity order) {
+    private Entity getBasicProductionCounting(final Entity trackingOperationProductComponent,
+            final Map<Long, Entity> basicProductionCountings) {
         Entity product = trackingOperationProductComponent.getBelongsToField(L_PRODUCT);
 
-        return order.getHasManyField(OrderFieldsBPC.BASIC_PRODUCTION_COUNTINGS).find()
-                .add(SearchRestrictions.belongsTo(BasicProductionCountingFields.PRODUCT, product)).setMaxResults(1)
-                .uniqueResult();
+        if (product == null) {
+            return null;
+        }
+
+        return basicProductionCountings.get(product.getId());
     }
 
     public void onCorrected(final Entity productionTracking) {
         updateBasicProductionCounting(productionTracking, new Substraction());
         setOrderDoneAndWastesQuantity(productionTracking, new Substraction());
+        productionBalanceFactService.subtract(productionTracking);
     }
 
     private interface Operation {
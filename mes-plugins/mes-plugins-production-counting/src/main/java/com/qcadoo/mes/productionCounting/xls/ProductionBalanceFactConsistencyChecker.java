@@ -0,0 +1,130 @@
+package com.qcadoo.mes.productionCounting.xls;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.qcadoo.tenant.api.MultiTenantCallback;
+import com.qcadoo.tenant.api.MultiTenantService;
+
+/**
+ * Compares production balance facts with sums of accepted tracking rows they are derived from and rebuilds facts of orders
+ * which differ. Runs nightly and when plugin is enabled, which also fills facts for trackings accepted before facts were
+ * introduced.
+ */
+@Service
+public class ProductionBalanceFactConsistencyChecker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProductionBalanceFactConsistencyChecker.class);
+
+    private static final String L_IN_COMPONENTS = "JOIN productioncounting_trackingoperationproductincomponent topic "
+            + "ON topic.productiontracking_id = pt.id ";
+
+    private static final String L_OUT_COMPONENTS = "JOIN productioncounting_trackingoperationproductoutcomponent topoc "
+            + "ON topoc.productiontracking_id = pt.id ";
+
+    private static final String L_STAFF_WORK_TIMES = "JOIN productioncounting_staffworktime swt "
+            + "ON swt.productionrecord_id = pt.id ";
+
+    private static final String L_IN_COMPONENT_KEY = "topic.product_id || '/' || COALESCE(topic.wasteunit, '')";
+
+    private static final String L_IN_COMPONENT_FACT_KEY = "f.product_id || '/' || COALESCE(f.wasteunit, '')";
+
+    private static final String L_PRODUCT_FACTS = "f.product_id IS NOT NULL ";
+
+    private static final String L_WORKER_FACTS = "f.worker_id IS NOT NULL ";
+
+    private static final String L_TRACKING_FACTS = "f.product_id IS NULL AND f.worker_id IS NULL ";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MultiTenantService multiTenantService;
+
+    @Autowired
+    private ProductionBalanceFactService productionBalanceFactService;
+
+    public void checkAndRepairTrigger() {
+        multiTenantService.doInMultiTenantContext(new MultiTenantCallback() {
+
+            @Override
+            public void invoke() {
+                checkAndRepair();
+            }
+
+        });
+    }
+
+    @Transactional
+    public void checkAndRepair() {
+        List<Long> ordersIds = findInconsistentOrders();
+
+        if (!ordersIds.isEmpty()) {
+            LOG.warn(String.format("Production balance facts of %d orders differ from accepted trackings, rebuilding : %s",
+                    ordersIds.size(), ordersIds));
+
+            productionBalanceFactService.rebuild(ordersIds);
+        }
+    }
+
+    /**
+     * Finds orders whose facts differ from sums of their accepted tracking rows. Expected sums are taken straight from tracking
+     * rows, the way production balance read them before facts, not by aggregation which builds facts, so its mistakes are found
+     * too. Used quantities are compared per waste unit as material costs group by it.
+     */
+    public List<Long> findInconsistentOrders() {
+        StringBuilder query = new StringBuilder();
+        query.append("SELECT DISTINCT orderId FROM (");
+        appendDifferences(query, "topic.usedquantity", L_IN_COMPONENTS, L_IN_COMPONENT_KEY, "f.usedquantity", L_PRODUCT_FACTS,
+                L_IN_COMPONENT_FACT_KEY);
+        query.append("UNION ALL ");
+        appendDifferences(query, "topic.wasteusedquantity", L_IN_COMPONENTS, L_IN_COMPONENT_KEY, "f.wasteusedquantity",
+                L_PRODUCT_FACTS, L_IN_COMPONENT_FACT_KEY);
+        query.append("UNION ALL ");
+        appendDifferences(query, "topoc.usedquantity", L_OUT_COMPONENTS, "topoc.product_id::text", "f.producedquantity",
+                L_PRODUCT_FACTS, "f.product_id::text");
+        query.append("UNION ALL ");
+        appendDifferences(query, "topoc.wastesquantity", L_OUT_COMPONENTS, "topoc.product_id::text", "f.wastesquantity",
+                L_PRODUCT_FACTS, "f.product_id::text");
+        query.append("UNION ALL ");
+        appendDifferences(query, "swt.labortime", L_STAFF_WORK_TIMES, "swt.worker_id::text", "f.labortime", L_WORKER_FACTS,
+                "f.worker_id::text");
+        query.append("UNION ALL ");
+        appendDifferences(query, "pt.labortime", "", "NULL::text", "f.labortime", L_TRACKING_FACTS, "NULL::text");
+        query.append("UNION ALL ");
+        appendDifferences(query, "pt.machinetime", "", "NULL::text", "f.machinetime", L_TRACKING_FACTS, "NULL::text");
+        query.append("UNION ALL ");
+        appendDifferences(query, "pt.executedoperationcycles", "", "NULL::text", "f.executedoperationcycles",
+                L_TRACKING_FACTS, "NULL::text");
+        query.append(") differences ORDER BY orderId");
+
+        return jdbcTemplate.queryForList(query.toString(), Collections.emptyMap(), Long.class);
+    }
+
+    private void appendDifferences(final StringBuilder query, final String trackingValue, final String trackingJoin,
+            final String trackingKey, final String factValue, final String factCondition, final String factKey) {
+        query.append("SELECT COALESCE(t.order_id, f.order_id) AS orderId FROM (");
+        query.append("SELECT pt.order_id, pt.technologyoperationcomponent_id AS toc_id, ");
+        query.append(trackingKey).append(" AS key_id, ");
+        query.append("SUM(").append(trackingValue).append(") AS value ");
+        query.append("FROM productioncounting_productiontracking pt ").append(trackingJoin);
+        query.append("WHERE pt.state = '02accepted' GROUP BY 1, 2, 3) t ");
+        query.append("FULL JOIN (");
+        query.append("SELECT f.order_id, f.technologyoperationcomponent_id AS toc_id, ");
+        query.append(factKey).append(" AS key_id, ");
+        query.append("SUM(").append(factValue).append(") AS value ");
+        query.append("FROM " + ProductionBalanceFactService.L_FACT_TABLE + " f WHERE ").append(factCondition);
+        query.append("GROUP BY 1, 2, 3) f ");
+        query.append("ON t.order_id = f.order_id AND COALESCE(t.toc_id, 0) = COALESCE(f.toc_id, 0) ");
+        query.append("AND COALESCE(t.key_id, '') = COALESCE(f.key_id, '') ");
+        query.append("WHERE COALESCE(t.value, 0) <> COALESCE(f.value, 0) ");
+    }
+
+}
@@ -0,0 +1,169 @@
+package com.qcadoo.mes.productionCounting.xls;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Keeps productionBalanceFact rows in step with accepted production trackings. Each row accumulates real quantities and times
+ * of one order per operation, product, waste unit and worker, so production balance reads a few rows per order instead of
+ * aggregating all tracking rows. Facts hold no costs - prices, cost norms and wage rates are joined when balance is generated,
+ * so changing them needs no refresh of facts.
+ */
+@Service
+public class ProductionBalanceFactService {
+
+    static final String L_FACT_TABLE = "productioncounting_productionbalancefact";
+
+    private static final String L_ACCEPTED_TRACKINGS_OF_ORDERS = "pt.order_id IN (:ordersIds) AND pt.state = '02accepted' ";
+
+    private static final String L_TRACKING = "pt.id = :productionTrackingId ";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    public void add(final Entity productionTracking) {
+        apply(productionTracking.getId(), 1);
+    }
+
+    public void subtract(final Entity productionTracking) {
+        apply(productionTracking.getId(), -1);
+    }
+
+    @Transactional
+    public void rebuild(final Collection<Long> ordersIds) {
+        if (ordersIds.isEmpty()) {
+            return;
+        }
+
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("ordersIds", ordersIds);
+
+        jdbcTemplate.update("DELETE FROM " + L_FACT_TABLE + " WHERE order_id IN (:ordersIds)", params);
+
+        StringBuilder query = new StringBuilder();
+        query.append("INSERT INTO " + L_FACT_TABLE + " ");
+        appendFactColumns(query);
+        query.append("SELECT * FROM (");
+        appendFacts(query, L_ACCEPTED_TRACKINGS_OF_ORDERS, 1);
+        query.append(") facts");
+
+        jdbcTemplate.update(query.toString(), params);
+    }
+
+    private void apply(final Long productionTrackingId, final int sign) {
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("productionTrackingId", productionTrackingId);
+
+        // concurrent trackings of the same order would otherwise insert the same fact twice
+        jdbcTemplate.queryForList("SELECT o.id FROM orders_order o JOIN productioncounting_productiontracking pt "
+                + "ON pt.order_id = o.id WHERE " + L_TRACKING + "FOR UPDATE OF o", params);
+
+        StringBuilder query = new StringBuilder();
+        query.append("WITH delta AS (");
+        appendFacts(query, L_TRACKING, sign);
+        query.append("), updated AS (UPDATE " + L_FACT_TABLE + " f SET ");
+        query.append("usedquantity = f.usedquantity + d.usedquantity, ");
+        query.append("wasteusedquantity = f.wasteusedquantity + d.wasteusedquantity, ");
+        query.append("producedquantity = f.producedquantity + d.producedquantity, ");
+        query.append("wastesquantity = f.wastesquantity + d.wastesquantity, ");
+        query.append("labortime = f.labortime + d.labortime, ");
+        query.append("machinetime = f.machinetime + d.machinetime, ");
+        query.append("executedoperationcycles = f.executedoperationcycles + d.executedoperationcycles, ");
+        query.append("recordscount = f.recordscount + d.recordscount ");
+        query.append("FROM delta d WHERE ");
+        appendFactKeysEqual(query, "f", "d");
+        query.append("RETURNING d.*) ");
+        query.append("INSERT INTO " + L_FACT_TABLE + " ");
+        appendFactColumns(query);
+        query.append("SELECT d.* FROM delta d WHERE NOT EXISTS (SELECT 1 FROM updated u WHERE ");
+        appendFactKeysEqual(query, "u", "d");
+        query.append(")");
+
+        jdbcTemplate.update(query.toString(), params);
+
+        jdbcTemplate.update("DELETE FROM " + L_FACT_TABLE + " WHERE recordscount = 0 AND order_id = "
+                + "(SELECT pt.order_id FROM productioncounting_productiontracking pt WHERE " + L_TRACKING + ")", params);
+    }
+
+    private void appendFactColumns(final StringBuilder query) {
+        query.append("(order_id, technologyoperationcomponent_id, product_id, wasteunit, worker_id, usedquantity, ");
+        query.append("wasteusedquantity, producedquantity, wastesquantity, labortime, machinetime, executedoperationcycles, ");
+        query.append("recordscount) ");
+    }
+
+    private void appendFactKeysEqual(final StringBuilder query, final String alias, final String otherAlias) {
+        query.append(alias).append(".order_id = ").append(otherAlias).append(".order_id ");
+
+        for (String key : new String[] { "technologyoperationcomponent_id", "product_id", "worker_id" }) {
+            query.append("AND COALESCE(").append(alias).append(".").append(key).append(", 0) = COALESCE(")
+                    .append(otherAlias).append(".").append(key).append(", 0) ");
+        }
+
+        query.append("AND COALESCE(").append(alias).append(".wasteunit, '') = COALESCE(").append(otherAlias)
+                .append(".wasteunit, '') ");
+    }
+
+    /**
+     * Appends query aggregating facts from tracking rows matching given condition, columns are in order of
+     * {@link #appendFactColumns(StringBuilder)}. Rows without product and worker hold times and cycles of whole trackings, rows
+     * with worker hold its staff work time, rows with product hold quantities of tracking in and out components. Waste unit is
+     * set on rows of in components only.
+     */
+    private void appendFacts(final StringBuilder query, final String trackingsCondition, final int sign) {
+        query.append("SELECT r.order_id, r.technologyoperationcomponent_id, r.product_id, r.wasteunit, r.worker_id, ");
+        query.append(sign).append(" * SUM(r.usedquantity) AS usedquantity, ");
+        query.append(sign).append(" * SUM(r.wasteusedquantity) AS wasteusedquantity, ");
+        query.append(sign).append(" * SUM(r.producedquantity) AS producedquantity, ");
+        query.append(sign).append(" * SUM(r.wastesquantity) AS wastesquantity, ");
+        query.append(sign).append(" * SUM(r.labortime) AS labortime, ");
+        query.append(sign).append(" * SUM(r.machinetime) AS machinetime, ");
+        query.append(sign).append(" * SUM(r.executedoperationcycles) AS executedoperationcycles, ");
+        query.append(sign).append(" * COUNT(*) AS recordscount ");
+        query.append("FROM (");
+        query.append("SELECT pt.order_id, pt.technologyoperationcomponent_id, topic.product_id, topic.wasteunit, ");
+        query.append("NULL::bigint AS worker_id, ");
+        query.append("COALESCE(topic.usedquantity, 0) AS usedquantity, COALESCE(topic.wasteusedquantity, 0) AS wasteusedquantity, ");
+        query.append("0 AS producedquantity, 0 AS wastesquantity, 0 AS labortime, 0 AS machinetime, 0 AS executedoperationcycles ");
+        query.append("FROM productioncounting_productiontracking pt ");
+        query.append("JOIN productioncounting_trackingoperationproductincomponent topic ON topic.productiontracking_id = pt.id ");
+        query.append("WHERE ").append(trackingsCondition);
+        query.append("UNION ALL ");
+        query.append("SELECT pt.order_id, pt.technologyoperationcomponent_id, topoc.product_id, ");
+        query.append("NULL::character varying AS wasteunit, NULL::bigint AS worker_id, ");
+        query.append("0 AS usedquantity, 0 AS wasteusedquantity, ");
+        query.append("COALESCE(topoc.usedquantity, 0) AS producedquantity, COALESCE(topoc.wastesquantity, 0) AS wastesquantity, ");
+        query.append("0 AS labortime, 0 AS machinetime, 0 AS executedoperationcycles ");
+        query.append("FROM productioncounting_productiontracking pt ");
+        query.append("JOIN productioncounting_trackingoperationproductoutcomponent topoc ON topoc.productiontracking_id = pt.id ");
+        query.append("WHERE ").append(trackingsCondition);
+        query.append("UNION ALL ");
+        query.append("SELECT pt.order_id, pt.technologyoperationcomponent_id, NULL::bigint AS product_id, ");
+        query.append("NULL::character varying AS wasteunit, swt.worker_id, ");
+        query.append("0 AS usedquantity, 0 AS wasteusedquantity, 0 AS producedquantity, 0 AS wastesquantity, ");
+        query.append("COALESCE(swt.labortime, 0) AS labortime, 0 AS machinetime, 0 AS executedoperationcycles ");
+        query.append("FROM productioncounting_productiontracking pt ");
+        query.append("JOIN productioncounting_staffworktime swt ON swt.productionrecord_id = pt.id ");
+        query.append("WHERE ").append(trackingsCondition);
+        query.append("UNION ALL ");
+        query.append("SELECT pt.order_id, pt.technologyoperationcomponent_id, NULL::bigint AS product_id, ");
+        query.append("NULL::character varying AS wasteunit, NULL::bigint AS worker_id, ");
+        query.append("0 AS usedquantity, 0 AS wasteusedquantity, 0 AS producedquantity, 0 AS wastesquantity, ");
+        query.append("COALESCE(pt.labortime, 0) AS labortime, COALESCE(pt.machinetime, 0) AS machinetime, ");
+        query.append("COALESCE(pt.executedoperationcycles, 0) AS executedoperationcycles ");
+        query.append("FROM productioncounting_productiontracking pt ");
+        query.append("WHERE ").append(trackingsCondition);
+        query.append(") r ");
+        query.append("GROUP BY r.order_id, r.technologyoperationcomponent_id, r.product_id, r.wasteunit, r.worker_id ");
+    }
+
+}
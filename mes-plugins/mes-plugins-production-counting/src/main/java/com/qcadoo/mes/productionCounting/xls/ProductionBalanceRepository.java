@@ -1,9 +1,17 @@
 package com.qcadoo.mes.productionCounting.xls;
 
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
@@ -27,7 +35,7 @@ class ProductionBalanceRepository {
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
-    List<ProducedQuantity> getProducedQuantities(final List<Long> ordersIds) {
+    void getProducedQuantities(final List<Long> ordersIds, final Consumer<ProducedQuantity> consumer) {
         StringBuilder query = new StringBuilder();
         query.append("SELECT ");
         query.append("o.number AS orderNumber, ");
@@ -36,47 +44,45 @@ class ProductionBalanceRepository {
         query.append("MIN(o.plannedquantity) AS plannedQuantity, ");
         appendProducedQuantity(query);
         query.append("AS producedQuantity, ");
-        query.append("COALESCE(SUM(topoc.wastesquantity), 0) AS wastesQuantity, ");
+        query.append("COALESCE(SUM(f.wastesquantity), 0) AS wastesQuantity, ");
         query.append("COALESCE(prodWaste.producedWastes, 0) AS producedWastes, ");
         appendProducedQuantity(query);
         query.append("- MIN(o.plannedQuantity) AS deviation, ");
         query.append("prod.unit AS productUnit ");
         query.append("FROM orders_order o ");
         query.append("JOIN basic_product prod ON o.product_id = prod.id ");
-        query.append("LEFT JOIN productioncounting_productiontracking pt ON pt.order_id = o.id AND pt.state = '02accepted' ");
-        query.append("LEFT JOIN productioncounting_trackingoperationproductoutcomponent topoc ON topoc.productiontracking_id = pt.id AND topoc.product_id = prod.id ");
+        query.append("LEFT JOIN " + ProductionBalanceFactService.L_FACT_TABLE + " f ON f.order_id = o.id AND f.product_id = prod.id ");
         query.append("LEFT JOIN ");
-        query.append("(SELECT pcq.order_id as orderId, wastePt.order_id AS wastePtOrderId, COALESCE(SUM(wasteTopoc.usedquantity), 0) AS producedWastes ");
-        query.append("FROM basicproductioncounting_productioncountingquantity pcq ");
-        query.append("LEFT JOIN productioncounting_trackingoperationproductoutcomponent wasteTopoc ON  wasteTopoc.product_id = pcq.product_id ");
-        query.append("LEFT JOIN productioncounting_productiontracking wastePt ON wasteTopoc.productiontracking_id = wastePt.id AND wastePt.state = '02accepted' ");
-        query.append("WHERE pcq.typeofmaterial = '04waste' AND pcq.role = '02produced' ");
-        query.append("GROUP BY orderId, wastePtOrderId) prodWaste ON prodWaste.orderId = o.id AND prodWaste.wastePtOrderId = o.id ");
+        query.append("(SELECT wasteF.order_id AS orderId, SUM(wasteF.producedquantity) AS producedWastes ");
+        query.append("FROM " + ProductionBalanceFactService.L_FACT_TABLE + " wasteF ");
+        query.append("WHERE wasteF.order_id IN (:ordersIds) AND wasteF.product_id IN (SELECT pcq.product_id ");
+        query.append("FROM basicproductioncounting_productioncountingquantity pcq WHERE pcq.order_id = wasteF.order_id ");
+        query.append("AND pcq.typeofmaterial = '04waste' AND pcq.role = '02produced') ");
+        query.append("GROUP BY orderId) prodWaste ON prodWaste.orderId = o.id ");
         appendWhereClause(query);
         query.append("GROUP BY orderNumber, productNumber, productName, productUnit, prodWaste.producedWastes ");
         query.append("ORDER BY orderNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(ProducedQuantity.class));
+        query(query.toString(), ordersIds, ProducedQuantity.class, consumer);
     }
 
     private void appendProducedQuantity(StringBuilder query) {
-        query.append("COALESCE(SUM(topoc.usedquantity), 0) ");
+        query.append("COALESCE(SUM(f.producedquantity), 0) ");
     }
 
     private void appendWhereClause(StringBuilder query) {
         query.append("WHERE o.id IN (:ordersIds) ");
     }
 
-    List<MaterialCost> getMaterialCosts(Entity entity, List<Long> ordersIds) {
+    void getMaterialCosts(Entity entity, List<Long> ordersIds, Consumer<MaterialCost> consumer) {
         StringBuilder query = new StringBuilder();
         appendCumulatedPlannedQuantities(query);
         appendMaterialCostsSelectionClause(query, entity);
         query.append("NULL AS operationNumber ");
         appendMaterialCostsFromClause(query, entity);
-        query.append("LEFT JOIN productioncounting_productiontracking pt ON pt.order_id = o.id AND pt.state = '02accepted' ");
-        query.append("LEFT JOIN productioncounting_trackingoperationproductincomponent topic ON topic.productiontracking_id = pt.id AND topic.product_id = p.id ");
-        query.append("GROUP BY o.id, o.number, p.number, p.name, p.unit, topic.wasteunit) ");
+        query.append("LEFT JOIN " + ProductionBalanceFactService.L_FACT_TABLE + " f ");
+        query.append("ON f.order_id = o.id AND f.product_id = p.id ");
+        query.append("GROUP BY o.id, o.number, p.number, p.name, p.unit, f.wasteunit) ");
         query.append("UNION ");
         appendForEachPlannedQuantities(query);
         appendMaterialCostsSelectionClause(query, entity);
@@ -84,13 +90,12 @@ class ProductionBalanceRepository {
         appendMaterialCostsFromClause(query, entity);
         query.append("JOIN technologies_operation op ON q.operation_id = op.id ");
         query.append("JOIN technologies_technologyoperationcomponent toc ON toc.operation_id = op.id AND o.technology_id = toc.technology_id ");
-        query.append("LEFT JOIN productioncounting_productiontracking pt ON pt.order_id = o.id AND pt.technologyoperationcomponent_id = toc.id AND pt.state = '02accepted' ");
-        query.append("LEFT JOIN productioncounting_trackingoperationproductincomponent topic ON topic.productiontracking_id = pt.id AND topic.product_id = p.id ");
-        query.append("GROUP BY o.id, o.number, op.number, p.number, p.name, p.unit, topic.wasteunit) ");
+        query.append("LEFT JOIN " + ProductionBalanceFactService.L_FACT_TABLE + " f ON f.order_id = o.id ");
+        query.append("AND f.technologyoperationcomponent_id = toc.id AND f.product_id = p.id ");
+        query.append("GROUP BY o.id, o.number, op.number, p.number, p.name, p.unit, f.wasteunit) ");
         query.append("ORDER BY orderNumber, operationNumber, productNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(MaterialCost.class));
+        query(query.toString(), ordersIds, MaterialCost.class, consumer);
     }
 
     private void appendForEachPlannedQuantities(StringBuilder query) {
@@ -150,7 +155,7 @@ class ProductionBalanceRepository {
         query.append("p.number AS productNumber, ");
         query.append("p.name AS productName, ");
         query.append("p.unit AS productUnit, ");
-        query.append("topic.wasteunit AS usedWasteUnit, ");
+        query.append("f.wasteunit AS usedWasteUnit, ");
         appendPlannedQuantity(query);
         query.append("AS plannedQuantity, ");
         appendUsedQuantity(query);
@@ -167,7 +172,7 @@ class ProductionBalanceRepository {
         query.append("- ");
         appendPlannedCost(query, entity);
         query.append("AS valueDeviation, ");
-        query.append("COALESCE(SUM(topic.wasteusedquantity), 0) AS usedWasteQuantity, ");
+        query.append("COALESCE(SUM(f.wasteusedquantity), 0) AS usedWasteQuantity, ");
     }
 
     private void appendMaterialCostsFromClause(StringBuilder query, Entity entity) {
@@ -237,29 +242,28 @@ class ProductionBalanceRepository {
     }
 
     private void appendUsedQuantity(StringBuilder query) {
-        query.append("(COALESCE(SUM(topic.usedquantity), 0) - MIN(q.childsQuantity)) ");
+        query.append("(COALESCE(SUM(f.usedquantity), 0) - MIN(q.childsQuantity)) ");
     }
 
-    List<PieceworkDetails> getPieceworkDetails(List<Long> ordersIds) {
+    void getPieceworkDetails(List<Long> ordersIds, Consumer<PieceworkDetails> consumer) {
         StringBuilder query = new StringBuilder();
         query.append("SELECT ");
         query.append("o.number AS orderNumber, ");
         query.append("op.number AS operationNumber, ");
-        query.append("COALESCE(SUM(pt.executedoperationcycles), 0) AS totalexecutedoperationcycles ");
+        query.append("COALESCE(SUM(f.executedoperationcycles), 0) AS totalexecutedoperationcycles ");
         query.append("FROM orders_order o ");
-        query.append("LEFT JOIN productioncounting_productiontracking pt ON o.id = pt.order_id AND pt.state = '02accepted' ");
-        query.append("LEFT JOIN technologies_technologyoperationcomponent toc ON pt.technologyoperationcomponent_id = toc.id ");
+        query.append("LEFT JOIN " + ProductionBalanceFactService.L_FACT_TABLE + " f ON f.order_id = o.id AND f.product_id IS NULL AND f.worker_id IS NULL ");
+        query.append("LEFT JOIN technologies_technologyoperationcomponent toc ON f.technologyoperationcomponent_id = toc.id ");
         query.append("LEFT JOIN technologies_operation op ON toc.operation_id = op.id ");
         appendWhereClause(query);
         query.append("AND o.typeofproductionrecording = '03forEach' ");
         query.append("GROUP BY orderNumber, operationNumber ");
         query.append("ORDER BY orderNumber, operationNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(PieceworkDetails.class));
+        query(query.toString(), ordersIds, PieceworkDetails.class, consumer);
     }
 
-    List<LaborTime> getLaborTime(List<Long> ordersIds) {
+    void getLaborTime(List<Long> ordersIds, Consumer<LaborTime> consumer) {
         StringBuilder query = new StringBuilder();
         query.append("SELECT ");
         query.append("o.number AS orderNumber, ");
@@ -269,23 +273,22 @@ class ProductionBalanceRepository {
         query.append("stf.surname AS staffSurname, ");
         query.append("COALESCE(stf.laborhourlycost, 0) AS staffLaborHourlyCost, ");
         query.append("wg.name AS wageGroupName, ");
-        query.append("COALESCE(SUM(swt.labortime), 0) AS laborTime ");
+        query.append("COALESCE(SUM(f.labortime), 0) AS laborTime ");
         query.append("FROM orders_order o ");
-        query.append("LEFT JOIN productioncounting_productiontracking pt ON o.id = pt.order_id AND pt.state = '02accepted' ");
-        query.append("LEFT JOIN productioncounting_staffworktime swt ON pt.id = swt.productionrecord_id ");
-        query.append("LEFT JOIN basic_staff stf ON swt.worker_id = stf.id ");
-        query.append("LEFT JOIN technologies_technologyoperationcomponent toc ON pt.technologyoperationcomponent_id = toc.id ");
+        query.append("LEFT JOIN " + ProductionBalanceFactService.L_FACT_TABLE + " f ");
+        query.append("ON f.order_id = o.id AND f.worker_id IS NOT NULL ");
+        query.append("LEFT JOIN basic_staff stf ON f.worker_id = stf.id ");
+        query.append("LEFT JOIN technologies_technologyoperationcomponent toc ON f.technologyoperationcomponent_id = toc.id ");
         query.append("LEFT JOIN technologies_operation op ON toc.operation_id = op.id ");
         query.append("LEFT JOIN wagegroups_wagegroup wg ON stf.wagegroup_id = wg.id ");
         appendWhereClause(query);
         query.append("GROUP BY orderNumber, operationNumber, staffNumber, staffName, staffSurname, staffLaborHourlyCost, wageGroupName ");
         query.append("ORDER BY orderNumber, operationNumber, staffNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(LaborTime.class));
+        query(query.toString(), ordersIds, LaborTime.class, consumer);
     }
 
-    List<LaborTimeDetails> getLaborTimeDetails(Entity entity, List<Long> ordersIds) {
+    void getLaborTimeDetails(Entity entity, List<Long> ordersIds, Consumer<LaborTimeDetails> consumer) {
         StringBuilder query = new StringBuilder();
         query.append("(WITH planned_time (order_id, staff_time, machine_time) AS (SELECT o.id AS orderId, ");
         appendPlannedStaffTime(entity, query);
@@ -392,11 +395,10 @@ class ProductionBalanceRepository {
         query.append("AND o.typeofproductionrecording = '03forEach') ");
         query.append("ORDER BY orderNumber, operationNumber, staffNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(LaborTimeDetails.class));
+        query(query.toString(), ordersIds, LaborTimeDetails.class, consumer);
     }
 
-    List<ProductionCost> getProductionCosts(Entity entity, List<Long> ordersIds) {
+    void getProductionCosts(Entity entity, List<Long> ordersIds, Consumer<ProductionCost> consumer) {
         StringBuilder query = new StringBuilder();
         query.append("(WITH planned_time (order_id, staff_time, machine_time) AS (SELECT o.id AS orderId, ");
         appendPlannedStaffTime(entity, query);
@@ -410,7 +412,7 @@ class ProductionBalanceRepository {
         appendWhereClause(query);
         query.append("AND o.typeofproductionrecording = '02cumulated' ");
         query.append("GROUP BY o.id) ");
-        appendRealStaffCosts(entity, query, "'02cumulated'");
+        appendRealTime(query);
         query.append("SELECT ");
         query.append("o.id AS orderId, ");
         query.append("o.number AS orderNumber, ");
@@ -457,8 +459,7 @@ class ProductionBalanceRepository {
         query.append("AS sumCostsDeviation ");
         query.append("FROM orders_order o ");
         query.append("JOIN planned_time plt ON plt.order_id = o.id ");
-        query.append("LEFT JOIN productioncounting_productiontracking pt ON o.id = pt.order_id AND pt.state = '02accepted' ");
-        appendRealStaffCostsJoin(entity, query);
+        query.append("LEFT JOIN real_time rt ON rt.order_id = o.id ");
         query.append("CROSS JOIN basic_parameter bp ");
         query.append("GROUP BY orderId, orderNumber) ");
         query.append("UNION ALL ");
@@ -474,7 +475,7 @@ class ProductionBalanceRepository {
         appendWhereClause(query);
         query.append("AND o.typeofproductionrecording = '03forEach' ");
         query.append("GROUP BY o.id, toc.id) ");
-        appendRealStaffCosts(entity, query, "'03forEach'");
+        appendRealTime(query);
         query.append("SELECT ");
         query.append("o.id AS orderId, ");
         query.append("o.number AS orderNumber, ");
@@ -502,7 +503,8 @@ class ProductionBalanceRepository {
         appendForEachPlannedMachineCosts(entity, query);
         query.append("AS machineCostsDeviation, ");
         query.append("COALESCE(MIN(pcor.runs / toc.numberofoperations * toc.pieceworkcost), 0) AS plannedPieceworkCosts, ");
-        query.append("COALESCE(SUM(pt.executedoperationcycles) / MIN(toc.numberofoperations) * MIN(toc.pieceworkcost), 0) AS realPieceworkCosts, ");
+        query.append("COALESCE(SUM(rt.executed_cycles) / MIN(toc.numberofoperations) * MIN(toc.pieceworkcost), 0) ");
+        query.append("AS realPieceworkCosts, ");
         appendForEachPlannedStaffCosts(entity, query);
         query.append("+ ");
         appendForEachPlannedMachineCosts(entity, query);
@@ -520,45 +522,39 @@ class ProductionBalanceRepository {
         appendForEachPlannedMachineCosts(entity, query);
         query.append("AS sumCostsDeviation ");
         query.append("FROM orders_order o ");
-        query.append("LEFT JOIN productioncounting_productiontracking pt ON o.id = pt.order_id AND pt.state = '02accepted' ");
-        query.append("LEFT JOIN planned_time plt ON plt.order_id = o.id AND plt.toc_id = pt.technologyoperationcomponent_id ");
-        query.append("LEFT JOIN technologies_technologyoperationcomponent toc ON pt.technologyoperationcomponent_id = toc.id ");
+        query.append("LEFT JOIN real_time rt ON rt.order_id = o.id ");
+        query.append("LEFT JOIN planned_time plt ON plt.order_id = o.id AND plt.toc_id = rt.toc_id ");
+        query.append("LEFT JOIN technologies_technologyoperationcomponent toc ON rt.toc_id = toc.id ");
         query.append("LEFT JOIN basicproductioncounting_productioncountingoperationrun pcor ON pcor.order_id = o.id AND pcor.technologyoperationcomponent_id = toc.id ");
         query.append("LEFT JOIN technologies_operation op ON toc.operation_id = op.id ");
-        appendRealStaffCostsJoin(entity, query);
         query.append("CROSS JOIN basic_parameter bp ");
         appendWhereClause(query);
         query.append("AND o.typeofproductionrecording = '03forEach' ");
         query.append("GROUP BY orderId, orderNumber, toc.id, operationNumber) ");
         query.append("ORDER BY orderNumber, operationNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(ProductionCost.class));
-    }
-
-    private void appendRealStaffCosts(Entity entity, StringBuilder query, String typeOfProductionRecording) {
-        if (includeWageGroups(entity)) {
-            query.append(", real_staff_cost (order_id, productiontracking_id, labor_time, staff_cost) AS ");
-            query.append("(SELECT o.id AS orderId, pt.id AS productionTrackingId, MIN(swt.labortime) AS laborTime, ");
-            query.append("COALESCE(MIN(swt.labortime), 0) / 3600 * COALESCE(MIN(s.laborhourlycost), 0) AS staffCost ");
-            query.append("FROM orders_order o ");
-            query.append("JOIN productioncounting_productiontracking pt ON pt.order_id = o.id ");
-            query.append("JOIN productioncounting_staffworktime swt ON swt.productionrecord_id = pt.id ");
-            query.append("JOIN basic_staff s ON swt.worker_id = s.id ");
-            appendWhereClause(query);
-            query.append("AND pt.state = '02accepted' AND o.typeofproductionrecording = ").append(typeOfProductionRecording);
-            query.append("GROUP BY o.id, swt.id, pt.id) ");
-        }
+        query(query.toString(), ordersIds, ProductionCost.class, consumer);
     }
 
-    private void appendRealStaffCostsJoin(Entity entity, StringBuilder query) {
-        if (includeWageGroups(entity)) {
-            query.append("LEFT JOIN real_staff_cost rsc ON rsc.order_id = o.id AND rsc.productiontracking_id = pt.id ");
-        }
+    private void appendRealTime(StringBuilder query) {
+        query.append(", real_time (order_id, toc_id, staff_time, machine_time, executed_cycles, workers_time, workers_cost) AS ");
+        query.append("(SELECT f.order_id AS orderId, f.technologyoperationcomponent_id AS tocId, ");
+        query.append("SUM(CASE WHEN f.product_id IS NULL AND f.worker_id IS NULL THEN f.labortime ELSE 0 END) ");
+        query.append("AS staffTime, ");
+        query.append("SUM(CASE WHEN f.product_id IS NULL AND f.worker_id IS NULL THEN f.machinetime ELSE 0 END) ");
+        query.append("AS machineTime, ");
+        query.append("SUM(f.executedoperationcycles) AS executedCycles, ");
+        query.append("SUM(CASE WHEN f.worker_id IS NOT NULL THEN f.labortime ELSE 0 END) AS workersTime, ");
+        query.append("SUM(CASE WHEN f.worker_id IS NOT NULL THEN f.labortime::numeric / 3600 * COALESCE(s.laborhourlycost, 0) ");
+        query.append("ELSE 0 END) AS workersCost ");
+        query.append("FROM " + ProductionBalanceFactService.L_FACT_TABLE + " f ");
+        query.append("LEFT JOIN basic_staff s ON f.worker_id = s.id ");
+        query.append("WHERE f.order_id IN (:ordersIds) ");
+        query.append("GROUP BY f.order_id, f.technologyoperationcomponent_id) ");
     }
 
     private void appendRealStaffCostsFromWageGroups(StringBuilder query) {
-        query.append("COALESCE(SUM(rsc.staff_cost), 0) ");
+        query.append("COALESCE(SUM(rt.workers_cost), 0) ");
     }
 
     private boolean includeWageGroups(Entity entity) {
@@ -566,14 +562,14 @@ class ProductionBalanceRepository {
     }
 
     private void appendRealMachineTime(StringBuilder query) {
-        query.append("COALESCE(SUM(pt.machinetime), 0) ");
+        query.append("COALESCE(SUM(rt.machine_time), 0) ");
     }
 
     private void appendRealStaffTime(Entity entity, StringBuilder query) {
         if (includeWageGroups(entity)) {
-            query.append("COALESCE(SUM(rsc.labor_time), 0) ");
+            query.append("COALESCE(SUM(rt.workers_time), 0) ");
         } else {
-            query.append("COALESCE(SUM(pt.labortime), 0) ");
+            query.append("COALESCE(SUM(rt.staff_time), 0) ");
         }
     }
 
@@ -678,10 +674,10 @@ class ProductionBalanceRepository {
         }
     }
 
-    List<OrderBalance> getOrdersBalance(Entity entity, List<Long> ordersIds, List<MaterialCost> materialCosts,
-            List<ProductionCost> productionCosts) {
+    List<OrderBalance> getOrdersBalance(Entity entity, List<Long> ordersIds, Map<Long, BigDecimal> realMaterialCosts,
+            Map<Long, BigDecimal> realProductionCosts) {
         StringBuilder query = new StringBuilder();
-        appendOrdersBalanceWithQueries(materialCosts, productionCosts, query);
+        appendOrdersBalanceWithQueries(realMaterialCosts, realProductionCosts, query);
         appendOrdersBalanceSelectionClause(entity, query);
         query.append("MIN(COALESCE(gmc.cost, 0)) AS materialCosts, ");
         query.append("MIN(gpc.cost) AS productionCosts, ");
@@ -706,8 +702,7 @@ class ProductionBalanceRepository {
         query.append("AS sellPrice ");
         query.append("FROM orders_order o ");
         query.append("JOIN basic_product prod ON o.product_id = prod.id ");
-        query.append("LEFT JOIN productioncounting_productiontracking pt ON pt.order_id = o.id AND pt.state = '02accepted' ");
-        query.append("LEFT JOIN productioncounting_trackingoperationproductoutcomponent topoc ON topoc.productiontracking_id = pt.id AND topoc.product_id = prod.id ");
+        query.append("LEFT JOIN " + ProductionBalanceFactService.L_FACT_TABLE + " f ON f.order_id = o.id AND f.product_id = prod.id ");
         query.append("LEFT JOIN grouped_material_cost gmc ON gmc.order_id = o.id ");
         query.append("JOIN grouped_production_cost gpc ON gpc.order_id = o.id ");
         appendWhereClause(query);
@@ -718,34 +713,28 @@ class ProductionBalanceRepository {
                 BeanPropertyRowMapper.newInstance(OrderBalance.class));
     }
 
-    private void appendOrdersBalanceWithQueries(List<MaterialCost> materialCosts, List<ProductionCost> productionCosts,
-            StringBuilder query) {
+    private void appendOrdersBalanceWithQueries(Map<Long, BigDecimal> realMaterialCosts,
+            Map<Long, BigDecimal> realProductionCosts, StringBuilder query) {
         query.append("WITH real_material_cost (order_id, cost) AS (VALUES ");
-        if (materialCosts.isEmpty()) {
-            query.append("(NULL::numeric, NULL::numeric) ");
-        } else {
-            for (int i = 0; i < materialCosts.size(); i++) {
-                MaterialCost materialCost = materialCosts.get(i);
-                query.append("(" + materialCost.getOrderId() + ", " + materialCost.getRealCost() + ") ");
-                if (i != materialCosts.size() - 1) {
-                    query.append(", ");
-                }
-            }
-        }
+        appendOrderCosts(realMaterialCosts, query);
         query.append("), ");
         query.append("grouped_material_cost AS (SELECT order_id, SUM(cost) AS cost FROM real_material_cost GROUP BY order_id), ");
         query.append("real_production_cost (order_id, cost) AS (VALUES ");
-        for (int i = 0; i < productionCosts.size(); i++) {
-            ProductionCost productionCost = productionCosts.get(i);
-            query.append("(" + productionCost.getOrderId() + ", " + productionCost.getRealCostsSum() + ") ");
-            if (i != productionCosts.size() - 1) {
-                query.append(", ");
-            }
-        }
+        appendOrderCosts(realProductionCosts, query);
         query.append("), ");
         query.append("grouped_production_cost AS (SELECT order_id, SUM(cost) AS cost FROM real_production_cost GROUP BY order_id) ");
     }
 
+    private void appendOrderCosts(Map<Long, BigDecimal> orderCosts, StringBuilder query) {
+        if (orderCosts.isEmpty()) {
+            query.append("(NULL::numeric, NULL::numeric) ");
+        } else {
+            query.append(orderCosts.entrySet().stream()
+                    .map(orderCost -> "(" + orderCost.getKey() + ", " + orderCost.getValue() + ") ")
+                    .collect(Collectors.joining(", ")));
+        }
+    }
+
     private void appendOrdersBalanceSelectionClause(Entity entity, StringBuilder query) {
         query.append("SELECT ");
         query.append("o.id AS orderId, ");
@@ -884,8 +873,7 @@ class ProductionBalanceRepository {
         query.append("AS sellPrice ");
         query.append("FROM orders_order o ");
         query.append("JOIN basic_product prod ON o.product_id = prod.id ");
-        query.append("LEFT JOIN productioncounting_productiontracking pt ON pt.order_id = o.id AND pt.state = '02accepted' ");
-        query.append("LEFT JOIN productioncounting_trackingoperationproductoutcomponent topoc ON topoc.productiontracking_id = pt.id AND topoc.product_id = prod.id ");
+        query.append("LEFT JOIN " + ProductionBalanceFactService.L_FACT_TABLE + " f ON f.order_id = o.id AND f.product_id = prod.id ");
         query.append("JOIN order_balance_rec obr ON obr.order_id = o.id ");
         appendWhereClause(query);
         query.append("AND o.root_id IS NULL ");
@@ -1076,4 +1064,18 @@ class ProductionBalanceRepository {
         query.append("SUM(direct_additional_cost) AS direct_additional_cost, SUM(total_costs) AS total_costs ");
         query.append("FROM component_balance GROUP BY product_id) ");
     }
+
+    private <T> void query(String query, List<Long> ordersIds, Class<T> rowClass, Consumer<T> consumer) {
+        RowMapper<T> rowMapper = BeanPropertyRowMapper.newInstance(rowClass);
+
+        jdbcTemplate.query(query, new MapSqlParameterSource("ordersIds", ordersIds), new RowCallbackHandler() {
+
+            private int rowNum = 0;
+
+            @Override
+            public void processRow(ResultSet resultSet) throws SQLException {
+                consumer.accept(rowMapper.mapRow(resultSet, rowNum++));
+            }
+        });
+    }
 }
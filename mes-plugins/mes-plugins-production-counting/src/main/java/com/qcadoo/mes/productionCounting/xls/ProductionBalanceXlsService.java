@@ -1,33 +1,38 @@
 package com.qcadoo.mes.productionCounting.xls;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.stream.Collectors;
 
-import org.apache.poi.hssf.usermodel.HSSFCell;
 import org.apache.poi.hssf.usermodel.HSSFCellStyle;
-import org.apache.poi.hssf.usermodel.HSSFRow;
 import org.apache.poi.hssf.usermodel.HSSFSheet;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.Font;
 import org.apache.poi.ss.usermodel.IndexedColors;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.WorkbookUtil;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFCellStyle;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.mes.productionCounting.constants.ProductionBalanceFields;
-import com.qcadoo.mes.productionCounting.xls.dto.LaborTime;
-import com.qcadoo.mes.productionCounting.xls.dto.LaborTimeDetails;
-import com.qcadoo.mes.productionCounting.xls.dto.MaterialCost;
 import com.qcadoo.mes.productionCounting.xls.dto.OrderBalance;
-import com.qcadoo.mes.productionCounting.xls.dto.PieceworkDetails;
-import com.qcadoo.mes.productionCounting.xls.dto.ProducedQuantity;
-import com.qcadoo.mes.productionCounting.xls.dto.ProductionCost;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.NumberService;
 import com.qcadoo.report.api.xls.XlsDocumentService;
@@ -35,6 +40,16 @@ import com.qcadoo.report.api.xls.XlsDocumentService;
 @Service
 public class ProductionBalanceXlsService extends XlsDocumentService {
 
+    private static final int L_ROW_ACCESS_WINDOW_SIZE = 100;
+
+    private static final int L_MIN_COLUMN_WIDTH = 10;
+
+    private static final int L_MAX_COLUMN_WIDTH = 60;
+
+    private static final String L_XLSX_FILE_PREFIX = "productionBalance";
+
+    private static final String L_XLSX_FILE_SUFFIX = ".xlsx";
+
     @Autowired
     private TranslationService translationService;
 
@@ -49,26 +64,14 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
 
     @Override
     protected void addHeader(HSSFSheet sheet, Locale locale, Entity entity) {
-
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        HSSFRow headerRow = sheet.createRow(0);
-        int columnIndex = 0;
-        for (String key : PRODUCTION_QUANTITIES_HEADERS) {
-            createHeaderCell(stylesContainer, headerRow,
-                    translationService.translate("productionCounting.productionBalance.report.xls.header." + key, locale),
-                    columnIndex, HSSFCellStyle.ALIGN_LEFT);
-            columnIndex++;
-        }
+        createProducedQuantitiesHeader(sheet, createStylesContainer(sheet.getWorkbook()), locale);
     }
 
     @Override
     protected void addSeries(HSSFSheet sheet, Entity entity) {
         List<Long> ordersIds = getOrdersIds(entity);
 
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        createProducedQuantitiesSheet(sheet, ordersIds, stylesContainer);
+        createProducedQuantitiesSheet(sheet, ordersIds, createStylesContainer(sheet.getWorkbook()));
     }
 
     @Override
@@ -78,36 +81,87 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
 
     @Override
     protected void addExtraSheets(final HSSFWorkbook workbook, Entity entity, Locale locale) {
+        addExtraSheets(workbook, createStylesContainer(workbook), entity, locale);
+    }
+
+    /**
+     * Generates production balance as XLSX temporary file. Rows are written by streaming workbook, which keeps only a window of
+     * recent rows in memory, straight from repository queries. Caller is responsible for deleting returned file.
+     */
+    public File generateXlsxDocument(final Entity productionBalance, final Locale locale) throws IOException {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(L_ROW_ACCESS_WINDOW_SIZE);
+
+        try {
+            StylesContainer stylesContainer = createStylesContainer(workbook);
+
+            Sheet sheet = createBalanceSheet(workbook, getReportTitle(locale));
+            createProducedQuantitiesHeader(sheet, stylesContainer, locale);
+            createProducedQuantitiesSheet(sheet, getOrdersIds(productionBalance), stylesContainer);
+
+            addExtraSheets(workbook, stylesContainer, productionBalance, locale);
+
+            return writeToTemporaryFile(workbook);
+        } finally {
+            workbook.dispose();
+        }
+    }
+
+    private File writeToTemporaryFile(final Workbook workbook) throws IOException {
+        File file = File.createTempFile(L_XLSX_FILE_PREFIX, L_XLSX_FILE_SUFFIX);
+
+        try (OutputStream outputStream = new FileOutputStream(file)) {
+            workbook.write(outputStream);
+        } catch (IOException e) {
+            file.delete();
+
+            throw e;
+        }
+
+        return file;
+    }
+
+    private void addExtraSheets(final Workbook workbook, final StylesContainer stylesContainer, final Entity entity,
+            final Locale locale) {
         List<Long> ordersIds = getOrdersIds(entity);
-        List<MaterialCost> materialCosts = productionBalanceRepository.getMaterialCosts(entity, ordersIds);
-        createMaterialCostsSheet(materialCosts, createSheet(workbook,
+        Map<Long, BigDecimal> realMaterialCosts = Maps.newHashMap();
+        Map<Long, BigDecimal> realProductionCosts = Maps.newHashMap();
+
+        createMaterialCostsSheet(createBalanceSheet(workbook,
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.materialCosts", locale)),
-                locale);
-        createLaborTimeSheet(createSheet(workbook, translationService.translate(LaborTimeSheetConstants.SHEET_TITLE, locale)),
-                ordersIds, locale);
-        List<LaborTimeDetails> laborTimeDetailsList = productionBalanceRepository.getLaborTimeDetails(entity, ordersIds);
-        createLaborTimeDetailsSheet(laborTimeDetailsList, createSheet(workbook,
+                stylesContainer, entity, ordersIds, realMaterialCosts, locale);
+        createLaborTimeSheet(
+                createBalanceSheet(workbook, translationService.translate(LaborTimeSheetConstants.SHEET_TITLE, locale)),
+                stylesContainer, ordersIds, locale);
+        createLaborTimeDetailsSheet(createBalanceSheet(workbook,
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails", locale)),
-                locale);
-        createPieceworkSheet(createSheet(workbook, translationService.translate(PieceworkSheetConstants.SHEET_TITLE, locale)),
-                ordersIds, locale);
-        List<ProductionCost> productionCosts = productionBalanceRepository.getProductionCosts(entity, ordersIds);
-        createProductionCostsSheet(productionCosts, createSheet(workbook,
+                stylesContainer, entity, ordersIds, locale);
+        createPieceworkSheet(
+                createBalanceSheet(workbook, translationService.translate(PieceworkSheetConstants.SHEET_TITLE, locale)),
+                stylesContainer, ordersIds, locale);
+        createProductionCostsSheet(createBalanceSheet(workbook,
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.productionCosts", locale)),
-                locale);
-        List<OrderBalance> ordersBalance = productionBalanceRepository.getOrdersBalance(entity, ordersIds, materialCosts,
-                productionCosts);
-        createOrdersBalanceSheet(ordersBalance, createSheet(workbook,
+                stylesContainer, entity, ordersIds, realProductionCosts, locale);
+        List<OrderBalance> ordersBalance = productionBalanceRepository.getOrdersBalance(entity, ordersIds, realMaterialCosts,
+                realProductionCosts);
+        createOrdersBalanceSheet(ordersBalance, createBalanceSheet(workbook,
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance", locale)),
-                locale);
+                stylesContainer, locale);
         List<OrderBalance> componentsBalance = productionBalanceRepository.getComponentsBalance(entity, ordersIds, ordersBalance);
-        createOrdersBalanceSheet(componentsBalance, createSheet(workbook,
+        createOrdersBalanceSheet(componentsBalance, createBalanceSheet(workbook,
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.componentsBalance", locale)),
-                locale);
+                stylesContainer, locale);
         List<OrderBalance> productsBalance = productionBalanceRepository.getProductsBalance(entity, ordersIds, componentsBalance);
-        createProductsBalanceSheet(productsBalance, createSheet(workbook,
+        createProductsBalanceSheet(productsBalance, createBalanceSheet(workbook,
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.productsBalance", locale)),
-                locale);
+                stylesContainer, locale);
+    }
+
+    private Sheet createBalanceSheet(final Workbook workbook, final String sheetName) {
+        if (workbook instanceof HSSFWorkbook) {
+            return createSheet((HSSFWorkbook) workbook, sheetName);
+        }
+
+        return workbook.createSheet(WorkbookUtil.createSafeSheetName(sheetName));
     }
 
     private List<Long> getOrdersIds(final Entity productionBalance) {
@@ -116,11 +170,29 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         return orders.stream().map(Entity::getId).collect(Collectors.toList());
     }
 
-    private void createProducedQuantitiesSheet(HSSFSheet sheet, List<Long> ordersIds, StylesContainer stylesContainer) {
-        List<ProducedQuantity> producedQuantities = productionBalanceRepository.getProducedQuantities(ordersIds);
-        int rowIndex = 1;
-        for (ProducedQuantity producedQuantity : producedQuantities) {
-            HSSFRow row = sheet.createRow(rowIndex);
+    private void addOrderCost(final Map<Long, BigDecimal> orderCosts, final Long orderId, final BigDecimal cost) {
+        if (cost == null) {
+            orderCosts.putIfAbsent(orderId, null);
+        } else {
+            orderCosts.merge(orderId, cost, BigDecimal::add);
+        }
+    }
+
+    private void createProducedQuantitiesHeader(Sheet sheet, StylesContainer stylesContainer, Locale locale) {
+        Row headerRow = sheet.createRow(0);
+        int columnIndex = 0;
+        for (String key : PRODUCTION_QUANTITIES_HEADERS) {
+            createHeaderCell(stylesContainer, headerRow,
+                    translationService.translate("productionCounting.productionBalance.report.xls.header." + key, locale),
+                    columnIndex, HSSFCellStyle.ALIGN_LEFT);
+            columnIndex++;
+        }
+    }
+
+    private void createProducedQuantitiesSheet(Sheet sheet, List<Long> ordersIds, StylesContainer stylesContainer) {
+        SheetRows rows = new SheetRows(sheet);
+        productionBalanceRepository.getProducedQuantities(ordersIds, producedQuantity -> {
+            Row row = rows.next();
             createRegularCell(stylesContainer, row, 0, producedQuantity.getOrderNumber());
             createRegularCell(stylesContainer, row, 1, producedQuantity.getProductNumber());
             createRegularCell(stylesContainer, row, 2, producedQuantity.getProductName());
@@ -130,19 +202,37 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             createNumericCell(stylesContainer, row, 6, producedQuantity.getProducedWastes(), false);
             createNumericCell(stylesContainer, row, 7, producedQuantity.getDeviation(), false);
             createRegularCell(stylesContainer, row, 8, producedQuantity.getProductUnit());
-            rowIndex++;
-        }
+        });
+        autoSizeColumns(sheet, PRODUCTION_QUANTITIES_HEADERS.size());
+    }
 
-        for (int i = 0; i < PRODUCTION_QUANTITIES_HEADERS.size(); i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+    private void createMaterialCostsSheet(Sheet sheet, StylesContainer stylesContainer, Entity entity, List<Long> ordersIds,
+            Map<Long, BigDecimal> realMaterialCosts, Locale locale) {
+        createMaterialCostsHeader(sheet, stylesContainer, locale);
+
+        SheetRows rows = new SheetRows(sheet);
+        productionBalanceRepository.getMaterialCosts(entity, ordersIds, materialCost -> {
+            Row row = rows.next();
+            createRegularCell(stylesContainer, row, 0, materialCost.getOrderNumber());
+            createRegularCell(stylesContainer, row, 1, materialCost.getOperationNumber());
+            createRegularCell(stylesContainer, row, 2, materialCost.getProductNumber());
+            createRegularCell(stylesContainer, row, 3, materialCost.getProductName());
+            createNumericCell(stylesContainer, row, 4, materialCost.getPlannedQuantity(), false);
+            createNumericCell(stylesContainer, row, 5, materialCost.getUsedQuantity(), true);
+            createNumericCell(stylesContainer, row, 6, materialCost.getQuantitativeDeviation(), false);
+            createRegularCell(stylesContainer, row, 7, materialCost.getProductUnit());
+            createNumericCell(stylesContainer, row, 8, materialCost.getPlannedCost(), false);
+            createNumericCell(stylesContainer, row, 9, materialCost.getRealCost(), true);
+            createNumericCell(stylesContainer, row, 10, materialCost.getValueDeviation(), false);
+            createNumericCell(stylesContainer, row, 11, materialCost.getUsedWasteQuantity(), false);
+            createRegularCell(stylesContainer, row, 12, materialCost.getUsedWasteUnit());
+            addOrderCost(realMaterialCosts, materialCost.getOrderId(), materialCost.getRealCost());
+        });
+        autoSizeColumns(sheet, 13);
     }
 
-    private void createMaterialCostsSheet(List<MaterialCost> materialCosts, HSSFSheet sheet, Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+    private void createMaterialCostsHeader(Sheet sheet, StylesContainer stylesContainer, Locale locale) {
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer,
                 row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.materialCosts.orderNumber", locale),
@@ -193,35 +283,23 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         createHeaderCell(stylesContainer, row,
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.materialCosts.unit", locale),
                 12, CellStyle.ALIGN_LEFT);
+    }
 
-        int rowCounter = 0;
-        for (MaterialCost materialCost : materialCosts) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, materialCost.getOrderNumber());
-            createRegularCell(stylesContainer, row, 1, materialCost.getOperationNumber());
-            createRegularCell(stylesContainer, row, 2, materialCost.getProductNumber());
-            createRegularCell(stylesContainer, row, 3, materialCost.getProductName());
-            createNumericCell(stylesContainer, row, 4, materialCost.getPlannedQuantity(), false);
-            createNumericCell(stylesContainer, row, 5, materialCost.getUsedQuantity(), true);
-            createNumericCell(stylesContainer, row, 6, materialCost.getQuantitativeDeviation(), false);
-            createRegularCell(stylesContainer, row, 7, materialCost.getProductUnit());
-            createNumericCell(stylesContainer, row, 8, materialCost.getPlannedCost(), false);
-            createNumericCell(stylesContainer, row, 9, materialCost.getRealCost(), true);
-            createNumericCell(stylesContainer, row, 10, materialCost.getValueDeviation(), false);
-            createNumericCell(stylesContainer, row, 11, materialCost.getUsedWasteQuantity(), false);
-            createRegularCell(stylesContainer, row, 12, materialCost.getUsedWasteUnit());
-            rowCounter++;
-        }
-        for (int i = 0; i <= 12; i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+    private void createPieceworkSheet(Sheet sheet, StylesContainer stylesContainer, List<Long> ordersIds, Locale locale) {
+        createPieceworkHeader(sheet, stylesContainer, locale);
+
+        SheetRows rows = new SheetRows(sheet);
+        productionBalanceRepository.getPieceworkDetails(ordersIds, pieceworkDetails -> {
+            Row row = rows.next();
+            createRegularCell(stylesContainer, row, 0, pieceworkDetails.getOrderNumber());
+            createRegularCell(stylesContainer, row, 1, pieceworkDetails.getOperationNumber());
+            createNumericCell(stylesContainer, row, 2, pieceworkDetails.getTotalExecutedOperationCycles(), false);
+        });
+        autoSizeColumns(sheet, 3);
     }
 
-    private void createPieceworkSheet(HSSFSheet sheet, List<Long> ordersIds, Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+    private void createPieceworkHeader(Sheet sheet, StylesContainer stylesContainer, Locale locale) {
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer, row, translationService.translate(PieceworkSheetConstants.ORDER_NUMBER, locale), 0,
                 CellStyle.ALIGN_LEFT);
         createHeaderCell(stylesContainer, row, translationService.translate(PieceworkSheetConstants.OPERATION_NUMBER, locale), 1,
@@ -229,26 +307,28 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         createHeaderCell(stylesContainer, row,
                 translationService.translate(PieceworkSheetConstants.TOTAL_EXECUTED_OPERATION_CYCLES, locale), 2,
                 CellStyle.ALIGN_LEFT);
+    }
 
-        List<PieceworkDetails> pieceworkDetailsList = productionBalanceRepository.getPieceworkDetails(ordersIds);
-        int rowCounter = 0;
-        for (PieceworkDetails pieceworkDetails : pieceworkDetailsList) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, pieceworkDetails.getOrderNumber());
-            createRegularCell(stylesContainer, row, 1, pieceworkDetails.getOperationNumber());
-            createNumericCell(stylesContainer, row, 2, pieceworkDetails.getTotalExecutedOperationCycles(), false);
-            rowCounter++;
-        }
-        for (int i = 0; i <= 2; i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+    private void createLaborTimeSheet(Sheet sheet, StylesContainer stylesContainer, List<Long> ordersIds, Locale locale) {
+        createLaborTimeHeader(sheet, stylesContainer, locale);
+
+        SheetRows rows = new SheetRows(sheet);
+        productionBalanceRepository.getLaborTime(ordersIds, laborTime -> {
+            Row row = rows.next();
+            createRegularCell(stylesContainer, row, 0, laborTime.getOrderNumber());
+            createRegularCell(stylesContainer, row, 1, laborTime.getOperationNumber());
+            createRegularCell(stylesContainer, row, 2, laborTime.getStaffNumber());
+            createRegularCell(stylesContainer, row, 3, laborTime.getStaffName());
+            createRegularCell(stylesContainer, row, 4, laborTime.getStaffSurname());
+            createRegularCell(stylesContainer, row, 5, laborTime.getWageGroupName());
+            createNumericCell(stylesContainer, row, 6, laborTime.getStaffLaborHourlyCost(), false);
+            createTimeCell(stylesContainer, row, 7, laborTime.getLaborTime(), false);
+        });
+        autoSizeColumns(sheet, 8);
     }
 
-    private void createLaborTimeSheet(HSSFSheet sheet, List<Long> ordersIds, Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+    private void createLaborTimeHeader(Sheet sheet, StylesContainer stylesContainer, Locale locale) {
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer, row, translationService.translate(LaborTimeSheetConstants.ORDER_NUMBER, locale), 0,
                 CellStyle.ALIGN_LEFT);
         createHeaderCell(stylesContainer, row, translationService.translate(LaborTimeSheetConstants.OPERATION_NUMBER, locale), 1,
@@ -265,31 +345,48 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                 CellStyle.ALIGN_LEFT);
         createHeaderCell(stylesContainer, row, translationService.translate(LaborTimeSheetConstants.LABOR_TIME, locale), 7,
                 CellStyle.ALIGN_LEFT);
+    }
 
-        List<LaborTime> laborTimeList = productionBalanceRepository.getLaborTime(ordersIds);
-        int rowCounter = 0;
-        for (LaborTime laborTime : laborTimeList) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, laborTime.getOrderNumber());
-            createRegularCell(stylesContainer, row, 1, laborTime.getOperationNumber());
-            createRegularCell(stylesContainer, row, 2, laborTime.getStaffNumber());
-            createRegularCell(stylesContainer, row, 3, laborTime.getStaffName());
-            createRegularCell(stylesContainer, row, 4, laborTime.getStaffSurname());
-            createRegularCell(stylesContainer, row, 5, laborTime.getWageGroupName());
-            createNumericCell(stylesContainer, row, 6, laborTime.getStaffLaborHourlyCost(), false);
-            createTimeCell(stylesContainer, row, 7, laborTime.getLaborTime(), false);
-            rowCounter++;
-        }
-        for (int i = 0; i <= 7; i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+    private void createLaborTimeDetailsSheet(Sheet sheet, StylesContainer stylesContainer, Entity entity, List<Long> ordersIds,
+            Locale locale) {
+        createLaborTimeDetailsHeader(sheet, stylesContainer, locale);
+
+        SheetRows rows = new SheetRows(sheet);
+        productionBalanceRepository.getLaborTimeDetails(entity, ordersIds, laborTimeDetails -> {
+            Row row = rows.next();
+            createRegularCell(stylesContainer, row, 0, laborTimeDetails.getDivisionNumber());
+            createRegularCell(stylesContainer, row, 1, laborTimeDetails.getProductionLineNumber());
+            createRegularCell(stylesContainer, row, 2, laborTimeDetails.getOrderNumber());
+            createRegularCell(stylesContainer, row, 3, translationService.translate(
+                    "orders.order.state.value." + laborTimeDetails.getOrderState(), locale));
+            createDateTimeCell(stylesContainer, row, 4, laborTimeDetails.getPlannedDateFrom());
+            createDateTimeCell(stylesContainer, row, 5, laborTimeDetails.getEffectiveDateFrom());
+            createDateTimeCell(stylesContainer, row, 6, laborTimeDetails.getPlannedDateTo());
+            createDateTimeCell(stylesContainer, row, 7, laborTimeDetails.getEffectiveDateTo());
+            createRegularCell(stylesContainer, row, 8, laborTimeDetails.getProductNumber());
+            createRegularCell(stylesContainer, row, 9, laborTimeDetails.getOrderName());
+            createNumericCell(stylesContainer, row, 10, laborTimeDetails.getPlannedQuantity(), false);
+            createNumericCell(stylesContainer, row, 11, laborTimeDetails.getAmountOfProductProduced(), false);
+            createRegularCell(stylesContainer, row, 12, laborTimeDetails.getStaffNumber());
+            createRegularCell(stylesContainer, row, 13, laborTimeDetails.getStaffName());
+            createRegularCell(stylesContainer, row, 14, laborTimeDetails.getStaffSurname());
+            createRegularCell(stylesContainer, row, 15, laborTimeDetails.getOperationNumber());
+            createDateTimeCell(stylesContainer, row, 16, laborTimeDetails.getTimeRangeFrom());
+            createDateTimeCell(stylesContainer, row, 17, laborTimeDetails.getTimeRangeTo());
+            createRegularCell(stylesContainer, row, 18, laborTimeDetails.getShiftName());
+            createDateTimeCell(stylesContainer, row, 19, laborTimeDetails.getCreateDate());
+            createTimeCell(stylesContainer, row, 20, laborTimeDetails.getLaborTime(), false);
+            createTimeCell(stylesContainer, row, 21, laborTimeDetails.getPlannedLaborTime(), false);
+            createTimeCell(stylesContainer, row, 22, laborTimeDetails.getLaborTimeDeviation(), false);
+            createTimeCell(stylesContainer, row, 23, laborTimeDetails.getMachineTime(), false);
+            createTimeCell(stylesContainer, row, 24, laborTimeDetails.getPlannedMachineTime(), false);
+            createTimeCell(stylesContainer, row, 25, laborTimeDetails.getMachineTimeDeviation(), false);
+        });
+        autoSizeColumns(sheet, 26);
     }
 
-    private void createLaborTimeDetailsSheet(List<LaborTimeDetails> laborTimeDetailsList, HSSFSheet sheet, Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+    private void createLaborTimeDetailsHeader(Sheet sheet, StylesContainer stylesContainer, Locale locale) {
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer, row,
                 translationService.translate(
                         "productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.divisionNumber", locale),
@@ -394,49 +491,39 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                 translationService.translate(
                         "productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.machineTimeDeviation", locale),
                 25, CellStyle.ALIGN_LEFT);
+    }
 
-        int rowCounter = 0;
-        for (LaborTimeDetails laborTimeDetails : laborTimeDetailsList) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, laborTimeDetails.getDivisionNumber());
-            createRegularCell(stylesContainer, row, 1, laborTimeDetails.getProductionLineNumber());
-            createRegularCell(stylesContainer, row, 2, laborTimeDetails.getOrderNumber());
-            createRegularCell(stylesContainer, row, 3, translationService.translate(
-                    "orders.order.state.value." + laborTimeDetails.getOrderState(), locale));
-            createDateTimeCell(stylesContainer, row, 4, laborTimeDetails.getPlannedDateFrom());
-            createDateTimeCell(stylesContainer, row, 5, laborTimeDetails.getEffectiveDateFrom());
-            createDateTimeCell(stylesContainer, row, 6, laborTimeDetails.getPlannedDateTo());
-            createDateTimeCell(stylesContainer, row, 7, laborTimeDetails.getEffectiveDateTo());
-            createRegularCell(stylesContainer, row, 8, laborTimeDetails.getProductNumber());
-            createRegularCell(stylesContainer, row, 9, laborTimeDetails.getOrderName());
-            createNumericCell(stylesContainer, row, 10, laborTimeDetails.getPlannedQuantity(), false);
-            createNumericCell(stylesContainer, row, 11, laborTimeDetails.getAmountOfProductProduced(), false);
-            createRegularCell(stylesContainer, row, 12, laborTimeDetails.getStaffNumber());
-            createRegularCell(stylesContainer, row, 13, laborTimeDetails.getStaffName());
-            createRegularCell(stylesContainer, row, 14, laborTimeDetails.getStaffSurname());
-            createRegularCell(stylesContainer, row, 15, laborTimeDetails.getOperationNumber());
-            createDateTimeCell(stylesContainer, row, 16, laborTimeDetails.getTimeRangeFrom());
-            createDateTimeCell(stylesContainer, row, 17, laborTimeDetails.getTimeRangeTo());
-            createRegularCell(stylesContainer, row, 18, laborTimeDetails.getShiftName());
-            createDateTimeCell(stylesContainer, row, 19, laborTimeDetails.getCreateDate());
-            createTimeCell(stylesContainer, row, 20, laborTimeDetails.getLaborTime(), false);
-            createTimeCell(stylesContainer, row, 21, laborTimeDetails.getPlannedLaborTime(), false);
-            createTimeCell(stylesContainer, row, 22, laborTimeDetails.getLaborTimeDeviation(), false);
-            createTimeCell(stylesContainer, row, 23, laborTimeDetails.getMachineTime(), false);
-            createTimeCell(stylesContainer, row, 24, laborTimeDetails.getPlannedMachineTime(), false);
-            createTimeCell(stylesContainer, row, 25, laborTimeDetails.getMachineTimeDeviation(), false);
-            rowCounter++;
-        }
-        for (int i = 0; i <= 25; i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+    private void createProductionCostsSheet(Sheet sheet, StylesContainer stylesContainer, Entity entity, List<Long> ordersIds,
+            Map<Long, BigDecimal> realProductionCosts, Locale locale) {
+        createProductionCostsHeader(sheet, stylesContainer, locale);
+
+        SheetRows rows = new SheetRows(sheet);
+        productionBalanceRepository.getProductionCosts(entity, ordersIds, productionCost -> {
+            Row row = rows.next();
+            createRegularCell(stylesContainer, row, 0, productionCost.getOrderNumber());
+            createRegularCell(stylesContainer, row, 1, productionCost.getOperationNumber());
+            createNumericCell(stylesContainer, row, 2, productionCost.getPlannedCostsSum(), false);
+            createNumericCell(stylesContainer, row, 3, productionCost.getRealCostsSum(), false);
+            createNumericCell(stylesContainer, row, 4, productionCost.getSumCostsDeviation(), false);
+            createTimeCell(stylesContainer, row, 5, productionCost.getPlannedStaffTime(), false);
+            createTimeCell(stylesContainer, row, 6, productionCost.getRealStaffTime(), true);
+            createTimeCell(stylesContainer, row, 7, productionCost.getPlannedMachineTime(), false);
+            createTimeCell(stylesContainer, row, 8, productionCost.getRealMachineTime(), true);
+            createNumericCell(stylesContainer, row, 9, productionCost.getPlannedStaffCosts(), false);
+            createNumericCell(stylesContainer, row, 10, productionCost.getRealStaffCosts(), false);
+            createNumericCell(stylesContainer, row, 11, productionCost.getStaffCostsDeviation(), false);
+            createNumericCell(stylesContainer, row, 12, productionCost.getPlannedMachineCosts(), false);
+            createNumericCell(stylesContainer, row, 13, productionCost.getRealMachineCosts(), false);
+            createNumericCell(stylesContainer, row, 14, productionCost.getMachineCostsDeviation(), false);
+            createNumericCell(stylesContainer, row, 15, productionCost.getPlannedPieceworkCosts(), false);
+            createNumericCell(stylesContainer, row, 16, productionCost.getRealPieceworkCosts(), false);
+            addOrderCost(realProductionCosts, productionCost.getOrderId(), productionCost.getRealCostsSum());
+        });
+        autoSizeColumns(sheet, 17);
     }
 
-    private void createProductionCostsSheet(List<ProductionCost> productionCosts, HSSFSheet sheet, Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+    private void createProductionCostsHeader(Sheet sheet, StylesContainer stylesContainer, Locale locale) {
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer,
                 row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.productionCosts.orderNumber", locale),
@@ -505,39 +592,42 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                 translationService.translate(
                         "productionCounting.productionBalance.report.xls.sheet.productionCosts.realPieceworkCosts", locale),
                 16, CellStyle.ALIGN_LEFT);
+    }
 
-        int rowCounter = 0;
-        for (ProductionCost productionCost : productionCosts) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, productionCost.getOrderNumber());
-            createRegularCell(stylesContainer, row, 1, productionCost.getOperationNumber());
-            createNumericCell(stylesContainer, row, 2, productionCost.getPlannedCostsSum(), false);
-            createNumericCell(stylesContainer, row, 3, productionCost.getRealCostsSum(), false);
-            createNumericCell(stylesContainer, row, 4, productionCost.getSumCostsDeviation(), false);
-            createTimeCell(stylesContainer, row, 5, productionCost.getPlannedStaffTime(), false);
-            createTimeCell(stylesContainer, row, 6, productionCost.getRealStaffTime(), true);
-            createTimeCell(stylesContainer, row, 7, productionCost.getPlannedMachineTime(), false);
-            createTimeCell(stylesContainer, row, 8, productionCost.getRealMachineTime(), true);
-            createNumericCell(stylesContainer, row, 9, productionCost.getPlannedStaffCosts(), false);
-            createNumericCell(stylesContainer, row, 10, productionCost.getRealStaffCosts(), false);
-            createNumericCell(stylesContainer, row, 11, productionCost.getStaffCostsDeviation(), false);
-            createNumericCell(stylesContainer, row, 12, productionCost.getPlannedMachineCosts(), false);
-            createNumericCell(stylesContainer, row, 13, productionCost.getRealMachineCosts(), false);
-            createNumericCell(stylesContainer, row, 14, productionCost.getMachineCostsDeviation(), false);
-            createNumericCell(stylesContainer, row, 15, productionCost.getPlannedPieceworkCosts(), false);
-            createNumericCell(stylesContainer, row, 16, productionCost.getRealPieceworkCosts(), false);
-            rowCounter++;
-        }
-        for (int i = 0; i <= 16; i++) {
-            sheet.autoSizeColumn(i, false);
+    private void createOrdersBalanceSheet(List<OrderBalance> ordersBalance, Sheet sheet, StylesContainer stylesContainer,
+            Locale locale) {
+        createOrdersBalanceHeader(sheet, stylesContainer, locale);
+
+        SheetRows rows = new SheetRows(sheet);
+        for (OrderBalance orderBalance : ordersBalance) {
+            Row row = rows.next();
+            createRegularCell(stylesContainer, row, 0, orderBalance.getOrderNumber());
+            createRegularCell(stylesContainer, row, 1, orderBalance.getProductNumber());
+            createRegularCell(stylesContainer, row, 2, orderBalance.getProductName());
+            createNumericCell(stylesContainer, row, 3, orderBalance.getProducedQuantity(), true);
+            createNumericCell(stylesContainer, row, 4, orderBalance.getMaterialCosts(), false);
+            createNumericCell(stylesContainer, row, 5, orderBalance.getProductionCosts(), false);
+            createNumericCell(stylesContainer, row, 6, orderBalance.getTechnicalProductionCosts(), true);
+            createNumericCell(stylesContainer, row, 7, orderBalance.getMaterialCostMargin(), false);
+            createNumericCell(stylesContainer, row, 8, orderBalance.getMaterialCostMarginValue(), false);
+            createNumericCell(stylesContainer, row, 9, orderBalance.getProductionCostMargin(), false);
+            createNumericCell(stylesContainer, row, 10, orderBalance.getProductionCostMarginValue(), false);
+            createNumericCell(stylesContainer, row, 11, orderBalance.getAdditionalOverhead(), false);
+            createNumericCell(stylesContainer, row, 12, orderBalance.getDirectAdditionalCost(), false);
+            createNumericCell(stylesContainer, row, 13, orderBalance.getTotalCosts(), true);
+            createNumericCell(stylesContainer, row, 14, orderBalance.getRegistrationPrice(), false);
+            createNumericCell(stylesContainer, row, 15, orderBalance.getRegistrationPriceOverhead(), false);
+            createNumericCell(stylesContainer, row, 16, orderBalance.getRegistrationPriceOverheadValue(), false);
+            createNumericCell(stylesContainer, row, 17, orderBalance.getRealProductionCosts(), false);
+            createNumericCell(stylesContainer, row, 18, orderBalance.getProfit(), false);
+            createNumericCell(stylesContainer, row, 19, orderBalance.getProfitValue(), false);
+            createNumericCell(stylesContainer, row, 20, orderBalance.getSellPrice(), false);
         }
+        autoSizeColumns(sheet, 21);
     }
 
-    private void createOrdersBalanceSheet(List<OrderBalance> ordersBalance, HSSFSheet sheet, Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+    private void createOrdersBalanceHeader(Sheet sheet, StylesContainer stylesContainer, Locale locale) {
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer,
                 row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance.orderNumber", locale),
@@ -615,53 +705,49 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                 stylesContainer, row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance.profit", locale),
                 18, CellStyle.ALIGN_LEFT);
-
         createHeaderCell(stylesContainer,
                 row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance.profitValue", locale),
                 19, CellStyle.ALIGN_LEFT);
-
         createHeaderCell(
                 stylesContainer, row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance.sellPrice", locale),
                 20, CellStyle.ALIGN_LEFT);
+    }
 
-        int rowCounter = 0;
-        for (OrderBalance orderBalance : ordersBalance) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, orderBalance.getOrderNumber());
-            createRegularCell(stylesContainer, row, 1, orderBalance.getProductNumber());
-            createRegularCell(stylesContainer, row, 2, orderBalance.getProductName());
-            createNumericCell(stylesContainer, row, 3, orderBalance.getProducedQuantity(), true);
-            createNumericCell(stylesContainer, row, 4, orderBalance.getMaterialCosts(), false);
-            createNumericCell(stylesContainer, row, 5, orderBalance.getProductionCosts(), false);
-            createNumericCell(stylesContainer, row, 6, orderBalance.getTechnicalProductionCosts(), true);
-            createNumericCell(stylesContainer, row, 7, orderBalance.getMaterialCostMargin(), false);
-            createNumericCell(stylesContainer, row, 8, orderBalance.getMaterialCostMarginValue(), false);
-            createNumericCell(stylesContainer, row, 9, orderBalance.getProductionCostMargin(), false);
-            createNumericCell(stylesContainer, row, 10, orderBalance.getProductionCostMarginValue(), false);
-            createNumericCell(stylesContainer, row, 11, orderBalance.getAdditionalOverhead(), false);
-            createNumericCell(stylesContainer, row, 12, orderBalance.getDirectAdditionalCost(), false);
-            createNumericCell(stylesContainer, row, 13, orderBalance.getTotalCosts(), true);
-            createNumericCell(stylesContainer, row, 14, orderBalance.getRegistrationPrice(), false);
-            createNumericCell(stylesContainer, row, 15, orderBalance.getRegistrationPriceOverhead(), false);
-            createNumericCell(stylesContainer, row, 16, orderBalance.getRegistrationPriceOverheadValue(), false);
-            createNumericCell(stylesContainer, row, 17, orderBalance.getRealProductionCosts(), false);
-            createNumericCell(stylesContainer, row, 18, orderBalance.getProfit(), false);
-            createNumericCell(stylesContainer, row, 19, orderBalance.getProfitValue(), false);
-            createNumericCell(stylesContainer, row, 20, orderBalance.getSellPrice(), false);
-            rowCounter++;
-        }
-        for (int i = 0; i <= 20; i++) {
-            sheet.autoSizeColumn(i, false);
+    private void createProductsBalanceSheet(List<OrderBalance> productsBalance, Sheet sheet, StylesContainer stylesContainer,
+            Locale locale) {
+        createProductsBalanceHeader(sheet, stylesContainer, locale);
+
+        SheetRows rows = new SheetRows(sheet);
+        for (OrderBalance orderBalance : productsBalance) {
+            Row row = rows.next();
+            createRegularCell(stylesContainer, row, 0, orderBalance.getProductNumber());
+            createRegularCell(stylesContainer, row, 1, orderBalance.getProductName());
+            createNumericCell(stylesContainer, row, 2, orderBalance.getProducedQuantity(), true);
+            createNumericCell(stylesContainer, row, 3, orderBalance.getMaterialCosts(), false);
+            createNumericCell(stylesContainer, row, 4, orderBalance.getProductionCosts(), false);
+            createNumericCell(stylesContainer, row, 5, orderBalance.getTechnicalProductionCosts(), true);
+            createNumericCell(stylesContainer, row, 6, orderBalance.getMaterialCostMargin(), false);
+            createNumericCell(stylesContainer, row, 7, orderBalance.getMaterialCostMarginValue(), false);
+            createNumericCell(stylesContainer, row, 8, orderBalance.getProductionCostMargin(), false);
+            createNumericCell(stylesContainer, row, 9, orderBalance.getProductionCostMarginValue(), false);
+            createNumericCell(stylesContainer, row, 10, orderBalance.getAdditionalOverhead(), false);
+            createNumericCell(stylesContainer, row, 11, orderBalance.getDirectAdditionalCost(), false);
+            createNumericCell(stylesContainer, row, 12, orderBalance.getTotalCosts(), true);
+            createNumericCell(stylesContainer, row, 13, orderBalance.getRegistrationPrice(), false);
+            createNumericCell(stylesContainer, row, 14, orderBalance.getRegistrationPriceOverhead(), false);
+            createNumericCell(stylesContainer, row, 15, orderBalance.getRegistrationPriceOverheadValue(), false);
+            createNumericCell(stylesContainer, row, 16, orderBalance.getRealProductionCosts(), false);
+            createNumericCell(stylesContainer, row, 17, orderBalance.getProfit(), false);
+            createNumericCell(stylesContainer, row, 18, orderBalance.getProfitValue(), false);
+            createNumericCell(stylesContainer, row, 19, orderBalance.getSellPrice(), false);
         }
+        autoSizeColumns(sheet, 20);
     }
 
-    private void createProductsBalanceSheet(List<OrderBalance> productsBalance, HSSFSheet sheet, Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+    private void createProductsBalanceHeader(Sheet sheet, StylesContainer stylesContainer, Locale locale) {
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer,
                 row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance.productNumber", locale),
@@ -735,56 +821,36 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                 stylesContainer, row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance.profit", locale),
                 17, CellStyle.ALIGN_LEFT);
-
         createHeaderCell(stylesContainer,
                 row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance.profitValue", locale),
                 18, CellStyle.ALIGN_LEFT);
-
         createHeaderCell(
                 stylesContainer, row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance.sellPrice", locale),
                 19, CellStyle.ALIGN_LEFT);
+    }
 
-        int rowCounter = 0;
-        for (OrderBalance orderBalance : productsBalance) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, orderBalance.getProductNumber());
-            createRegularCell(stylesContainer, row, 1, orderBalance.getProductName());
-            createNumericCell(stylesContainer, row, 2, orderBalance.getProducedQuantity(), true);
-            createNumericCell(stylesContainer, row, 3, orderBalance.getMaterialCosts(), false);
-            createNumericCell(stylesContainer, row, 4, orderBalance.getProductionCosts(), false);
-            createNumericCell(stylesContainer, row, 5, orderBalance.getTechnicalProductionCosts(), true);
-            createNumericCell(stylesContainer, row, 6, orderBalance.getMaterialCostMargin(), false);
-            createNumericCell(stylesContainer, row, 7, orderBalance.getMaterialCostMarginValue(), false);
-            createNumericCell(stylesContainer, row, 8, orderBalance.getProductionCostMargin(), false);
-            createNumericCell(stylesContainer, row, 9, orderBalance.getProductionCostMarginValue(), false);
-            createNumericCell(stylesContainer, row, 10, orderBalance.getAdditionalOverhead(), false);
-            createNumericCell(stylesContainer, row, 11, orderBalance.getDirectAdditionalCost(), false);
-            createNumericCell(stylesContainer, row, 12, orderBalance.getTotalCosts(), true);
-            createNumericCell(stylesContainer, row, 13, orderBalance.getRegistrationPrice(), false);
-            createNumericCell(stylesContainer, row, 14, orderBalance.getRegistrationPriceOverhead(), false);
-            createNumericCell(stylesContainer, row, 15, orderBalance.getRegistrationPriceOverheadValue(), false);
-            createNumericCell(stylesContainer, row, 16, orderBalance.getRealProductionCosts(), false);
-            createNumericCell(stylesContainer, row, 17, orderBalance.getProfit(), false);
-            createNumericCell(stylesContainer, row, 18, orderBalance.getProfitValue(), false);
-            createNumericCell(stylesContainer, row, 19, orderBalance.getSellPrice(), false);
-            rowCounter++;
+    private void autoSizeColumns(final Sheet sheet, final int numberOfColumns) {
+        if (sheet instanceof SXSSFSheet) {
+            // streamed rows are no longer available, widths are set from header
+            return;
         }
-        for (int i = 0; i <= 19; i++) {
+
+        for (int i = 0; i < numberOfColumns; i++) {
             sheet.autoSizeColumn(i, false);
         }
     }
 
-    private HSSFCell createRegularCell(StylesContainer stylesContainer, HSSFRow row, int column, String content) {
-        HSSFCell cell = row.createCell(column);
+    private Cell createRegularCell(StylesContainer stylesContainer, Row row, int column, String content) {
+        Cell cell = row.createCell(column);
         cell.setCellValue(content);
         cell.setCellStyle(StylesContainer.aligned(stylesContainer.regularStyle, HSSFCellStyle.ALIGN_LEFT));
         return cell;
     }
 
-    private HSSFCell createNumericCell(StylesContainer stylesContainer, HSSFRow row, int column, BigDecimal value, boolean bold) {
-        HSSFCell cell = row.createCell(column, HSSFCell.CELL_TYPE_NUMERIC);
+    private Cell createNumericCell(StylesContainer stylesContainer, Row row, int column, BigDecimal value, boolean bold) {
+        Cell cell = row.createCell(column, Cell.CELL_TYPE_NUMERIC);
         cell.setCellValue(numberService.setScaleWithDefaultMathContext(value, 2).doubleValue());
         if (bold) {
             cell.setCellStyle(StylesContainer.aligned(stylesContainer.numberBoldStyle, HSSFCellStyle.ALIGN_RIGHT));
@@ -794,8 +860,8 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         return cell;
     }
 
-    private HSSFCell createTimeCell(StylesContainer stylesContainer, HSSFRow row, int column, Integer value, boolean bold) {
-        HSSFCell cell = row.createCell(column, HSSFCell.CELL_TYPE_NUMERIC);
+    private Cell createTimeCell(StylesContainer stylesContainer, Row row, int column, Integer value, boolean bold) {
+        Cell cell = row.createCell(column, Cell.CELL_TYPE_NUMERIC);
         if (value == null) {
             value = 0;
         }
@@ -812,8 +878,8 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         return cell;
     }
 
-    private HSSFCell createDateTimeCell(StylesContainer stylesContainer, HSSFRow row, int column, Date value) {
-        HSSFCell cell = row.createCell(column);
+    private Cell createDateTimeCell(StylesContainer stylesContainer, Row row, int column, Date value) {
+        Cell cell = row.createCell(column);
         if (value != null) {
             cell.setCellValue(value);
             cell.setCellStyle(StylesContainer.aligned(stylesContainer.dateTimeStyle, HSSFCellStyle.ALIGN_RIGHT));
@@ -821,32 +887,56 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         return cell;
     }
 
-    private HSSFCell createHeaderCell(StylesContainer stylesContainer, HSSFRow row, String content, int column, short align) {
-        HSSFCell cell = row.createCell(column);
+    private Cell createHeaderCell(StylesContainer stylesContainer, Row row, String content, int column, short align) {
+        Cell cell = row.createCell(column);
         cell.setCellValue(content);
         cell.setCellStyle(StylesContainer.aligned(stylesContainer.headerStyle, align));
+        if (row.getSheet() instanceof SXSSFSheet) {
+            int width = Math.min(Math.max(content.length() + 2, L_MIN_COLUMN_WIDTH), L_MAX_COLUMN_WIDTH);
+            row.getSheet().setColumnWidth(column, width * 256);
+        }
         return cell;
     }
 
+    private static StylesContainer createStylesContainer(final Workbook workbook) {
+        return new StylesContainer(workbook, new FontsContainer(workbook));
+    }
+
+    private static class SheetRows {
+
+        private final Sheet sheet;
+
+        private int rowIndex = 1;
+
+        SheetRows(Sheet sheet) {
+            this.sheet = sheet;
+        }
+
+        Row next() {
+            return sheet.createRow(rowIndex++);
+        }
+
+    }
+
     private static class StylesContainer {
 
-        private final HSSFCellStyle regularStyle;
+        private final CellStyle regularStyle;
 
-        private final HSSFCellStyle headerStyle;
+        private final CellStyle headerStyle;
 
-        private final HSSFCellStyle timeStyle;
+        private final CellStyle timeStyle;
 
-        private final HSSFCellStyle timeBoldStyle;
+        private final CellStyle timeBoldStyle;
 
-        private final HSSFCellStyle negativeTimeStyle;
+        private final CellStyle negativeTimeStyle;
 
-        private final HSSFCellStyle numberStyle;
+        private final CellStyle numberStyle;
 
-        private final HSSFCellStyle numberBoldStyle;
+        private final CellStyle numberBoldStyle;
 
-        private final HSSFCellStyle dateTimeStyle;
+        private final CellStyle dateTimeStyle;
 
-        StylesContainer(HSSFWorkbook workbook, FontsContainer fontsContainer) {
+        StylesContainer(Workbook workbook, FontsContainer fontsContainer) {
             regularStyle = workbook.createCellStyle();
             regularStyle.setVerticalAlignment(HSSFCellStyle.VERTICAL_CENTER);
 
@@ -878,7 +968,7 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             dateTimeStyle.setDataFormat(workbook.createDataFormat().getFormat("yyyy-mm-dd hh:mm"));
         }
 
-        private static HSSFCellStyle aligned(HSSFCellStyle style, short align) {
+        private static CellStyle aligned(CellStyle style, short align) {
             style.setAlignment(align);
             return style;
         }
@@ -889,7 +979,7 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
 
         private final Font boldFont;
 
-        FontsContainer(HSSFWorkbook workbook) {
+        FontsContainer(Workbook workbook) {
             boldFont = workbook.createFont();
             boldFont.setBoldweight(Font.BOLDWEIGHT_BOLD);
         }
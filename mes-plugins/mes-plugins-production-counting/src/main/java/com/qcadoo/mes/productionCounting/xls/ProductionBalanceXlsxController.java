@@ -0,0 +1,66 @@
+package com.qcadoo.mes.productionCounting.xls;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Locale;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.mes.productionCounting.ProductionCountingService;
+import com.qcadoo.mes.productionCounting.constants.ProductionBalanceFields;
+import com.qcadoo.model.api.Entity;
+
+@Controller
+final class ProductionBalanceXlsxController {
+
+    private static final String L_CONTENT_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+
+    private static final String L_FILE_NAME = "productionCounting.productionBalance.report.fileName";
+
+    @Autowired
+    private TranslationService translationService;
+
+    @Autowired
+    private ProductionCountingService productionCountingService;
+
+    @Autowired
+    private ProductionBalanceXlsService productionBalanceXlsService;
+
+    @RequestMapping(value = "/productionCounting/productionBalance.xlsx", method = RequestMethod.GET)
+    public void generateProductionBalanceXlsx(@RequestParam("id") final Long productionBalanceId,
+            final HttpServletResponse response) throws IOException {
+        Entity productionBalance = productionCountingService.getProductionBalance(productionBalanceId);
+
+        if (productionBalance == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+
+            return;
+        }
+
+        Locale locale = LocaleContextHolder.getLocale();
+        File file = productionBalanceXlsService.generateXlsxDocument(productionBalance, locale);
+
+        try {
+            response.setContentType(L_CONTENT_TYPE);
+            response.setHeader("Content-Length", String.valueOf(file.length()));
+            response.setHeader("Content-Disposition", "attachment; filename=\"" + translationService.translate(L_FILE_NAME, locale)
+                    + "_" + productionBalance.getStringField(ProductionBalanceFields.NUMBER) + ".xlsx\"");
+
+            Files.copy(file.toPath(), response.getOutputStream());
+
+            response.flushBuffer();
+        } finally {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+}
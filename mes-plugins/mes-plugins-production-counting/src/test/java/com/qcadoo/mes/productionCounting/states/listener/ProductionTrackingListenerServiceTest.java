@@ -0,0 +1,143 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionCounting.states.listener;
+
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.qcadoo.mes.basicProductionCounting.BasicProductionCountingBatchUpdateService;
+import com.qcadoo.mes.basicProductionCounting.BasicProductionCountingService;
+import com.qcadoo.mes.productionCounting.constants.ProductionTrackingFields;
+import com.qcadoo.mes.productionCounting.utils.OrderClosingHelper;
+import com.qcadoo.mes.productionCounting.xls.ProductionBalanceFactService;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchCriterion;
+
+public class ProductionTrackingListenerServiceTest {
+
+    private static final Long L_ORDER_ID = 1L;
+
+    private ProductionTrackingListenerService productionTrackingListenerService;
+
+    @Mock
+    private BasicProductionCountingService basicProductionCountingService;
+
+    @Mock
+    private BasicProductionCountingBatchUpdateService basicProductionCountingBatchUpdateService;
+
+    @Mock
+    private OrderClosingHelper orderClosingHelper;
+
+    @Mock
+    private ProductionBalanceFactService productionBalanceFactService;
+
+    @Mock
+    private DataDefinition orderDD;
+
+    @Mock
+    private Entity productionTracking, order;
+
+    @Mock
+    private EntityList trackingOperationProductComponents;
+
+    @Mock
+    private SearchCriteriaBuilder searchCriteriaBuilder;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        productionTrackingListenerService = new ProductionTrackingListenerService();
+
+        ReflectionTestUtils.setField(productionTrackingListenerService, "basicProductionCountingService",
+                basicProductionCountingService);
+        ReflectionTestUtils.setField(productionTrackingListenerService, "basicProductionCountingBatchUpdateService",
+                basicProductionCountingBatchUpdateService);
+        ReflectionTestUtils.setField(productionTrackingListenerService, "orderClosingHelper", orderClosingHelper);
+        ReflectionTestUtils.setField(productionTrackingListenerService, "productionBalanceFactService",
+                productionBalanceFactService);
+
+        given(productionTracking.getBelongsToField(ProductionTrackingFields.ORDER)).willReturn(order);
+        given(productionTracking.getHasManyField(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_IN_COMPONENTS)).willReturn(
+                trackingOperationProductComponents);
+        given(productionTracking.getHasManyField(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_OUT_COMPONENTS)).willReturn(
+                trackingOperationProductComponents);
+        given(trackingOperationProductComponents.find()).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.add(any(SearchCriterion.class))).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.setMaxResults(anyInt())).willReturn(searchCriteriaBuilder);
+
+        given(order.getId()).willReturn(L_ORDER_ID);
+        given(order.getDataDefinition()).willReturn(orderDD);
+        given(orderDD.get(L_ORDER_ID)).willReturn(order);
+
+        given(basicProductionCountingBatchUpdateService.getBasicProductionCountingsByProduct(order)).willReturn(
+                Collections.emptyMap());
+        given(orderClosingHelper.orderShouldBeClosed(productionTracking)).willReturn(false);
+    }
+
+    @Test
+    public void shouldAddProductionBalanceFactsOnAccept() {
+        // when
+        productionTrackingListenerService.onAccept(productionTracking);
+
+        // then
+        verify(productionBalanceFactService).add(productionTracking);
+        verify(productionBalanceFactService, never()).subtract(productionTracking);
+    }
+
+    @Test
+    public void shouldSubtractProductionBalanceFactsOnDecline() {
+        // when
+        productionTrackingListenerService.onChangeFromAcceptedToDeclined(productionTracking);
+
+        // then
+        verify(productionBalanceFactService).subtract(productionTracking);
+        verify(productionBalanceFactService, never()).add(productionTracking);
+    }
+
+    @Test
+    public void shouldSubtractProductionBalanceFactsOnCorrection() {
+        // when
+        productionTrackingListenerService.onCorrected(productionTracking);
+
+        // then
+        verify(productionBalanceFactService).subtract(productionTracking);
+        verify(productionBalanceFactService, never()).add(productionTracking);
+    }
+
+}
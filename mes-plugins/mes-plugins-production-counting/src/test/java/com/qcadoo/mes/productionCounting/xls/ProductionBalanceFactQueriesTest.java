@@ -0,0 +1,245 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionCounting.xls;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Runs queries of {@link ProductionBalanceFactService} and {@link ProductionBalanceFactConsistencyChecker} against PostgreSQL
+ * given by test.jdbcUrl (and test.jdbcUser, test.jdbcPassword) system properties, in a schema created for each test. Without
+ * them tests are skipped.
+ */
+public class ProductionBalanceFactQueriesTest {
+
+    private static final String L_TEST_SCHEMA = "productionbalancefact_test";
+
+    private static final Long L_ORDER_ID = 1L;
+
+    private static final Long L_OTHER_ORDER_ID = 2L;
+
+    private static final Long L_TOC_ID = 21L;
+
+    private static final Long L_PRODUCT_ID = 31L;
+
+    private static final Long L_COMPONENT_ID = 32L;
+
+    private static final Long L_WORKER_ID = 41L;
+
+    private SingleConnectionDataSource dataSource;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private ProductionBalanceFactService productionBalanceFactService;
+
+    private ProductionBalanceFactConsistencyChecker productionBalanceFactConsistencyChecker;
+
+    private long lastId;
+
+    @Before
+    public void init() {
+        String url = System.getProperty("test.jdbcUrl");
+
+        Assume.assumeTrue(url != null);
+
+        dataSource = new SingleConnectionDataSource(url, System.getProperty("test.jdbcUser"),
+                System.getProperty("test.jdbcPassword"), true);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+
+        jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + L_TEST_SCHEMA + " CASCADE");
+        jdbcTemplate.execute("CREATE SCHEMA " + L_TEST_SCHEMA);
+        jdbcTemplate.execute("SET search_path TO " + L_TEST_SCHEMA);
+        jdbcTemplate.execute("CREATE TABLE orders_order (id bigint PRIMARY KEY)");
+        jdbcTemplate.execute("CREATE TABLE productioncounting_productiontracking (id bigint PRIMARY KEY, order_id bigint, "
+                + "technologyoperationcomponent_id bigint, state character varying(255), labortime integer, machinetime integer, "
+                + "executedoperationcycles numeric(12,5))");
+        jdbcTemplate.execute("CREATE TABLE productioncounting_trackingoperationproductincomponent (id bigserial PRIMARY KEY, "
+                + "productiontracking_id bigint, product_id bigint, usedquantity numeric(12,5), "
+                + "wasteusedquantity numeric(12,5), wasteunit character varying)");
+        jdbcTemplate.execute("CREATE TABLE productioncounting_trackingoperationproductoutcomponent (id bigserial PRIMARY KEY, "
+                + "productiontracking_id bigint, product_id bigint, usedquantity numeric(12,5), wastesquantity numeric(12,5))");
+        jdbcTemplate.execute("CREATE TABLE productioncounting_staffworktime (id bigserial PRIMARY KEY, "
+                + "productionrecord_id bigint, worker_id bigint, labortime integer)");
+        jdbcTemplate.execute("CREATE TABLE " + ProductionBalanceFactService.L_FACT_TABLE + " (id bigserial PRIMARY KEY, "
+                + "order_id bigint, technologyoperationcomponent_id bigint, product_id bigint, wasteunit character varying(255), "
+                + "worker_id bigint, usedquantity numeric(12,5) DEFAULT 0, wasteusedquantity numeric(12,5) DEFAULT 0, "
+                + "producedquantity numeric(12,5) DEFAULT 0, wastesquantity numeric(12,5) DEFAULT 0, "
+                + "labortime integer DEFAULT 0, machinetime integer DEFAULT 0, executedoperationcycles numeric(12,5) DEFAULT 0, "
+                + "recordscount integer DEFAULT 0)");
+        jdbcTemplate.update("INSERT INTO orders_order (id) VALUES (?), (?)", L_ORDER_ID, L_OTHER_ORDER_ID);
+
+        NamedParameterJdbcTemplate namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+
+        productionBalanceFactService = new ProductionBalanceFactService();
+        productionBalanceFactConsistencyChecker = new ProductionBalanceFactConsistencyChecker();
+
+        ReflectionTestUtils.setField(productionBalanceFactService, "jdbcTemplate", namedParameterJdbcTemplate);
+        ReflectionTestUtils.setField(productionBalanceFactConsistencyChecker, "jdbcTemplate", namedParameterJdbcTemplate);
+        ReflectionTestUtils.setField(productionBalanceFactConsistencyChecker, "productionBalanceFactService",
+                productionBalanceFactService);
+    }
+
+    @After
+    public void destroy() {
+        if (dataSource != null) {
+            jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + L_TEST_SCHEMA + " CASCADE");
+
+            dataSource.destroy();
+        }
+    }
+
+    @Test
+    public final void shouldKeepFactsConsistentWithAcceptedTrackings() {
+        // given
+        Entity productionTracking = addTracking(L_ORDER_ID, "02accepted");
+        Entity otherProductionTracking = addTracking(L_ORDER_ID, "02accepted");
+        Entity declinedProductionTracking = addTracking(L_OTHER_ORDER_ID, "02accepted");
+
+        // when
+        productionBalanceFactService.add(productionTracking);
+        productionBalanceFactService.add(otherProductionTracking);
+        productionBalanceFactService.add(declinedProductionTracking);
+        jdbcTemplate.update("UPDATE productioncounting_productiontracking SET state = '03declined' WHERE id = ?",
+                declinedProductionTracking.getId());
+        productionBalanceFactService.subtract(declinedProductionTracking);
+
+        // then
+        assertTrue(productionBalanceFactConsistencyChecker.findInconsistentOrders().isEmpty());
+        assertFact("20", "producedquantity", L_ORDER_ID, "f.product_id = " + L_PRODUCT_ID);
+        assertFact("8", "usedquantity", L_ORDER_ID, "f.product_id = " + L_COMPONENT_ID + " AND f.wasteunit = 'kg'");
+        assertFact("7200", "labortime", L_ORDER_ID, "f.worker_id = " + L_WORKER_ID);
+        assertFact("1800", "machinetime", L_ORDER_ID, "f.product_id IS NULL AND f.worker_id IS NULL");
+        assertEquals(0, countFacts(L_OTHER_ORDER_ID));
+    }
+
+    @Test
+    public final void shouldFindOrderWhoseFactsDifferFromTrackings() {
+        // given
+        productionBalanceFactService.add(addTracking(L_ORDER_ID, "02accepted"));
+        productionBalanceFactService.add(addTracking(L_OTHER_ORDER_ID, "02accepted"));
+
+        jdbcTemplate.update("UPDATE " + ProductionBalanceFactService.L_FACT_TABLE + " SET producedquantity = 100 "
+                + "WHERE order_id = ? AND product_id = ?", L_OTHER_ORDER_ID, L_PRODUCT_ID);
+
+        // when
+        List<Long> ordersIds = productionBalanceFactConsistencyChecker.findInconsistentOrders();
+
+        // then
+        assertEquals(Collections.singletonList(L_OTHER_ORDER_ID), ordersIds);
+    }
+
+    @Test
+    public final void shouldFindOrderOfTrackingAcceptedWithoutFacts() {
+        // given
+        productionBalanceFactService.add(addTracking(L_ORDER_ID, "02accepted"));
+        addTracking(L_OTHER_ORDER_ID, "02accepted");
+
+        // when
+        List<Long> ordersIds = productionBalanceFactConsistencyChecker.findInconsistentOrders();
+
+        // then
+        assertEquals(Collections.singletonList(L_OTHER_ORDER_ID), ordersIds);
+    }
+
+    @Test
+    public final void shouldFindOrderWhoseFactsLackWasteUnit() {
+        // given
+        productionBalanceFactService.add(addTracking(L_ORDER_ID, "02accepted"));
+
+        jdbcTemplate.update("UPDATE " + ProductionBalanceFactService.L_FACT_TABLE + " SET wasteunit = NULL");
+
+        // when
+        List<Long> ordersIds = productionBalanceFactConsistencyChecker.findInconsistentOrders();
+
+        // then
+        assertEquals(Collections.singletonList(L_ORDER_ID), ordersIds);
+    }
+
+    @Test
+    public final void shouldRebuildInconsistentOrders() {
+        // given
+        addTracking(L_ORDER_ID, "02accepted");
+        addTracking(L_ORDER_ID, "01draft");
+
+        // when
+        productionBalanceFactConsistencyChecker.checkAndRepair();
+
+        // then
+        assertTrue(productionBalanceFactConsistencyChecker.findInconsistentOrders().isEmpty());
+        assertFact("10", "producedquantity", L_ORDER_ID, "f.product_id = " + L_PRODUCT_ID);
+        assertFact("1", "executedoperationcycles", L_ORDER_ID, "f.product_id IS NULL AND f.worker_id IS NULL");
+    }
+
+    private Entity addTracking(final Long orderId, final String state) {
+        Long productionTrackingId = ++lastId;
+
+        jdbcTemplate.update("INSERT INTO productioncounting_productiontracking (id, order_id, technologyoperationcomponent_id, "
+                + "state, labortime, machinetime, executedoperationcycles) VALUES (?, ?, ?, ?, 3600, 900, 1)",
+                productionTrackingId, orderId, L_TOC_ID, state);
+        jdbcTemplate.update("INSERT INTO productioncounting_trackingoperationproductincomponent (productiontracking_id, "
+                + "product_id, usedquantity, wasteusedquantity, wasteunit) VALUES (?, ?, 4, 1, 'kg')", productionTrackingId,
+                L_COMPONENT_ID);
+        jdbcTemplate.update("INSERT INTO productioncounting_trackingoperationproductoutcomponent (productiontracking_id, "
+                + "product_id, usedquantity, wastesquantity) VALUES (?, ?, 10, 2)", productionTrackingId, L_PRODUCT_ID);
+        jdbcTemplate.update("INSERT INTO productioncounting_staffworktime (productionrecord_id, worker_id, labortime) "
+                + "VALUES (?, ?, 3600)", productionTrackingId, L_WORKER_ID);
+
+        Entity productionTracking = mock(Entity.class);
+
+        given(productionTracking.getId()).willReturn(productionTrackingId);
+
+        return productionTracking;
+    }
+
+    private void assertFact(final String expected, final String value, final Long orderId, final String condition) {
+        BigDecimal sum = jdbcTemplate.queryForObject("SELECT SUM(f." + value + ")::numeric FROM "
+                + ProductionBalanceFactService.L_FACT_TABLE + " f WHERE f.order_id = ? AND " + condition, BigDecimal.class,
+                orderId);
+
+        assertEquals(expected + " expected, but was " + sum, 0, new BigDecimal(expected).compareTo(sum));
+    }
+
+    private int countFacts(final Long orderId) {
+        return jdbcTemplate.queryForObject("SELECT count(*) FROM " + ProductionBalanceFactService.L_FACT_TABLE
+                + " WHERE order_id = ?", Integer.class, orderId);
+    }
+
+}
@@ -0,0 +1,348 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionCounting.xls;
+
+import static com.qcadoo.testing.model.EntityTestUtils.mockEntity;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.mes.productionCounting.constants.ProductionBalanceFields;
+import com.qcadoo.mes.productionCounting.xls.dto.MaterialCost;
+import com.qcadoo.mes.productionCounting.xls.dto.ProducedQuantity;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.NumberService;
+import com.qcadoo.testing.model.EntityListMock;
+
+public class ProductionBalanceXlsServiceTest {
+
+    private static final Locale L_LOCALE = Locale.ENGLISH;
+
+    private static final Long L_ORDER_ID = 1L;
+
+    private static final List<String> L_SHEET_NAMES = Lists.newArrayList("producedQuantities", "materialCosts", "laborTime",
+            "laborTimeDetails", "piecework", "productionCosts", "ordersBalance", "componentsBalance", "productsBalance");
+
+    private static final List<String> L_PRODUCED_QUANTITIES_HEADERS = Lists.newArrayList("orderNumber", "productNumber",
+            "productName", "plannedQuantity", "producedQuantity", "wastesQuantity", "producedWastes", "deviation", "productUnit");
+
+    private ProductionBalanceXlsService productionBalanceXlsService;
+
+    @Mock
+    private TranslationService translationService;
+
+    @Mock
+    private NumberService numberService;
+
+    @Mock
+    private ProductionBalanceRepository productionBalanceRepository;
+
+    @Mock
+    private Entity productionBalance;
+
+    @Captor
+    private ArgumentCaptor<Map<Long, BigDecimal>> realMaterialCostsCaptor;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        productionBalanceXlsService = new ProductionBalanceXlsService();
+
+        ReflectionTestUtils.setField(productionBalanceXlsService, "translationService", translationService);
+        ReflectionTestUtils.setField(productionBalanceXlsService, "numberService", numberService);
+        ReflectionTestUtils.setField(productionBalanceXlsService, "productionBalanceRepository", productionBalanceRepository);
+
+        given(translationService.translate(anyString(), any(Locale.class))).willAnswer(invocation -> {
+            String key = (String) invocation.getArguments()[0];
+
+            return key.substring(key.lastIndexOf('.') + 1);
+        });
+        given(numberService.setScaleWithDefaultMathContext(any(BigDecimal.class), eq(2))).willAnswer(
+                invocation -> ((BigDecimal) invocation.getArguments()[0]).setScale(2, RoundingMode.HALF_EVEN));
+
+        List<Entity> orders = Lists.newArrayList(mockEntity(L_ORDER_ID));
+        given(productionBalance.getHasManyField(ProductionBalanceFields.ORDERS)).willReturn(EntityListMock.create(orders));
+
+        stubProducedQuantities(producedQuantity("ORD-1", "PROD-1", "10", "8.5", "1.25", "0.5", "-1.5", "szt"));
+        stubMaterialCosts(materialCost("ORD-1", "10", "7.125"), materialCost("ORD-1", "20", "2.5"));
+    }
+
+    @Test
+    public final void shouldGenerateXlsxWithSheetsOfXlsReport() throws IOException {
+        // given
+        HSSFWorkbook xls = generateXls();
+
+        // when
+        Workbook xlsx = generateXlsx();
+
+        // then
+        assertEquals(L_SHEET_NAMES, getSheetNames(xls));
+        assertEquals(L_SHEET_NAMES, getSheetNames(xlsx));
+    }
+
+    @Test
+    public final void shouldWriteProducedQuantitiesHeaderAndRows() throws IOException {
+        // when
+        Workbook xlsx = generateXlsx();
+
+        // then
+        Sheet sheet = xlsx.getSheetAt(0);
+
+        assertEquals(L_PRODUCED_QUANTITIES_HEADERS, getStringValues(sheet.getRow(0)));
+
+        Row row = sheet.getRow(1);
+
+        assertEquals("ORD-1", row.getCell(0).getStringCellValue());
+        assertEquals("PROD-1", row.getCell(1).getStringCellValue());
+        assertEquals("Product", row.getCell(2).getStringCellValue());
+        assertEquals(10d, row.getCell(3).getNumericCellValue(), 0d);
+        assertEquals(8.5d, row.getCell(4).getNumericCellValue(), 0d);
+        assertEquals(1.25d, row.getCell(5).getNumericCellValue(), 0d);
+        assertEquals(0.5d, row.getCell(6).getNumericCellValue(), 0d);
+        assertEquals(-1.5d, row.getCell(7).getNumericCellValue(), 0d);
+        assertEquals("szt", row.getCell(8).getStringCellValue());
+        assertNull(sheet.getRow(2));
+    }
+
+    @Test
+    public final void shouldWriteMaterialCostsRoundedToTwoPlaces() throws IOException {
+        // when
+        Workbook xlsx = generateXlsx();
+
+        // then
+        Sheet sheet = xlsx.getSheetAt(1);
+
+        assertEquals("orderNumber", sheet.getRow(0).getCell(0).getStringCellValue());
+        assertEquals("realCost", sheet.getRow(0).getCell(9).getStringCellValue());
+        assertEquals(7.12d, sheet.getRow(1).getCell(9).getNumericCellValue(), 0d);
+        assertEquals(2.5d, sheet.getRow(2).getCell(9).getNumericCellValue(), 0d);
+        assertNull(sheet.getRow(3));
+    }
+
+    @Test
+    public final void shouldPassRealMaterialCostsOfOrdersToOrdersBalance() throws IOException {
+        // when
+        generateXlsx();
+
+        // then
+        verify(productionBalanceRepository).getOrdersBalance(eq(productionBalance), eq(Lists.newArrayList(L_ORDER_ID)),
+                realMaterialCostsCaptor.capture(), anyMapOf(Long.class, BigDecimal.class));
+
+        Map<Long, BigDecimal> realMaterialCosts = realMaterialCostsCaptor.getValue();
+
+        assertEquals(1, realMaterialCosts.size());
+        assertEquals(0, new BigDecimal("9.625").compareTo(realMaterialCosts.get(L_ORDER_ID)));
+    }
+
+    @Test
+    public final void shouldWriteSameCellsAsXlsReport() throws IOException {
+        // given
+        HSSFWorkbook xls = generateXls();
+
+        // when
+        Workbook xlsx = generateXlsx();
+
+        // then
+        assertEquals(xls.getNumberOfSheets(), xlsx.getNumberOfSheets());
+
+        for (int sheetIndex = 0; sheetIndex < xls.getNumberOfSheets(); sheetIndex++) {
+            Sheet xlsSheet = xls.getSheetAt(sheetIndex);
+            Sheet xlsxSheet = xlsx.getSheetAt(sheetIndex);
+
+            assertEquals(xlsSheet.getLastRowNum(), xlsxSheet.getLastRowNum());
+
+            for (int rowIndex = 0; rowIndex <= xlsSheet.getLastRowNum(); rowIndex++) {
+                assertSameRow(xlsSheet.getRow(rowIndex), xlsxSheet.getRow(rowIndex));
+            }
+        }
+    }
+
+    private HSSFWorkbook generateXls() {
+        HSSFWorkbook workbook = new HSSFWorkbook();
+
+        HSSFSheet sheet = workbook.createSheet(productionBalanceXlsService.getReportTitle(L_LOCALE));
+
+        productionBalanceXlsService.addHeader(sheet, L_LOCALE, productionBalance);
+        productionBalanceXlsService.addSeries(sheet, productionBalance);
+        productionBalanceXlsService.addExtraSheets(workbook, productionBalance, L_LOCALE);
+
+        return workbook;
+    }
+
+    private Workbook generateXlsx() throws IOException {
+        File file = productionBalanceXlsService.generateXlsxDocument(productionBalance, L_LOCALE);
+
+        try (InputStream inputStream = new FileInputStream(file)) {
+            return new XSSFWorkbook(inputStream);
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    private void assertSameRow(final Row xlsRow, final Row xlsxRow) {
+        if (xlsRow == null) {
+            assertNull(xlsxRow);
+
+            return;
+        }
+
+        assertEquals(xlsRow.getLastCellNum(), xlsxRow.getLastCellNum());
+
+        for (int cellIndex = 0; cellIndex < xlsRow.getLastCellNum(); cellIndex++) {
+            Cell xlsCell = xlsRow.getCell(cellIndex);
+            Cell xlsxCell = xlsxRow.getCell(cellIndex);
+
+            assertEquals(xlsCell.getCellType(), xlsxCell.getCellType());
+
+            if (xlsCell.getCellType() == Cell.CELL_TYPE_NUMERIC) {
+                assertEquals(xlsCell.getNumericCellValue(), xlsxCell.getNumericCellValue(), 0d);
+            } else {
+                assertEquals(xlsCell.getStringCellValue(), xlsxCell.getStringCellValue());
+            }
+        }
+    }
+
+    private List<String> getSheetNames(final Workbook workbook) {
+        List<String> sheetNames = Lists.newArrayList();
+
+        for (int sheetIndex = 0; sheetIndex < workbook.getNumberOfSheets(); sheetIndex++) {
+            sheetNames.add(workbook.getSheetName(sheetIndex));
+        }
+
+        return sheetNames;
+    }
+
+    private List<String> getStringValues(final Row row) {
+        List<String> values = Lists.newArrayList();
+
+        for (Cell cell : row) {
+            values.add(cell.getStringCellValue());
+        }
+
+        return values;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void stubProducedQuantities(final ProducedQuantity... producedQuantities) {
+        doAnswer(invocation -> {
+            Consumer<ProducedQuantity> consumer = (Consumer<ProducedQuantity>) invocation.getArguments()[1];
+
+            for (ProducedQuantity producedQuantity : producedQuantities) {
+                consumer.accept(producedQuantity);
+            }
+
+            return null;
+        }).when(productionBalanceRepository).getProducedQuantities(anyListOf(Long.class), any(Consumer.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void stubMaterialCosts(final MaterialCost... materialCosts) {
+        doAnswer(invocation -> {
+            Consumer<MaterialCost> consumer = (Consumer<MaterialCost>) invocation.getArguments()[2];
+
+            for (MaterialCost materialCost : materialCosts) {
+                consumer.accept(materialCost);
+            }
+
+            return null;
+        }).when(productionBalanceRepository).getMaterialCosts(any(Entity.class), anyListOf(Long.class), any(Consumer.class));
+    }
+
+    private ProducedQuantity producedQuantity(final String orderNumber, final String productNumber, final String plannedQuantity,
+            final String producedQuantity, final String wastesQuantity, final String producedWastes, final String deviation,
+            final String productUnit) {
+        ProducedQuantity quantity = new ProducedQuantity();
+
+        quantity.setOrderNumber(orderNumber);
+        quantity.setProductNumber(productNumber);
+        quantity.setProductName("Product");
+        quantity.setPlannedQuantity(new BigDecimal(plannedQuantity));
+        quantity.setProducedQuantity(new BigDecimal(producedQuantity));
+        quantity.setWastesQuantity(new BigDecimal(wastesQuantity));
+        quantity.setProducedWastes(new BigDecimal(producedWastes));
+        quantity.setDeviation(new BigDecimal(deviation));
+        quantity.setProductUnit(productUnit);
+
+        return quantity;
+    }
+
+    private MaterialCost materialCost(final String orderNumber, final String plannedCost, final String realCost) {
+        MaterialCost materialCost = new MaterialCost();
+
+        materialCost.setOrderId(L_ORDER_ID);
+        materialCost.setOrderNumber(orderNumber);
+        materialCost.setOperationNumber("10");
+        materialCost.setProductNumber("COMP-1");
+        materialCost.setProductName("Component");
+        materialCost.setPlannedQuantity(BigDecimal.ONE);
+        materialCost.setUsedQuantity(BigDecimal.ONE);
+        materialCost.setQuantitativeDeviation(BigDecimal.ZERO);
+        materialCost.setProductUnit("kg");
+        materialCost.setPlannedCost(new BigDecimal(plannedCost));
+        materialCost.setRealCost(new BigDecimal(realCost));
+        materialCost.setValueDeviation(new BigDecimal(realCost).subtract(new BigDecimal(plannedCost)));
+        materialCost.setUsedWasteQuantity(BigDecimal.ZERO);
+        materialCost.setUsedWasteUnit("kg");
+
+        return materialCost;
+    }
+
+}
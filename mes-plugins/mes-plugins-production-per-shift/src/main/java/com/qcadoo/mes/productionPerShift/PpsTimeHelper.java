@@ -94,10 +94,16 @@ public class PpsTimeHelper {
 
     public List<DateTimeRange> manageExceptions(List<DateTimeRange> shiftWorkDateTime, final Entity productionLine, final Shift shift,
             final Date dateOfDay) {
-        Entity shiftEntity = shift.getEntity();
-        Shift shiftForDay = new Shift(shiftEntity, new DateTime(dateOfDay), false);
+        return manageExceptions(shiftWorkDateTime, findTimetableExceptions(productionLine, shift), shift, dateOfDay);
+    }
+
+    public List<Entity> findTimetableExceptions(final Entity productionLine, final Shift shift) {
+        return timetableExceptionService.findForProductionLineAndShift(productionLine, shift.getEntity());
+    }
 
-        List<Entity> exceptions = timetableExceptionService.findForProductionLineAndShift(productionLine, shiftEntity);
+    public List<DateTimeRange> manageExceptions(List<DateTimeRange> shiftWorkDateTime, final List<Entity> exceptions,
+            final Shift shift, final Date dateOfDay) {
+        Shift shiftForDay = new Shift(shift.getEntity(), new DateTime(dateOfDay), false);
 
         if (!exceptions.isEmpty()) {
             for (Entity exception : exceptions) {
@@ -0,0 +1,62 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionPerShift.aop;
+
+import java.util.Map;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Pointcut;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Configurable;
+
+import com.qcadoo.mes.productionPerShift.constants.ProductionPerShiftConstants;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.plugin.api.RunIfEnabled;
+
+@Aspect
+@Configurable
+@RunIfEnabled(ProductionPerShiftConstants.PLUGIN_IDENTIFIER)
+public class OrdersFromMOProductsGenerationServicePPSOverrideAspect {
+
+    @Autowired
+    private OrdersFromMOProductsGenerationServicePPSOverrideUtil ordersFromMOProductsGenerationServicePPSOverrideUtil;
+
+    @Pointcut("execution(public void com.qcadoo.mes.masterOrders.OrdersFromMOProductsGenerationService.generateOrderPps(..)) "
+            + "&& args(order, ppsGenerationData)")
+    public void generateOrderPpsExecution(final Entity order, final Map<String, Object> ppsGenerationData) {
+    }
+
+    @Around("generateOrderPpsExecution(order, ppsGenerationData)")
+    public void aroundGenerateOrderPpsExecution(final ProceedingJoinPoint pjp, final Entity order,
+            final Map<String, Object> ppsGenerationData) throws Throwable {
+        if (ordersFromMOProductsGenerationServicePPSOverrideUtil.shouldOverride()) {
+            ordersFromMOProductsGenerationServicePPSOverrideUtil.generateOrderPps(order, ppsGenerationData);
+        } else {
+            pjp.proceed();
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionPerShift.aop;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.mes.productionPerShift.constants.ProductionPerShiftConstants;
+import com.qcadoo.mes.productionPerShift.domain.ShiftWorkTimes;
+import com.qcadoo.mes.productionPerShift.services.PpsBulkGenerationService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.exception.EntityRuntimeException;
+import com.qcadoo.model.api.validators.ErrorMessage;
+import com.qcadoo.plugin.api.PluginStateResolver;
+
+@Service
+public class OrdersFromMOProductsGenerationServicePPSOverrideUtil {
+
+    private static final String L_SHIFT_WORK_TIMES = "shiftWorkTimes";
+
+    @Autowired
+    private PluginStateResolver pluginStateResolver;
+
+    @Autowired
+    private PpsBulkGenerationService ppsBulkGenerationService;
+
+    public boolean shouldOverride() {
+        return pluginStateResolver.isEnabled(ProductionPerShiftConstants.PLUGIN_IDENTIFIER);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void generateOrderPps(final Entity order, final Map<String, Object> ppsGenerationData) {
+        Entity storedOrder = order.getDataDefinition().save(order);
+
+        if (!storedOrder.isValid()) {
+            throw new EntityRuntimeException(storedOrder);
+        }
+
+        Map<Long, ShiftWorkTimes> shiftWorkTimesByProductionLine = (Map<Long, ShiftWorkTimes>) ppsGenerationData
+                .computeIfAbsent(L_SHIFT_WORK_TIMES, key -> new ConcurrentHashMap<Long, ShiftWorkTimes>());
+
+        List<ErrorMessage> errors = ppsBulkGenerationService.generate(order, shiftWorkTimesByProductionLine);
+
+        if (!errors.isEmpty()) {
+            errors.forEach(error -> order.addGlobalError(error.getMessage(), false, error.getVars()));
+
+            throw new EntityRuntimeException(order);
+        }
+    }
+
+}
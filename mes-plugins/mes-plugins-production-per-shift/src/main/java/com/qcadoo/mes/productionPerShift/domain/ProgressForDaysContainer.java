@@ -34,6 +34,8 @@ public class ProgressForDaysContainer {
 
     private BigDecimal alreadyRegisteredQuantity = BigDecimal.ZERO;
 
+    private ShiftWorkTimes shiftWorkTimes;
+
     public void addError(ErrorMessage errorMessage) {
         errors.add(errorMessage);
     }
@@ -133,4 +135,12 @@ public class ProgressForDaysContainer {
     public void setPlanForOrderCompleted(boolean planForOrderCompleted) {
         this.planForOrderCompleted = planForOrderCompleted;
     }
+
+    public ShiftWorkTimes getShiftWorkTimes() {
+        return shiftWorkTimes;
+    }
+
+    public void setShiftWorkTimes(ShiftWorkTimes shiftWorkTimes) {
+        this.shiftWorkTimes = shiftWorkTimes;
+    }
 }
@@ -0,0 +1,78 @@
+package com.qcadoo.mes.productionPerShift.domain;
+
+import com.qcadoo.mes.basic.shift.Shift;
+import com.qcadoo.mes.basic.util.DateTimeRange;
+import com.qcadoo.model.api.Entity;
+import org.joda.time.LocalDate;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Work time of production line shifts with timetable exceptions applied, computed once per shift and day. Plans of orders on
+ * the same line share it, also when they are generated in parallel.
+ */
+public class ShiftWorkTimes {
+
+    private final Entity productionLine;
+
+    private final Map<Long, List<Entity>> timetableExceptions = new ConcurrentHashMap<>();
+
+    private final Map<ShiftDay, List<DateTimeRange>> workTimes = new ConcurrentHashMap<>();
+
+    public ShiftWorkTimes(final Entity productionLine) {
+        this.productionLine = productionLine;
+    }
+
+    public Entity getProductionLine() {
+        return productionLine;
+    }
+
+    public List<Entity> getTimetableExceptions(final Shift shift, final Function<Long, List<Entity>> loader) {
+        return timetableExceptions.computeIfAbsent(shift.getId(), loader);
+    }
+
+    public List<DateTimeRange> getWorkTimes(final Shift shift, final LocalDate day,
+            final Supplier<List<DateTimeRange>> calculator) {
+        return workTimes.computeIfAbsent(new ShiftDay(shift.getId(), day),
+                key -> Collections.unmodifiableList(calculator.get()));
+    }
+
+    private static class ShiftDay {
+
+        private final Long shiftId;
+
+        private final LocalDate day;
+
+        ShiftDay(final Long shiftId, final LocalDate day) {
+            this.shiftId = shiftId;
+            this.day = day;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ShiftDay)) {
+                return false;
+            }
+
+            ShiftDay other = (ShiftDay) obj;
+
+            return Objects.equals(shiftId, other.shiftId) && Objects.equals(day, other.day);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(shiftId, day);
+        }
+
+    }
+
+}
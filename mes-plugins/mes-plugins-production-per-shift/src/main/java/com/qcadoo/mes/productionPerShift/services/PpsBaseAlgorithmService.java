@@ -28,6 +28,10 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Plans order day by day. State of one plan is kept in {@link PlanningContext} created per call, so plans of many orders can
+ * be generated concurrently.
+ */
 public abstract class PpsBaseAlgorithmService {
 
     @Autowired
@@ -48,8 +52,6 @@ public abstract class PpsBaseAlgorithmService {
     @Autowired
     private ParameterService parameterService;
 
-    private Map<DailyProgressKey, Entity> dailyProgressesWithTrackingRecords;
-
     public void generateProgressForDays(ProgressForDaysContainer progressForDaysContainer, Entity productionPerShift) {
         Entity order = productionPerShift.getBelongsToField(ProductionPerShiftFields.ORDER);
         if (progressForDaysContainer.getOrder() != null) {
@@ -80,11 +82,18 @@ public abstract class PpsBaseAlgorithmService {
 
         boolean allowIncompleteUnits = parameterService.getParameter().getBooleanField(ParameterFieldsPPS.ALLOW_INCOMPLITE_UNITS);
 
+        ShiftWorkTimes shiftWorkTimes = progressForDaysContainer.getShiftWorkTimes();
+        if (shiftWorkTimes == null || !productionLine.getId().equals(shiftWorkTimes.getProductionLine().getId())) {
+            shiftWorkTimes = new ShiftWorkTimes(productionLine);
+        }
+        PlanningContext context = new PlanningContext(progressForDaysContainer, productionPerShift, order, shifts,
+                shiftWorkTimes, allowIncompleteUnits);
+
         BigDecimal plannedQuantity = order.getDecimalField(OrderFields.PLANNED_QUANTITY);
         if (order.getBooleanField(OrderFields.FINAL_PRODUCTION_TRACKING)) {
             plannedQuantity = basicProductionCountingService.getProducedQuantityFromBasicProductionCountings(order);
         }
-        calculateRegisteredQuantity(progressForDaysContainer, order, productionPerShift, plannedQuantity);
+        calculateRegisteredQuantity(context, plannedQuantity);
 
         BigDecimal alreadyPlannedQuantity = BigDecimal.ZERO;
         List<Entity> progressForDays = Lists.newLinkedList();
@@ -97,9 +106,8 @@ public abstract class PpsBaseAlgorithmService {
         while (progressForDaysContainer.getPlannedQuantity().compareTo(BigDecimal.ZERO) > 0
                 || progressForDaysContainer.getAlreadyRegisteredQuantity().compareTo(BigDecimal.ZERO) > 0) {
 
-            DailyProgressContainer dailyProgressContainer = fillDailyProgressWithShifts(progressForDaysContainer,
-                    productionPerShift, order, shifts, currentDate, orderStartDate, shouldBeCorrected, progressForDays.size(),
-                    alreadyPlannedQuantity, allowIncompleteUnits);
+            DailyProgressContainer dailyProgressContainer = fillDailyProgressWithShifts(context, currentDate, orderStartDate,
+                    shouldBeCorrected, progressForDays.size(), alreadyPlannedQuantity);
             if (dailyProgressContainer.isCalculationError()) {
                 progressForDaysContainer.setCalculationError(true);
                 return;
@@ -117,17 +125,18 @@ public abstract class PpsBaseAlgorithmService {
         progressForDaysContainer.setProgressForDays(progressForDays);
     }
 
-    private DailyProgressContainer fillDailyProgressWithShifts(ProgressForDaysContainer progressForDaysContainer,
-            Entity productionPerShift, Entity order, List<Shift> shifts, DateTime dateOfDay, Date orderStartDate,
-            boolean shouldBeCorrected, int progressForDayQuantity, BigDecimal alreadyPlannedQuantity, boolean allowIncompleteUnits) {
+    private DailyProgressContainer fillDailyProgressWithShifts(PlanningContext context, DateTime dateOfDay,
+            Date orderStartDate, boolean shouldBeCorrected, int progressForDayQuantity, BigDecimal alreadyPlannedQuantity) {
+        ProgressForDaysContainer progressForDaysContainer = context.getProgressForDaysContainer();
+        Entity order = context.getOrder();
         DailyProgressContainer dailyProgressContainer = new DailyProgressContainer();
         List<Entity> dailyProgressWithShifts = Lists.newLinkedList();
 
-        for (Shift shift : shifts) {
+        for (Shift shift : context.getShifts()) {
             Entity dailyProgress = null;
-            if (dailyProgressesWithTrackingRecords != null) {
+            if (context.getDailyProgressesWithTrackingRecords() != null) {
                 DailyProgressKey key = new DailyProgressKey(shift.getId(), dateOfDay);
-                dailyProgress = dailyProgressesWithTrackingRecords.get(key);
+                dailyProgress = context.getDailyProgressesWithTrackingRecords().get(key);
             }
             if (dailyProgress != null) {
                 BigDecimal producedQuantity = dailyProgress.getDecimalField(DailyProgressFields.QUANTITY);
@@ -147,13 +156,14 @@ public abstract class PpsBaseAlgorithmService {
                 DateTime orderStartDateDT = new DateTime(orderStartDate, DateTimeZone.getDefault());
                 BigDecimal shiftEfficiency = BigDecimal.ZERO;
                 int time = 0;
-                for (DateTimeRange range : getShiftWorkDateTimes(order.getBelongsToField(OrderFields.PRODUCTION_LINE), shift, dateOfDay, orderStartDate)) {
+                for (DateTimeRange range : getShiftWorkDateTimes(context.getShiftWorkTimes(), shift, dateOfDay)) {
                     if (orderStartDate.after(dateOfDay.toDate())) {
                         range = range.trimBefore(orderStartDateDT);
                     }
                     if (range != null) {
                         ShiftEfficiencyCalculationHolder calculationHolder = calculateShiftEfficiency(progressForDaysContainer,
-                                productionPerShift, shift, order, range, shiftEfficiency, progressForDayQuantity, allowIncompleteUnits);
+                                context.getProductionPerShift(), shift, order, range, shiftEfficiency, progressForDayQuantity,
+                                context.isAllowIncompleteUnits());
                         shiftEfficiency = calculationHolder.getShiftEfficiency();
                         time = time + calculationHolder.getEfficiencyTime();
                     }
@@ -182,20 +192,23 @@ public abstract class PpsBaseAlgorithmService {
         return dailyProgressContainer;
     }
 
-    private List<DateTimeRange> getShiftWorkDateTimes(final Entity productionLine, final Shift shift, DateTime dateOfDay, final Date orderStartDate) {
-        DateTime dateOfDayDT = dateOfDay;
-        List<TimeRange> shiftWorkTime = Lists.newArrayList();
-        List<DateTimeRange> shiftWorkDateTime = Lists.newArrayList();
-        if (shift.worksAt(dateOfDay.dayOfWeek().get())) {
-            shiftWorkTime = shift.findWorkTimeAt(dateOfDay.toLocalDate());
-        }
-        for (TimeRange range : shiftWorkTime) {
-            shiftWorkDateTime.add(new DateTimeRange(dateOfDayDT, range));
-        }
+    private List<DateTimeRange> getShiftWorkDateTimes(final ShiftWorkTimes shiftWorkTimes, final Shift shift,
+            final DateTime dateOfDay) {
+        return shiftWorkTimes.getWorkTimes(shift, dateOfDay.toLocalDate(), () -> {
+            List<TimeRange> shiftWorkTime = Lists.newArrayList();
+            List<DateTimeRange> shiftWorkDateTime = Lists.newArrayList();
+            if (shift.worksAt(dateOfDay.dayOfWeek().get())) {
+                shiftWorkTime = shift.findWorkTimeAt(dateOfDay.toLocalDate());
+            }
+            for (TimeRange range : shiftWorkTime) {
+                shiftWorkDateTime.add(new DateTimeRange(dateOfDay, range));
+            }
 
-        shiftWorkDateTime = ppsTimeHelper.manageExceptions(shiftWorkDateTime, productionLine, shift, dateOfDay.toDate());
+            List<Entity> exceptions = shiftWorkTimes.getTimetableExceptions(shift,
+                    shiftId -> ppsTimeHelper.findTimetableExceptions(shiftWorkTimes.getProductionLine(), shift));
 
-        return shiftWorkDateTime;
+            return ppsTimeHelper.manageExceptions(shiftWorkDateTime, exceptions, shift, dateOfDay.toDate());
+        });
     }
 
     private Entity createComponent(final int dayNumber, Date realizationDate, final List<Entity> dailyProgress,
@@ -226,18 +239,19 @@ public abstract class PpsBaseAlgorithmService {
         }).toList();
     }
 
-    private BigDecimal calculateRegisteredQuantity(final ProgressForDaysContainer progressForDaysContainer, final Entity order,
-            final Entity pps, BigDecimal plannedQuantity) {
+    private BigDecimal calculateRegisteredQuantity(final PlanningContext context, BigDecimal plannedQuantity) {
+        ProgressForDaysContainer progressForDaysContainer = context.getProgressForDaysContainer();
+        Entity pps = context.getProductionPerShift();
         BigDecimal alreadyRegisteredQuantity = progressForDaysContainer.getAlreadyRegisteredQuantity();
         if (pps != null) {
-            dailyProgressesWithTrackingRecords = dailyProgressService.getDailyProgressesWithTrackingRecords(pps);
+            Map<DailyProgressKey, Entity> dailyProgressesWithTrackingRecords = dailyProgressService
+                    .getDailyProgressesWithTrackingRecords(pps);
 
             for (Map.Entry<DailyProgressKey, Entity> entry : dailyProgressesWithTrackingRecords.entrySet()) {
                 alreadyRegisteredQuantity = alreadyRegisteredQuantity.add(entry.getKey().getQuantity());
             }
             progressForDaysContainer.setAlreadyRegisteredQuantity(alreadyRegisteredQuantity);
-        } else {
-            dailyProgressesWithTrackingRecords = null;
+            context.setDailyProgressesWithTrackingRecords(dailyProgressesWithTrackingRecords);
         }
         progressForDaysContainer.setPlannedQuantity(plannedQuantity.subtract(alreadyRegisteredQuantity,
                 numberService.getMathContext()));
@@ -247,4 +261,66 @@ public abstract class PpsBaseAlgorithmService {
     protected abstract ShiftEfficiencyCalculationHolder calculateShiftEfficiency(
             ProgressForDaysContainer progressForDaysContainer, Entity productionPerShift, Shift shift, Entity order,
             DateTimeRange range, BigDecimal shiftEfficiency, int progressForDayQuantity, boolean allowIncompleteUnits);
+
+    private static class PlanningContext {
+
+        private final ProgressForDaysContainer progressForDaysContainer;
+
+        private final Entity productionPerShift;
+
+        private final Entity order;
+
+        private final List<Shift> shifts;
+
+        private final ShiftWorkTimes shiftWorkTimes;
+
+        private final boolean allowIncompleteUnits;
+
+        private Map<DailyProgressKey, Entity> dailyProgressesWithTrackingRecords;
+
+        PlanningContext(final ProgressForDaysContainer progressForDaysContainer, final Entity productionPerShift,
+                final Entity order, final List<Shift> shifts, final ShiftWorkTimes shiftWorkTimes,
+                final boolean allowIncompleteUnits) {
+            this.progressForDaysContainer = progressForDaysContainer;
+            this.productionPerShift = productionPerShift;
+            this.order = order;
+            this.shifts = shifts;
+            this.shiftWorkTimes = shiftWorkTimes;
+            this.allowIncompleteUnits = allowIncompleteUnits;
+        }
+
+        ProgressForDaysContainer getProgressForDaysContainer() {
+            return progressForDaysContainer;
+        }
+
+        Entity getProductionPerShift() {
+            return productionPerShift;
+        }
+
+        Entity getOrder() {
+            return order;
+        }
+
+        List<Shift> getShifts() {
+            return shifts;
+        }
+
+        ShiftWorkTimes getShiftWorkTimes() {
+            return shiftWorkTimes;
+        }
+
+        boolean isAllowIncompleteUnits() {
+            return allowIncompleteUnits;
+        }
+
+        Map<DailyProgressKey, Entity> getDailyProgressesWithTrackingRecords() {
+            return dailyProgressesWithTrackingRecords;
+        }
+
+        void setDailyProgressesWithTrackingRecords(final Map<DailyProgressKey, Entity> dailyProgressesWithTrackingRecords) {
+            this.dailyProgressesWithTrackingRecords = dailyProgressesWithTrackingRecords;
+        }
+
+    }
+
 }
@@ -0,0 +1,269 @@
+package com.qcadoo.mes.productionPerShift.services;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.localization.api.utils.DateUtils;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.orders.states.constants.OrderState;
+import com.qcadoo.mes.productionPerShift.PpsTimeHelper;
+import com.qcadoo.mes.productionPerShift.constants.DailyProgressFields;
+import com.qcadoo.mes.productionPerShift.constants.ProductionPerShiftConstants;
+import com.qcadoo.mes.productionPerShift.constants.ProductionPerShiftFields;
+import com.qcadoo.mes.productionPerShift.constants.ProgressForDayFields;
+import com.qcadoo.mes.productionPerShift.domain.ProgressForDaysContainer;
+import com.qcadoo.mes.productionPerShift.domain.ShiftWorkTimes;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.SearchRestrictions;
+import com.qcadoo.model.api.validators.ErrorMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates automatic plans of orders, which share computed shift work times of their production lines. Progress for days and
+ * daily progresses are written with multi row inserts instead of saving plan through production per shift entity, so what
+ * production per shift save hook does is done here: actual dates of days default to planned ones and order finish date is taken
+ * from the plan.
+ */
+@Service
+public class PpsBulkGenerationService {
+
+    private static final int L_ROWS_PER_INSERT = 500;
+
+    @Autowired
+    private AutomaticPpsExecutorService automaticPpsExecutorService;
+
+    @Autowired
+    private AutomaticPpsParametersService automaticPpsParametersService;
+
+    @Autowired
+    private PpsTimeHelper ppsTimeHelper;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    /**
+     * Generates plan of one order in current transaction, for orders which have to be planned one after another, because start
+     * date of each of them depends on finish date of previous one. Finish date is set also on given order entity.
+     *
+     * @param shiftWorkTimesByProductionLine
+     *            shift work times by production line id, shared by orders generated one after another and filled here
+     * @return errors of order, empty when plan was generated
+     */
+    @Transactional
+    public List<ErrorMessage> generate(final Entity order, final Map<Long, ShiftWorkTimes> shiftWorkTimesByProductionLine) {
+        if (!automaticPpsParametersService.isAutomaticPlanForShiftOn()) {
+            return Lists.newArrayList(new ErrorMessage("productionPerShift.automaticAlgorithm.error.ppsOff", false));
+        }
+
+        Entity productionPerShift = dataDefinitionService
+                .get(ProductionPerShiftConstants.PLUGIN_IDENTIFIER, ProductionPerShiftConstants.MODEL_PRODUCTION_PER_SHIFT)
+                .find().add(SearchRestrictions.belongsTo(ProductionPerShiftFields.ORDER, order)).setMaxResults(1)
+                .uniqueResult();
+
+        if (productionPerShift == null) {
+            return Lists.newArrayList();
+        }
+
+        ProgressForDaysContainer progressForDaysContainer = new ProgressForDaysContainer();
+        progressForDaysContainer.setShouldBeCorrected(OrderState.of(order).compareTo(OrderState.PENDING) != 0);
+        progressForDaysContainer.setOrder(order);
+
+        Entity productionLine = order.getBelongsToField(OrderFields.PRODUCTION_LINE);
+        if (productionLine != null) {
+            progressForDaysContainer.setShiftWorkTimes(shiftWorkTimesByProductionLine.computeIfAbsent(productionLine.getId(),
+                    productionLineId -> new ShiftWorkTimes(productionLine)));
+        }
+
+        try {
+            automaticPpsExecutorService.generateProgressForDays(progressForDaysContainer, productionPerShift);
+        } catch (IllegalStateException exception) {
+            if (progressForDaysContainer.getErrors().isEmpty()) {
+                throw exception;
+            }
+
+            return progressForDaysContainer.getErrors();
+        }
+
+        if (progressForDaysContainer.isCalculationError()) {
+            return Lists.newArrayList(productionPerShift.getGlobalErrors());
+        }
+
+        writeProgressForDays(productionPerShift, progressForDaysContainer);
+
+        if (!progressForDaysContainer.isPartCalculation()) {
+            updateOrderFinishDate(order, progressForDaysContainer);
+        }
+
+        return Lists.newArrayList();
+    }
+
+    private void writeProgressForDays(final Entity productionPerShift, final ProgressForDaysContainer progressForDaysContainer) {
+        boolean corrected = progressForDaysContainer.isShouldBeCorrected();
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("productionPerShiftId", productionPerShift.getId());
+
+        // corrected plan replaces only previous correction, planned progress stays for comparison
+        List<Long> replacedProgressForDaysIds = jdbcTemplate.queryForList(
+                "SELECT id FROM productionpershift_progressforday WHERE productionpershift_id = :productionPerShiftId"
+                        + (corrected ? " AND corrected = true" : ""), params, Long.class);
+
+        List<Entity> progressForDays = progressForDaysContainer.getProgressForDays();
+        Map<Integer, Long> progressForDaysIds = insertProgressForDays(productionPerShift.getId(), corrected, progressForDays);
+
+        List<Map<String, Object>> newDailyProgresses = Lists.newArrayList();
+        List<Map<String, Object>> movedDailyProgresses = Lists.newArrayList();
+
+        for (Entity progressForDay : progressForDays) {
+            Long progressForDayId = progressForDaysIds.get(progressForDay.getIntegerField(ProgressForDayFields.DAY));
+
+            for (Entity dailyProgress : getDailyProgresses(progressForDay)) {
+                Map<String, Object> row = Maps.newHashMap();
+
+                row.put("progressForDayId", progressForDayId);
+                row.put("quantity", dailyProgress.getDecimalField(DailyProgressFields.QUANTITY));
+
+                if (dailyProgress.getId() == null) {
+                    row.put("shiftId", dailyProgress.getBelongsToField(DailyProgressFields.SHIFT).getId());
+                    row.put("efficiencyTime", dailyProgress.getIntegerField(DailyProgressFields.EFFICIENCY_TIME));
+                    row.put("locked", dailyProgress.getBooleanField(DailyProgressFields.LOCKED));
+
+                    newDailyProgresses.add(row);
+                } else {
+                    row.put("id", dailyProgress.getId());
+
+                    movedDailyProgresses.add(row);
+                }
+            }
+        }
+
+        if (!movedDailyProgresses.isEmpty()) {
+            jdbcTemplate.batchUpdate("UPDATE productionpershift_dailyprogress SET progressforday_id = :progressForDayId, "
+                    + "quantity = :quantity, entityversion = entityversion + 1 WHERE id = :id",
+                    movedDailyProgresses.toArray(new Map[movedDailyProgresses.size()]));
+        }
+
+        insertDailyProgresses(newDailyProgresses);
+
+        if (!replacedProgressForDaysIds.isEmpty()) {
+            params.put("progressForDaysIds", replacedProgressForDaysIds);
+
+            jdbcTemplate.update("DELETE FROM productionpershift_dailyprogress WHERE progressforday_id IN (:progressForDaysIds)",
+                    params);
+            jdbcTemplate.update("DELETE FROM productionpershift_progressforday WHERE id IN (:progressForDaysIds)", params);
+        }
+
+        // as ProgressDatesService.setUpDatesFor does on production per shift save, for days kept from planned progress too
+        jdbcTemplate.update("UPDATE productionpershift_progressforday SET actualdateofday = dateofday, "
+                + "entityversion = entityversion + 1 WHERE productionpershift_id = :productionPerShiftId "
+                + "AND actualdateofday IS NULL", params);
+    }
+
+    /**
+     * @return ids of inserted rows by day number, which is unique in generated plan
+     */
+    private Map<Integer, Long> insertProgressForDays(final Long productionPerShiftId, final boolean corrected,
+            final List<Entity> progressForDays) {
+        Map<Integer, Long> ids = Maps.newHashMap();
+
+        for (List<Entity> chunk : Lists.partition(progressForDays, L_ROWS_PER_INSERT)) {
+            StringBuilder query = new StringBuilder();
+            Map<String, Object> params = Maps.newHashMap();
+
+            query.append("INSERT INTO productionpershift_progressforday ");
+            query.append("(productionpershift_id, day, corrected, dateofday, actualdateofday) VALUES ");
+
+            params.put("productionPerShiftId", productionPerShiftId);
+            params.put("corrected", corrected);
+
+            for (int index = 0; index < chunk.size(); index++) {
+                Entity progressForDay = chunk.get(index);
+
+                if (index > 0) {
+                    query.append(", ");
+                }
+
+                query.append(String.format("(:productionPerShiftId, :day%d, :corrected, :dateOfDay%d, :actualDateOfDay%d)",
+                        index, index, index));
+
+                Date dateOfDay = toDate(progressForDay.getField(ProgressForDayFields.DATE_OF_DAY));
+                Date actualDateOfDay = toDate(progressForDay.getField(ProgressForDayFields.ACTUAL_DATE_OF_DAY));
+
+                params.put("day" + index, progressForDay.getIntegerField(ProgressForDayFields.DAY));
+                params.put("dateOfDay" + index, dateOfDay);
+                params.put("actualDateOfDay" + index, actualDateOfDay == null ? dateOfDay : actualDateOfDay);
+            }
+
+            query.append(" RETURNING id, day");
+
+            jdbcTemplate.query(query.toString(), params,
+                    (resultSet, rowNum) -> ids.put(resultSet.getInt("day"), resultSet.getLong("id")));
+        }
+
+        return ids;
+    }
+
+    private void insertDailyProgresses(final List<Map<String, Object>> dailyProgresses) {
+        for (List<Map<String, Object>> chunk : Lists.partition(dailyProgresses, L_ROWS_PER_INSERT)) {
+            StringBuilder query = new StringBuilder();
+            Map<String, Object> params = Maps.newHashMap();
+
+            query.append("INSERT INTO productionpershift_dailyprogress ");
+            query.append("(progressforday_id, shift_id, quantity, efficiencytime, locked) VALUES ");
+
+            for (int index = 0; index < chunk.size(); index++) {
+                if (index > 0) {
+                    query.append(", ");
+                }
+
+                query.append(String.format("(:progressForDayId%d, :shiftId%d, :quantity%d, :efficiencyTime%d, :locked%d)", index,
+                        index, index, index, index));
+
+                for (Map.Entry<String, Object> value : chunk.get(index).entrySet()) {
+                    params.put(value.getKey() + index, value.getValue());
+                }
+            }
+
+            jdbcTemplate.update(query.toString(), params);
+        }
+    }
+
+    private void updateOrderFinishDate(final Entity order, final ProgressForDaysContainer progressForDaysContainer) {
+        Date finishDate = ppsTimeHelper.calculateOrderFinishDate(order, progressForDaysContainer.getProgressForDays());
+        String dateToColumn = progressForDaysContainer.isShouldBeCorrected() ? "correcteddateto" : "dateto";
+        Map<String, Object> params = Maps.newHashMap();
+
+        order.setField(OrderFields.FINISH_DATE, finishDate);
+        order.setField(progressForDaysContainer.isShouldBeCorrected() ? OrderFields.CORRECTED_DATE_TO : OrderFields.DATE_TO,
+                finishDate);
+
+        params.put("orderId", order.getId());
+        params.put("finishDate", finishDate);
+
+        // not saved through order data definition, order hooks would generate plan again
+        jdbcTemplate.update(String.format("UPDATE orders_order SET finishdate = :finishDate, %s = :finishDate, "
+                + "entityversion = entityversion + 1 WHERE id = :orderId", dateToColumn), params);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Entity> getDailyProgresses(final Entity progressForDay) {
+        Object dailyProgresses = progressForDay.getField(ProgressForDayFields.DAILY_PROGRESS);
+
+        return dailyProgresses == null ? Lists.newArrayList() : (List<Entity>) dailyProgresses;
+    }
+
+    private Date toDate(final Object value) {
+        return value == null ? null : DateUtils.parseDate(value);
+    }
+
+}
@@ -0,0 +1,115 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionPerShift.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.BDDMockito.given;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.joda.time.LocalDate;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.shift.Shift;
+import com.qcadoo.mes.basic.util.DateTimeRange;
+import com.qcadoo.model.api.Entity;
+
+public class ShiftWorkTimesTest {
+
+    private ShiftWorkTimes shiftWorkTimes;
+
+    @Mock
+    private Entity productionLine;
+
+    @Mock
+    private Shift shift;
+
+    @Mock
+    private Shift otherShift;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        shiftWorkTimes = new ShiftWorkTimes(productionLine);
+
+        given(shift.getId()).willReturn(1L);
+        given(otherShift.getId()).willReturn(2L);
+    }
+
+    @Test
+    public final void shouldCalculateWorkTimesOncePerShiftAndDay() {
+        // given
+        AtomicInteger calculations = new AtomicInteger();
+        LocalDate day = new LocalDate(2016, 3, 14);
+
+        // when
+        List<DateTimeRange> first = shiftWorkTimes.getWorkTimes(shift, day, () -> {
+            calculations.incrementAndGet();
+            return Lists.newArrayList();
+        });
+        List<DateTimeRange> second = shiftWorkTimes.getWorkTimes(shift, new LocalDate(2016, 3, 14), () -> {
+            calculations.incrementAndGet();
+            return Lists.newArrayList();
+        });
+        shiftWorkTimes.getWorkTimes(shift, day.plusDays(1), () -> {
+            calculations.incrementAndGet();
+            return Lists.newArrayList();
+        });
+        shiftWorkTimes.getWorkTimes(otherShift, day, () -> {
+            calculations.incrementAndGet();
+            return Lists.newArrayList();
+        });
+
+        // then
+        assertSame(first, second);
+        assertEquals(3, calculations.get());
+    }
+
+    @Test
+    public final void shouldLoadTimetableExceptionsOncePerShift() {
+        // given
+        AtomicInteger loads = new AtomicInteger();
+
+        // when
+        shiftWorkTimes.getTimetableExceptions(shift, shiftId -> {
+            loads.incrementAndGet();
+            return Lists.newArrayList();
+        });
+        shiftWorkTimes.getTimetableExceptions(shift, shiftId -> {
+            loads.incrementAndGet();
+            return Lists.newArrayList();
+        });
+
+        // then
+        assertEquals(1, loads.get());
+    }
+
+}
@@ -0,0 +1,229 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionPerShift.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.orders.states.constants.OrderStateStringValues;
+import com.qcadoo.mes.productionPerShift.PpsTimeHelper;
+import com.qcadoo.mes.productionPerShift.constants.ProductionPerShiftConstants;
+import com.qcadoo.mes.productionPerShift.constants.ProgressForDayFields;
+import com.qcadoo.mes.productionPerShift.domain.ProgressForDaysContainer;
+import com.qcadoo.mes.productionPerShift.domain.ShiftWorkTimes;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchCriterion;
+import com.qcadoo.model.api.validators.ErrorMessage;
+
+public class PpsBulkGenerationServiceTest {
+
+    private PpsBulkGenerationService ppsBulkGenerationService;
+
+    @Mock
+    private AutomaticPpsExecutorService automaticPpsExecutorService;
+
+    @Mock
+    private AutomaticPpsParametersService automaticPpsParametersService;
+
+    @Mock
+    private PpsTimeHelper ppsTimeHelper;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private DataDefinition productionPerShiftDD;
+
+    @Mock
+    private SearchCriteriaBuilder searchCriteriaBuilder;
+
+    @Mock
+    private Entity order, otherOrder, productionLine, productionPerShift, progressForDay;
+
+    private Map<Long, ShiftWorkTimes> shiftWorkTimesByProductionLine;
+
+    private Date dateOfDay;
+
+    private Date finishDate;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        ppsBulkGenerationService = new PpsBulkGenerationService();
+
+        ReflectionTestUtils.setField(ppsBulkGenerationService, "automaticPpsExecutorService", automaticPpsExecutorService);
+        ReflectionTestUtils.setField(ppsBulkGenerationService, "automaticPpsParametersService", automaticPpsParametersService);
+        ReflectionTestUtils.setField(ppsBulkGenerationService, "ppsTimeHelper", ppsTimeHelper);
+        ReflectionTestUtils.setField(ppsBulkGenerationService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(ppsBulkGenerationService, "dataDefinitionService", dataDefinitionService);
+
+        shiftWorkTimesByProductionLine = Maps.newHashMap();
+
+        dateOfDay = new DateTime(2026, 3, 2, 0, 0).toDate();
+        finishDate = new DateTime(2026, 3, 2, 14, 0).toDate();
+
+        given(automaticPpsParametersService.isAutomaticPlanForShiftOn()).willReturn(true);
+        given(dataDefinitionService.get(ProductionPerShiftConstants.PLUGIN_IDENTIFIER,
+                ProductionPerShiftConstants.MODEL_PRODUCTION_PER_SHIFT)).willReturn(productionPerShiftDD);
+        given(productionPerShiftDD.find()).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.add(any(SearchCriterion.class))).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.setMaxResults(1)).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.uniqueResult()).willReturn(productionPerShift);
+
+        given(order.getId()).willReturn(1L);
+        given(order.getStringField(OrderFields.STATE)).willReturn(OrderStateStringValues.PENDING);
+        given(otherOrder.getId()).willReturn(4L);
+        given(otherOrder.getStringField(OrderFields.STATE)).willReturn(OrderStateStringValues.PENDING);
+        given(productionPerShift.getId()).willReturn(2L);
+
+        given(progressForDay.getIntegerField(ProgressForDayFields.DAY)).willReturn(1);
+        given(progressForDay.getField(ProgressForDayFields.DATE_OF_DAY)).willReturn(dateOfDay);
+
+        doAnswer(invocation -> {
+            ((ProgressForDaysContainer) invocation.getArguments()[0]).setProgressForDays(Lists.newArrayList(progressForDay));
+
+            return null;
+        }).when(automaticPpsExecutorService).generateProgressForDays(any(ProgressForDaysContainer.class),
+                eq(productionPerShift));
+
+        given(ppsTimeHelper.calculateOrderFinishDate(any(Entity.class), any(List.class))).willReturn(finishDate);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldSetActualDatesOfDaysAsProductionPerShiftSaveHookDoes() {
+        // given
+        ArgumentCaptor<Map> paramsCaptor = ArgumentCaptor.forClass(Map.class);
+
+        // when
+        List<ErrorMessage> errors = ppsBulkGenerationService.generate(order, shiftWorkTimesByProductionLine);
+
+        // then
+        assertTrue(errors.isEmpty());
+
+        verify(jdbcTemplate).query(startsWith("INSERT INTO productionpershift_progressforday"), paramsCaptor.capture(),
+                any(RowMapper.class));
+        assertEquals(dateOfDay, paramsCaptor.getValue().get("dateOfDay0"));
+        assertEquals(dateOfDay, paramsCaptor.getValue().get("actualDateOfDay0"));
+
+        verify(jdbcTemplate).update(startsWith("UPDATE productionpershift_progressforday SET actualdateofday = dateofday"),
+                anyMap());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldSetOrderFinishDateAsProductionPerShiftSaveHookDoes() {
+        // given
+        ArgumentCaptor<Map> paramsCaptor = ArgumentCaptor.forClass(Map.class);
+
+        // when
+        ppsBulkGenerationService.generate(order, shiftWorkTimesByProductionLine);
+
+        // then
+        verify(order).setField(OrderFields.FINISH_DATE, finishDate);
+        verify(order).setField(OrderFields.DATE_TO, finishDate);
+        verify(order, never()).setField(eq(OrderFields.CORRECTED_DATE_TO), any());
+
+        verify(jdbcTemplate).update(startsWith("UPDATE orders_order SET finishdate = :finishDate, dateto = :finishDate"),
+                paramsCaptor.capture());
+        assertEquals(finishDate, paramsCaptor.getValue().get("finishDate"));
+        assertEquals(1L, paramsCaptor.getValue().get("orderId"));
+    }
+
+    @Test
+    public void shouldShareShiftWorkTimesOfProductionLine() {
+        // given
+        ArgumentCaptor<ProgressForDaysContainer> containerCaptor = ArgumentCaptor.forClass(ProgressForDaysContainer.class);
+
+        given(order.getBelongsToField(OrderFields.PRODUCTION_LINE)).willReturn(productionLine);
+        given(otherOrder.getBelongsToField(OrderFields.PRODUCTION_LINE)).willReturn(productionLine);
+        given(productionLine.getId()).willReturn(3L);
+
+        // when
+        ppsBulkGenerationService.generate(order, shiftWorkTimesByProductionLine);
+        ppsBulkGenerationService.generate(otherOrder, shiftWorkTimesByProductionLine);
+
+        // then
+        verify(automaticPpsExecutorService, times(2)).generateProgressForDays(containerCaptor.capture(),
+                eq(productionPerShift));
+
+        ShiftWorkTimes shiftWorkTimes = shiftWorkTimesByProductionLine.get(3L);
+
+        assertSame(productionLine, shiftWorkTimes.getProductionLine());
+        assertSame(shiftWorkTimes, containerCaptor.getAllValues().get(0).getShiftWorkTimes());
+        assertSame(shiftWorkTimes, containerCaptor.getAllValues().get(1).getShiftWorkTimes());
+    }
+
+    @Test
+    public void shouldNotGenerateWhenAutomaticPlanIsOff() {
+        // given
+        given(automaticPpsParametersService.isAutomaticPlanForShiftOn()).willReturn(false);
+
+        // when
+        List<ErrorMessage> errors = ppsBulkGenerationService.generate(order, shiftWorkTimesByProductionLine);
+
+        // then
+        assertEquals(1, errors.size());
+
+        verify(automaticPpsExecutorService, never()).generateProgressForDays(any(ProgressForDaysContainer.class),
+                any(Entity.class));
+        verify(jdbcTemplate, never()).update(anyString(), anyMap());
+    }
+
+}
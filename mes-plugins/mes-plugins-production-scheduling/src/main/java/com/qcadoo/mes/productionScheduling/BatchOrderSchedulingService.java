@@ -0,0 +1,408 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionScheduling;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.shift.WorkingTimeCalendarService;
+import com.qcadoo.mes.lineChangeoverNorms.ChangeoverNormsMatrixService;
+import com.qcadoo.mes.operationTimeCalculations.OrderRealizationTimeService;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.orders.constants.OrdersConstants;
+import com.qcadoo.mes.orders.states.constants.OrderStateStringValues;
+import com.qcadoo.mes.productionScheduling.constants.OrderFieldsPS;
+import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityTreeNode;
+import com.qcadoo.model.api.search.SearchRestrictions;
+
+/**
+ * Schedules many pending orders on their production lines at once.
+ * 
+ * Orders, durations and changeover norms are read once, then each line is planned in memory: the next order is the one with
+ * the earliest deadline, ties go to the shortest changeover from the previous order and then to the shortest duration. Orders
+ * start after the last order already planned on the line and run only in work time of line shifts. Dates are written back
+ * with a single update, without order hooks, so orders read earlier in the same session don't see them.
+ */
+@Service
+public class BatchOrderSchedulingService {
+
+    private static final String L_PLANNED_ORDERS_STATES = "'" + OrderStateStringValues.PENDING + "', '"
+            + OrderStateStringValues.ACCEPTED + "', '" + OrderStateStringValues.IN_PROGRESS + "'";
+
+    private static final int L_UPDATE_CHUNK_SIZE = 1000;
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private OrderRealizationTimeService orderRealizationTimeService;
+
+    @Autowired
+    private ChangeoverNormsMatrixService changeoverNormsMatrixService;
+
+    @Autowired
+    private WorkingTimeCalendarService workingTimeCalendarService;
+
+    @Transactional
+    public OrdersSchedulingResult schedule(final Collection<Long> ordersIds, final Date dateFrom) {
+        OrdersSchedulingResult result = new OrdersSchedulingResult();
+
+        if (ordersIds.isEmpty()) {
+            return result;
+        }
+
+        Map<Long, List<PlannedOrder>> ordersByLine = getOrdersByLine(ordersIds, result);
+
+        if (ordersByLine.isEmpty()) {
+            return result;
+        }
+
+        Map<Long, LineLoad> lineLoads = getLineLoads(ordersByLine.keySet(), ordersIds, dateFrom);
+        SchedulingContext context = new SchedulingContext();
+        List<PlannedOrder> scheduledOrders = Lists.newArrayList();
+
+        for (Map.Entry<Long, List<PlannedOrder>> lineOrders : ordersByLine.entrySet()) {
+            LineLoad lineLoad = lineLoads.getOrDefault(lineOrders.getKey(), new LineLoad(dateFrom, null));
+
+            scheduleLine(lineOrders.getValue(), lineLoad, context, scheduledOrders, result);
+        }
+
+        updateDates(scheduledOrders);
+
+        return result;
+    }
+
+    private Map<Long, List<PlannedOrder>> getOrdersByLine(final Collection<Long> ordersIds, final OrdersSchedulingResult result) {
+        Map<Long, List<PlannedOrder>> ordersByLine = Maps.newTreeMap();
+        Map<String, Long> durations = Maps.newHashMap();
+
+        List<Entity> orders = getOrderDD().find().add(SearchRestrictions.in("id", ordersIds)).list().getEntities();
+
+        for (Entity order : orders) {
+            Entity productionLine = order.getBelongsToField(OrderFields.PRODUCTION_LINE);
+            Entity technology = order.getBelongsToField(OrderFields.TECHNOLOGY);
+
+            if (!OrderStateStringValues.PENDING.equals(order.getStringField(OrderFields.STATE)) || Objects.isNull(productionLine)
+                    || Objects.isNull(technology)) {
+                result.addUnscheduledOrder(order.getStringField(OrderFields.NUMBER));
+
+                continue;
+            }
+
+            Optional<Long> duration = getDuration(order, technology, productionLine, durations);
+
+            if (!duration.isPresent()) {
+                result.addUnscheduledOrder(order.getStringField(OrderFields.NUMBER));
+
+                continue;
+            }
+
+            ordersByLine.computeIfAbsent(productionLine.getId(), id -> Lists.newArrayList()).add(
+                    new PlannedOrder(order, productionLine, getChangeoverTechnology(order), duration.get()));
+        }
+
+        return ordersByLine;
+    }
+
+    private Optional<Long> getDuration(final Entity order, final Entity technology, final Entity productionLine,
+            final Map<String, Long> durations) {
+        BigDecimal plannedQuantity = order.getDecimalField(OrderFields.PLANNED_QUANTITY);
+        boolean includeTpz = order.getBooleanField(OrderFieldsPS.INCLUDE_TPZ);
+        boolean includeAdditionalTime = order.getBooleanField(OrderFieldsPS.INCLUDE_ADDITIONAL_TIME);
+
+        if (Objects.isNull(plannedQuantity)) {
+            return Optional.empty();
+        }
+
+        String key = technology.getId() + "-" + productionLine.getId() + "-"
+                + plannedQuantity.stripTrailingZeros().toPlainString() + "-" + includeTpz + "-" + includeAdditionalTime;
+
+        Long duration = durations.computeIfAbsent(key, k -> {
+            EntityTreeNode root = technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS).getRoot();
+
+            if (Objects.isNull(root)) {
+                return -1L;
+            }
+
+            return (long) orderRealizationTimeService.estimateOperationTimeConsumption(root, plannedQuantity, includeTpz,
+                    includeAdditionalTime, productionLine);
+        });
+
+        if ((duration < 0) || (duration > OrderRealizationTimeService.MAX_REALIZATION_TIME)) {
+            return Optional.empty();
+        }
+
+        return Optional.of(duration);
+    }
+
+    private Entity getChangeoverTechnology(final Entity order) {
+        Entity technologyPrototype = order.getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE);
+
+        if (Objects.isNull(technologyPrototype)) {
+            return order.getBelongsToField(OrderFields.TECHNOLOGY);
+        }
+
+        return technologyPrototype;
+    }
+
+    private Map<Long, LineLoad> getLineLoads(final Set<Long> productionLinesIds, final Collection<Long> ordersIds,
+            final Date dateFrom) {
+        Map<Long, LineLoad> lineLoads = Maps.newHashMap();
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("productionLinesIds", productionLinesIds);
+        params.put("ordersIds", ordersIds);
+        params.put("dateFrom", dateFrom);
+
+        StringBuilder query = new StringBuilder();
+        query.append("SELECT DISTINCT ON (o.productionline_id) o.productionline_id AS productionLineId, ");
+        query.append("o.finishdate AS finishDate, COALESCE(o.technologyprototype_id, o.technology_id) AS technologyId ");
+        query.append("FROM orders_order o ");
+        query.append("WHERE o.productionline_id IN (:productionLinesIds) AND o.id NOT IN (:ordersIds) ");
+        query.append("AND o.state IN (" + L_PLANNED_ORDERS_STATES + ") AND o.finishdate > :dateFrom ");
+        query.append("ORDER BY o.productionline_id, o.finishdate DESC");
+
+        DataDefinition technologyDD = dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
+                TechnologiesConstants.MODEL_TECHNOLOGY);
+
+        jdbcTemplate.query(query.toString(), params, (RowCallbackHandler) resultSet -> {
+            Long technologyId = (Long) resultSet.getObject("technologyId");
+            Entity technology = Objects.isNull(technologyId) ? null : technologyDD.get(technologyId);
+
+            lineLoads.put(resultSet.getLong("productionLineId"), new LineLoad(resultSet.getTimestamp("finishDate"), technology));
+        });
+
+        return lineLoads;
+    }
+
+    private void scheduleLine(final List<PlannedOrder> orders, final LineLoad lineLoad, final SchedulingContext context,
+            final List<PlannedOrder> scheduledOrders, final OrdersSchedulingResult result) {
+        Date lineFreeDate = lineLoad.getFinishDate();
+        Entity previousTechnology = lineLoad.getTechnology();
+
+        List<PlannedOrder> remainingOrders = Lists.newArrayList(orders);
+
+        while (!remainingOrders.isEmpty()) {
+            PlannedOrder order = pickNextOrder(remainingOrders, previousTechnology, context);
+
+            remainingOrders.remove(order);
+
+            Entity productionLine = order.getProductionLine();
+            long changeoverDuration = context.getChangeoverDuration(previousTechnology, order.getTechnology(), productionLine);
+
+            Optional<Date> startDate = workingTimeCalendarService.addWorkingSeconds(null, productionLine, lineFreeDate,
+                    changeoverDuration);
+            Optional<Date> finishDate = startDate.flatMap(date -> workingTimeCalendarService.addWorkingSeconds(null,
+                    productionLine, date, order.getDuration()));
+
+            if (!finishDate.isPresent()) {
+                result.addUnscheduledOrder(order.getNumber());
+
+                continue;
+            }
+
+            order.setStartDate(startDate.get());
+            order.setFinishDate(finishDate.get());
+
+            scheduledOrders.add(order);
+            result.addScheduledOrder(order.getId());
+
+            if (Objects.nonNull(order.getDeadline()) && finishDate.get().after(order.getDeadline())) {
+                result.addLateOrder(order.getNumber());
+            }
+
+            lineFreeDate = finishDate.get();
+            previousTechnology = order.getTechnology();
+        }
+    }
+
+    private PlannedOrder pickNextOrder(final List<PlannedOrder> orders, final Entity previousTechnology,
+            final SchedulingContext context) {
+        Comparator<PlannedOrder> priority = Comparator
+                .comparing(PlannedOrder::getDeadline, Comparator.nullsLast(Comparator.naturalOrder()))
+                .thenComparingLong(
+                        order -> context.getChangeoverDuration(previousTechnology, order.getTechnology(),
+                                order.getProductionLine())).thenComparingLong(PlannedOrder::getDuration)
+                .thenComparing(PlannedOrder::getNumber);
+
+        return orders.stream().min(priority).get();
+    }
+
+    private void updateDates(final List<PlannedOrder> scheduledOrders) {
+        for (List<PlannedOrder> chunk : Lists.partition(scheduledOrders, L_UPDATE_CHUNK_SIZE)) {
+            Map<String, Object> params = Maps.newHashMap();
+            List<String> values = Lists.newArrayList();
+
+            for (int index = 0; index < chunk.size(); index++) {
+                PlannedOrder order = chunk.get(index);
+
+                params.put("id" + index, order.getId());
+                params.put("startDate" + index, order.getStartDate());
+                params.put("finishDate" + index, order.getFinishDate());
+
+                values.add(String.format("(CAST(:id%1$d AS bigint), CAST(:startDate%1$d AS timestamp), "
+                        + "CAST(:finishDate%1$d AS timestamp))", index));
+            }
+
+            // pending orders keep planned dates equal to start and finish dates, see OrderHooks
+            StringBuilder query = new StringBuilder();
+            query.append("UPDATE orders_order o SET startdate = v.startdate, finishdate = v.finishdate, ");
+            query.append("datefrom = v.startdate, dateto = v.finishdate, entityversion = o.entityversion + 1 ");
+            query.append("FROM (VALUES ").append(values.stream().collect(Collectors.joining(", ")));
+            query.append(") AS v (id, startdate, finishdate) WHERE o.id = v.id");
+
+            jdbcTemplate.update(query.toString(), params);
+        }
+    }
+
+    private DataDefinition getOrderDD() {
+        return dataDefinitionService.get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER);
+    }
+
+    private class SchedulingContext {
+
+        private final Map<String, Long> changeoverDurations = Maps.newHashMap();
+
+        long getChangeoverDuration(final Entity fromTechnology, final Entity toTechnology, final Entity productionLine) {
+            if (Objects.isNull(fromTechnology) || Objects.isNull(toTechnology)) {
+                return 0L;
+            }
+
+            String key = fromTechnology.getId() + "-" + toTechnology.getId() + "-" + productionLine.getId();
+
+            return changeoverDurations.computeIfAbsent(key,
+                    k -> (long) changeoverNormsMatrixService.getDuration(fromTechnology, toTechnology, productionLine));
+        }
+
+    }
+
+    private static class LineLoad {
+
+        private final Date finishDate;
+
+        private final Entity technology;
+
+        LineLoad(final Date finishDate, final Entity technology) {
+            this.finishDate = finishDate;
+            this.technology = technology;
+        }
+
+        Date getFinishDate() {
+            return finishDate;
+        }
+
+        Entity getTechnology() {
+            return technology;
+        }
+
+    }
+
+    private static class PlannedOrder {
+
+        private final Entity order;
+
+        private final Entity productionLine;
+
+        private final Entity technology;
+
+        private final long duration;
+
+        private Date startDate;
+
+        private Date finishDate;
+
+        PlannedOrder(final Entity order, final Entity productionLine, final Entity technology, final long duration) {
+            this.order = order;
+            this.productionLine = productionLine;
+            this.technology = technology;
+            this.duration = duration;
+        }
+
+        Long getId() {
+            return order.getId();
+        }
+
+        String getNumber() {
+            return order.getStringField(OrderFields.NUMBER);
+        }
+
+        Date getDeadline() {
+            return order.getDateField(OrderFields.DEADLINE);
+        }
+
+        Entity getProductionLine() {
+            return productionLine;
+        }
+
+        Entity getTechnology() {
+            return technology;
+        }
+
+        long getDuration() {
+            return duration;
+        }
+
+        Date getStartDate() {
+            return startDate;
+        }
+
+        void setStartDate(final Date startDate) {
+            this.startDate = startDate;
+        }
+
+        Date getFinishDate() {
+            return finishDate;
+        }
+
+        void setFinishDate(final Date finishDate) {
+            this.finishDate = finishDate;
+        }
+
+    }
+
+}
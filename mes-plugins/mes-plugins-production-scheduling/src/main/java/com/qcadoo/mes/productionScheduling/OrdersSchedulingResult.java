@@ -0,0 +1,70 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionScheduling;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+public class OrdersSchedulingResult {
+
+    private final List<Long> scheduledOrdersIds = Lists.newArrayList();
+
+    private final List<String> lateOrdersNumbers = Lists.newArrayList();
+
+    private final List<String> unscheduledOrdersNumbers = Lists.newArrayList();
+
+    void addScheduledOrder(final Long orderId) {
+        scheduledOrdersIds.add(orderId);
+    }
+
+    void addLateOrder(final String orderNumber) {
+        lateOrdersNumbers.add(orderNumber);
+    }
+
+    void addUnscheduledOrder(final String orderNumber) {
+        unscheduledOrdersNumbers.add(orderNumber);
+    }
+
+    public List<Long> getScheduledOrdersIds() {
+        return Collections.unmodifiableList(scheduledOrdersIds);
+    }
+
+    /**
+     * @return numbers of scheduled orders which finish after their deadline
+     */
+    public List<String> getLateOrdersNumbers() {
+        return Collections.unmodifiableList(lateOrdersNumbers);
+    }
+
+    /**
+     * @return numbers of orders which aren't pending, have no production line or technology, or can't fit into work time of
+     *         production line
+     */
+    public List<String> getUnscheduledOrdersNumbers() {
+        return Collections.unmodifiableList(unscheduledOrdersNumbers);
+    }
+
+}
@@ -0,0 +1,263 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionScheduling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.ShiftsServiceImpl;
+import com.qcadoo.mes.basic.TimetableExceptionService;
+import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.mes.basic.constants.ShiftFields;
+import com.qcadoo.mes.basic.shift.Shift;
+import com.qcadoo.mes.basic.shift.ShiftsDataProvider;
+import com.qcadoo.mes.basic.shift.WorkingTimeCalendarService;
+import com.qcadoo.mes.lineChangeoverNorms.ChangeoverNormsMatrixService;
+import com.qcadoo.mes.operationTimeCalculations.OrderRealizationTimeService;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.orders.constants.OrdersConstants;
+import com.qcadoo.mes.orders.states.constants.OrderStateStringValues;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+import com.qcadoo.model.api.EntityTree;
+import com.qcadoo.model.api.EntityTreeNode;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchCriterion;
+import com.qcadoo.model.api.search.SearchResult;
+
+public class BatchOrderSchedulingServiceTest {
+
+    private static final String[][] L_SHIFT_DAYS = { { ShiftFields.MONDAY_WORKING, ShiftFields.MONDAY_HOURS },
+            { ShiftFields.TUESDAY_WORKING, ShiftFields.TUESDAY_HOURS },
+            { ShiftFields.WENSDAY_WORKING, ShiftFields.WENSDAY_HOURS },
+            { ShiftFields.THURSDAY_WORKING, ShiftFields.THURSDAY_HOURS },
+            { ShiftFields.FRIDAY_WORKING, ShiftFields.FRIDAY_HOURS },
+            { ShiftFields.SATURDAY_WORKING, ShiftFields.SATURDAY_HOURS },
+            { ShiftFields.SUNDAY_WORKING, ShiftFields.SUNDAY_HOURS } };
+
+    private static final long L_HOUR = 3600L;
+
+    private static final long L_CHANGEOVER = 1800L;
+
+    private BatchOrderSchedulingService batchOrderSchedulingService;
+
+    private ProductionSchedulingService productionSchedulingService;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService, shiftDataDefinitionService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private OrderRealizationTimeService orderRealizationTimeService;
+
+    @Mock
+    private ChangeoverNormsMatrixService changeoverNormsMatrixService;
+
+    @Mock
+    private TimetableExceptionService timetableExceptionService;
+
+    @Mock
+    private ShiftsDataProvider shiftsDataProvider;
+
+    @Mock
+    private Entity shift, productionLine, technologyA, technologyB;
+
+    @Mock
+    private EntityTreeNode rootA, rootB;
+
+    private final Date dateFrom = new DateTime(2026, 3, 2, 8, 0).toDate();
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        mockShift();
+
+        WorkingTimeCalendarService workingTimeCalendarService = new WorkingTimeCalendarService();
+
+        ReflectionTestUtils.setField(workingTimeCalendarService, "dataDefinitionService", shiftDataDefinitionService);
+        ReflectionTestUtils.setField(workingTimeCalendarService, "shiftsService", new ShiftsServiceImpl());
+        ReflectionTestUtils.setField(workingTimeCalendarService, "timetableExceptionService", timetableExceptionService);
+
+        batchOrderSchedulingService = new BatchOrderSchedulingService();
+
+        ReflectionTestUtils.setField(batchOrderSchedulingService, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(batchOrderSchedulingService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(batchOrderSchedulingService, "orderRealizationTimeService", orderRealizationTimeService);
+        ReflectionTestUtils.setField(batchOrderSchedulingService, "changeoverNormsMatrixService", changeoverNormsMatrixService);
+        ReflectionTestUtils.setField(batchOrderSchedulingService, "workingTimeCalendarService", workingTimeCalendarService);
+
+        productionSchedulingService = new ProductionSchedulingService();
+
+        ReflectionTestUtils.setField(productionSchedulingService, "shiftsDataProvider", shiftsDataProvider);
+        ReflectionTestUtils.setField(productionSchedulingService, "timetableExceptionService", timetableExceptionService);
+
+        given(shiftsDataProvider.findAll()).willReturn(Lists.newArrayList(new Shift(shift)));
+
+        given(productionLine.getId()).willReturn(1L);
+        mockTechnology(technologyA, 2L, rootA);
+        mockTechnology(technologyB, 3L, rootB);
+
+        given(changeoverNormsMatrixService.getDuration(technologyB, technologyA, productionLine)).willReturn((int) L_CHANGEOVER);
+    }
+
+    private void mockShift() {
+        given(shift.getId()).willReturn(1L);
+        given(shift.copy()).willReturn(shift);
+
+        EntityList timetableExceptions = mock(EntityList.class);
+
+        given(timetableExceptions.iterator()).willAnswer(invocation -> Collections.emptyIterator());
+        given(shift.getHasManyField(anyString())).willReturn(timetableExceptions);
+
+        for (int day = 0; day < L_SHIFT_DAYS.length; day++) {
+            boolean working = day < 5;
+
+            given(shift.getBooleanField(L_SHIFT_DAYS[day][0])).willReturn(working);
+            given(shift.getField(L_SHIFT_DAYS[day][0])).willReturn(working);
+            given(shift.getStringField(L_SHIFT_DAYS[day][1])).willReturn("06:00-14:00");
+        }
+
+        DataDefinition shiftDD = mock(DataDefinition.class);
+
+        given(shiftDataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_SHIFT)).willReturn(shiftDD);
+
+        mockFind(shiftDD, Lists.newArrayList(shift));
+    }
+
+    private void mockTechnology(final Entity technology, final Long id, final EntityTreeNode root) {
+        EntityTree operationComponents = mock(EntityTree.class);
+
+        given(technology.getId()).willReturn(id);
+        given(technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS)).willReturn(operationComponents);
+        given(operationComponents.getRoot()).willReturn(root);
+    }
+
+    private void mockFind(final DataDefinition dataDefinition, final List<Entity> entities) {
+        SearchCriteriaBuilder searchCriteriaBuilder = mock(SearchCriteriaBuilder.class);
+        SearchResult searchResult = mock(SearchResult.class);
+
+        given(dataDefinition.find()).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.add(any(SearchCriterion.class))).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.list()).willReturn(searchResult);
+        given(searchResult.getEntities()).willReturn(entities);
+    }
+
+    private Entity mockOrder(final Long id, final Entity technology, final EntityTreeNode root, final BigDecimal quantity,
+            final long duration, final Date deadline) {
+        Entity order = mock(Entity.class);
+
+        given(order.getId()).willReturn(id);
+        given(order.getStringField(OrderFields.NUMBER)).willReturn("O" + id);
+        given(order.getStringField(OrderFields.STATE)).willReturn(OrderStateStringValues.PENDING);
+        given(order.getBelongsToField(OrderFields.PRODUCTION_LINE)).willReturn(productionLine);
+        given(order.getBelongsToField(OrderFields.TECHNOLOGY)).willReturn(technology);
+        given(order.getDecimalField(OrderFields.PLANNED_QUANTITY)).willReturn(quantity);
+        given(order.getDateField(OrderFields.DEADLINE)).willReturn(deadline);
+
+        given(orderRealizationTimeService.estimateOperationTimeConsumption(eq(root), eq(quantity), anyBoolean(), anyBoolean(),
+                eq(productionLine))).willReturn((int) duration);
+
+        return order;
+    }
+
+    private Date addWorkTime(final Entity order, final Date date, final long seconds) {
+        return productionSchedulingService.findDateFromDatePlusMilliseconds(order, date, seconds * 1000L).get().toDate();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldScheduleOrdersAtTheSameDatesAsPerOrderPath() {
+        // given
+        Date laterDeadline = new DateTime(2026, 3, 10, 0, 0).toDate();
+
+        Entity longOrder = mockOrder(1L, technologyA, rootA, BigDecimal.TEN, 10 * L_HOUR, laterDeadline);
+        Entity urgentOrder = mockOrder(2L, technologyB, rootB, BigDecimal.ONE, 5 * L_HOUR,
+                new DateTime(2026, 3, 5, 0, 0).toDate());
+        Entity shortOrder = mockOrder(3L, technologyA, rootA, BigDecimal.valueOf(3), 3 * L_HOUR, laterDeadline);
+
+        DataDefinition orderDD = mock(DataDefinition.class);
+
+        given(dataDefinitionService.get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER)).willReturn(orderDD);
+
+        mockFind(orderDD, Lists.newArrayList(longOrder, urgentOrder, shortOrder));
+
+        // when
+        OrdersSchedulingResult result = batchOrderSchedulingService.schedule(Lists.newArrayList(1L, 2L, 3L), dateFrom);
+
+        // then
+        ArgumentCaptor<Map> params = ArgumentCaptor.forClass(Map.class);
+
+        verify(jdbcTemplate).update(anyString(), params.capture());
+
+        Map<String, Object> dates = params.getValue();
+
+        // earliest deadline first, then shortest duration after changeover from technology B
+        assertEquals(Lists.newArrayList(2L, 3L, 1L), result.getScheduledOrdersIds());
+        assertTrue(result.getLateOrdersNumbers().isEmpty());
+        assertTrue(result.getUnscheduledOrdersNumbers().isEmpty());
+
+        Date urgentFinish = addWorkTime(urgentOrder, dateFrom, 5 * L_HOUR);
+        Date shortStart = addWorkTime(shortOrder, urgentFinish, L_CHANGEOVER);
+        Date shortFinish = addWorkTime(shortOrder, shortStart, 3 * L_HOUR);
+        Date longFinish = addWorkTime(longOrder, shortFinish, 10 * L_HOUR);
+
+        assertEquals(dateFrom, dates.get("startDate0"));
+        assertEquals(urgentFinish, dates.get("finishDate0"));
+        assertEquals(shortStart, dates.get("startDate1"));
+        assertEquals(shortFinish, dates.get("finishDate1"));
+        assertEquals(shortFinish, dates.get("startDate2"));
+        assertEquals(longFinish, dates.get("finishDate2"));
+        assertEquals(new DateTime(2026, 3, 4, 10, 30).toDate(), longFinish);
+    }
+
+}
@@ -0,0 +1,163 @@
+package com.qcadoo.mes.newstates;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.model.api.validators.ErrorMessage;
+import com.qcadoo.model.api.validators.GlobalMessage;
+import com.qcadoo.view.api.ComponentState;
+
+/**
+ * Progress and per entity results of state change performed in background by {@link BulkStateChangeService}.
+ */
+public class BulkStateChange {
+
+    private final String id;
+
+    private final String targetState;
+
+    private final String userLogin;
+
+    private final int total;
+
+    private final Date startDate = new Date();
+
+    private final AtomicInteger processed = new AtomicInteger();
+
+    private final AtomicInteger failed = new AtomicInteger();
+
+    private final Queue<Result> results = new ConcurrentLinkedQueue<>();
+
+    private volatile Date finishDate;
+
+    BulkStateChange(final String id, final String targetState, final String userLogin, final int total) {
+        this.id = id;
+        this.targetState = targetState;
+        this.userLogin = userLogin;
+        this.total = total;
+
+        if (total == 0) {
+            finishDate = new Date();
+        }
+    }
+
+    /**
+     * @return true when given result was the last one
+     */
+    boolean addResult(final Result result) {
+        results.add(result);
+
+        if (!result.isSuccessful()) {
+            failed.incrementAndGet();
+        }
+        if (processed.incrementAndGet() == total) {
+            finishDate = new Date();
+
+            return true;
+        }
+
+        return false;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getTargetState() {
+        return targetState;
+    }
+
+    public String getUserLogin() {
+        return userLogin;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int getProcessed() {
+        return processed.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    public Date getStartDate() {
+        return startDate;
+    }
+
+    public Date getFinishDate() {
+        return finishDate;
+    }
+
+    public boolean isFinished() {
+        return finishDate != null;
+    }
+
+    public List<Result> getResults() {
+        return Collections.unmodifiableList(Lists.newArrayList(results));
+    }
+
+    /**
+     * Result of state change of single entity, collects messages which in request mode would be shown on view.
+     */
+    public static class Result implements StateChangeMessages {
+
+        private final Long entityId;
+
+        private final List<String> failureMessages = Lists.newArrayList();
+
+        private final List<ErrorMessage> errors = Lists.newArrayList();
+
+        private final List<GlobalMessage> globalMessages = Lists.newArrayList();
+
+        Result(final Long entityId) {
+            this.entityId = entityId;
+        }
+
+        @Override
+        public void addMessage(final String translationKey, final ComponentState.MessageType messageType) {
+            if (ComponentState.MessageType.FAILURE.equals(messageType)) {
+                failureMessages.add(translationKey);
+            }
+        }
+
+        @Override
+        public void addMessage(final ErrorMessage errorMessage) {
+            errors.add(errorMessage);
+        }
+
+        @Override
+        public void addMessage(final GlobalMessage globalMessage) {
+            globalMessages.add(globalMessage);
+        }
+
+        public Long getEntityId() {
+            return entityId;
+        }
+
+        public boolean isSuccessful() {
+            return failureMessages.isEmpty();
+        }
+
+        public List<String> getFailureMessages() {
+            return Collections.unmodifiableList(failureMessages);
+        }
+
+        public List<ErrorMessage> getErrors() {
+            return Collections.unmodifiableList(errors);
+        }
+
+        public List<GlobalMessage> getGlobalMessages() {
+            return Collections.unmodifiableList(globalMessages);
+        }
+
+    }
+
+}
@@ -0,0 +1,134 @@
+package com.qcadoo.mes.newstates;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.UnexpectedRollbackException;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.view.api.ComponentState;
+
+/**
+ * Changes state of many entities in background. Transitions are run on bounded state change executor, each entity in its own
+ * transaction, so one failing entity does not roll back the others.
+ */
+@Service
+public class BulkStateChangeService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BulkStateChangeService.class);
+
+    private static final long L_FINISHED_STATE_CHANGES_TTL = TimeUnit.HOURS.toMillis(1);
+
+    private static final long L_REMOVE_FINISHED_STATE_CHANGES_DELAY = 5 * 60 * 1000L;
+
+    @Autowired
+    private StateTransitionService stateTransitionService;
+
+    @Autowired
+    @Qualifier("stateChangeTaskExecutor")
+    private TaskExecutor stateChangeTaskExecutor;
+
+    private final Map<String, BulkStateChange> stateChanges = new ConcurrentHashMap<>();
+
+    public <M extends StateService> BulkStateChange changeState(final Class<M> serviceMarker,
+            final DataDefinition dataDefinition, final Collection<Long> entityIds, final Long userId, final String userLogin,
+            final String targetState) {
+        BulkStateChange stateChange = new BulkStateChange(UUID.randomUUID().toString(), targetState, userLogin,
+                entityIds.size());
+
+        stateChanges.put(stateChange.getId(), stateChange);
+
+        LOG.info(String.format("Bulk state change %s started. Entity name : %S count : %d. Target state : %S",
+                stateChange.getId(), dataDefinition.getName(), entityIds.size(), targetState));
+
+        for (Long entityId : entityIds) {
+            stateChangeTaskExecutor.execute(() -> changeState(serviceMarker, dataDefinition, entityId, userId, userLogin,
+                    stateChange));
+        }
+
+        return stateChange;
+    }
+
+    public Optional<BulkStateChange> find(final String stateChangeId) {
+        return Optional.ofNullable(stateChanges.get(stateChangeId));
+    }
+
+    private <M extends StateService> void changeState(final Class<M> serviceMarker, final DataDefinition dataDefinition,
+            final Long entityId, final Long userId, final String userLogin, final BulkStateChange stateChange) {
+        BulkStateChange.Result result = new BulkStateChange.Result(entityId);
+
+        try {
+            changeStateInTransaction(serviceMarker, dataDefinition, entityId, userId, userLogin,
+                    stateChange.getTargetState(), result);
+        } catch (UnexpectedRollbackException exception) {
+            LOG.info(String.format("State change rolled back. Entity name : %S id : %d", dataDefinition.getName(), entityId));
+
+            saveFailedStateChange(serviceMarker, dataDefinition, entityId, userLogin, stateChange.getTargetState());
+
+            if (result.isSuccessful()) {
+                result.addMessage("states.messages.change.failure", ComponentState.MessageType.FAILURE);
+            }
+        } catch (Exception exception) {
+            LOG.warn(String.format("Can't perform state change. Entity name : %S id : %d", dataDefinition.getName(), entityId),
+                    exception);
+
+            saveFailedStateChange(serviceMarker, dataDefinition, entityId, userLogin, stateChange.getTargetState());
+
+            result.addMessage("states.messages.change.failure", ComponentState.MessageType.FAILURE);
+            result.addMessage("states.messages.change.failure.internalServerError", ComponentState.MessageType.FAILURE);
+        }
+
+        if (stateChange.addResult(result)) {
+            LOG.info(String.format("Bulk state change %s finished. Successful : %d failed : %d", stateChange.getId(),
+                    stateChange.getTotal() - stateChange.getFailed(), stateChange.getFailed()));
+        }
+    }
+
+    @Transactional
+    private <M extends StateService> void changeStateInTransaction(final Class<M> serviceMarker,
+            final DataDefinition dataDefinition, final Long entityId, final Long userId, final String userLogin,
+            final String targetState, final BulkStateChange.Result result) {
+        Entity entity = dataDefinition.getMasterModelEntity(entityId);
+
+        entity.setField(StateExecutorService.USER_CHANGE_STATE, userId);
+
+        stateTransitionService.changeState(serviceMarker, entity, userLogin, targetState, result);
+    }
+
+    private <M extends StateService> void saveFailedStateChange(final Class<M> serviceMarker,
+            final DataDefinition dataDefinition, final Long entityId, final String userLogin, final String targetState) {
+        try {
+            Entity entity = dataDefinition.getMasterModelEntity(entityId);
+
+            if (entity != null) {
+                stateTransitionService.saveFailedStateChange(serviceMarker, entity, userLogin, targetState);
+            }
+        } catch (Exception exception) {
+            LOG.warn(String.format("Can't save failed state change. Entity name : %S id : %d", dataDefinition.getName(),
+                    entityId), exception);
+        }
+    }
+
+    @Scheduled(fixedDelay = L_REMOVE_FINISHED_STATE_CHANGES_DELAY)
+    public void removeFinishedStateChanges() {
+        long now = System.currentTimeMillis();
+
+        stateChanges.values().removeIf(
+                stateChange -> stateChange.isFinished()
+                        && now - stateChange.getFinishDate().getTime() > L_FINISHED_STATE_CHANGES_TTL);
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.qcadoo.mes.newstates;
+
+import com.qcadoo.model.api.validators.ErrorMessage;
+import com.qcadoo.model.api.validators.GlobalMessage;
+import com.qcadoo.view.api.ComponentMessagesHolder;
+import com.qcadoo.view.api.ComponentState;
+
+/**
+ * Receiver of messages produced by state change. Lets the same transition run for view (messages go to component) and in
+ * background (messages are collected as results).
+ */
+public interface StateChangeMessages {
+
+    StateChangeMessages NONE = new StateChangeMessages() {
+
+        @Override
+        public void addMessage(final String translationKey, final ComponentState.MessageType messageType) {
+        }
+
+        @Override
+        public void addMessage(final ErrorMessage errorMessage) {
+        }
+
+        @Override
+        public void addMessage(final GlobalMessage globalMessage) {
+        }
+
+    };
+
+    void addMessage(String translationKey, ComponentState.MessageType messageType);
+
+    void addMessage(ErrorMessage errorMessage);
+
+    void addMessage(GlobalMessage globalMessage);
+
+    static StateChangeMessages of(final ComponentMessagesHolder componentMessagesHolder) {
+        if (componentMessagesHolder == null) {
+            return NONE;
+        }
+
+        return new StateChangeMessages() {
+
+            @Override
+            public void addMessage(final String translationKey, final ComponentState.MessageType messageType) {
+                componentMessagesHolder.addMessage(translationKey, messageType);
+            }
+
+            @Override
+            public void addMessage(final ErrorMessage errorMessage) {
+                componentMessagesHolder.addMessage(errorMessage);
+            }
+
+            @Override
+            public void addMessage(final GlobalMessage globalMessage) {
+                componentMessagesHolder.addMessage(globalMessage);
+            }
+
+        };
+    }
+
+}
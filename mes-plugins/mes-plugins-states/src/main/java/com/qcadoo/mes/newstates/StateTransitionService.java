@@ -0,0 +1,360 @@
+package com.qcadoo.mes.newstates;
+
+import static com.qcadoo.mes.states.constants.StateChangeStatus.IN_PROGRESS;
+import static com.qcadoo.mes.states.constants.StateChangeStatus.PAUSED;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.annotation.AnnotationAwareOrderComparator;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.ShiftsService;
+import com.qcadoo.mes.states.StateChangeEntityDescriber;
+import com.qcadoo.mes.states.StateEnum;
+import com.qcadoo.mes.states.constants.StateChangeStatus;
+import com.qcadoo.mes.states.exception.AnotherChangeInProgressException;
+import com.qcadoo.mes.states.exception.StateTransitionNotAlloweException;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.exception.EntityRuntimeException;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchRestrictions;
+import com.qcadoo.model.api.validators.ErrorMessage;
+import com.qcadoo.model.api.validators.GlobalMessage;
+import com.qcadoo.plugin.api.PluginUtils;
+import com.qcadoo.plugin.api.RunIfEnabled;
+import com.qcadoo.security.api.SecurityService;
+import com.qcadoo.view.api.ComponentState;
+
+/**
+ * Performs state transitions of single entities. Unlike request scoped {@link StateExecutorService} it can be used from
+ * background threads, messages are passed to given {@link StateChangeMessages}.
+ */
+@Service
+public class StateTransitionService {
+
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(StateTransitionService.class);
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Autowired
+    private ShiftsService shiftsService;
+
+    @Autowired
+    private SecurityService securityService;
+
+    private final Map<Class<? extends StateService>, List<? extends StateService>> servicesByMarker = new ConcurrentHashMap<>();
+
+    public <M extends StateService> Entity changeState(Class<M> serviceMarker, Entity entity, String userLogin,
+            String targetState, final StateChangeMessages messages) {
+        List<M> services = lookupChangeStateServices(serviceMarker);
+        StateChangeEntityDescriber describer = services.stream().findFirst().get().getChangeEntityDescriber();
+        String sourceState = entity.getStringField(describer.getOwnerStateFieldName());
+
+        Entity stateChangeEntity = buildStateChangeEntity(describer, entity, userLogin, sourceState, targetState);
+
+        try {
+
+            stateChangeEntity = saveStateChangeContext(entity, stateChangeEntity, describer, sourceState, targetState,
+                    StateChangeStatus.IN_PROGRESS);
+
+            entity = performChangeState(services, entity, stateChangeEntity, describer);
+
+            if (entity.isValid()) {
+                copyMessages(entity, messages);
+                saveStateChangeEntity(stateChangeEntity, StateChangeStatus.SUCCESSFUL);
+                messages.addMessage("states.messages.change.successful", ComponentState.MessageType.SUCCESS);
+                LOG.info(String.format("Change state successful. Entity name : %S id : %d. Target state : %S", entity
+                        .getDataDefinition().getName(), entity.getId(), stateChangeEntity.getStringField(describer
+                        .getTargetStateFieldName())));
+            } else {
+                saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE);
+                entity = rollbackStateChange(entity, sourceState);
+                messages.addMessage("states.messages.change.failure", ComponentState.MessageType.FAILURE);
+                LOG.info(String.format("Change state failure. Entity name : %S id : %d. Target state : %S", entity
+                        .getDataDefinition().getName(), entity.getId(), stateChangeEntity.getStringField(describer
+                        .getTargetStateFieldName())));
+            }
+
+        } catch (EntityRuntimeException entityException) {
+            copyMessages(entityException.getEntity(), entity, messages);
+            entity = rollbackStateChange(entity, sourceState);
+            saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE);
+            messages.addMessage("states.messages.change.failure", ComponentState.MessageType.FAILURE);
+            return entity;
+
+        } catch (AnotherChangeInProgressException e) {
+            entity = rollbackStateChange(entity, sourceState);
+            saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE);
+            messages.addMessage("states.messages.change.failure", ComponentState.MessageType.FAILURE);
+            messages.addMessage("states.messages.change.failure.anotherChangeInProgress", ComponentState.MessageType.FAILURE);
+            LOG.info(String.format("Another state change in progress. Entity name : %S id : %d. Target state : %S", entity
+                    .getDataDefinition().getName(), entity.getId(), targetState));
+        } catch (StateTransitionNotAlloweException e) {
+            entity = rollbackStateChange(entity, sourceState);
+            saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE);
+            messages.addMessage("states.messages.change.failure", ComponentState.MessageType.FAILURE);
+            messages.addMessage("states.messages.change.failure.transitionNotAllowed", ComponentState.MessageType.FAILURE);
+            LOG.info(String.format("State change - transition not allowed. Entity name : %S id : %d. Target state : %S", entity
+                    .getDataDefinition().getName(), entity.getId(), targetState));
+        } catch (Exception exception) {
+            entity = rollbackStateChange(entity, sourceState);
+            saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE);
+            messages.addMessage("states.messages.change.failure", ComponentState.MessageType.FAILURE);
+            messages.addMessage("states.messages.change.failure.internalServerError", ComponentState.MessageType.FAILURE);
+            LOG.info(String.format("State change exception. Entity name : %S id : %d. Target state : %S", entity
+                    .getDataDefinition().getName(), entity.getId(), targetState));
+            LOG.warn("Can't perform state change", exception);
+        }
+
+        return entity;
+    }
+
+    /**
+     * Records failed state change of given entity in new transaction, so the record survives rollback of transaction in which
+     * the change itself was performed.
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public <M extends StateService> void saveFailedStateChange(Class<M> serviceMarker, Entity entity, String userLogin,
+            String targetState) {
+        List<M> services = lookupChangeStateServices(serviceMarker);
+        StateChangeEntityDescriber describer = services.stream().findFirst().get().getChangeEntityDescriber();
+        String sourceState = entity.getStringField(describer.getOwnerStateFieldName());
+
+        saveStateChangeEntity(buildStateChangeEntity(describer, entity, userLogin, sourceState, targetState),
+                StateChangeStatus.FAILURE);
+    }
+
+    private Entity saveStateChangeContext(Entity entity, Entity stateChangeEntity, StateChangeEntityDescriber describer,
+            String _sourceState, String _targetState, StateChangeStatus status) {
+        final StateEnum sourceState = describer.parseStateEnum(_sourceState);
+        final StateEnum targetState = describer.parseStateEnum(_targetState);
+        if (sourceState != null && !sourceState.canChangeTo(targetState)) {
+            throw new StateTransitionNotAlloweException(sourceState, targetState);
+        }
+        checkForUnfinishedStateChange(describer, entity);
+        stateChangeEntity = saveStateChangeEntity(stateChangeEntity, status);
+        return stateChangeEntity;
+    }
+
+    @Transactional
+    private <M extends StateService> Entity performChangeState(List<M> services, Entity entity, Entity stateChangeEntity,
+            StateChangeEntityDescriber describer) {
+        LOG.info(String.format("Change state. Entity name : %S id : %d. Target state : %S", entity.getDataDefinition().getName(),
+                entity.getId(), stateChangeEntity.getStringField(describer.getTargetStateFieldName())));
+        if (!canChangeState(describer, entity, stateChangeEntity.getStringField(describer.getTargetStateFieldName()))) {
+            entity.setNotValid();
+            return entity;
+        }
+
+        entity = hookOnValidate(entity, services, stateChangeEntity.getStringField(describer.getSourceStateFieldName()),
+                stateChangeEntity.getStringField(describer.getTargetStateFieldName()), stateChangeEntity, describer);
+        if (!entity.isValid()) {
+            // copyErrorMessages(entity);
+            return entity;
+        }
+        entity = changeState(entity, stateChangeEntity.getStringField(describer.getTargetStateFieldName()));
+
+        entity = hookOnBeforeSave(entity, services, stateChangeEntity.getStringField(describer.getSourceStateFieldName()),
+                stateChangeEntity.getStringField(describer.getTargetStateFieldName()), stateChangeEntity, describer);
+        if (!entity.isValid()) {
+            throw new EntityRuntimeException(entity);
+        }
+        entity = entity.getDataDefinition().save(entity);
+
+        if (!hookOnAfterSave(entity, services, stateChangeEntity.getStringField(describer.getSourceStateFieldName()),
+                stateChangeEntity.getStringField(describer.getTargetStateFieldName()), stateChangeEntity, describer)) {
+            throw new EntityRuntimeException(entity);
+        }
+
+        return entity;
+    }
+
+    private Entity saveStateChangeEntity(final Entity stateChangeEntity, StateChangeStatus stateChangeStatus) {
+        stateChangeEntity.setField("status", stateChangeStatus.getStringValue());
+
+        Entity savedStateChangeEntity = saveAndValidate(stateChangeEntity);
+        return savedStateChangeEntity;
+    }
+
+    private Entity buildStateChangeEntity(StateChangeEntityDescriber describer, Entity owner, String userLogin,
+            String sourceState, String targetState) {
+        final Entity stateChangeEntity = describer.getDataDefinition().create();
+        final Entity shift = shiftsService.getShiftFromDateWithTime(new Date());
+
+        stateChangeEntity.setField(describer.getDateTimeFieldName(), new Date());
+        stateChangeEntity.setField(describer.getSourceStateFieldName(), sourceState);
+        stateChangeEntity.setField(describer.getTargetStateFieldName(), targetState);
+        stateChangeEntity.setField(describer.getShiftFieldName(), shift);
+        if (StringUtils.isEmpty(userLogin)) {
+            userLogin = securityService.getCurrentUserName();
+        }
+        stateChangeEntity.setField(describer.getWorkerFieldName(), userLogin);
+        stateChangeEntity.setField(describer.getPhaseFieldName(), 0);
+        stateChangeEntity.setField(describer.getOwnerFieldName(), owner);
+
+        return stateChangeEntity;
+    }
+
+    private <M extends StateService> boolean canChangeState(StateChangeEntityDescriber describer, Entity owner,
+            String targetStateString) {
+        final StateEnum sourceState = describer.parseStateEnum(owner.getStringField(describer.getOwnerStateFieldName()));
+        final StateEnum targetState = describer.parseStateEnum(targetStateString);
+        // TODO wrzucamy błąd do encji?
+        if (sourceState != null && !sourceState.canChangeTo(targetState)) {
+            return false;
+        }
+        return true;
+    }
+
+    private <M extends StateService> Entity hookOnValidate(Entity entity, Collection<M> services, String sourceState,
+            String targetState, Entity stateChangeEntity, StateChangeEntityDescriber describer) {
+        for (StateService service : services) {
+            entity = service.onValidate(entity, sourceState, targetState, stateChangeEntity, describer);
+        }
+
+        return entity;
+    }
+
+    private Entity changeState(Entity entity, String targetState) {
+        // TODO zawsze stan będzie w tym polu?
+        entity.setField("state", targetState);
+
+        return entity;
+    }
+
+    private Entity rollbackStateChange(Entity entity, String sourceState) {
+        entity.setField("state", sourceState);
+
+        return entity;
+    }
+
+    private <M extends StateService> Entity hookOnBeforeSave(Entity entity, Collection<M> services, String sourceState,
+            String targetState, Entity stateChangeEntity, StateChangeEntityDescriber describer) {
+        for (StateService service : services) {
+            entity = service.onBeforeSave(entity, sourceState, targetState, stateChangeEntity, describer);
+        }
+
+        return entity;
+    }
+
+    private <M extends StateService> boolean hookOnAfterSave(Entity entity, Collection<M> services, String sourceState,
+            String targetState, Entity stateChangeEntity, StateChangeEntityDescriber describer) {
+        for (StateService service : services) {
+            entity = service.onAfterSave(entity, sourceState, targetState, stateChangeEntity, describer);
+        }
+
+        return entity.isValid();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <M extends StateService> List<M> lookupChangeStateServices(Class<M> serviceMarker) {
+        List<M> stateServices = (List<M>) servicesByMarker.computeIfAbsent(serviceMarker, this::findChangeStateServices);
+
+        List<M> services = new ArrayList<>();
+
+        for (M service : stateServices) {
+            if (serviceEnabled(service)) {
+                services.add(service);
+            }
+        }
+
+        return services;
+    }
+
+    private <M extends StateService> List<M> findChangeStateServices(Class<M> serviceMarker) {
+        List<M> services = new ArrayList<>(applicationContext.getBeansOfType(serviceMarker).values());
+
+        AnnotationAwareOrderComparator.sort(services);
+
+        return Collections.unmodifiableList(services);
+    }
+
+    public <M extends StateService> void buildInitial(Class<M> serviceMarker, Entity entity, String initialState) {
+        List<M> services = lookupChangeStateServices(serviceMarker);
+
+        StateChangeEntityDescriber describer = services.get(0).getChangeEntityDescriber();
+        Entity stateChangeEntity = buildStateChangeEntity(describer, entity, StringUtils.EMPTY, null, initialState);
+        stateChangeEntity = saveStateChangeEntity(stateChangeEntity, StateChangeStatus.SUCCESSFUL);
+
+        entity.setField(describer.getOwnerStateFieldName(), initialState);
+        entity.setField(describer.getOwnerStateChangesFieldName(), Lists.newArrayList(stateChangeEntity));
+
+    }
+
+    private <M extends Object & StateService> boolean serviceEnabled(M service) {
+        RunIfEnabled runIfEnabled = service.getClass().getAnnotation(RunIfEnabled.class);
+        if (runIfEnabled == null) {
+            return true;
+        }
+        for (String pluginIdentifier : runIfEnabled.value()) {
+            if (!PluginUtils.isEnabled(pluginIdentifier)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void copyMessages(Entity entity, Entity mainEntity, final StateChangeMessages messages) {
+        if (mainEntity != null && mainEntity.equals(entity) && entity.getGlobalErrors() == mainEntity.getGlobalErrors()) {
+            return;
+        }
+
+        for (ErrorMessage errorMessage : entity.getGlobalErrors()) {
+            messages.addMessage(errorMessage);
+        }
+        for (ErrorMessage errorMessage : entity.getErrors().values()) {
+            messages.addMessage(errorMessage);
+        }
+
+        for (GlobalMessage globalMessage : entity.getGlobalMessages()) {
+            messages.addMessage(globalMessage);
+        }
+    }
+
+    void copyMessages(Entity entity, final StateChangeMessages messages) {
+        copyMessages(entity, null, messages);
+    }
+
+    private Entity saveAndValidate(final Entity entity) {
+        if (entity == null) {
+            return null;
+        }
+        Entity saved = entity.getDataDefinition().save(entity);
+        if (!saved.isValid()) {
+            throw new RuntimeException(String.format("Error on save state entity: %s", saved.getErrors()));
+        }
+
+        return saved;
+    }
+
+    private void checkForUnfinishedStateChange(final StateChangeEntityDescriber describer, final Entity owner) {
+        final String ownerFieldName = describer.getOwnerFieldName();
+        final String statusFieldName = describer.getStatusFieldName();
+        final Set<String> unfinishedStatuses = Sets.newHashSet(IN_PROGRESS.getStringValue(), PAUSED.getStringValue());
+
+        final SearchCriteriaBuilder searchCriteria = describer.getDataDefinition().find();
+        searchCriteria.createAlias(ownerFieldName, ownerFieldName);
+        searchCriteria.add(SearchRestrictions.eq(ownerFieldName + ".id", owner.getId()));
+        searchCriteria.add(SearchRestrictions.in(statusFieldName, unfinishedStatuses));
+        if (searchCriteria.list().getTotalNumberOfEntities() > 0) {
+            throw new AnotherChangeInProgressException();
+        }
+    }
+}
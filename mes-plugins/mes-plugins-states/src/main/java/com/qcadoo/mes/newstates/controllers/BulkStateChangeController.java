@@ -0,0 +1,40 @@
+package com.qcadoo.mes.newstates.controllers;
+
+import java.util.Optional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+import com.qcadoo.mes.newstates.BulkStateChange;
+import com.qcadoo.mes.newstates.BulkStateChangeService;
+import com.qcadoo.security.api.SecurityService;
+
+/**
+ * Reports progress and per entity results of background state changes to user who started them.
+ */
+@Controller
+@RequestMapping("/rest/states/bulkStateChanges")
+public class BulkStateChangeController {
+
+    @Autowired
+    private BulkStateChangeService bulkStateChangeService;
+
+    @Autowired
+    private SecurityService securityService;
+
+    @RequestMapping(method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE, value = "{stateChangeId}")
+    public ResponseEntity<BulkStateChange> getStateChange(@PathVariable String stateChangeId) {
+        Optional<BulkStateChange> maybeStateChange = bulkStateChangeService.find(stateChangeId).filter(
+                stateChange -> securityService.getCurrentUserName().equals(stateChange.getUserLogin()));
+
+        return maybeStateChange.map(stateChange -> new ResponseEntity<>(stateChange, HttpStatus.OK)).orElseGet(
+                () -> new ResponseEntity<>(HttpStatus.NOT_FOUND));
+    }
+
+}
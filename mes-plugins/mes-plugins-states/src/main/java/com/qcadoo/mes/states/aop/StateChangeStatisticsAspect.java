@@ -0,0 +1,127 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.states.aop;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.DeclarePrecedence;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Configurable;
+
+import com.qcadoo.mes.basic.statistics.HotPathStatistics;
+import com.qcadoo.mes.states.StateChangeContext;
+import com.qcadoo.mes.states.StateChangeEntityDescriber;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Measures state changes, their phases and listeners, both of {@link com.qcadoo.mes.states.service.StateChangeService} and
+ * {@link com.qcadoo.mes.newstates.StateTransitionService}, using {@link HotPathStatistics}. Statistics are kept per
+ * transition, listeners are measured only when they actually run in given phase and transition.
+ */
+@Aspect
+@Configurable
+@DeclarePrecedence("com.qcadoo.mes.states.aop.RunInPhaseAspect, com.qcadoo.mes.states.aop.RunForStateTransitionAspect, "
+        + "com.qcadoo.mes.states.aop.StateChangeStatisticsAspect")
+public class StateChangeStatisticsAspect {
+
+    @Autowired
+    private HotPathStatistics hotPathStatistics;
+
+    @Around("execution(public void com.qcadoo.mes.states.service.StateChangeService+.changeState(..)) "
+            + "&& args(stateChangeContext)")
+    public Object measureStateChange(final ProceedingJoinPoint pjp, final StateChangeContext stateChangeContext)
+            throws Throwable {
+        if (!isEnabled()) {
+            return pjp.proceed();
+        }
+
+        return hotPathStatistics.measure(pjp, HotPathStatistics.Category.STATE_CHANGE, getTransitionName(stateChangeContext));
+    }
+
+    @Around("execution(* com.qcadoo.mes.states.service.StateChangeService+.changeStatePhase(..)) "
+            + "&& args(stateChangeContext, phase)")
+    public Object measureStateChangePhase(final ProceedingJoinPoint pjp, final StateChangeContext stateChangeContext,
+            final int phase) throws Throwable {
+        if (!isEnabled()) {
+            return pjp.proceed();
+        }
+
+        return hotPathStatistics.measure(pjp, HotPathStatistics.Category.STATE_CHANGE_PHASE,
+                getTransitionName(stateChangeContext) + " phase " + phase);
+    }
+
+    @Around("StatesXpiAspect.listenerExecutionWithContext(stateChangeContext) && adviceexecution()")
+    public Object measureStateChangeListener(final ProceedingJoinPoint pjp, final StateChangeContext stateChangeContext)
+            throws Throwable {
+        if (!isEnabled()) {
+            return pjp.proceed();
+        }
+
+        return hotPathStatistics.measure(pjp, HotPathStatistics.Category.STATE_CHANGE_LISTENER,
+                getTransitionName(stateChangeContext) + " " + getMethodName(pjp));
+    }
+
+    @Around("execution(public com.qcadoo.model.api.Entity com.qcadoo.mes.newstates.StateTransitionService.changeState(..)) "
+            + "&& args(*, entity, *, targetState, ..)")
+    public Object measureStateTransition(final ProceedingJoinPoint pjp, final Entity entity, final String targetState)
+            throws Throwable {
+        if (!isEnabled()) {
+            return pjp.proceed();
+        }
+
+        return hotPathStatistics.measure(pjp, HotPathStatistics.Category.STATE_CHANGE,
+                entity.getDataDefinition().getName() + " -> " + targetState);
+    }
+
+    @Around("execution(public com.qcadoo.model.api.Entity com.qcadoo.mes.newstates.StateService+.on*(..)) "
+            + "&& args(entity, sourceState, targetState, ..)")
+    public Object measureStateTransitionListener(final ProceedingJoinPoint pjp, final Entity entity, final String sourceState,
+            final String targetState) throws Throwable {
+        if (!isEnabled()) {
+            return pjp.proceed();
+        }
+
+        return hotPathStatistics.measure(pjp, HotPathStatistics.Category.STATE_CHANGE_LISTENER,
+                entity.getDataDefinition().getName() + " " + sourceState + " -> " + targetState + " " + getMethodName(pjp));
+    }
+
+    private boolean isEnabled() {
+        return (hotPathStatistics != null) && hotPathStatistics.isEnabled();
+    }
+
+    private String getTransitionName(final StateChangeContext stateChangeContext) {
+        StateChangeEntityDescriber describer = stateChangeContext.getDescriber();
+        Entity stateChangeEntity = stateChangeContext.getStateChangeEntity();
+
+        return describer.getDataDefinition().getName() + " "
+                + stateChangeEntity.getStringField(describer.getSourceStateFieldName()) + " -> "
+                + stateChangeEntity.getStringField(describer.getTargetStateFieldName());
+    }
+
+    private String getMethodName(final ProceedingJoinPoint pjp) {
+        return pjp.getSignature().getDeclaringType().getSimpleName() + "." + pjp.getSignature().getName();
+    }
+
+}
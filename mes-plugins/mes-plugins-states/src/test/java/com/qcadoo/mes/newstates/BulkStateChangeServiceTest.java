@@ -0,0 +1,130 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.newstates;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.UnexpectedRollbackException;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+
+public class BulkStateChangeServiceTest {
+
+    private static final String L_TARGET_STATE = "02accepted";
+
+    private static final String L_USER_LOGIN = "admin";
+
+    private BulkStateChangeService bulkStateChangeService;
+
+    @Mock
+    private StateTransitionService stateTransitionService;
+
+    @Mock
+    private DataDefinition dataDefinition;
+
+    @Mock
+    private Entity entity;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        bulkStateChangeService = new BulkStateChangeService();
+
+        TaskExecutor stateChangeTaskExecutor = Runnable::run;
+
+        ReflectionTestUtils.setField(bulkStateChangeService, "stateTransitionService", stateTransitionService);
+        ReflectionTestUtils.setField(bulkStateChangeService, "stateChangeTaskExecutor", stateChangeTaskExecutor);
+
+        given(dataDefinition.getName()).willReturn("order");
+        given(dataDefinition.getMasterModelEntity(1L)).willReturn(entity);
+    }
+
+    @Test
+    public void shouldSaveFailedStateChangeInNewTransactionWhenChangeWasRolledBack() {
+        // given
+        doThrow(new UnexpectedRollbackException("rollback-only")).when(stateTransitionService).changeState(
+                eq(StateService.class), eq(entity), eq(L_USER_LOGIN), eq(L_TARGET_STATE), any(StateChangeMessages.class));
+
+        // when
+        BulkStateChange stateChange = bulkStateChangeService.changeState(StateService.class, dataDefinition,
+                Lists.newArrayList(1L), 2L, L_USER_LOGIN, L_TARGET_STATE);
+
+        // then
+        verify(stateTransitionService).saveFailedStateChange(StateService.class, entity, L_USER_LOGIN, L_TARGET_STATE);
+
+        BulkStateChange.Result result = stateChange.getResults().get(0);
+
+        assertTrue(stateChange.isFinished());
+        assertEquals(1, stateChange.getFailed());
+        assertFalse(result.isSuccessful());
+        assertEquals(Lists.newArrayList("states.messages.change.failure"), result.getFailureMessages());
+    }
+
+    @Test
+    public void shouldNotSaveFailedStateChangeWhenChangeWasCommitted() {
+        // when
+        BulkStateChange stateChange = bulkStateChangeService.changeState(StateService.class, dataDefinition,
+                Lists.newArrayList(1L), 2L, L_USER_LOGIN, L_TARGET_STATE);
+
+        // then
+        verify(stateTransitionService, never()).saveFailedStateChange(eq(StateService.class), any(Entity.class), anyString(),
+                anyString());
+
+        assertTrue(stateChange.isFinished());
+        assertEquals(0, stateChange.getFailed());
+        assertEquals(L_USER_LOGIN, stateChange.getUserLogin());
+    }
+
+    @Test
+    public void shouldFindStateChangeUntilItIsRemoved() {
+        // given
+        BulkStateChange stateChange = bulkStateChangeService.changeState(StateService.class, dataDefinition,
+                Lists.newArrayList(1L), 2L, L_USER_LOGIN, L_TARGET_STATE);
+
+        // when
+        bulkStateChangeService.removeFinishedStateChanges();
+
+        // then
+        assertTrue(bulkStateChangeService.find(stateChange.getId()).isPresent());
+    }
+
+}
@@ -48,6 +48,9 @@ import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
 import com.qcadoo.mes.technologies.dto.ProductQuantitiesHolder;
+import com.qcadoo.mes.technologies.tree.graph.MrpExplosionService;
+import com.qcadoo.mes.technologies.tree.graph.MrpExplosionService.Explosion;
+import com.qcadoo.mes.technologies.tree.graph.TechnologyGraphCompiler;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -72,6 +75,12 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private TechnologyGraphCompiler technologyGraphCompiler;
+
+    @Autowired
+    private MrpExplosionService mrpExplosionService;
+
     @Override
     public ProductQuantitiesHolder getProductComponentQuantities(final Entity technology, final BigDecimal givenQuantity) {
         Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
@@ -117,13 +126,10 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
     @Override
     public OperationProductComponentWithQuantityContainer getProductComponentQuantitiesWithoutNonComponents(
             final List<Entity> orders, final boolean onTheFly) {
-        Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
-        Set<OperationProductComponentHolder> nonComponents = Sets.newHashSet();
-
-        OperationProductComponentWithQuantityContainer productComponentWithQuantities = getProductComponentWithQuantitiesForOrders(
-                orders, operationRuns, nonComponents, onTheFly);
+        Explosion explosion = mrpExplosionService.explode(orders);
 
-        return getProductComponentWithQuantitiesWithoutNonComponents(productComponentWithQuantities, nonComponents);
+        return getProductComponentWithQuantitiesWithoutNonComponents(explosion.getProductComponentWithQuantities(),
+                explosion.getNonComponents());
     }
 
     private OperationProductComponentWithQuantityContainer getProductComponentWithQuantitiesWithoutNonComponents(
@@ -157,20 +163,10 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
     @Override
     public Map<Long, BigDecimal> getNeededProductQuantities(final List<Entity> orders, final MrpAlgorithm mrpAlgorithm,
             final boolean onTheFly) {
-        Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
-
-        return getNeededProductQuantities(orders, mrpAlgorithm, operationRuns, onTheFly);
-    }
-
-    private Map<Long, BigDecimal> getNeededProductQuantities(final List<Entity> orders, final MrpAlgorithm mrpAlgorithm,
-            final Map<Long, BigDecimal> operationRuns, final boolean onTheFly) {
-        Set<OperationProductComponentHolder> nonComponents = Sets.newHashSet();
+        Explosion explosion = mrpExplosionService.explode(orders);
 
-        OperationProductComponentWithQuantityContainer productComponentWithQuantities = getProductComponentWithQuantitiesForOrders(
-                orders, operationRuns, nonComponents, onTheFly);
-
-        return getProductWithQuantities(productComponentWithQuantities, nonComponents, mrpAlgorithm,
-                TechnologiesConstants.MODEL_OPERATION_PRODUCT_IN_COMPONENT);
+        return getProductWithQuantities(explosion.getProductComponentWithQuantities(), explosion.getNonComponents(),
+                mrpAlgorithm, TechnologiesConstants.MODEL_OPERATION_PRODUCT_IN_COMPONENT);
     }
 
     @Override
@@ -181,14 +177,10 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
 
     private Map<Long, BigDecimal> getNeededProductQuantitiesForComponents(final List<Entity> components,
             final MrpAlgorithm mrpAlgorithm, final boolean onTheFly) {
-        Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
-        Set<OperationProductComponentHolder> nonComponents = Sets.newHashSet();
-
-        OperationProductComponentWithQuantityContainer productComponentWithQuantities = getProductComponentWithQuantitiesForOrders(
-                getOrdersFromComponents(components), operationRuns, nonComponents, onTheFly);
+        Explosion explosion = mrpExplosionService.explode(getOrdersFromComponents(components));
 
-        return getProductWithQuantities(productComponentWithQuantities, nonComponents, mrpAlgorithm,
-                TechnologiesConstants.MODEL_OPERATION_PRODUCT_IN_COMPONENT);
+        return getProductWithQuantities(explosion.getProductComponentWithQuantities(), explosion.getNonComponents(),
+                mrpAlgorithm, TechnologiesConstants.MODEL_OPERATION_PRODUCT_IN_COMPONENT);
     }
 
     @Override
@@ -197,23 +189,12 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
             final Set<OperationProductComponentHolder> nonComponents) {
         OperationProductComponentWithQuantityContainer operationProductComponentWithQuantityContainer = new OperationProductComponentWithQuantityContainer();
 
-        EntityTree operationComponents = getOperationComponentsFromTechnology(technology);
-        Entity root = operationComponents.getRoot();
-
-        if (root != null) {
-            preloadProductQuantitiesAndOperationRuns(operationComponents, operationProductComponentWithQuantityContainer,
-                    operationRuns);
-            traverseProductQuantitiesAndOperationRuns(technology, givenQuantity, root, null,
-                    operationProductComponentWithQuantityContainer, nonComponents, operationRuns);
-        }
+        technologyGraphCompiler.getGraph(technology).propagate(givenQuantity, numberService.getMathContext(),
+                operationProductComponentWithQuantityContainer, nonComponents, operationRuns);
 
         return operationProductComponentWithQuantityContainer;
     }
 
-    private EntityTree getOperationComponentsFromTechnology(final Entity technology) {
-        return technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS);
-    }
-
     private OperationProductComponentWithQuantityContainer getProductComponentWithQuantitiesForOrders(final List<Entity> orders,
             final Map<Long, BigDecimal> operationRuns, final Set<OperationProductComponentHolder> nonComponents,
             final boolean onTheFly) {
@@ -0,0 +1,209 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies.tree.graph;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.NumberService;
+
+/**
+ * Explodes product component quantities of many orders at once. Orders are grouped by technology and each technology graph is
+ * compiled once. Scalable graphs are propagated once, for summed planned quantity of their orders, other graphs are propagated
+ * for each order separately, so ceiling rounding of operations works exactly as for single order.
+ * 
+ * Graphs are compiled on calling thread (it needs entities), propagation, which works only on compiled graphs, is done in
+ * parallel for distinct technologies.
+ */
+@Service
+public class MrpExplosionService {
+
+    private static final String L_TECHNOLOGY = "technology";
+
+    private static final String L_PLANNED_QUANTITY = "plannedQuantity";
+
+    @Autowired
+    private NumberService numberService;
+
+    @Autowired
+    private TechnologyGraphCompiler technologyGraphCompiler;
+
+    private final ForkJoinPool explosionPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    public Explosion explode(final List<Entity> orders) {
+        MathContext mathContext = numberService.getMathContext();
+
+        List<TechnologyOrders> technologiesOrders = groupByTechnology(orders);
+
+        Explosion explosion = new Explosion();
+
+        if (technologiesOrders.size() == 1) {
+            explosion.add(technologiesOrders.get(0).explode(mathContext), mathContext);
+
+            return explosion;
+        }
+
+        List<ForkJoinTask<Explosion>> tasks = Lists.newArrayList();
+
+        for (TechnologyOrders technologyOrders : technologiesOrders) {
+            tasks.add(explosionPool.submit(() -> technologyOrders.explode(mathContext)));
+        }
+        for (ForkJoinTask<Explosion> task : tasks) {
+            explosion.add(task.join(), mathContext);
+        }
+
+        return explosion;
+    }
+
+    private List<TechnologyOrders> groupByTechnology(final List<Entity> orders) {
+        Map<Long, TechnologyOrders> technologiesOrders = Maps.newLinkedHashMap();
+
+        for (Entity order : orders) {
+            Entity technology = order.getBelongsToField(L_TECHNOLOGY);
+
+            if (technology == null) {
+                throw new IllegalStateException("Order doesn't contain technology.");
+            }
+
+            TechnologyOrders technologyOrders = technologiesOrders.get(technology.getId());
+
+            if (technologyOrders == null) {
+                technologyOrders = new TechnologyOrders(technologyGraphCompiler.getGraph(technology));
+
+                technologiesOrders.put(technology.getId(), technologyOrders);
+            }
+
+            technologyOrders.addQuantity(order.getDecimalField(L_PLANNED_QUANTITY));
+        }
+
+        return Lists.newArrayList(technologiesOrders.values());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        explosionPool.shutdown();
+    }
+
+    private static final class TechnologyOrders {
+
+        private final TechnologyGraph graph;
+
+        private final List<BigDecimal> quantities = Lists.newArrayList();
+
+        private TechnologyOrders(final TechnologyGraph graph) {
+            this.graph = graph;
+        }
+
+        private void addQuantity(final BigDecimal quantity) {
+            quantities.add(quantity);
+        }
+
+        private Explosion explode(final MathContext mathContext) {
+            Explosion explosion = new Explosion();
+
+            if (graph.isScalable()) {
+                BigDecimal quantity = BigDecimal.ZERO;
+
+                for (BigDecimal orderQuantity : quantities) {
+                    quantity = quantity.add(orderQuantity, mathContext);
+                }
+
+                explosion.add(graph, quantity, mathContext);
+            } else {
+                for (BigDecimal orderQuantity : quantities) {
+                    explosion.add(graph, orderQuantity, mathContext);
+                }
+            }
+
+            return explosion;
+        }
+
+    }
+
+    /**
+     * Summed product component quantities and intermediate product components of exploded orders.
+     */
+    public static final class Explosion {
+
+        private final OperationProductComponentWithQuantityContainer productComponentWithQuantities = new OperationProductComponentWithQuantityContainer();
+
+        private final Set<OperationProductComponentHolder> nonComponents = Sets.newHashSet();
+
+        private Explosion() {
+        }
+
+        private void add(final TechnologyGraph graph, final BigDecimal givenQuantity, final MathContext mathContext) {
+            Explosion order = new Explosion();
+
+            graph.propagate(givenQuantity, mathContext, order.productComponentWithQuantities, order.nonComponents,
+                    Maps.newHashMap());
+
+            add(order, mathContext);
+        }
+
+        private void add(final Explosion other, final MathContext mathContext) {
+            for (Entry<OperationProductComponentHolder, BigDecimal> productComponentWithQuantity : other.productComponentWithQuantities
+                    .asMap().entrySet()) {
+                OperationProductComponentHolder operationProductComponentHolder = productComponentWithQuantity.getKey();
+                BigDecimal quantity = productComponentWithQuantity.getValue();
+                BigDecimal addedQuantity = productComponentWithQuantities.get(operationProductComponentHolder);
+
+                if (addedQuantity != null) {
+                    quantity = quantity.add(addedQuantity, mathContext);
+                }
+
+                productComponentWithQuantities.put(operationProductComponentHolder, quantity);
+            }
+
+            nonComponents.addAll(other.nonComponents);
+        }
+
+        public OperationProductComponentWithQuantityContainer getProductComponentWithQuantities() {
+            return productComponentWithQuantities;
+        }
+
+        public Set<OperationProductComponentHolder> getNonComponents() {
+            return nonComponents;
+        }
+
+    }
+
+}
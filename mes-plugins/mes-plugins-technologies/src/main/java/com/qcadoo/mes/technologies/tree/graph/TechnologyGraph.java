@@ -0,0 +1,203 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies.tree.graph;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+
+/**
+ * Immutable, compiled form of technology operation tree (with referenced technologies inlined) used to propagate product
+ * quantities and operation runs without touching entities.
+ * 
+ * Operation product components are identified by slots - indexes of distinct {@link OperationProductComponentHolder}s.
+ * Operations are stored in the order of tree traversal (parents before children), so quantities can be propagated in one pass.
+ */
+public final class TechnologyGraph {
+
+    private static final int L_QUANTITY_SCALE = 5;
+
+    private final OperationProductComponentHolder[] slots;
+
+    private final BigDecimal[] slotQuantities;
+
+    private final long[] preloadedOperationIds;
+
+    private final long[] operationIds;
+
+    private final boolean[] productQuantitiesDivisible;
+
+    private final boolean[] tjDivisible;
+
+    private final int[][] inSlots;
+
+    private final int[][] outSlots;
+
+    private final int rootOutSlot;
+
+    private final int[][] linkedParentInSlots;
+
+    private final int[][] linkedOutSlots;
+
+    private final boolean scalable;
+
+    TechnologyGraph(final OperationProductComponentHolder[] slots, final BigDecimal[] slotQuantities,
+            final long[] preloadedOperationIds, final long[] operationIds, final boolean[] productQuantitiesDivisible,
+            final boolean[] tjDivisible, final int[][] inSlots, final int[][] outSlots, final int rootOutSlot,
+            final int[][] linkedParentInSlots, final int[][] linkedOutSlots) {
+        this.slots = slots;
+        this.slotQuantities = slotQuantities;
+        this.preloadedOperationIds = preloadedOperationIds;
+        this.operationIds = operationIds;
+        this.productQuantitiesDivisible = productQuantitiesDivisible;
+        this.tjDivisible = tjDivisible;
+        this.inSlots = inSlots;
+        this.outSlots = outSlots;
+        this.rootOutSlot = rootOutSlot;
+        this.linkedParentInSlots = linkedParentInSlots;
+        this.linkedOutSlots = linkedOutSlots;
+        this.scalable = checkIfScalable();
+    }
+
+    private boolean checkIfScalable() {
+        if (operationIds.length == 0) {
+            return true;
+        }
+        if (rootOutSlot < 0) {
+            return false;
+        }
+
+        Set<Long> distinctOperationIds = Sets.newHashSet();
+
+        for (int operation = 0; operation < operationIds.length; operation++) {
+            if (!productQuantitiesDivisible[operation] || !distinctOperationIds.add(operationIds[operation])) {
+                return false;
+            }
+            if (operation > 0 && linkedParentInSlots[operation].length != 1) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public int getNumberOfOperations() {
+        return operationIds.length;
+    }
+
+    public int getNumberOfProductComponents() {
+        return slots.length;
+    }
+
+    /**
+     * Product component quantities of scalable graph are proportional to given quantity (up to rounding of quantities), so
+     * quantities for many orders can be propagated once, for their summed quantity. It holds when every operation has divisible
+     * product quantities and is multiplied exactly once, through single link to its parent.
+     * 
+     * @return true if product component quantities are proportional to given quantity
+     */
+    public boolean isScalable() {
+        return scalable;
+    }
+
+    /**
+     * Computes product component quantities and operation runs needed to produce given quantity of technology product.
+     * 
+     * @param givenQuantity
+     *            quantity of technology product
+     * @param mathContext
+     *            math context used in calculations
+     * @param operationProductComponentWithQuantityContainer
+     *            container, to which quantities of all product components are put
+     * @param nonComponents
+     *            set, to which intermediate (produced inside technology) input product components are added
+     * @param operationRuns
+     *            map, to which operation runs are put, by technology operation component id
+     */
+    public void propagate(final BigDecimal givenQuantity, final MathContext mathContext,
+            final OperationProductComponentWithQuantityContainer operationProductComponentWithQuantityContainer,
+            final Set<OperationProductComponentHolder> nonComponents, final Map<Long, BigDecimal> operationRuns) {
+        BigDecimal[] quantities = slotQuantities.clone();
+
+        for (long operationId : preloadedOperationIds) {
+            operationRuns.put(operationId, BigDecimal.ONE);
+        }
+
+        if (operationIds.length > 0 && rootOutSlot >= 0) {
+            multiplyQuantitiesAndAddOperationRuns(0, givenQuantity, quantities[rootOutSlot], quantities, mathContext,
+                    operationRuns);
+        }
+
+        for (int operation = 1; operation < operationIds.length; operation++) {
+            int[] parentInSlots = linkedParentInSlots[operation];
+            int[] linkedOuts = linkedOutSlots[operation];
+
+            for (int link = 0; link < parentInSlots.length; link++) {
+                multiplyQuantitiesAndAddOperationRuns(operation, quantities[parentInSlots[link]], quantities[linkedOuts[link]],
+                        quantities, mathContext, operationRuns);
+
+                nonComponents.add(slots[parentInSlots[link]]);
+            }
+        }
+
+        for (int slot = 0; slot < slots.length; slot++) {
+            operationProductComponentWithQuantityContainer.put(slots[slot], quantities[slot]);
+        }
+    }
+
+    private void multiplyQuantitiesAndAddOperationRuns(final int operation, final BigDecimal needed, final BigDecimal actual,
+            final BigDecimal[] quantities, final MathContext mathContext, final Map<Long, BigDecimal> operationRuns) {
+        BigDecimal multiplier = needed.divide(actual, mathContext);
+
+        if (!productQuantitiesDivisible[operation]) {
+            // It's intentional to round up the operation runs
+            multiplier = multiplier.setScale(0, RoundingMode.CEILING);
+        }
+
+        BigDecimal runs = multiplier;
+
+        if (!tjDivisible[operation]) {
+            runs = multiplier.setScale(0, RoundingMode.CEILING);
+        }
+
+        operationRuns.put(operationIds[operation], runs);
+
+        multiplyQuantities(inSlots[operation], multiplier, quantities, mathContext);
+        multiplyQuantities(outSlots[operation], multiplier, quantities, mathContext);
+    }
+
+    private void multiplyQuantities(final int[] operationSlots, final BigDecimal multiplier, final BigDecimal[] quantities,
+            final MathContext mathContext) {
+        for (int slot : operationSlots) {
+            quantities[slot] = quantities[slot].multiply(multiplier, mathContext).setScale(L_QUANTITY_SCALE, RoundingMode.CEILING);
+        }
+    }
+
+}
@@ -0,0 +1,338 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies.tree.graph;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.springframework.stereotype.Service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import com.qcadoo.mes.technologies.constants.OperationProductInComponentFields;
+import com.qcadoo.mes.technologies.constants.OperationProductOutComponentFields;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentEntityType;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
+import com.qcadoo.mes.technologies.states.constants.TechnologyState;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityTree;
+import com.qcadoo.model.api.EntityTreeNode;
+
+/**
+ * Compiles technologies into {@link TechnologyGraph}s. Graphs of accepted (and outdated) technologies are cached by technology
+ * id and state - trees of such technologies and of technologies referenced by them can't be changed anymore. Cache keeps
+ * graphs of at most 1000 technologies, least recently used ones are compiled again when needed.
+ */
+@Service
+public class TechnologyGraphCompiler {
+
+    private static final int L_MAX_CACHED_GRAPHS = 1000;
+
+    private final Cache<GraphKey, TechnologyGraph> graphs = CacheBuilder.newBuilder().maximumSize(L_MAX_CACHED_GRAPHS).build();
+
+    public TechnologyGraph getGraph(final Entity technology) {
+        String state = technology.getStringField(TechnologyFields.STATE);
+
+        if (technology.getId() == null || !isCacheable(state)) {
+            return compile(technology);
+        }
+
+        GraphKey key = new GraphKey(technology.getId(), state);
+        TechnologyGraph graph = graphs.getIfPresent(key);
+
+        if (graph == null) {
+            graph = compile(technology);
+
+            graphs.put(key, graph);
+        }
+
+        return graph;
+    }
+
+    private boolean isCacheable(final String state) {
+        return TechnologyState.ACCEPTED.getStringValue().equals(state) || TechnologyState.OUTDATED.getStringValue().equals(state);
+    }
+
+    public TechnologyGraph compile(final Entity technology) {
+        GraphBuilder builder = new GraphBuilder();
+
+        EntityTree operationComponents = technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS);
+        EntityTreeNode root = operationComponents.getRoot();
+
+        if (root != null) {
+            builder.preload(operationComponents);
+            builder.addOperation(technology, root, -1);
+        }
+
+        return builder.build();
+    }
+
+    private static boolean isReferenceTechnology(final Entity operationComponent) {
+        return TechnologyOperationComponentEntityType.REFERENCE_TECHNOLOGY.getStringValue().equals(
+                operationComponent.getStringField(TechnologyOperationComponentFields.ENTITY_TYPE));
+    }
+
+    private static Long getProductId(final Entity operationProductComponent, final String productField) {
+        return operationProductComponent.getBelongsToField(productField).getId();
+    }
+
+    private static final class GraphBuilder {
+
+        private final Map<OperationProductComponentHolder, Integer> slotsByHolder = Maps.newHashMap();
+
+        private final List<OperationProductComponentHolder> slots = Lists.newArrayList();
+
+        private final List<BigDecimal> slotQuantities = Lists.newArrayList();
+
+        private final List<Long> preloadedOperationIds = Lists.newArrayList();
+
+        private final Map<Long, OperationData> operationsById = Maps.newHashMap();
+
+        private final List<OperationData> operations = Lists.newArrayList();
+
+        private final List<int[]> linkedParentInSlots = Lists.newArrayList();
+
+        private final List<int[]> linkedOutSlots = Lists.newArrayList();
+
+        private int rootOutSlot = -1;
+
+        private void preload(final EntityTree operationComponents) {
+            for (Entity operationComponent : operationComponents) {
+                if (isReferenceTechnology(operationComponent)) {
+                    Entity referenceTechnology = operationComponent
+                            .getBelongsToField(TechnologyOperationComponentFields.REFERENCE_TECHNOLOGY);
+
+                    preload(referenceTechnology.getTreeField(TechnologyFields.OPERATION_COMPONENTS));
+
+                    continue;
+                }
+
+                OperationData operation = getOperation(operationComponent);
+
+                for (int i = 0; i < operation.inComponents.size(); i++) {
+                    slotQuantities.set(operation.inSlots[i],
+                            operation.inComponents.get(i).getDecimalField(OperationProductInComponentFields.QUANTITY));
+                }
+                for (int i = 0; i < operation.outComponents.size(); i++) {
+                    slotQuantities.set(operation.outSlots[i],
+                            operation.outComponents.get(i).getDecimalField(OperationProductOutComponentFields.QUANTITY));
+                }
+
+                preloadedOperationIds.add(operationComponent.getId());
+            }
+        }
+
+        private void addOperation(final Entity technology, final EntityTreeNode operationComponent, final int parent) {
+            if (isReferenceTechnology(operationComponent)) {
+                Entity referenceTechnology = operationComponent
+                        .getBelongsToField(TechnologyOperationComponentFields.REFERENCE_TECHNOLOGY);
+
+                addOperation(referenceTechnology, referenceTechnology.getTreeField(TechnologyFields.OPERATION_COMPONENTS)
+                        .getRoot(), parent);
+
+                return;
+            }
+
+            OperationData operation = getOperation(operationComponent);
+            int index = operations.size();
+
+            operations.add(operation);
+
+            List<Integer> parentIns = Lists.newArrayList();
+            List<Integer> outs = Lists.newArrayList();
+
+            if (parent < 0) {
+                Long technologyProductId = technology.getBelongsToField(TechnologyFields.PRODUCT).getId();
+
+                rootOutSlot = findOutSlot(operation, technologyProductId);
+            } else {
+                OperationData parentOperation = operations.get(parent);
+
+                for (int i = 0; i < parentOperation.inComponents.size(); i++) {
+                    Long productId = getProductId(parentOperation.inComponents.get(i), OperationProductInComponentFields.PRODUCT);
+
+                    int out = findOutSlot(operation, productId);
+
+                    if (out >= 0) {
+                        parentIns.add(parentOperation.inSlots[i]);
+                        outs.add(out);
+                    }
+                }
+            }
+
+            linkedParentInSlots.add(Ints.toArray(parentIns));
+            linkedOutSlots.add(Ints.toArray(outs));
+
+            for (EntityTreeNode child : operationComponent.getChildren()) {
+                addOperation(technology, child, index);
+            }
+        }
+
+        private int findOutSlot(final OperationData operation, final Long productId) {
+            for (int i = 0; i < operation.outComponents.size(); i++) {
+                if (getProductId(operation.outComponents.get(i), OperationProductOutComponentFields.PRODUCT).equals(productId)) {
+                    return operation.outSlots[i];
+                }
+            }
+
+            return -1;
+        }
+
+        private OperationData getOperation(final Entity operationComponent) {
+            OperationData operation = operationsById.get(operationComponent.getId());
+
+            if (Objects.isNull(operation)) {
+                List<Entity> inComponents = Lists.newArrayList(operationComponent.getHasManyField(
+                        TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS).iterator());
+                List<Entity> outComponents = Lists.newArrayList(operationComponent.getHasManyField(
+                        TechnologyOperationComponentFields.OPERATION_PRODUCT_OUT_COMPONENTS).iterator());
+
+                operation = new OperationData(operationComponent, inComponents, toSlots(inComponents), outComponents,
+                        toSlots(outComponents));
+
+                operationsById.put(operationComponent.getId(), operation);
+            }
+
+            return operation;
+        }
+
+        private int[] toSlots(final List<Entity> operationProductComponents) {
+            int[] componentSlots = new int[operationProductComponents.size()];
+
+            for (int i = 0; i < componentSlots.length; i++) {
+                OperationProductComponentHolder holder = new OperationProductComponentHolder(operationProductComponents.get(i));
+                Integer slot = slotsByHolder.get(holder);
+
+                if (Objects.isNull(slot)) {
+                    slot = slots.size();
+
+                    slotsByHolder.put(holder, slot);
+                    slots.add(holder);
+                    slotQuantities.add(null);
+                }
+
+                componentSlots[i] = slot;
+            }
+
+            return componentSlots;
+        }
+
+        private TechnologyGraph build() {
+            int size = operations.size();
+
+            long[] operationIds = new long[size];
+            boolean[] productQuantitiesDivisible = new boolean[size];
+            boolean[] tjDivisible = new boolean[size];
+            int[][] inSlots = new int[size][];
+            int[][] outSlots = new int[size][];
+
+            for (int i = 0; i < size; i++) {
+                OperationData operation = operations.get(i);
+
+                operationIds[i] = operation.id;
+                productQuantitiesDivisible[i] = operation.productQuantitiesDivisible;
+                tjDivisible[i] = operation.tjDivisible;
+                inSlots[i] = operation.inSlots;
+                outSlots[i] = operation.outSlots;
+            }
+
+            return new TechnologyGraph(slots.toArray(new OperationProductComponentHolder[slots.size()]),
+                    slotQuantities.toArray(new BigDecimal[slotQuantities.size()]), Longs.toArray(preloadedOperationIds),
+                    operationIds, productQuantitiesDivisible, tjDivisible, inSlots, outSlots, rootOutSlot,
+                    linkedParentInSlots.toArray(new int[size][]), linkedOutSlots.toArray(new int[size][]));
+        }
+
+    }
+
+    private static final class OperationData {
+
+        private final long id;
+
+        private final boolean productQuantitiesDivisible;
+
+        private final boolean tjDivisible;
+
+        private final List<Entity> inComponents;
+
+        private final int[] inSlots;
+
+        private final List<Entity> outComponents;
+
+        private final int[] outSlots;
+
+        private OperationData(final Entity operationComponent, final List<Entity> inComponents, final int[] inSlots,
+                final List<Entity> outComponents, final int[] outSlots) {
+            this.id = operationComponent.getId();
+            this.productQuantitiesDivisible = operationComponent
+                    .getBooleanField(TechnologyOperationComponentFields.ARE_PRODUCT_QUANTITIES_DIVISIBLE);
+            this.tjDivisible = operationComponent.getBooleanField(TechnologyOperationComponentFields.IS_TJ_DIVISIBLE);
+            this.inComponents = inComponents;
+            this.inSlots = inSlots;
+            this.outComponents = outComponents;
+            this.outSlots = outSlots;
+        }
+
+    }
+
+    private static final class GraphKey {
+
+        private final Long technologyId;
+
+        private final String state;
+
+        private GraphKey(final Long technologyId, final String state) {
+            this.technologyId = technologyId;
+            this.state = state;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof GraphKey)) {
+                return false;
+            }
+
+            GraphKey other = (GraphKey) obj;
+
+            return technologyId.equals(other.technologyId) && state.equals(other.state);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(technologyId, state);
+        }
+
+    }
+
+}
@@ -46,6 +46,8 @@ import org.springframework.test.util.ReflectionTestUtils;
 import com.google.common.collect.Maps;
 import com.qcadoo.mes.technologies.constants.MrpAlgorithm;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.mes.technologies.tree.graph.MrpExplosionService;
+import com.qcadoo.mes.technologies.tree.graph.TechnologyGraphCompiler;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.EntityList;
@@ -112,6 +114,14 @@ public class ProductQuantitiesServiceImplTest {
         productQuantitiesService = new ProductQuantitiesServiceImpl();
 
         ReflectionTestUtils.setField(productQuantitiesService, "numberService", numberService);
+        TechnologyGraphCompiler technologyGraphCompiler = new TechnologyGraphCompiler();
+        MrpExplosionService mrpExplosionService = new MrpExplosionService();
+
+        ReflectionTestUtils.setField(mrpExplosionService, "numberService", numberService);
+        ReflectionTestUtils.setField(mrpExplosionService, "technologyGraphCompiler", technologyGraphCompiler);
+
+        ReflectionTestUtils.setField(productQuantitiesService, "technologyGraphCompiler", technologyGraphCompiler);
+        ReflectionTestUtils.setField(productQuantitiesService, "mrpExplosionService", mrpExplosionService);
 
         when(order.getBelongsToField("technology")).thenReturn(technology);
 
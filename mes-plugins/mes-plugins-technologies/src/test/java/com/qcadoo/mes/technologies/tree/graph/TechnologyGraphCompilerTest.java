@@ -0,0 +1,228 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies.tree.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+import com.qcadoo.model.api.EntityTree;
+import com.qcadoo.model.api.EntityTreeNode;
+
+public class TechnologyGraphCompilerTest {
+
+    private TechnologyGraphCompiler technologyGraphCompiler;
+
+    private Entity technology;
+
+    private EntityTreeNode rootOperation, childOperation;
+
+    private Entity finalOutComponent, intermediateInComponent, componentInComponent, intermediateOutComponent,
+            rawInComponent;
+
+    private DataDefinition inDD, outDD;
+
+    private static EntityList mockEntityList(final List<Entity> entities) {
+        EntityList entityList = mock(EntityList.class);
+        when(entityList.iterator()).thenAnswer(invocation -> entities.iterator());
+        return entityList;
+    }
+
+    private static Entity mockProduct(final Long id) {
+        Entity product = mock(Entity.class);
+        when(product.getId()).thenReturn(id);
+        return product;
+    }
+
+    private Entity mockComponent(final Long id, final DataDefinition dataDefinition, final Entity operation,
+            final Entity product, final int quantity) {
+        Entity component = mock(Entity.class);
+        when(component.getId()).thenReturn(id);
+        when(component.getDataDefinition()).thenReturn(dataDefinition);
+        when(component.getBelongsToField("operationComponent")).thenReturn(operation);
+        when(component.getBelongsToField("product")).thenReturn(product);
+        when(component.getDecimalField("quantity")).thenReturn(BigDecimal.valueOf(quantity));
+        return component;
+    }
+
+    @Before
+    public void init() {
+        technologyGraphCompiler = new TechnologyGraphCompiler();
+
+        inDD = mock(DataDefinition.class);
+        outDD = mock(DataDefinition.class);
+        when(inDD.getName()).thenReturn("operationProductInComponent");
+        when(outDD.getName()).thenReturn("operationProductOutComponent");
+
+        Entity finalProduct = mockProduct(1L);
+        Entity intermediateProduct = mockProduct(2L);
+        Entity componentProduct = mockProduct(3L);
+        Entity rawProduct = mockProduct(4L);
+
+        rootOperation = mock(EntityTreeNode.class);
+        childOperation = mock(EntityTreeNode.class);
+        when(rootOperation.getId()).thenReturn(11L);
+        when(childOperation.getId()).thenReturn(12L);
+
+        finalOutComponent = mockComponent(21L, outDD, rootOperation, finalProduct, 1);
+        intermediateInComponent = mockComponent(22L, inDD, rootOperation, intermediateProduct, 2);
+        componentInComponent = mockComponent(23L, inDD, rootOperation, componentProduct, 1);
+        intermediateOutComponent = mockComponent(24L, outDD, childOperation, intermediateProduct, 1);
+        rawInComponent = mockComponent(25L, inDD, childOperation, rawProduct, 5);
+
+        EntityList rootInComponents = mockEntityList(Arrays.asList(intermediateInComponent, componentInComponent));
+        EntityList rootOutComponents = mockEntityList(Arrays.asList(finalOutComponent));
+        EntityList childInComponents = mockEntityList(Arrays.asList(rawInComponent));
+        EntityList childOutComponents = mockEntityList(Arrays.asList(intermediateOutComponent));
+
+        when(rootOperation.getHasManyField("operationProductInComponents")).thenReturn(rootInComponents);
+        when(rootOperation.getHasManyField("operationProductOutComponents")).thenReturn(rootOutComponents);
+        when(childOperation.getHasManyField("operationProductInComponents")).thenReturn(childInComponents);
+        when(childOperation.getHasManyField("operationProductOutComponents")).thenReturn(childOutComponents);
+
+        when(rootOperation.getChildren()).thenReturn(Collections.singletonList(childOperation));
+        when(childOperation.getChildren()).thenReturn(Collections.emptyList());
+
+        List<Entity> operations = Arrays.asList(rootOperation, childOperation);
+
+        EntityTree tree = mock(EntityTree.class);
+        when(tree.iterator()).thenAnswer(invocation -> operations.iterator());
+        when(tree.getRoot()).thenReturn(rootOperation);
+
+        technology = mock(Entity.class);
+        when(technology.getId()).thenReturn(1L);
+        when(technology.getStringField("state")).thenReturn("02accepted");
+        when(technology.getBelongsToField("product")).thenReturn(finalProduct);
+        when(technology.getTreeField("operationComponents")).thenReturn(tree);
+    }
+
+    @Test
+    public final void shouldPropagateQuantitiesAndOperationRuns() {
+        // given
+        OperationProductComponentWithQuantityContainer container = new OperationProductComponentWithQuantityContainer();
+        Set<OperationProductComponentHolder> nonComponents = Sets.newHashSet();
+        Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
+
+        // when
+        TechnologyGraph graph = technologyGraphCompiler.getGraph(technology);
+        graph.propagate(new BigDecimal("4.5"), MathContext.DECIMAL64, container, nonComponents, operationRuns);
+
+        // then
+        assertEquals(2, graph.getNumberOfOperations());
+        assertEquals(5, graph.getNumberOfProductComponents());
+
+        assertEquals(0, BigDecimal.valueOf(5).compareTo(container.get(finalOutComponent)));
+        assertEquals(0, BigDecimal.valueOf(10).compareTo(container.get(intermediateInComponent)));
+        assertEquals(0, BigDecimal.valueOf(5).compareTo(container.get(componentInComponent)));
+        assertEquals(0, BigDecimal.valueOf(10).compareTo(container.get(intermediateOutComponent)));
+        assertEquals(0, BigDecimal.valueOf(50).compareTo(container.get(rawInComponent)));
+
+        assertEquals(0, BigDecimal.valueOf(5).compareTo(operationRuns.get(11L)));
+        assertEquals(0, BigDecimal.valueOf(10).compareTo(operationRuns.get(12L)));
+
+        assertEquals(1, nonComponents.size());
+        assertTrue(nonComponents.contains(new OperationProductComponentHolder(intermediateInComponent)));
+    }
+
+    @Test
+    public final void shouldNotRoundQuantitiesOfDivisibleOperations() {
+        // given
+        when(rootOperation.getBooleanField("areProductQuantitiesDivisible")).thenReturn(true);
+        when(childOperation.getBooleanField("areProductQuantitiesDivisible")).thenReturn(true);
+
+        OperationProductComponentWithQuantityContainer container = new OperationProductComponentWithQuantityContainer();
+        Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
+
+        // when
+        technologyGraphCompiler.getGraph(technology).propagate(new BigDecimal("4.5"), MathContext.DECIMAL64, container,
+                Sets.newHashSet(), operationRuns);
+
+        // then
+        assertEquals(0, new BigDecimal("4.5").compareTo(container.get(finalOutComponent)));
+        assertEquals(0, BigDecimal.valueOf(45).compareTo(container.get(rawInComponent)));
+        assertEquals(0, BigDecimal.valueOf(5).compareTo(operationRuns.get(11L)));
+    }
+
+    @Test
+    public final void shouldBeScalableOnlyWhenAllOperationsAreDivisible() {
+        // when
+        boolean scalableWithRoundedOperations = technologyGraphCompiler.compile(technology).isScalable();
+
+        when(rootOperation.getBooleanField("areProductQuantitiesDivisible")).thenReturn(true);
+        when(childOperation.getBooleanField("areProductQuantitiesDivisible")).thenReturn(true);
+
+        boolean scalableWithDivisibleOperations = technologyGraphCompiler.compile(technology).isScalable();
+
+        // then
+        assertFalse(scalableWithRoundedOperations);
+        assertTrue(scalableWithDivisibleOperations);
+    }
+
+    @Test
+    public final void shouldCompileAcceptedTechnologyOnlyOnce() {
+        // when
+        TechnologyGraph first = technologyGraphCompiler.getGraph(technology);
+        TechnologyGraph second = technologyGraphCompiler.getGraph(technology);
+
+        // then
+        assertTrue(first == second);
+        verify(technology, times(1)).getTreeField("operationComponents");
+    }
+
+    @Test
+    public final void shouldCompileDraftTechnologyEveryTime() {
+        // given
+        when(technology.getStringField("state")).thenReturn("01draft");
+
+        // when
+        technologyGraphCompiler.getGraph(technology);
+        technologyGraphCompiler.getGraph(technology);
+
+        // then
+        verify(technology, times(2)).getTreeField("operationComponents");
+    }
+
+}
@@ -0,0 +1,90 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.warehouseMinimalState;
+
+import java.math.BigDecimal;
+
+public class MinimumStateShortfallDTO {
+
+    private Long locationId;
+
+    private Long productId;
+
+    private BigDecimal minimumState;
+
+    private BigDecimal quantity;
+
+    private BigDecimal orderedQuantity;
+
+    private boolean belowMinimum;
+
+    public Long getLocationId() {
+        return locationId;
+    }
+
+    public void setLocationId(Long locationId) {
+        this.locationId = locationId;
+    }
+
+    public Long getProductId() {
+        return productId;
+    }
+
+    public void setProductId(Long productId) {
+        this.productId = productId;
+    }
+
+    public BigDecimal getMinimumState() {
+        return minimumState;
+    }
+
+    public void setMinimumState(BigDecimal minimumState) {
+        this.minimumState = minimumState;
+    }
+
+    public BigDecimal getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(BigDecimal quantity) {
+        this.quantity = quantity;
+    }
+
+    public BigDecimal getOrderedQuantity() {
+        return orderedQuantity;
+    }
+
+    public void setOrderedQuantity(BigDecimal orderedQuantity) {
+        this.orderedQuantity = orderedQuantity;
+    }
+
+    public boolean isBelowMinimum() {
+        return belowMinimum;
+    }
+
+    public void setBelowMinimum(boolean belowMinimum) {
+        this.belowMinimum = belowMinimum;
+    }
+
+}
@@ -25,6 +25,7 @@ package com.qcadoo.mes.warehouseMinimalState;
 
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -40,6 +41,9 @@ public class WarehouseMinimalStateHelper {
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private WarehouseMinimumStateMonitor warehouseMinimumStateMonitor;
+
     public boolean checkIfLowerThanMinimum(long productId, BigDecimal quantity, BigDecimal minimumState) {
         return quantity.compareTo(minimumState) == -1;
     }
@@ -54,10 +58,19 @@ public class WarehouseMinimalStateHelper {
 
     // WARNING unused argument is used in aspect in plugin integration
     public List<Entity> getWarehouseStockWithTooSmallMinState(final Entity warehouse, final List<Entity> product) {
+        DataDefinition resourceStockDtoDD = getResourceStockDtoDD();
+
+        return warehouseMinimumStateMonitor.findWithMinimumState(warehouse.getId()).stream().map(shortfall -> {
+            Entity stock = resourceStockDtoDD.create();
+
+            stock.setField("location_id", shortfall.getLocationId().intValue());
+            stock.setField("product_id", shortfall.getProductId().intValue());
+            stock.setField("minimumState", shortfall.getMinimumState());
+            stock.setField("quantity", shortfall.getQuantity());
+            stock.setField("orderedQuantity", shortfall.getOrderedQuantity());
 
-        String query = "select stock from #materialFlowResources_resourceStockDto as stock where stock.minimumState > 0"
-                + " and stock.location_id = :warehouseId";
-        return getResourceStockDtoDD().find(query).setParameter("warehouseId", warehouse.getId().intValue()).list().getEntities();
+            return stock;
+        }).collect(Collectors.toList());
     }
 
     private DataDefinition getResourceStockDtoDD() {
@@ -0,0 +1,110 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.warehouseMinimalState;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Reads warehouse minimum states from warehouseminimalstate_minimumstateshortfall. The table holds stock and ordered quantity of
+ * each warehouse and product with minimum state and is kept up to date by database triggers on resources, ordered products,
+ * deliveries and minimum states. Each time product falls below its minimum or gets back above it, trigger adds an event to
+ * warehouseminimalstate_minimumstateevent.
+ */
+@Service
+public class WarehouseMinimumStateMonitor {
+
+    private static final String L_SHORTFALL_COLUMNS = "location_id AS locationId, product_id AS productId, "
+            + "minimumstate AS minimumState, quantity, orderedquantity AS orderedQuantity, belowminimum AS belowMinimum";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * @return shortfalls of products which are below minimum in given warehouse, by product id
+     */
+    public Map<Long, MinimumStateShortfallDTO> findBelowMinimum(final Long warehouseId) {
+        Map<String, Object> params = Maps.newHashMap();
+        params.put("warehouseId", warehouseId);
+
+        List<MinimumStateShortfallDTO> shortfalls = jdbcTemplate.query("SELECT " + L_SHORTFALL_COLUMNS
+                + " FROM warehouseminimalstate_minimumstateshortfall WHERE location_id = :warehouseId AND belowminimum",
+                params, new BeanPropertyRowMapper<>(MinimumStateShortfallDTO.class));
+
+        return shortfalls.stream().collect(Collectors.toMap(MinimumStateShortfallDTO::getProductId, Function.identity()));
+    }
+
+    /**
+     * @return stock and ordered quantity of all products with minimum state in given warehouse, also of these which aren't below
+     *         minimum
+     */
+    public List<MinimumStateShortfallDTO> findWithMinimumState(final Long warehouseId) {
+        Map<String, Object> params = Maps.newHashMap();
+        params.put("warehouseId", warehouseId);
+
+        return jdbcTemplate.query("SELECT " + L_SHORTFALL_COLUMNS
+                + " FROM warehouseminimalstate_minimumstateshortfall WHERE location_id = :warehouseId AND minimumstate > 0",
+                params, new BeanPropertyRowMapper<>(MinimumStateShortfallDTO.class));
+    }
+
+    /**
+     * @return events which occurred after event with given id, oldest first, so caller can continue from id of last one
+     */
+    public List<MinimumStateEventDTO> findEvents(final Long afterEventId, final int limit) {
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        Map<String, Object> params = Maps.newHashMap();
+        params.put("afterEventId", afterEventId == null ? 0L : afterEventId);
+        params.put("limit", limit);
+
+        return jdbcTemplate.query("SELECT id, createdate AS createDate, " + L_SHORTFALL_COLUMNS
+                + " FROM warehouseminimalstate_minimumstateevent WHERE id > :afterEventId ORDER BY id LIMIT :limit", params,
+                new BeanPropertyRowMapper<>(MinimumStateEventDTO.class));
+    }
+
+    /**
+     * Recalculates all warehouses and products with minimum state, for data which existed before triggers were installed.
+     */
+    @Transactional
+    public void rebuild() {
+        jdbcTemplate.queryForList("SELECT refresh_warehouse_minimum_state(location_id, product_id) FROM ("
+                + "SELECT location_id, product_id FROM warehouseminimalstate_warehouseminimumstate "
+                + "UNION SELECT location_id, product_id FROM warehouseminimalstate_minimumstateshortfall) keys",
+                Collections.emptyMap());
+    }
+
+}
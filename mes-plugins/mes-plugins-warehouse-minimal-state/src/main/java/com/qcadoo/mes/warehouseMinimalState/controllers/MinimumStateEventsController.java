@@ -0,0 +1,64 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.warehouseMinimalState.controllers;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import com.qcadoo.mes.warehouseMinimalState.MinimumStateEventDTO;
+import com.qcadoo.mes.warehouseMinimalState.MinimumStateShortfallDTO;
+import com.qcadoo.mes.warehouseMinimalState.WarehouseMinimumStateMonitor;
+
+@Controller
+@RequestMapping("/rest/warehouseMinimalState")
+public class MinimumStateEventsController {
+
+    private static final int L_MAX_EVENTS = 1000;
+
+    @Autowired
+    private WarehouseMinimumStateMonitor warehouseMinimumStateMonitor;
+
+    @ResponseBody
+    @RequestMapping(method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE, value = "belowMinimum/{warehouseId}")
+    public Collection<MinimumStateShortfallDTO> getBelowMinimum(@PathVariable Long warehouseId) {
+        return warehouseMinimumStateMonitor.findBelowMinimum(warehouseId).values();
+    }
+
+    @ResponseBody
+    @RequestMapping(method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE, value = "events")
+    public List<MinimumStateEventDTO> getEvents(@RequestParam(value = "after", required = false) Long afterEventId,
+            @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        return warehouseMinimumStateMonitor.findEvents(afterEventId, Math.min(limit, L_MAX_EVENTS));
+    }
+
+}
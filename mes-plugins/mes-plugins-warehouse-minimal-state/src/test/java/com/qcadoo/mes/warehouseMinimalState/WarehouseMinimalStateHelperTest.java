@@ -0,0 +1,123 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.warehouseMinimalState;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+
+public class WarehouseMinimalStateHelperTest {
+
+    private static final Long L_WAREHOUSE_ID = 1L;
+
+    private static final Long L_PRODUCT_ID = 11L;
+
+    private WarehouseMinimalStateHelper warehouseMinimalStateHelper;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private WarehouseMinimumStateMonitor warehouseMinimumStateMonitor;
+
+    @Mock
+    private DataDefinition resourceStockDtoDD;
+
+    @Mock
+    private Entity warehouse, stock;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        warehouseMinimalStateHelper = new WarehouseMinimalStateHelper();
+
+        ReflectionTestUtils.setField(warehouseMinimalStateHelper, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(warehouseMinimalStateHelper, "warehouseMinimumStateMonitor", warehouseMinimumStateMonitor);
+
+        given(dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                MaterialFlowResourcesConstants.MODEL_RESOURCE_STOCK_DTO)).willReturn(resourceStockDtoDD);
+        given(resourceStockDtoDD.create()).willReturn(stock);
+        given(warehouse.getId()).willReturn(L_WAREHOUSE_ID);
+    }
+
+    @Test
+    public final void shouldReturnStockOfProductsWithMinimumStateFromShortfalls() {
+        // given
+        MinimumStateShortfallDTO shortfall = new MinimumStateShortfallDTO();
+
+        shortfall.setLocationId(L_WAREHOUSE_ID);
+        shortfall.setProductId(L_PRODUCT_ID);
+        shortfall.setMinimumState(new BigDecimal("10"));
+        shortfall.setQuantity(new BigDecimal("2"));
+        shortfall.setOrderedQuantity(new BigDecimal("3"));
+
+        given(warehouseMinimumStateMonitor.findWithMinimumState(L_WAREHOUSE_ID)).willReturn(Lists.newArrayList(shortfall));
+
+        // when
+        List<Entity> stocks = warehouseMinimalStateHelper.getWarehouseStockWithTooSmallMinState(warehouse,
+                Lists.newArrayList(mock(Entity.class)));
+
+        // then
+        assertEquals(Lists.newArrayList(stock), stocks);
+
+        verify(stock).setField("location_id", L_WAREHOUSE_ID.intValue());
+        verify(stock).setField("product_id", L_PRODUCT_ID.intValue());
+        verify(stock).setField("minimumState", new BigDecimal("10"));
+        verify(stock).setField("quantity", new BigDecimal("2"));
+        verify(stock).setField("orderedQuantity", new BigDecimal("3"));
+    }
+
+    @Test
+    public final void shouldReturnNoStockWhenWarehouseHasNoMinimumStates() {
+        // given
+        given(warehouseMinimumStateMonitor.findWithMinimumState(L_WAREHOUSE_ID)).willReturn(
+                Collections.<MinimumStateShortfallDTO> emptyList());
+
+        // when
+        List<Entity> stocks = warehouseMinimalStateHelper.getWarehouseStockWithTooSmallMinState(warehouse,
+                Collections.<Entity> emptyList());
+
+        // then
+        assertEquals(0, stocks.size());
+    }
+
+}
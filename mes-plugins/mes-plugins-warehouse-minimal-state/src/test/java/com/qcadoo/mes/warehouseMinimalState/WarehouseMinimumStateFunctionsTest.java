@@ -0,0 +1,268 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.warehouseMinimalState;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Runs refresh_warehouse_minimum_state functions and triggers from demo database schemas against PostgreSQL given by test.jdbcUrl
+ * (and test.jdbcUser, test.jdbcPassword) system properties, in a schema created for each test. Without them tests are skipped.
+ */
+public class WarehouseMinimumStateFunctionsTest {
+
+    private static final String L_SCHEMA_DIRECTORY = "../../mes-application/src/main/resources/schema/";
+
+    private static final String L_TEST_SCHEMA = "warehouseminimumstate_test";
+
+    private static final Pattern L_FUNCTION_PATTERN = Pattern.compile(
+            "^CREATE FUNCTION refresh_warehouse_minimum_state\\w*\\(.*?^\\$\\$;$", Pattern.MULTILINE | Pattern.DOTALL);
+
+    private static final Pattern L_TRIGGER_PATTERN = Pattern.compile(
+            "^CREATE TRIGGER .* EXECUTE PROCEDURE refresh_warehouse_minimum_state\\w*\\(\\);$", Pattern.MULTILINE);
+
+    private static final String L_INSERT_MINIMUM_STATE = "INSERT INTO warehouseminimalstate_warehouseminimumstate "
+            + "(location_id, product_id, minimumstate) VALUES (1, 11, 10)";
+
+    private static final long L_WAREHOUSE_ID = 1L;
+
+    private static final long L_PRODUCT_ID = 11L;
+
+    private Connection connection;
+
+    @Before
+    public void init() throws SQLException, IOException {
+        String url = System.getProperty("test.jdbcUrl");
+
+        Assume.assumeTrue(url != null);
+
+        connection = DriverManager.getConnection(url, System.getProperty("test.jdbcUser"),
+                System.getProperty("test.jdbcPassword"));
+
+        execute("DROP SCHEMA IF EXISTS " + L_TEST_SCHEMA + " CASCADE", "CREATE SCHEMA " + L_TEST_SCHEMA,
+                "SET search_path TO " + L_TEST_SCHEMA,
+                "CREATE TABLE warehouseminimalstate_warehouseminimumstate (id bigserial PRIMARY KEY, location_id bigint, "
+                        + "product_id bigint, minimumstate numeric(12,5))",
+                "CREATE TABLE materialflowresources_resource (id bigserial PRIMARY KEY, location_id bigint, product_id bigint, "
+                        + "quantity numeric(14,5))",
+                "CREATE TABLE deliveries_delivery (id bigserial PRIMARY KEY, location_id bigint, state character varying(255), "
+                        + "active boolean DEFAULT true)",
+                "CREATE TABLE deliveries_orderedproduct (id bigserial PRIMARY KEY, delivery_id bigint, product_id bigint, "
+                        + "orderedquantity numeric(12,5))",
+                "CREATE TABLE warehouseminimalstate_minimumstateshortfall (id bigserial PRIMARY KEY, "
+                        + "location_id bigint NOT NULL, product_id bigint NOT NULL, minimumstate numeric(12,5) DEFAULT 0, "
+                        + "quantity numeric DEFAULT 0, orderedquantity numeric DEFAULT 0, "
+                        + "belowminimum boolean DEFAULT false NOT NULL, updatedate timestamp without time zone, "
+                        + "UNIQUE (location_id, product_id))",
+                "CREATE TABLE warehouseminimalstate_minimumstateevent (id bigserial PRIMARY KEY, location_id bigint, "
+                        + "product_id bigint, belowminimum boolean, minimumstate numeric(12,5), quantity numeric, "
+                        + "orderedquantity numeric, createdate timestamp without time zone)");
+
+        String schema = readSchema("demo_db_en.sql");
+        List<String> functions = find(L_FUNCTION_PATTERN, schema);
+        List<String> triggers = find(L_TRIGGER_PATTERN, schema);
+
+        assertEquals(5, functions.size());
+        assertEquals(4, triggers.size());
+
+        execute(functions.toArray(new String[functions.size()]));
+        execute(triggers.toArray(new String[triggers.size()]));
+    }
+
+    @After
+    public void destroy() throws SQLException {
+        if (connection != null) {
+            execute("DROP SCHEMA IF EXISTS " + L_TEST_SCHEMA + " CASCADE");
+
+            connection.close();
+        }
+    }
+
+    @Test
+    public final void shouldHaveTheSameFunctionsAndTriggersInAllDemoDatabases() throws IOException {
+        // given
+        String en = readSchema("demo_db_en.sql");
+        String pl = readSchema("demo_db_pl.sql");
+
+        // when & then
+        assertEquals(find(L_FUNCTION_PATTERN, en), find(L_FUNCTION_PATTERN, pl));
+        assertEquals(find(L_TRIGGER_PATTERN, en), find(L_TRIGGER_PATTERN, pl));
+    }
+
+    @Test
+    public final void shouldNotAddShortfallForProductWithoutMinimumState() throws SQLException {
+        // when
+        execute("INSERT INTO materialflowresources_resource (location_id, product_id, quantity) VALUES (1, 11, 5)");
+
+        // then
+        assertEquals(0L, count("warehouseminimalstate_minimumstateshortfall"));
+        assertEquals(0L, count("warehouseminimalstate_minimumstateevent"));
+    }
+
+    @Test
+    public final void shouldAddShortfallAndEventWhenProductFallsBelowMinimum() throws SQLException {
+        // given
+        execute("INSERT INTO materialflowresources_resource (location_id, product_id, quantity) VALUES (1, 11, 5)");
+
+        // when
+        execute(L_INSERT_MINIMUM_STATE);
+
+        // then
+        assertShortfall("10", "5", "0", true);
+        assertEquals(1L, count("warehouseminimalstate_minimumstateevent"));
+        assertTrue(lastEventBelowMinimum());
+    }
+
+    @Test
+    public final void shouldAddEventWhenProductGetsBackAboveMinimum() throws SQLException {
+        // given
+        execute(L_INSERT_MINIMUM_STATE);
+
+        // when
+        execute("INSERT INTO materialflowresources_resource (location_id, product_id, quantity) VALUES (1, 11, 12)");
+
+        // then
+        assertShortfall("10", "12", "0", false);
+        assertEquals(2L, count("warehouseminimalstate_minimumstateevent"));
+        assertFalse(lastEventBelowMinimum());
+    }
+
+    @Test
+    public final void shouldCountOrderedQuantityOfActiveDeliveriesOnly() throws SQLException {
+        // given
+        execute(L_INSERT_MINIMUM_STATE,
+                "INSERT INTO deliveries_delivery (id, location_id, state, active) VALUES (1, 1, '01draft', true)",
+                "INSERT INTO deliveries_delivery (id, location_id, state, active) VALUES (2, 1, '01draft', false)",
+                "INSERT INTO deliveries_delivery (id, location_id, state, active) VALUES (3, 1, '06received', true)");
+
+        // when
+        execute("INSERT INTO deliveries_orderedproduct (delivery_id, product_id, orderedquantity) VALUES (1, 11, 4)",
+                "INSERT INTO deliveries_orderedproduct (delivery_id, product_id, orderedquantity) VALUES (2, 11, 8)",
+                "INSERT INTO deliveries_orderedproduct (delivery_id, product_id, orderedquantity) VALUES (3, 11, 16)");
+
+        // then
+        assertShortfall("10", "0", "4", true);
+
+        // when
+        execute("UPDATE deliveries_delivery SET active = true WHERE id = 2");
+
+        // then
+        assertShortfall("10", "0", "12", false);
+    }
+
+    @Test
+    public final void shouldRemoveShortfallWhenMinimumStateIsDeleted() throws SQLException {
+        // given
+        execute(L_INSERT_MINIMUM_STATE);
+
+        // when
+        execute("DELETE FROM warehouseminimalstate_warehouseminimumstate");
+
+        // then
+        assertEquals(0L, count("warehouseminimalstate_minimumstateshortfall"));
+        assertEquals(2L, count("warehouseminimalstate_minimumstateevent"));
+        assertFalse(lastEventBelowMinimum());
+    }
+
+    private void assertShortfall(final String minimumState, final String quantity, final String orderedQuantity,
+            final boolean belowMinimum) throws SQLException {
+        try (Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery("SELECT minimumstate, quantity, orderedquantity, belowminimum "
+                        + "FROM warehouseminimalstate_minimumstateshortfall WHERE location_id = " + L_WAREHOUSE_ID
+                        + " AND product_id = " + L_PRODUCT_ID)) {
+            assertTrue(resultSet.next());
+            assertEquals(0, new BigDecimal(minimumState).compareTo(resultSet.getBigDecimal("minimumstate")));
+            assertEquals(0, new BigDecimal(quantity).compareTo(resultSet.getBigDecimal("quantity")));
+            assertEquals(0, new BigDecimal(orderedQuantity).compareTo(resultSet.getBigDecimal("orderedquantity")));
+            assertEquals(belowMinimum, resultSet.getBoolean("belowminimum"));
+            assertFalse(resultSet.next());
+        }
+    }
+
+    private boolean lastEventBelowMinimum() throws SQLException {
+        try (Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery(
+                        "SELECT belowminimum FROM warehouseminimalstate_minimumstateevent ORDER BY id DESC LIMIT 1")) {
+            assertTrue(resultSet.next());
+
+            return resultSet.getBoolean("belowminimum");
+        }
+    }
+
+    private long count(final String table) throws SQLException {
+        try (Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery("SELECT count(*) FROM " + table)) {
+            resultSet.next();
+
+            return resultSet.getLong(1);
+        }
+    }
+
+    private void execute(final String... sqls) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : sqls) {
+                statement.execute(sql);
+            }
+        }
+    }
+
+    private String readSchema(final String fileName) throws IOException {
+        return new String(Files.readAllBytes(new File(L_SCHEMA_DIRECTORY + fileName).toPath()), StandardCharsets.UTF_8)
+                .replace("\r\n", "\n");
+    }
+
+    private List<String> find(final Pattern pattern, final String schema) {
+        List<String> statements = Lists.newArrayList();
+        Matcher matcher = pattern.matcher(schema);
+
+        while (matcher.find()) {
+            statements.add(matcher.group());
+        }
+
+        return statements;
+    }
+
+}
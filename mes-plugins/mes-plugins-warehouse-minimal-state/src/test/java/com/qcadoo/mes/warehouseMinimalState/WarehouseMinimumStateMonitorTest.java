@@ -0,0 +1,162 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.warehouseMinimalState;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+
+public class WarehouseMinimumStateMonitorTest {
+
+    private static final Long L_WAREHOUSE_ID = 1L;
+
+    private WarehouseMinimumStateMonitor warehouseMinimumStateMonitor;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        warehouseMinimumStateMonitor = new WarehouseMinimumStateMonitor();
+
+        ReflectionTestUtils.setField(warehouseMinimumStateMonitor, "jdbcTemplate", jdbcTemplate);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public final void shouldReturnShortfallsBelowMinimumByProduct() {
+        // given
+        MinimumStateShortfallDTO first = createShortfall(11L, "10", "2", "3", true);
+        MinimumStateShortfallDTO second = createShortfall(12L, "5", "0", "1", true);
+
+        given(jdbcTemplate.query(anyString(), anyMapOf(String.class, Object.class), any(RowMapper.class))).willReturn(
+                Lists.newArrayList(first, second));
+
+        // when
+        Map<Long, MinimumStateShortfallDTO> shortfalls = warehouseMinimumStateMonitor.findBelowMinimum(L_WAREHOUSE_ID);
+
+        // then
+        assertEquals(2, shortfalls.size());
+        assertEquals(first, shortfalls.get(11L));
+        assertEquals(second, shortfalls.get(12L));
+
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Map> paramsCaptor = ArgumentCaptor.forClass(Map.class);
+
+        verify(jdbcTemplate).query(queryCaptor.capture(), paramsCaptor.capture(), any(RowMapper.class));
+
+        assertTrue(queryCaptor.getValue().contains("belowminimum"));
+        assertEquals(L_WAREHOUSE_ID, paramsCaptor.getValue().get("warehouseId"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public final void shouldReturnAllShortfallsWithMinimumState() {
+        // given
+        MinimumStateShortfallDTO below = createShortfall(11L, "10", "2", "3", true);
+        MinimumStateShortfallDTO above = createShortfall(12L, "5", "7", "0", false);
+
+        given(jdbcTemplate.query(anyString(), anyMapOf(String.class, Object.class), any(RowMapper.class))).willReturn(
+                Lists.newArrayList(below, above));
+
+        // when
+        List<MinimumStateShortfallDTO> shortfalls = warehouseMinimumStateMonitor.findWithMinimumState(L_WAREHOUSE_ID);
+
+        // then
+        assertEquals(Lists.newArrayList(below, above), shortfalls);
+
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+
+        verify(jdbcTemplate).query(queryCaptor.capture(), anyMapOf(String.class, Object.class), any(RowMapper.class));
+
+        assertTrue(queryCaptor.getValue().contains("minimumstate > 0"));
+    }
+
+    @Test
+    public final void shouldNotQueryEventsWhenLimitIsNotPositive() {
+        // when
+        List<MinimumStateEventDTO> events = warehouseMinimumStateMonitor.findEvents(5L, 0);
+
+        // then
+        assertTrue(events.isEmpty());
+
+        verifyZeroInteractions(jdbcTemplate);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public final void shouldQueryEventsFromBeginningWhenNoEventWasRead() {
+        // given
+        given(jdbcTemplate.query(anyString(), anyMapOf(String.class, Object.class), any(RowMapper.class))).willReturn(
+                Lists.newArrayList());
+
+        // when
+        warehouseMinimumStateMonitor.findEvents(null, 100);
+
+        // then
+        ArgumentCaptor<Map> paramsCaptor = ArgumentCaptor.forClass(Map.class);
+
+        verify(jdbcTemplate).query(anyString(), paramsCaptor.capture(), any(RowMapper.class));
+
+        assertEquals(0L, paramsCaptor.getValue().get("afterEventId"));
+        assertEquals(100, paramsCaptor.getValue().get("limit"));
+    }
+
+    private MinimumStateShortfallDTO createShortfall(final Long productId, final String minimumState, final String quantity,
+            final String orderedQuantity, final boolean belowMinimum) {
+        MinimumStateShortfallDTO shortfall = new MinimumStateShortfallDTO();
+
+        shortfall.setLocationId(L_WAREHOUSE_ID);
+        shortfall.setProductId(productId);
+        shortfall.setMinimumState(new BigDecimal(minimumState));
+        shortfall.setQuantity(new BigDecimal(quantity));
+        shortfall.setOrderedQuantity(new BigDecimal(orderedQuantity));
+        shortfall.setBelowMinimum(belowMinimum);
+
+        return shortfall;
+    }
+
+}
@@ -112,31 +112,32 @@ public class WorkPlanColumnServiceImpl implements WorkPlanColumnService {
         Map<String, OperationProductColumn> identifierOperationProductColumn = applicationContext
                 .getBeansOfType(OperationProductColumn.class);
 
-        List<Entity> orders = getWorkPlanOrders(workPlan);
+        // columns come from parameter, so they are the same for every operation component
+        List<Entity> columns = getOperationProductColumns(productDirection);
 
-        for (Entity order : orders) {
-            Entity technology = getOrderTechnology(order);
+        Map<OperationProductColumn, ColumnAlignment> operationProductColumnWithAlignment = Maps.newLinkedHashMap();
 
-            List<Entity> operationComponents = getSortedTechnologyOperationComponents(technology);
+        for (Entity column : columns) {
+            String identifier = getIdentifier(column);
+            ColumnAlignment alignment = getColumnAlignment(column);
 
-            for (Entity operationComponent : operationComponents) {
-                List<Entity> columns = getOperationProductColumns(productDirection);
+            OperationProductColumn key = identifierOperationProductColumn.get(identifier);
 
-                Map<OperationProductColumn, ColumnAlignment> operationProductColumnWithAlignment = Maps.newLinkedHashMap();
+            if (key != null) {
+                operationProductColumnWithAlignment.put(key, alignment);
+            }
+        }
 
-                for (Entity column : columns) {
-                    String identifier = getIdentifier(column);
-                    ColumnAlignment alignment = getColumnAlignment(column);
+        List<Entity> orders = getWorkPlanOrders(workPlan);
 
-                    OperationProductColumn key = identifierOperationProductColumn.get(identifier);
+        for (Entity order : orders) {
+            Entity technology = getOrderTechnology(order);
 
-                    if (key != null) {
-                        operationProductColumnWithAlignment.put(key, alignment);
-                    }
-                }
+            List<Entity> operationComponents = getSortedTechnologyOperationComponents(technology);
 
+            for (Entity operationComponent : operationComponents) {
                 operationComponentIdWithOperationProductColumnAndAlignment.put(operationComponent.getId(),
-                        operationProductColumnWithAlignment);
+                        Maps.newLinkedHashMap(operationProductColumnWithAlignment));
             }
         }
 
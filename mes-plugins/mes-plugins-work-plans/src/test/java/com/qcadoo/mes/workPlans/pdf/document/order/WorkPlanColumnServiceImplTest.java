@@ -0,0 +1,178 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.workPlans.pdf.document.order;
+
+import static com.qcadoo.testing.model.EntityTestUtils.mockEntity;
+import static com.qcadoo.testing.model.EntityTestUtils.stubBelongsToField;
+import static com.qcadoo.testing.model.EntityTestUtils.stubStringField;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.context.ApplicationContext;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.columnExtension.constants.ColumnAlignment;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.workPlans.constants.ParameterFieldsWP;
+import com.qcadoo.mes.workPlans.constants.ParameterInputColumnFields;
+import com.qcadoo.mes.workPlans.constants.WorkPlanFields;
+import com.qcadoo.mes.workPlans.pdf.document.operation.product.column.OperationProductColumn;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+import com.qcadoo.model.api.EntityTree;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchOrder;
+import com.qcadoo.model.api.search.SearchResult;
+import com.qcadoo.model.api.utils.EntityTreeUtilsService;
+
+public class WorkPlanColumnServiceImplTest {
+
+    private WorkPlanColumnService workPlanColumnService;
+
+    @Mock
+    private ApplicationContext applicationContext;
+
+    @Mock
+    private EntityTreeUtilsService entityTreeUtilsService;
+
+    @Mock
+    private ParameterService parameterService;
+
+    @Mock
+    private Entity parameter, workPlan;
+
+    @Mock
+    private EntityList inputColumns;
+
+    @Mock
+    private SearchCriteriaBuilder inputColumnsCriteria;
+
+    @Mock
+    private SearchResult inputColumnsResult;
+
+    @Mock
+    private OperationProductColumn productColumn, quantityColumn;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        workPlanColumnService = new WorkPlanColumnServiceImpl(applicationContext, entityTreeUtilsService, parameterService);
+
+        given(applicationContext.getBeansOfType(OperationProductColumn.class)).willReturn(
+                ImmutableMap.of("productName", productColumn, "plannedQuantity", quantityColumn));
+
+        given(parameterService.getParameter()).willReturn(parameter);
+        given(parameter.getHasManyField(ParameterFieldsWP.PARAMETER_INPUT_COLUMNS)).willReturn(inputColumns);
+        given(inputColumns.find()).willReturn(inputColumnsCriteria);
+        given(inputColumnsCriteria.addOrder(any(SearchOrder.class))).willReturn(inputColumnsCriteria);
+        given(inputColumnsCriteria.list()).willReturn(inputColumnsResult);
+        given(inputColumnsResult.getEntities()).willReturn(Lists.newArrayList(
+                mockInputColumn("plannedQuantity", ColumnAlignment.RIGHT), mockInputColumn("productName", ColumnAlignment.LEFT),
+                mockInputColumn("removedColumn", ColumnAlignment.LEFT)));
+    }
+
+    private Entity mockInputColumn(final String identifier, final ColumnAlignment alignment) {
+        Entity columnDefinition = mockEntity();
+        Entity columnComponent = mockEntity();
+
+        stubStringField(columnDefinition, WorkPlanColumnServiceImpl.L_IDENTIFIER, identifier);
+        stubStringField(columnDefinition, WorkPlanColumnServiceImpl.L_ALIGNMENT, alignment.getStringValue());
+        stubBelongsToField(columnComponent, ParameterInputColumnFields.COLUMN_FOR_INPUT_PRODUCTS, columnDefinition);
+
+        return columnComponent;
+    }
+
+    @Test
+    public final void shouldReadInputColumnsFromParameterOncePerWorkPlan() {
+        // given
+        Entity firstOrder = mockOrder(mockEntity(1L), mockEntity(2L));
+        Entity secondOrder = mockOrder(mockEntity(3L));
+
+        given(workPlan.getManyToManyField(WorkPlanFields.ORDERS)).willReturn(Lists.newArrayList(firstOrder, secondOrder));
+
+        // when
+        Map<Long, Map<OperationProductColumn, ColumnAlignment>> columns = workPlanColumnService
+                .getOperationProductInputColumns(workPlan);
+
+        // then
+        verify(parameterService).getParameter();
+
+        assertEquals(3, columns.size());
+
+        for (Long operationComponentId : Lists.newArrayList(1L, 2L, 3L)) {
+            Map<OperationProductColumn, ColumnAlignment> operationComponentColumns = columns.get(operationComponentId);
+
+            assertEquals(Lists.newArrayList(quantityColumn, productColumn),
+                    Lists.newArrayList(operationComponentColumns.keySet()));
+            assertEquals(ColumnAlignment.RIGHT, operationComponentColumns.get(quantityColumn));
+            assertEquals(ColumnAlignment.LEFT, operationComponentColumns.get(productColumn));
+        }
+    }
+
+    @Test
+    public final void shouldNotShareColumnsMapsOfOperationComponents() {
+        // given
+        Entity order = mockOrder(mockEntity(1L), mockEntity(2L));
+
+        given(workPlan.getManyToManyField(WorkPlanFields.ORDERS)).willReturn(Collections.singletonList(order));
+
+        // when
+        Map<Long, Map<OperationProductColumn, ColumnAlignment>> columns = workPlanColumnService
+                .getOperationProductInputColumns(workPlan);
+
+        columns.get(1L).remove(productColumn);
+
+        // then
+        assertEquals(2, columns.get(2L).size());
+    }
+
+    private Entity mockOrder(final Entity... operationComponents) {
+        Entity order = mockEntity();
+        Entity technology = mockEntity();
+        EntityTree operationComponentsTree = mock(EntityTree.class);
+        List<Entity> sortedOperationComponents = Lists.newArrayList(operationComponents);
+
+        stubBelongsToField(order, OrderFields.TECHNOLOGY, technology);
+        given(technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS)).willReturn(operationComponentsTree);
+        given(entityTreeUtilsService.getSortedEntities(operationComponentsTree)).willReturn(sortedOperationComponents);
+
+        return order;
+    }
+
+}